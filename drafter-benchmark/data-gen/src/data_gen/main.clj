@@ -3,7 +3,9 @@
   (:require [clojure.java.io :as io]
             [clojure.tools.cli :as cli]
             [clojure.java.shell :as sh]
+            [clojure.string :as string]
             [data-gen.core :as core]
+            [data-gen.stream :as stream]
             [grafter-2.rdf.protocols :as pr]
             [grafter-2.rdf4j.io :as gio]
             [clojure.test.check.generators :as gen]))
@@ -44,6 +46,50 @@
     :validate [vector? "Invalid referential specifier - should be number 'n' or 'n%' of generated statements"]
     :default [:absolute 0]]])
 
+(defn- parse-percentage [s]
+  (let [n (Double/parseDouble (string/replace s #"%$" ""))]
+    (when (<= 0 n 100) n)))
+
+(def stream-cli-options
+  [["-g" "--graphs N" "Number of graphs to generate"
+    :parse-fn #(Integer/parseInt %)
+    :validate [pos? "Must be positive"]]
+   ["-s" "--statements N" "Total number of statements to generate"
+    :parse-fn #(Long/parseLong %)
+    :validate [pos? "Must be positive"]]
+   ["-o" "--output-file FILE" "Output file to write to"
+    :parse-fn io/file]
+   ["-r" "--graph-refs PCT" "Percentage of statements whose object is another graph's URI"
+    :parse-fn parse-percentage
+    :validate [some? "Must be a percentage between 0 and 100"]
+    :default 0]
+   [nil "--subjects N" "Number of distinct subjects (default: statements / 10)"
+    :parse-fn #(Integer/parseInt %)
+    :validate [pos? "Must be positive"]]
+   [nil "--subject-skew S" "Zipf exponent for subject reuse, 0 for uniform"
+    :parse-fn #(Double/parseDouble %)
+    :validate [#(>= % 0) "Must not be negative"]
+    :default (:subject-skew stream/default-opts)]
+   [nil "--predicates N" "Size of the predicate vocabulary"
+    :parse-fn #(Integer/parseInt %)
+    :validate [pos? "Must be positive"]
+    :default (:predicates stream/default-opts)]
+   [nil "--predicate-skew S" "Zipf exponent for predicate use, 0 for uniform"
+    :parse-fn #(Double/parseDouble %)
+    :validate [#(>= % 0) "Must not be negative"]
+    :default (:predicate-skew stream/default-opts)]
+   [nil "--literal-size N" "Median length of string literals"
+    :parse-fn #(Integer/parseInt %)
+    :validate [pos? "Must be positive"]
+    :default (:literal-size stream/default-opts)]
+   [nil "--threads N" "Number of threads used to generate statements"
+    :parse-fn #(Integer/parseInt %)
+    :validate [pos? "Must be positive"]
+    :default (:threads stream/default-opts)]
+   [nil "--seed N" "Random seed"
+    :parse-fn #(Long/parseLong %)
+    :default (:seed stream/default-opts)]])
+
 (defn- dist-ref-statements
   "Distributes n graph-referencing statements between a collection of
   graphs with the given sizes. The distribution is done uniformly
@@ -99,7 +145,11 @@
   (let [n-ref (get-graph-referencing-statement-count referential statements)]
     (generate statements n-ref graphs output-file)))
 
-(defn generate-all-task [{:keys [output-dir] :as opts}]
+(defn generate-stream-task [{:keys [output-file] :as opts}]
+  (with-open [w (io/writer output-file)]
+    (stream/generate! (dissoc opts :output-file) w)))
+
+(defn generate-all-task [{:keys [output-dir streaming] :as opts}]
   (.mkdirs output-dir)
   (let [k-statements [1 10 100 1000]
         graphs [1 10 100 200]
@@ -113,10 +163,15 @@
             delete-file (io/file output-dir (str file-name ".delete"))
             n-statements (* 1000 ks)]
         (when-not (.exists data-file)
-          (generate-task {:graphs g
-                          :statements n-statements
-                          :referential [:percentage r]
-                          :output-file (io/file output-dir file-name)}))
+          (if streaming
+            (generate-stream-task {:graphs g
+                                   :statements n-statements
+                                   :graph-refs r
+                                   :output-file data-file})
+            (generate-task {:graphs g
+                            :statements n-statements
+                            :referential [:percentage r]
+                            :output-file data-file})))
 
         (when-not (.exists delete-file)
           (let [{:keys [exit err]} (sh/sh "/bin/bash" "-c" (format "head -n %d %s > %s" (long (/ n-statements 2)) (.getAbsolutePath data-file) (.getAbsolutePath delete-file)))]
@@ -131,8 +186,11 @@
                       :task-fn verify-task}
             "generate" {:options cli-options
                         :task-fn generate-task}
+            "generate-stream" {:options stream-cli-options
+                               :task-fn generate-stream-task}
             "generate-all" {:options [["-o" "--output-dir DIR" "Output directory to write files to"
-                              :parse-fn io/file]]
+                              :parse-fn io/file]
+                             [nil "--streaming" "Generate files with the streaming generator"]]
                    :task-fn generate-all-task}})
 
 (defn -main [& args]
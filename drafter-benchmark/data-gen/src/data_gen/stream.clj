@@ -0,0 +1,173 @@
+(ns data-gen.stream
+  "Streaming generator for benchmark data with a more realistic shape
+  than the test.check generators in data-gen.core.
+
+  Statements are rendered directly as N-Quads text in fixed-size
+  chunks, which are generated in parallel and written to the output in
+  order, so only a few chunks are held in memory at once. The output
+  for a given seed is the same whatever the number of threads.
+
+  The shape of the data can be tuned with the following options:
+
+    :subjects         size of the pool of subject URIs
+    :subject-skew     Zipf exponent for the choice of subject, so a few
+                      subjects have many statements. 0 is uniform.
+    :predicates       size of the fixed predicate vocabulary
+    :predicate-skew   Zipf exponent for the choice of predicate
+    :literal-size     median length of string literals, whose lengths
+                      have a log-normal distribution
+    :graph-refs       percentage of statements whose object is the URI
+                      of another graph in the dataset
+
+  Objects which are not graph references are URIs of other subjects,
+  string, language-tagged string, integer or date literals."
+  (:import [java.io Writer]
+           [java.time LocalDate]
+           [java.util Arrays SplittableRandom]
+           [java.util.concurrent Callable ExecutorService Executors Future]))
+
+(def default-opts
+  {:graphs 1
+   :subject-skew 1.0
+   :predicates 20
+   :predicate-skew 1.0
+   :literal-size 24
+   :graph-refs 0
+   :seed 0
+   :chunk-size 50000
+   :threads (.availableProcessors (Runtime/getRuntime))})
+
+(def ^:private graph-prefix "http://example.com/graphs/")
+(def ^:private subject-prefix "http://example.com/subject/")
+(def ^:private predicate-prefix "http://example.com/def/")
+
+(def ^:private vocabulary
+  "Common predicates used before the generated ones in the vocabulary"
+  ["http://www.w3.org/1999/02/22-rdf-syntax-ns#type"
+   "http://www.w3.org/2000/01/rdf-schema#label"
+   "http://purl.org/dc/terms/title"
+   "http://purl.org/dc/terms/modified"
+   "http://www.w3.org/2000/01/rdf-schema#comment"])
+
+(def ^:private literal-chars "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789     ")
+
+(def ^:private languages ["en" "es" "fr" "de"])
+
+(defn zipf-sampler
+  "Returns a function of a SplittableRandom which returns an index in
+  [0, n) drawn from a Zipf distribution with exponent s, where index 0
+  is the most likely. An exponent of 0 gives a uniform distribution."
+  [n s]
+  (if (zero? s)
+    (fn [^SplittableRandom r] (.nextInt r (int n)))
+    (let [cdf (double-array n)]
+      (loop [i 0
+             total 0.0]
+        (when (< i n)
+          (let [total (+ total (/ 1.0 (Math/pow (inc i) s)))]
+            (aset cdf i total)
+            (recur (inc i) total))))
+      (let [total (aget cdf (dec n))]
+        (fn [^SplittableRandom r]
+          (let [idx (Arrays/binarySearch cdf (* total (.nextDouble r)))]
+            (min (dec n) (if (neg? idx) (- (inc idx)) idx))))))))
+
+(defn- gaussian
+  "Returns a standard normal value using the Box-Muller transform"
+  [^SplittableRandom r]
+  (* (Math/sqrt (* -2.0 (Math/log (- 1.0 (.nextDouble r)))))
+     (Math/cos (* 2.0 Math/PI (.nextDouble r)))))
+
+(defn- append-iri [^StringBuilder sb ^String prefix ^long suffix]
+  (-> sb (.append \<) (.append prefix) (.append suffix) (.append \>)))
+
+(defn- append-predicate [^StringBuilder sb idx]
+  (if (< idx (count vocabulary))
+    (-> sb (.append \<) (.append ^String (nth vocabulary idx)) (.append \>))
+    (append-iri sb predicate-prefix idx)))
+
+(defn- append-string-literal [^StringBuilder sb ^SplittableRandom r median]
+  (let [n (max 1 (long (* median (Math/exp (gaussian r)))))
+        nchars (.length ^String literal-chars)]
+    (.append sb \")
+    (dotimes [_ n]
+      (.append sb (.charAt ^String literal-chars (.nextInt r nchars))))
+    (.append sb \")))
+
+(defn- append-object [^StringBuilder sb ^SplittableRandom r {:keys [subject-sampler literal-size]}]
+  (let [kind (.nextInt r 10)]
+    (cond
+      (< kind 3) (append-iri sb subject-prefix (subject-sampler r))
+      (< kind 7) (append-string-literal sb r literal-size)
+      (< kind 8) (do (append-string-literal sb r literal-size)
+                     (-> sb (.append \@) (.append ^String (nth languages (.nextInt r (count languages))))))
+      (< kind 9) (-> sb
+                     (.append \")
+                     (.append (.nextInt r 1000000))
+                     (.append "\"^^<http://www.w3.org/2001/XMLSchema#integer>"))
+      :else (-> sb
+                (.append \")
+                (.append (str (LocalDate/ofEpochDay (+ 18000 (.nextInt r 3650)))))
+                (.append "\"^^<http://www.w3.org/2001/XMLSchema#date>")))))
+
+(defn- other-graph
+  "Chooses a graph index other than g, or g if it is the only graph"
+  [^SplittableRandom r graphs g]
+  (if (= 1 graphs)
+    g
+    (let [other (.nextInt r (int (dec graphs)))]
+      (if (>= other g) (inc other) other))))
+
+(defn- generate-chunk
+  "Renders n statements as N-Quads using the random source r"
+  [{:keys [graphs graph-refs subject-sampler predicate-sampler] :as ctx} ^SplittableRandom r n]
+  (let [sb (StringBuilder. (int (* n 160)))
+        ref-rate (/ graph-refs 100.0)]
+    (dotimes [_ n]
+      (let [g (.nextInt r (int graphs))]
+        (append-iri sb subject-prefix (subject-sampler r))
+        (.append sb \space)
+        (append-predicate sb (predicate-sampler r))
+        (.append sb \space)
+        (if (< (.nextDouble r) ref-rate)
+          (append-iri sb graph-prefix (inc (other-graph r graphs g)))
+          (append-object sb r ctx))
+        (.append sb \space)
+        (append-iri sb graph-prefix (inc g))
+        (.append sb " .\n")))
+    (str sb)))
+
+(defn- context [{:keys [statements subjects subject-skew predicates predicate-skew] :as opts}]
+  (let [subjects (or subjects (max 1 (quot statements 10)))]
+    (assoc opts
+           :subject-sampler (zipf-sampler subjects subject-skew)
+           :predicate-sampler (zipf-sampler predicates predicate-skew))))
+
+(defn generate!
+  "Generates the given number of :statements as N-Quads and writes them
+  to w. Graphs are numbered from 1 with the same URIs as
+  data-gen.core/generate-graphs. See the namespace docs for the other
+  options, which default to default-opts."
+  [opts ^Writer w]
+  (let [{:keys [statements chunk-size threads seed] :as opts} (merge default-opts opts)
+        ctx (context opts)
+        ^ExecutorService pool (Executors/newFixedThreadPool (int threads))
+        root (SplittableRandom. (long seed))
+        max-pending (* 2 threads)]
+    (try
+      (loop [pending clojure.lang.PersistentQueue/EMPTY
+             remaining statements]
+        (cond
+          (and (pos? remaining) (< (count pending) max-pending))
+          (let [n (min chunk-size remaining)
+                r (.split root)
+                chunk (.submit pool ^Callable (fn [] (generate-chunk ctx r n)))]
+            (recur (conj pending chunk) (- remaining n)))
+
+          (seq pending)
+          (do
+            (.write w ^String (.get ^Future (peek pending)))
+            (recur (pop pending) remaining))))
+      (.flush w)
+      (finally
+        (.shutdownNow pool)))))
@@ -0,0 +1,231 @@
+(ns perf-charts.compare
+  "Compares JMH result sets to find performance regressions.
+
+  Result sets are read from JMH JSON result files (written with -rf
+  json). The first result set is the baseline and every other set is
+  compared against it. For each benchmark present in both, the
+  relative change in score is calculated along with a confidence
+  interval for it, using Welch's t-test on the per-iteration scores of
+  each run.
+
+  A change is a regression if it makes the benchmark worse by more than
+  the threshold percentage and its confidence interval excludes zero.
+  Higher scores are better for throughput benchmarks and lower scores
+  are better for all other modes."
+  (:require [clojure.data.json :as json]
+            [clojure.java.io :as io]
+            [clojure.string :as string]
+            [incanter.stats :as stats]))
+
+(defn- result-version
+  "Returns the version for a result file. The filename is expected to
+  have the format jmh-result-{version}.json, otherwise the name of the
+  file without its extension is used."
+  [file]
+  (let [file-name (.getName (io/file file))]
+    (if-let [[_ version] (re-find #"^jmh-result-(\w+)\.json$" file-name)]
+      version
+      (string/replace file-name #"\.[^.]*$" ""))))
+
+(defn- histogram-iteration-means
+  "Returns the mean of each iteration from a JMH raw data histogram,
+  which contains a collection of [value count] pairs for each
+  iteration of each fork"
+  [raw-data-histogram]
+  (for [fork raw-data-histogram
+        iteration fork
+        :let [n (reduce + (map second iteration))]
+        :when (pos? n)]
+    (/ (reduce + (map (fn [[v c]] (* v c)) iteration)) n)))
+
+(defn- iteration-scores
+  "Returns the score of each measurement iteration of each fork for a
+  JMH result metric"
+  [{:keys [rawData rawDataHistogram]}]
+  (vec (if (seq rawData)
+         (apply concat rawData)
+         (histogram-iteration-means rawDataHistogram))))
+
+(defn- read-result [{:keys [benchmark mode params primaryMetric]}]
+  {:benchmark benchmark
+   :mode mode
+   :params (into (sorted-map) (map (fn [[k v]] [(name k) v]) params))
+   :unit (:scoreUnit primaryMetric)
+   :score (:score primaryMetric)
+   :score-error (:scoreError primaryMetric)
+   :samples (iteration-scores primaryMetric)})
+
+(defn read-result-file
+  "Reads a set of benchmark results from a JMH JSON result file"
+  [file]
+  (with-open [r (io/reader file)]
+    {:file (str file)
+     :version (result-version file)
+     :results (mapv read-result (json/read r :key-fn keyword))}))
+
+(defn- result-key [{:keys [benchmark mode params]}]
+  [benchmark mode params])
+
+(defn- mean [xs]
+  (/ (reduce + xs) (count xs)))
+
+(defn- variance [xs]
+  (let [m (mean xs)]
+    (/ (reduce + (map #(let [d (- % m)] (* d d)) xs))
+       (dec (count xs)))))
+
+(defn- difference-interval
+  "Returns the half-width of the confidence interval for the difference
+  between the mean scores of two results, or nil if either has fewer
+  than two samples. The interval is calculated with Welch's t-test,
+  which does not assume the results have equal variances."
+  [{samples-a :samples} {samples-b :samples} confidence]
+  (when (and (> (count samples-a) 1) (> (count samples-b) 1))
+    (let [na (count samples-a)
+          nb (count samples-b)
+          va (/ (variance samples-a) na)
+          vb (/ (variance samples-b) nb)
+          se (Math/sqrt (+ va vb))]
+      (if (zero? se)
+        0.0
+        (let [df (/ (* (+ va vb) (+ va vb))
+                    (+ (/ (* va va) (dec na))
+                       (/ (* vb vb) (dec nb))))
+              t (stats/quantile-t (- 1 (/ (- 1 confidence) 2)) :df df)]
+          (* t se))))))
+
+(defn- higher-is-better? [{:keys [mode]}]
+  (= "thrpt" mode))
+
+(defn compare-result
+  "Compares a candidate benchmark result against a baseline. Returns a
+  map describing the relative change in score as a percentage of the
+  baseline score, the confidence interval for the change and a status
+  of :regression, :improvement or :unchanged. If the confidence
+  interval cannot be calculated the status is decided by the
+  threshold alone."
+  [baseline candidate {:keys [threshold confidence]}]
+  (let [base-score (:score baseline)
+        to-pct #(* 100.0 (/ % base-score))
+        change (to-pct (- (:score candidate) base-score))
+        interval (difference-interval baseline candidate confidence)
+        ci (when interval
+             [(- change (to-pct interval)) (+ change (to-pct interval))])
+        significant? (or (nil? ci)
+                         (pos? (first ci))
+                         (neg? (second ci)))
+        worse? (if (higher-is-better? baseline) (neg? change) (pos? change))]
+    {:benchmark (:benchmark baseline)
+     :mode (:mode baseline)
+     :params (:params baseline)
+     :unit (:unit baseline)
+     :baseline (select-keys baseline [:score :score-error])
+     :candidate (select-keys candidate [:score :score-error])
+     :change-pct change
+     :ci-pct ci
+     :status (cond
+               (or (not significant?) (<= (Math/abs (double change)) threshold)) :unchanged
+               worse? :regression
+               :else :improvement)}))
+
+(defn- compare-result-sets [{baseline-results :results} {:keys [version results]} opts]
+  (let [candidates (into {} (map (juxt result-key identity) results))
+        baseline-keys (set (map result-key baseline-results))]
+    {:version version
+     :results (vec (concat
+                    (for [baseline baseline-results]
+                      (if-let [candidate (get candidates (result-key baseline))]
+                        (compare-result baseline candidate opts)
+                        (-> (select-keys baseline [:benchmark :mode :params :unit])
+                            (assoc :status :missing))))
+                    (for [candidate results
+                          :when (not (contains? baseline-keys (result-key candidate)))]
+                      (-> (select-keys candidate [:benchmark :mode :params :unit])
+                          (assoc :status :new)))))}))
+
+(defn regressions
+  "Returns all of the regressed results in a report"
+  [report]
+  (for [{:keys [version results]} (:comparisons report)
+        result results
+        :when (= :regression (:status result))]
+    (assoc result :version version)))
+
+(defn compare-result-files
+  "Reads a collection of JMH JSON result files and compares each of
+  the result sets against the first. opts should contain the
+  :threshold percentage change above which a significant change is
+  reported, and the :confidence level for the confidence intervals,
+  e.g. 0.95."
+  [files opts]
+  (let [[baseline & candidates] (mapv read-result-file files)
+        report {:baseline (:version baseline)
+                :threshold (:threshold opts)
+                :confidence (:confidence opts)
+                :comparisons (mapv #(compare-result-sets baseline % opts) candidates)}]
+    (assoc report :regressed? (boolean (seq (regressions report))))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Output
+
+(defn- escape-html [s]
+  (string/escape (str s) {\< "&lt;" \> "&gt;" \& "&amp;" \" "&quot;"}))
+
+(defn- format-params [params]
+  (string/join ", " (map (fn [[k v]] (str k "=" v)) params)))
+
+(defn- format-number [x]
+  (if (number? x) (format "%.3f" (double x)) ""))
+
+(defn- format-ci [[lo hi]]
+  (if lo (format "[%+.2f%%, %+.2f%%]" (double lo) (double hi)) ""))
+
+(def ^:private status-colours
+  {:regression "#f8d7da"
+   :improvement "#d4edda"
+   :unchanged "#ffffff"
+   :missing "#fff3cd"
+   :new "#e2e3e5"})
+
+(defn- html-row [{:keys [benchmark mode params unit baseline candidate change-pct ci-pct status]}]
+  (str "<tr style=\"background-color: " (status-colours status) "\">"
+       (string/join (map #(str "<td>" (escape-html %) "</td>")
+                         [benchmark
+                          mode
+                          (format-params params)
+                          unit
+                          (format-number (:score baseline))
+                          (format-number (:score candidate))
+                          (if change-pct (format "%+.2f%%" (double change-pct)) "")
+                          (format-ci ci-pct)
+                          (name status)]))
+       "</tr>\n"))
+
+(defn html-summary
+  "Renders a comparison report as an HTML page"
+  [{:keys [baseline threshold confidence comparisons regressed?]}]
+  (str "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Benchmark comparison</title>\n"
+       "<style>body { font-family: sans-serif; } table { border-collapse: collapse; } "
+       "td, th { border: 1px solid #ccc; padding: 4px 8px; text-align: left; }</style>\n"
+       "</head>\n<body>\n"
+       "<h1>Benchmark comparison against " (escape-html baseline) "</h1>\n"
+       "<p>" (if regressed? "<strong>Regressions found.</strong> " "No regressions found. ")
+       (format "Changes of more than %s%% are reported where the %s%% confidence interval excludes zero."
+               threshold (* 100 confidence))
+       "</p>\n"
+       (string/join
+        (for [{:keys [version results]} comparisons]
+          (str "<h2>" (escape-html version) "</h2>\n<table>\n"
+               "<tr><th>Benchmark</th><th>Mode</th><th>Params</th><th>Unit</th><th>" (escape-html baseline)
+               "</th><th>" (escape-html version) "</th><th>Change</th><th>Confidence interval</th><th>Status</th></tr>\n"
+               (string/join (map html-row (sort-by (juxt :benchmark :mode (comp str :params)) results)))
+               "</table>\n")))
+       "</body>\n</html>\n"))
+
+(defn write-report
+  "Writes a comparison report to output-dir as comparison.json and
+  comparison.html"
+  [output-dir report]
+  (with-open [w (io/writer (io/file output-dir "comparison.json"))]
+    (json/write report w :value-fn (fn [_k v] (if (keyword? v) (name v) v))))
+  (spit (io/file output-dir "comparison.html") (html-summary report)))
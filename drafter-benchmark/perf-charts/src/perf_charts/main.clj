@@ -1,20 +1,47 @@
 (ns perf-charts.main
   (:require [perf-charts.core :as core]
+            [perf-charts.compare :as compare]
             [clojure.java.io :as io]
             [clojure.tools.cli :as cli]))
 
 (def cli-options
   [["-d" "--directory DIR" "Output directory"
-    :parse-fn io/file]])
+    :parse-fn io/file]
+   ["-c" "--compare" "Compare JSON result files against the first instead of generating charts"]
+   ["-t" "--threshold PCT" "Percentage change in score reported as a regression"
+    :default 5.0
+    :parse-fn #(Double/parseDouble %)]
+   [nil "--confidence LEVEL" "Confidence level for the confidence intervals of score changes"
+    :default 0.95
+    :parse-fn #(Double/parseDouble %)
+    :validate [#(< 0 % 1) "Must be between 0 and 1"]]])
+
+(defn- usage-error [msg]
+  (binding [*out* *err*]
+    (println msg)
+    (println "Usage: perf-charts -d DIRECTORY file...")
+    (println "       perf-charts -d DIRECTORY --compare [--threshold PCT] [--confidence LEVEL] baseline.json file.json...")
+    (System/exit 1)))
+
+(defn- compare-results [output-dir benchmark-files options]
+  (when (< (count benchmark-files) 2)
+    (usage-error "At least two result files are required for a comparison"))
+  (let [report (compare/compare-result-files benchmark-files options)]
+    (compare/write-report output-dir report)
+    (doseq [{:keys [version benchmark mode params change-pct]} (compare/regressions report)]
+      (println (format "REGRESSION %s: %s (%s) %s %+.2f%%" version benchmark mode params (double change-pct))))
+    (when (:regressed? report)
+      (System/exit 2))))
 
 (defn -main [& args]
-  (let [{:keys [options arguments]} (cli/parse-opts args cli-options)
-        benchmark-files (map io/file arguments)
-        output-dir (:directory options)]
+  (let [{:keys [options arguments errors]} (cli/parse-opts args cli-options)
+        benchmark-files (map io/file arguments)]
+    (when errors
+      (usage-error (first errors)))
     (if-let [output-dir (:directory options)]
       (do
         (.mkdirs output-dir)
-        (core/generate-charts output-dir benchmark-files))
-      (binding [*out* *err*]
-        (println "Usage: perf-charts -d DIRECTORY file...")
-        (System/exit 1)))))
+        (if (:compare options)
+          (compare-results output-dir benchmark-files options)
+          (core/generate-charts output-dir benchmark-files)))
+      (usage-error "An output directory is required"))))
@@ -0,0 +1,169 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.AFn;
+import clojure.lang.IFn;
+import clojure.lang.Var;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.impl.SimpleDataset;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for generating stasher cache keys for a query against a dataset of {@code graphCount} graphs, as
+ * built by the live and draftset endpoints. These do not require a database: the query for the modified times of the
+ * graphs is replaced with a stub returning fixed times, so only the work done by drafter itself is measured. The
+ * benchmarks measure:
+ *
+ * <ul>
+ *     <li>datasetDigest - calculating the digest of the dataset graphs, as on the first query for each state graph
+ *     version</li>
+ *     <li>cachedDatasetDigest - looking up the digest of a new dataset containing the same graphs, as on the following
+ *     queries for the same state graph version</li>
+ *     <li>hashKey - hashing a cache key containing the dataset digest to find its location in the cache</li>
+ *     <li>hashKeyFromGraphs - hashing a cache key containing the dataset graphs rather than their digest</li>
+ *     <li>generateCacheKey - generating and hashing the cache key for a query against a new dataset, with the
+ *     dataset digest cached and the modified times stubbed</li>
+ * </ul>
+ */
+@Warmup(iterations = 3, time = 5)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheKeyBenchmark {
+    private static final String QUERY = "SELECT * WHERE { ?s ?p ?o }";
+
+    @State(Scope.Thread)
+    public static class CacheKeyState {
+        @Param({"10", "100", "1000", "10000"})
+        private int graphCount;
+
+        private Set<IRI> graphs;
+        private Object graphsMap;
+        private Object digestKey;
+        private Object graphsKey;
+        private Object digests;
+        private Object cache;
+        private Object version;
+        private Var fetchLastModified;
+        private Object fetchLastModifiedRoot;
+        private IFn datasetDigest;
+        private IFn cachedDatasetDigest;
+        private IFn hashKey;
+        private IFn generateCacheKey;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            SimpleValueFactory vf = SimpleValueFactory.getInstance();
+            this.graphs = new HashSet<>();
+            for (int i = 0; i < this.graphCount; i++) {
+                this.graphs.add(vf.createIRI("http://example.com/graphs/" + i));
+            }
+
+            Util.require("drafter.stasher");
+            Util.require("drafter.stasher.cache-key");
+            Util.require("drafter.stasher.filecache");
+            IFn hashMap = Clojure.var("clojure.core", "hash-map");
+
+            this.datasetDigest = Clojure.var("drafter.stasher.cache-key", "dataset-digest");
+            this.cachedDatasetDigest = Clojure.var("drafter.stasher", "cached-dataset-digest");
+            this.hashKey = Clojure.var("drafter.stasher.filecache", "cache-key->hash-key");
+            this.generateCacheKey = Clojure.var("drafter.stasher", "generate-drafter-cache-key");
+
+            this.graphsMap = hashMap.invoke(Util.keyword("default-graphs"), this.graphs,
+                                            Util.keyword("named-graphs"), this.graphs);
+            this.version = hashMap.invoke(Util.keyword("time"), OffsetDateTime.now(),
+                                          Util.keyword("version"), Clojure.var("drafter.util", "version").invoke());
+            this.digests = Clojure.var("drafter.stasher", "dataset-digest-cache").invoke();
+            this.cache = hashMap.invoke(Util.keyword("dataset-digests"), this.digests);
+
+            // the endpoint datasets do not include the state graph, so their keys contain the modified times of the
+            // graphs fetched from the store. Replace the fetch with a stub returning fixed times.
+            Object lastModified = hashMap.invoke(Util.keyword("livemod"), OffsetDateTime.now(),
+                                                 Util.keyword("version"), Clojure.var("drafter.util", "version").invoke());
+            this.fetchLastModified = (Var)Clojure.var("drafter.stasher", "fetch-last-modified");
+            this.fetchLastModifiedRoot = this.fetchLastModified.getRawRoot();
+            this.fetchLastModified.bindRoot(new AFn() {
+                @Override
+                public Object invoke(Object conn, Object graphs) {
+                    return lastModified;
+                }
+            });
+
+            this.graphsKey = cacheKey(hashMap, this.graphsMap, lastModified);
+            this.digestKey = cacheKey(hashMap, this.datasetDigest.invoke(this.graphsMap), lastModified);
+
+            // populate the digest cache for the current version
+            this.cachedDatasetDigest.invoke(this.digests, this.version, newDataset());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.fetchLastModified.bindRoot(this.fetchLastModifiedRoot);
+        }
+
+        private static Object cacheKey(IFn hashMap, Object dataset, Object lastModified) {
+            return hashMap.invoke(Util.keyword("dataset"), dataset,
+                                  Util.keyword("query-type"), Util.keyword("tuple"),
+                                  Util.keyword("query-str"), QUERY,
+                                  Util.keyword("last-modified"), lastModified);
+        }
+
+        /**
+         * Creates a new dataset of the benchmark graphs, as the draftset and live endpoints do for each query
+         */
+        public SimpleDataset newDataset() {
+            SimpleDataset dataset = new SimpleDataset();
+            for (IRI graph : this.graphs) {
+                dataset.addDefaultGraph(graph);
+                dataset.addNamedGraph(graph);
+            }
+            return dataset;
+        }
+    }
+
+    /**
+     * A new dataset of the benchmark graphs for each invocation
+     */
+    @State(Scope.Thread)
+    public static class DatasetState {
+        private SimpleDataset dataset;
+
+        @Setup(Level.Invocation)
+        public void setup(CacheKeyState state) {
+            this.dataset = state.newDataset();
+        }
+    }
+
+    @Benchmark
+    public Object datasetDigest(CacheKeyState state) {
+        return state.datasetDigest.invoke(state.graphsMap);
+    }
+
+    @Benchmark
+    public Object cachedDatasetDigest(CacheKeyState state, DatasetState ds) {
+        return state.cachedDatasetDigest.invoke(state.digests, state.version, ds.dataset);
+    }
+
+    @Benchmark
+    public Object hashKey(CacheKeyState state) {
+        return state.hashKey.invoke(state.digestKey);
+    }
+
+    @Benchmark
+    public Object hashKeyFromGraphs(CacheKeyState state) {
+        return state.hashKey.invoke(state.graphsKey);
+    }
+
+    @Benchmark
+    public Object generateCacheKey(CacheKeyState state, DatasetState ds) {
+        Object cacheKey = state.generateCacheKey.invoke(state.version, Util.keyword("tuple"), state.cache, QUERY, ds.dataset, null);
+        return state.hashKey.invoke(cacheKey);
+    }
+}
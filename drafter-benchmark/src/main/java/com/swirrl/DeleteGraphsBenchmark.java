@@ -0,0 +1,143 @@
+package com.swirrl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for deleting every graph within a draftset, either with the bulk 'delete graphs' operation or by
+ * deleting each graph individually as in {@link DeleteGraphBenchmark}. Each benchmark takes an instance of its own
+ * state class which creates a new draftset and appends all data from the corresponding data file.
+ */
+@Warmup(iterations = 0)
+@Fork(value = 2, warmups = 0)
+@Measurement(iterations = 2)
+@Timeout(time = 2, timeUnit = TimeUnit.HOURS)
+public class DeleteGraphsBenchmark {
+    @State(Scope.Thread)
+    public static class DeleteGraphsState {
+        private final File dataFile;
+        private final Drafter drafter;
+        private Draftset draftset;
+        private List<URI> graphsToDelete;
+
+        protected DeleteGraphsState(String dataFileName) {
+            this.dataFile = Util.resolveDataFile(dataFileName);
+            this.drafter = Drafter.create();
+        }
+
+        @Setup(Level.Iteration)
+        public void setupIteration() {
+            Util.createTestDb();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDownIteration() {
+            Util.dropTestDb();
+        }
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            this.draftset = this.drafter.createDraft(User.publisher());
+            this.drafter.append(this.draftset, this.dataFile);
+
+            int numGraphs = Util.getNumGraphs(this.dataFile);
+            this.graphsToDelete = getGraphsToDelete(numGraphs);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            this.drafter.dropDb();
+        }
+
+        private static List<URI> getGraphsToDelete(int numGraphs) {
+            // WARNING: This relies on the way graphs are generated by the data file generator!
+            // see data-gen.core/generate-graphs
+            List<URI> graphs = new ArrayList<>(numGraphs);
+            for (int n = 1; n <= numGraphs; n++) {
+                graphs.add(Util.uri("http://example.com/graphs/" + n));
+            }
+            return graphs;
+        }
+
+        public Drafter getDrafter() { return this.drafter; }
+        public Draftset getDraftset() { return this.draftset; }
+        public List<URI> graphsToDelete() { return this.graphsToDelete; }
+    }
+
+    public static class DeleteGraphsState_10k_10g_0pc extends DeleteGraphsState {
+        public DeleteGraphsState_10k_10g_0pc() { super("data_10k_10g_0pc.nq"); }
+    }
+
+    public static class DeleteGraphsState_10k_100g_0pc extends DeleteGraphsState {
+        public DeleteGraphsState_10k_100g_0pc() { super("data_10k_100g_0pc.nq"); }
+    }
+
+    public static class DeleteGraphsState_10k_200g_0pc extends DeleteGraphsState {
+        public DeleteGraphsState_10k_200g_0pc() { super("data_10k_200g_0pc.nq"); }
+    }
+
+    public static class DeleteGraphsState_100k_100g_0pc extends DeleteGraphsState {
+        public DeleteGraphsState_100k_100g_0pc() { super("data_100k_100g_0pc.nq"); }
+    }
+
+    public static class DeleteGraphsState_100k_200g_0pc extends DeleteGraphsState {
+        public DeleteGraphsState_100k_200g_0pc() { super("data_100k_200g_0pc.nq"); }
+    }
+
+    private static void deleteGraphsTest(DeleteGraphsState state) {
+        state.getDrafter().deleteGraphs(state.getDraftset(), state.graphsToDelete());
+    }
+
+    private static void deleteEachGraphTest(DeleteGraphsState state) {
+        for (URI graph : state.graphsToDelete()) {
+            state.getDrafter().deleteGraph(state.getDraftset(), graph);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteGraphsTest_10k_10g_0pc(DeleteGraphsState_10k_10g_0pc state) { deleteGraphsTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteGraphsTest_10k_100g_0pc(DeleteGraphsState_10k_100g_0pc state) { deleteGraphsTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteGraphsTest_10k_200g_0pc(DeleteGraphsState_10k_200g_0pc state) { deleteGraphsTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteGraphsTest_100k_100g_0pc(DeleteGraphsState_100k_100g_0pc state) { deleteGraphsTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteGraphsTest_100k_200g_0pc(DeleteGraphsState_100k_200g_0pc state) { deleteGraphsTest(state); }
+
+    // baseline: one delete-graph operation per graph
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteEachGraphTest_10k_10g_0pc(DeleteGraphsState_10k_10g_0pc state) { deleteEachGraphTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteEachGraphTest_10k_100g_0pc(DeleteGraphsState_10k_100g_0pc state) { deleteEachGraphTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteEachGraphTest_10k_200g_0pc(DeleteGraphsState_10k_200g_0pc state) { deleteEachGraphTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteEachGraphTest_100k_100g_0pc(DeleteGraphsState_100k_100g_0pc state) { deleteEachGraphTest(state); }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public void deleteEachGraphTest_100k_200g_0pc(DeleteGraphsState_100k_200g_0pc state) { deleteEachGraphTest(state); }
+}
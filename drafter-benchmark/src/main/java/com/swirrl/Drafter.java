@@ -8,6 +8,7 @@ import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Collection;
 
 /**
  * Wrapper class around internal drafter operations.
@@ -101,6 +102,16 @@ public class Drafter {
         Clojure.var("drafter.backend.draftset.graphs", "delete-user-graph").invoke(this.getGraphManager(), draftset.obj(), graphToDelete);
     }
 
+    /**
+     * Deletes a collection of graphs from a draftset in a single operation
+     * @param draftset The draftset to delete from
+     * @param graphsToDelete URIs of the draftset graphs to delete
+     */
+    public void deleteGraphs(Draftset draftset, Collection<URI> graphsToDelete) {
+        Util.require("drafter.backend.draftset.graphs");
+        Clojure.var("drafter.backend.draftset.graphs", "delete-user-graphs").invoke(this.getGraphManager(), draftset.obj(), graphsToDelete);
+    }
+
     /**
      * Publishes the given draftset to live
      * @param draftset The draftset to publish
@@ -110,6 +121,68 @@ public class Drafter {
         Clojure.var("drafter.backend.draftset.operations.publish", "publish-draftset!").invoke(this.manager, draftset.obj());
     }
 
+    /**
+     * Returns the global writes lock used by this instance
+     * @return The internal drafter representation of the writes lock
+     */
+    public Object getGlobalWritesLock() {
+        return Clojure.var("clojure.core", "get").invoke(this.manager, Util.keyword("global-writes-lock"));
+    }
+
+    /**
+     * Creates a job to append the data from {@param dataFile} into a draftset. The job must be submitted to the
+     * write scheduler to run.
+     * @param user The user submitting the job
+     * @param draftset The draftset to append to
+     * @param dataFile The quads data file to append
+     * @return The created job
+     */
+    public Object createAppendJob(User user, Draftset draftset, File dataFile) {
+        Util.require("drafter.feature.draftset-data.append");
+        IFn jobFn = Clojure.var("drafter.feature.draftset-data.append", "append-data-to-draftset-job");
+        return jobFn.invoke(this.manager, user.getId(), draftset.obj(), Util.getInputSource(dataFile), null);
+    }
+
+    /**
+     * Creates a job to delete the data in {@param dataFile} from a draftset. The job must be submitted to the write
+     * scheduler to run.
+     * @param user The user submitting the job
+     * @param draftset The draftset to delete from
+     * @param dataFile File containing the data to delete
+     * @return The created job
+     */
+    public Object createDeleteJob(User user, Draftset draftset, File dataFile) {
+        Util.require("drafter.feature.draftset-data.delete");
+        IFn jobFn = Clojure.var("drafter.feature.draftset-data.delete", "delete-data-from-draftset-job");
+        return jobFn.invoke(this.manager, user.getId(), draftset.obj(), Util.getInputSource(dataFile), null);
+    }
+
+    /**
+     * Creates a job to publish a draftset. The job must be submitted to the write scheduler to run.
+     * @param user The user submitting the job
+     * @param draftset The draftset to publish
+     * @return The created job
+     */
+    public Object createPublishJob(User user, Draftset draftset) {
+        Util.require("drafter.rdf.draftset-management.jobs");
+        IFn jobFn = Clojure.var("drafter.rdf.draftset-management.jobs", "publish-draftset-job");
+        Object opts = Clojure.var("clojure.core", "hash-map").invoke(Util.keyword("draftset-id"), draftset.obj());
+        return jobFn.invoke(this.manager, user.getId(), opts);
+    }
+
+    /**
+     * Deletes a graph from a draftset with a synchronous job, as the delete graph route does. Synchronous jobs take
+     * the global writes lock and fail immediately if it is held.
+     * @param user The user running the job
+     * @param draftset The draftset to delete from
+     * @param graphToDelete URI of the live graph to delete
+     */
+    public void deleteGraphSync(User user, Draftset draftset, URI graphToDelete) {
+        Util.require("drafter.feature.draftset-data.delete-by-graph");
+        IFn deleteFn = Clojure.var("drafter.feature.draftset-data.delete-by-graph", "delete-graph");
+        deleteFn.invoke(this.manager, user.getId(), draftset.obj(), graphToDelete, true);
+    }
+
     private static Long MAX_UPDATE_SIZE = (long)5000;
 
     /**
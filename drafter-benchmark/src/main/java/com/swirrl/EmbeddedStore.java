@@ -0,0 +1,376 @@
+package com.swirrl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.eclipse.rdf4j.common.lang.FileFormat;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.query.BooleanQuery;
+import org.eclipse.rdf4j.query.GraphQuery;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.Query;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.query.impl.SimpleDataset;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFWriterRegistry;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An embedded RDF4j store served over a minimal implementation of the SPARQL 1.1 protocol on a local port. This
+ * allows drafter to be benchmarked through its usual {@link SPARQLRepository} backend without an external database.
+ * The protocol implementation only supports what drafter uses: queries and updates sent as URL parameters,
+ * form-encoded bodies or direct bodies, datasets given by the {@code default-graph-uri} and {@code named-graph-uri}
+ * parameters, and content negotiation of the result format from the {@code Accept} header.
+ */
+public class EmbeddedStore implements AutoCloseable {
+    private static final String QUERY_PATH = "/query";
+    private static final String UPDATE_PATH = "/update";
+
+    private final Repository repo;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private EmbeddedStore(Repository repo) {
+        this.repo = repo;
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to start SPARQL server", ex);
+        }
+        this.executor = Executors.newCachedThreadPool();
+        this.server.createContext(QUERY_PATH, this::handleQuery);
+        this.server.createContext(UPDATE_PATH, this::handleUpdate);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * Creates a new store backed by an in-memory RDF4j store
+     * @return The started store
+     */
+    public static EmbeddedStore memory() {
+        SailRepository repo = new SailRepository(new MemoryStore());
+        repo.init();
+        return new EmbeddedStore(repo);
+    }
+
+    /**
+     * Creates a new store backed by an RDF4j native store in the given directory
+     * @param dataDir Directory to store the data in
+     * @return The started store
+     */
+    public static EmbeddedStore nativeStore(File dataDir) {
+        SailRepository repo = new SailRepository(new NativeStore(dataDir));
+        repo.init();
+        return new EmbeddedStore(repo);
+    }
+
+    /**
+     * Creates a new store of the given type
+     * @param storeType The type of store to create - either "memory" or "native"
+     * @param dataDir Directory to store the data in if a native store is created
+     * @return The started store
+     */
+    public static EmbeddedStore create(String storeType, File dataDir) {
+        switch (storeType) {
+            case "memory": return memory();
+            case "native": return nativeStore(dataDir);
+            default: throw new IllegalArgumentException("Unknown store type: " + storeType);
+        }
+    }
+
+    private String endpoint(String path) {
+        InetSocketAddress address = this.server.getAddress();
+        return String.format("http://%1$s:%2$d%3$s", address.getHostString(), address.getPort(), path);
+    }
+
+    /**
+     * @return The URI of the SPARQL query endpoint
+     */
+    public String getQueryEndpoint() { return endpoint(QUERY_PATH); }
+
+    /**
+     * @return The URI of the SPARQL update endpoint
+     */
+    public String getUpdateEndpoint() { return endpoint(UPDATE_PATH); }
+
+    /**
+     * Returns a {@link SPARQLRepository} which queries and updates this store over HTTP
+     * @return A SPARQL repository for this store
+     */
+    public SPARQLRepository getRepository() {
+        return new SPARQLRepository(getQueryEndpoint(), getUpdateEndpoint());
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.repo.shutDown();
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void addParams(Map<String, List<String>> params, String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+
+        for (String pair : encoded.split("&")) {
+            int idx = pair.indexOf('=');
+            String name = decode(idx < 0 ? pair : pair.substring(0, idx));
+            String value = idx < 0 ? "" : decode(pair.substring(idx + 1));
+            params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+        }
+    }
+
+    private static String readBody(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            bos.write(buf, 0, read);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String mediaType(String contentType) {
+        if (contentType == null) {
+            return "";
+        }
+        int idx = contentType.indexOf(';');
+        return (idx < 0 ? contentType : contentType.substring(0, idx)).trim().toLowerCase();
+    }
+
+    /**
+     * Reads the parameters of a request from its URL and body. A body sent directly with the given content type is
+     * added as the value of the given parameter.
+     */
+    private static Map<String, List<String>> readParams(HttpExchange exchange, String directType, String directParam) throws IOException {
+        Map<String, List<String>> params = new HashMap<>();
+        addParams(params, exchange.getRequestURI().getRawQuery());
+
+        if ("POST".equals(exchange.getRequestMethod())) {
+            String contentType = mediaType(exchange.getRequestHeaders().getFirst("Content-Type"));
+            String body = readBody(exchange.getRequestBody());
+            if (directType.equals(contentType)) {
+                params.computeIfAbsent(directParam, k -> new ArrayList<>()).add(body);
+            } else {
+                addParams(params, body);
+            }
+        }
+
+        return params;
+    }
+
+    private static String getParam(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private SimpleDataset getDataset(Map<String, List<String>> params, String defaultParam, String namedParam) {
+        List<String> defaultGraphs = params.getOrDefault(defaultParam, Collections.emptyList());
+        List<String> namedGraphs = params.getOrDefault(namedParam, Collections.emptyList());
+        if (defaultGraphs.isEmpty() && namedGraphs.isEmpty()) {
+            return null;
+        }
+
+        ValueFactory vf = this.repo.getValueFactory();
+        SimpleDataset dataset = new SimpleDataset();
+        for (String g : defaultGraphs) {
+            dataset.addDefaultGraph(vf.createIRI(g));
+        }
+        for (String g : namedGraphs) {
+            dataset.addNamedGraph(vf.createIRI(g));
+        }
+        return dataset;
+    }
+
+    /**
+     * Returns the media types in an Accept header in descending order of preference
+     */
+    private static List<String> acceptedTypes(String accept) {
+        List<String> types = new ArrayList<>();
+        List<Double> qs = new ArrayList<>();
+        if (accept == null) {
+            return types;
+        }
+
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException ex) {
+                        q = 0.0;
+                    }
+                }
+            }
+
+            int idx = 0;
+            while (idx < qs.size() && qs.get(idx) >= q) {
+                idx++;
+            }
+            types.add(idx, parts[0].trim().toLowerCase());
+            qs.add(idx, q);
+        }
+        return types;
+    }
+
+    private static <F extends FileFormat> F negotiate(String accept, Iterable<F> formats, F defaultFormat) {
+        for (String type : acceptedTypes(accept)) {
+            Optional<F> format = FileFormat.matchMIMEType(type, formats);
+            if (format.isPresent()) {
+                return format.get();
+            }
+        }
+        return defaultFormat;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, Exception ex) throws IOException {
+        byte[] message = String.valueOf(ex.getMessage()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, message.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(message);
+        }
+    }
+
+    private static void startResponse(HttpExchange exchange, FileFormat format) throws IOException {
+        String contentType = format.getDefaultMIMEType();
+        if (format.hasCharset()) {
+            contentType += "; charset=" + format.getCharset().name();
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, 0);
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, List<String>> params = readParams(exchange, "application/sparql-query", "query");
+            String queryString = getParam(params, "query");
+            if (queryString == null) {
+                sendError(exchange, 400, new IllegalArgumentException("Missing query parameter"));
+                return;
+            }
+
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            try (RepositoryConnection conn = this.repo.getConnection()) {
+                Query query;
+                try {
+                    query = conn.prepareQuery(QueryLanguage.SPARQL, queryString);
+                } catch (MalformedQueryException ex) {
+                    sendError(exchange, 400, ex);
+                    return;
+                }
+
+                SimpleDataset dataset = getDataset(params, "default-graph-uri", "named-graph-uri");
+                if (dataset != null) {
+                    query.setDataset(dataset);
+                }
+
+                if (query instanceof TupleQuery) {
+                    TupleQueryResultFormat format = negotiate(accept, TupleQueryResultWriterRegistry.getInstance().getKeys(), TupleQueryResultFormat.SPARQL);
+                    startResponse(exchange, format);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        ((TupleQuery) query).evaluate(QueryResultIO.createTupleWriter(format, os));
+                    }
+                } else if (query instanceof GraphQuery) {
+                    RDFFormat format = negotiate(accept, RDFWriterRegistry.getInstance().getKeys(), RDFFormat.NTRIPLES);
+                    startResponse(exchange, format);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        ((GraphQuery) query).evaluate(Rio.createWriter(format, os));
+                    }
+                } else {
+                    BooleanQueryResultFormat format = negotiate(accept, BooleanQueryResultWriterRegistry.getInstance().getKeys(), BooleanQueryResultFormat.SPARQL);
+                    boolean result = ((BooleanQuery) query).evaluate();
+                    startResponse(exchange, format);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        QueryResultIO.writeBoolean(result, format, os);
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            // the response may already have been started, in which case the client will see a truncated result
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 500, ex);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, List<String>> params = readParams(exchange, "application/sparql-update", "update");
+            String updateString = getParam(params, "update");
+            if (updateString == null) {
+                sendError(exchange, 400, new IllegalArgumentException("Missing update parameter"));
+                return;
+            }
+
+            try (RepositoryConnection conn = this.repo.getConnection()) {
+                Update update;
+                try {
+                    update = conn.prepareUpdate(QueryLanguage.SPARQL, updateString);
+                } catch (MalformedQueryException ex) {
+                    sendError(exchange, 400, ex);
+                    return;
+                }
+
+                SimpleDataset dataset = getDataset(params, "using-graph-uri", "using-named-graph-uri");
+                if (dataset != null) {
+                    update.setDataset(dataset);
+                }
+                update.execute();
+            }
+            exchange.sendResponseHeaders(204, -1);
+        } catch (Exception ex) {
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 500, ex);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.swirrl;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe collection of latency samples in nanoseconds, used to report latencies which are not the measured time
+ * of a benchmark method.
+ */
+public class LatencySamples {
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    /**
+     * Records a latency
+     * @param nanos The latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        if (this.count == this.samples.length) {
+            this.samples = Arrays.copyOf(this.samples, this.samples.length * 2);
+        }
+        this.samples[this.count++] = nanos;
+    }
+
+    /**
+     * Removes all recorded samples
+     */
+    public synchronized void reset() {
+        this.count = 0;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Returns a summary of the recorded samples as the count and the mean, median, 99th percentile and maximum in
+     * milliseconds
+     * @return The summary
+     */
+    public synchronized String summary() {
+        if (this.count == 0) {
+            return "n=0";
+        }
+
+        long[] sorted = Arrays.copyOf(this.samples, this.count);
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long s : sorted) {
+            total += s;
+        }
+
+        return String.format("n=%1$d mean=%2$.3fms p50=%3$.3fms p99=%4$.3fms max=%5$.3fms",
+                this.count,
+                millis(total / this.count),
+                millis(sorted[(int)Math.ceil(0.5 * this.count) - 1]),
+                millis(sorted[(int)Math.ceil(0.99 * this.count) - 1]),
+                millis(sorted[this.count - 1]));
+    }
+}
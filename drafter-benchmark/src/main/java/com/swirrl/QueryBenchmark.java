@@ -0,0 +1,296 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.BooleanQuery;
+import org.eclipse.rdf4j.query.GraphQuery;
+import org.eclipse.rdf4j.query.GraphQueryResult;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.sparql.SPARQLRepository;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.eclipse.rdf4j.rio.Rio;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Benchmarks for SELECT, CONSTRUCT and ASK queries against the live and draftset endpoints. The queries run against
+ * an {@link EmbeddedStore} so no external database or test data files are required.
+ *
+ * The store is loaded with {@code statements} generated statements over {@link #GRAPH_COUNT} graphs which are
+ * published to live. A draftset is then created with {@link #DRAFT_PERCENT} percent more statements in the first
+ * {@link #DRAFT_GRAPH_COUNT} graphs, so draftset queries are rewritten and return results which must be rewritten
+ * from the draft graphs.
+ *
+ * The live and draftset benchmarks query the store directly. The stasher benchmarks query the live endpoint through
+ * a stasher repository caching to a temporary directory. The hit benchmarks repeat a query which is cached during
+ * setup, and the miss benchmarks add a unique comment to each query so it is never found in the cache.
+ *
+ * Each benchmark reports throughput and the distribution of query times.
+ */
+@Warmup(iterations = 3, time = 5)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueryBenchmark {
+    private static final int GRAPH_COUNT = 10;
+    private static final int DRAFT_GRAPH_COUNT = 2;
+    private static final int DRAFT_PERCENT = 10;
+
+    private static final String GRAPH_PREFIX = "http://example.com/graphs/";
+
+    private static final String SELECT_QUERY = "SELECT ?s ?p ?o ?g WHERE { GRAPH ?g { ?s ?p ?o } } LIMIT 1000";
+    private static final String CONSTRUCT_QUERY = "CONSTRUCT { ?s ?p ?o } WHERE { GRAPH ?g { ?s ?p ?o } } LIMIT 1000";
+    private static final String ASK_QUERY = "ASK WHERE { GRAPH <" + GRAPH_PREFIX + "0> { ?s <http://example.com/predicate/0> ?o } }";
+
+    @State(Scope.Benchmark)
+    public static class QueryState {
+        @Param({"memory", "native"})
+        private String storeType;
+
+        @Param({"10000", "100000"})
+        private int statements;
+
+        private File tempDir;
+        private EmbeddedStore store;
+        private ExecutorService cacheThreadPool;
+        private Object stasherRepo;
+        private Object liveEndpoint;
+        private Object draftsetEndpoint;
+        private Object stasherLiveEndpoint;
+        private final AtomicLong missCounter = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.tempDir = Files.createTempDirectory("drafter-query-benchmark").toFile();
+            this.store = EmbeddedStore.create(this.storeType, new File(this.tempDir, "store"));
+            SPARQLRepository repo = this.store.getRepository();
+
+            Drafter drafter = Drafter.create(repo);
+            Draftset liveDraftset = drafter.createDraft(User.publisher());
+            drafter.append(liveDraftset, writeData(new File(this.tempDir, "live.nq"), 0, this.statements, GRAPH_COUNT));
+            drafter.publish(liveDraftset);
+
+            Draftset draftset = drafter.createDraft(User.publisher());
+            int draftStatements = this.statements * DRAFT_PERCENT / 100;
+            drafter.append(draftset, writeData(new File(this.tempDir, "draft.nq"), this.statements, draftStatements, DRAFT_GRAPH_COUNT));
+
+            Util.require("drafter.backend.live");
+            Util.require("drafter.backend.draftset");
+            Util.require("drafter.stasher");
+            Util.require("drafter.stasher.filecache");
+
+            IFn liveEndpointFn = Clojure.var("drafter.backend.live", "live-endpoint-with-stasher");
+            this.liveEndpoint = liveEndpointFn.invoke(repo);
+            this.draftsetEndpoint = Clojure.var("drafter.backend.draftset", "build-draftset-endpoint").invoke(repo, draftset.obj(), true);
+
+            IFn hashMap = Clojure.var("clojure.core", "hash-map");
+            this.cacheThreadPool = Executors.newCachedThreadPool();
+            Object cacheBackend = Clojure.var("drafter.stasher.filecache", "make-file-backend")
+                    .invoke(hashMap.invoke(Util.keyword("dir"), new File(this.tempDir, "stasher").getAbsolutePath()));
+            Object cache = Clojure.var("drafter.stasher", "stasher-cache")
+                    .invoke(hashMap.invoke(Util.keyword("cache-backend"), cacheBackend,
+                                           Util.keyword("thread-pool"), this.cacheThreadPool));
+            this.stasherRepo = Clojure.var("drafter.stasher", "stasher-repo")
+                    .invoke(hashMap.invoke(Util.keyword("sparql-query-endpoint"), new URI(this.store.getQueryEndpoint()),
+                                           Util.keyword("sparql-update-endpoint"), new URI(this.store.getUpdateEndpoint()),
+                                           Util.keyword("cache"), cache,
+                                           Util.keyword("thread-pool"), this.cacheThreadPool));
+            this.stasherLiveEndpoint = liveEndpointFn.invoke(this.stasherRepo);
+
+            // populate the cache for the stasher hit benchmarks
+            Consumer<Object> discard = result -> { };
+            evaluate(this.stasherLiveEndpoint, SELECT_QUERY, discard);
+            evaluate(this.stasherLiveEndpoint, CONSTRUCT_QUERY, discard);
+            evaluate(this.stasherLiveEndpoint, ASK_QUERY, discard);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (this.stasherRepo instanceof Repository) {
+                ((Repository) this.stasherRepo).shutDown();
+            }
+            this.cacheThreadPool.shutdownNow();
+            this.store.close();
+            deleteRecursively(this.tempDir);
+        }
+
+        public Object getLiveEndpoint() { return this.liveEndpoint; }
+        public Object getDraftsetEndpoint() { return this.draftsetEndpoint; }
+        public Object getStasherLiveEndpoint() { return this.stasherLiveEndpoint; }
+
+        /**
+         * Returns a query which is equivalent to the given query but will not be found in the stasher cache
+         */
+        public String uncached(String query) {
+            return query + "\n# " + this.missCounter.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes generated statements to an NQuads file. Statement i has subject http://example.com/subject/i and the
+     * statements generated for a given offset are always the same, so a file with a smaller count at the same offset
+     * contains a subset of the statements.
+     * @param file The file to write
+     * @param offset Index of the first statement
+     * @param statementCount Number of statements to write
+     * @param graphCount Number of graphs to distribute the statements over
+     * @return The written file
+     */
+    static File writeData(File file, int offset, int statementCount, int graphCount) throws IOException {
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        Random r = new Random(offset);
+
+        try (OutputStream os = new FileOutputStream(file)) {
+            RDFWriter writer = Rio.createWriter(RDFFormat.NQUADS, os);
+            writer.startRDF();
+            for (int i = offset; i < offset + statementCount; i++) {
+                IRI s = vf.createIRI("http://example.com/subject/" + i);
+                IRI p = vf.createIRI("http://example.com/predicate/" + r.nextInt(10));
+                IRI g = vf.createIRI(GRAPH_PREFIX + r.nextInt(graphCount));
+                Statement st = vf.createStatement(s, p, vf.createLiteral(i), g);
+                writer.handleStatement(st);
+            }
+            writer.endRDF();
+        }
+        return file;
+    }
+
+    /**
+     * Deletes a file or directory and all of its contents
+     */
+    static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static final class Repo {
+        static final IFn TO_CONNECTION;
+        static final IFn PREPARE_QUERY;
+
+        static {
+            Util.require("grafter-2.rdf4j.repository");
+            TO_CONNECTION = Clojure.var("grafter-2.rdf4j.repository", "->connection");
+            PREPARE_QUERY = Clojure.var("grafter-2.rdf4j.repository", "prepare-query");
+        }
+    }
+
+    /**
+     * Prepares the query against the given drafter endpoint and passes all of its results to sink
+     * @param endpoint The live or draftset endpoint to query
+     * @param queryString The SPARQL query to evaluate
+     * @param sink Consumer for the query results
+     */
+    static void evaluate(Object endpoint, String queryString, Consumer<Object> sink) throws Exception {
+        try (AutoCloseable conn = (AutoCloseable) Repo.TO_CONNECTION.invoke(endpoint)) {
+            Object query = Repo.PREPARE_QUERY.invoke(conn, queryString);
+            if (query instanceof TupleQuery) {
+                try (TupleQueryResult result = ((TupleQuery) query).evaluate()) {
+                    for (BindingSet bs : result) {
+                        sink.accept(bs);
+                    }
+                }
+            } else if (query instanceof GraphQuery) {
+                try (GraphQueryResult result = ((GraphQuery) query).evaluate()) {
+                    for (Statement st : result) {
+                        sink.accept(st);
+                    }
+                }
+            } else {
+                sink.accept(((BooleanQuery) query).evaluate());
+            }
+        }
+    }
+
+    // live endpoint
+
+    @Benchmark
+    public void liveSelect(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getLiveEndpoint(), SELECT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void liveConstruct(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getLiveEndpoint(), CONSTRUCT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void liveAsk(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getLiveEndpoint(), ASK_QUERY, bh::consume);
+    }
+
+    // draftset endpoint
+
+    @Benchmark
+    public void draftsetSelect(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getDraftsetEndpoint(), SELECT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void draftsetConstruct(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getDraftsetEndpoint(), CONSTRUCT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void draftsetAsk(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getDraftsetEndpoint(), ASK_QUERY, bh::consume);
+    }
+
+    // live endpoint through the stasher cache
+
+    @Benchmark
+    public void stasherSelectHit(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), SELECT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void stasherSelectMiss(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), state.uncached(SELECT_QUERY), bh::consume);
+    }
+
+    @Benchmark
+    public void stasherConstructHit(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), CONSTRUCT_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void stasherConstructMiss(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), state.uncached(CONSTRUCT_QUERY), bh::consume);
+    }
+
+    @Benchmark
+    public void stasherAskHit(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), ASK_QUERY, bh::consume);
+    }
+
+    @Benchmark
+    public void stasherAskMiss(QueryState state, Blackhole bh) throws Exception {
+        evaluate(state.getStasherLiveEndpoint(), state.uncached(ASK_QUERY), bh::consume);
+    }
+}
@@ -0,0 +1,85 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for rewriting SPARQL queries against a draftset. Unlike the other benchmarks these do not require
+ * a database - each benchmark rewrites a generated SELECT query containing a VALUES block of {@code valuesSize} URIs,
+ * half of which have a corresponding draft graph in the live->draft mapping. The algebra transform used by drafter
+ * for draftset queries is compared against the previous SSE zipper rewriter.
+ */
+@Warmup(iterations = 3, time = 5)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryRewriteBenchmark {
+    @State(Scope.Thread)
+    public static class QueryRewriteState {
+        @Param({"10", "100", "1000", "10000"})
+        private int valuesSize;
+
+        private String query;
+        private IFn nodeTransformRewrite;
+        private IFn zipperRewrite;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Map<URI, URI> liveToDraft = new HashMap<>();
+            StringBuilder values = new StringBuilder();
+
+            for (int i = 0; i < this.valuesSize; i++) {
+                URI graph = Util.uri("http://example.com/graphs/" + i);
+                values.append('<').append(graph).append("> ");
+
+                if (i % 2 == 0) {
+                    liveToDraft.put(graph, Util.uri("http://publishmydata.com/graphs/drafter/draft/" + i));
+                }
+            }
+
+            this.query = String.format("SELECT * WHERE { VALUES ?g { %1$s} GRAPH ?g { ?s ?p ?o } }", values);
+
+            Util.require("drafter.backend.draftset.rewrite-query");
+
+            // convert the live->draft mapping to the string substitutions used by both rewriters once, so only the
+            // rewrite itself is measured
+            Map<String, String> substitutions = new HashMap<>();
+            for (Map.Entry<URI, URI> e : liveToDraft.entrySet()) {
+                substitutions.put(e.getKey().toString(), e.getValue().toString());
+            }
+            IFn partial = Clojure.var("clojure.core", "partial");
+            IFn into = Clojure.var("clojure.core", "into");
+            Object substitutionMap = into.invoke(Clojure.read("{}"), substitutions);
+
+            Object transform = Clojure.var("drafter.backend.draftset.rewrite-query", "uri-node-transform").invoke(substitutionMap);
+            IFn applyNodeTransform = Clojure.var("drafter.backend.draftset.arq", "apply-node-transform");
+            this.nodeTransformRewrite = (IFn)partial.invoke(applyNodeTransform, transform);
+
+            Object rewriter = partial.invoke(Clojure.var("drafter.backend.draftset.rewrite-query", "uri-constant-rewriter"),
+                                             substitutionMap);
+            IFn applyRewriter = Clojure.var("drafter.backend.draftset.arq", "apply-rewriter");
+            this.zipperRewrite = (IFn)partial.invoke(applyRewriter, rewriter);
+        }
+
+        public String getQuery() { return this.query; }
+        public IFn getNodeTransformRewrite() { return this.nodeTransformRewrite; }
+        public IFn getZipperRewrite() { return this.zipperRewrite; }
+    }
+
+    @Benchmark
+    public Object rewriteQueryNodeTransform(QueryRewriteState state) {
+        return state.getNodeTransformRewrite().invoke(state.getQuery()).toString();
+    }
+
+    @Benchmark
+    public Object rewriteQuerySSEZipper(QueryRewriteState state) {
+        return state.getZipperRewrite().invoke(state.getQuery()).toString();
+    }
+}
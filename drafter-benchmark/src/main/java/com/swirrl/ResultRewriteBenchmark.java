@@ -0,0 +1,114 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for rewriting draftset query results. Each benchmark rewrites a fixed collection of
+ * {@link #RESULT_COUNT} generated solutions or statements, {@code rewritePercent} percent of which contain a draft
+ * graph which should be rewritten to its live graph. Throughput is reported in results per second.
+ */
+@Warmup(iterations = 3, time = 5)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResultRewriteBenchmark {
+    private static final int RESULT_COUNT = 100000;
+    private static final int GRAPH_COUNT = 100;
+
+    @State(Scope.Thread)
+    public static class ResultRewriteState {
+        @Param({"0", "10", "100"})
+        private int rewritePercent;
+
+        private Object draftToLive;
+        private IFn bindingSetRewriter;
+        private IFn statementRewriter;
+        private List<BindingSet> bindingSets;
+        private List<Statement> statements;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ValueFactory vf = SimpleValueFactory.getInstance();
+            Map<IRI, IRI> draftToLive = new HashMap<>();
+            IRI[] draftGraphs = new IRI[GRAPH_COUNT];
+            IRI[] liveGraphs = new IRI[GRAPH_COUNT];
+
+            for (int i = 0; i < GRAPH_COUNT; i++) {
+                liveGraphs[i] = vf.createIRI("http://example.com/graphs/" + i);
+                draftGraphs[i] = vf.createIRI("http://publishmydata.com/graphs/drafter/draft/" + i);
+                draftToLive.put(draftGraphs[i], liveGraphs[i]);
+            }
+
+            IFn into = Clojure.var("clojure.core", "into");
+            this.draftToLive = into.invoke(Clojure.read("{}"), draftToLive);
+
+            Random r = new Random(0);
+            this.bindingSets = new ArrayList<>(RESULT_COUNT);
+            this.statements = new ArrayList<>(RESULT_COUNT);
+
+            for (int i = 0; i < RESULT_COUNT; i++) {
+                int graphIdx = r.nextInt(GRAPH_COUNT);
+                IRI graph = r.nextInt(100) < this.rewritePercent ? draftGraphs[graphIdx] : liveGraphs[graphIdx];
+                IRI s = vf.createIRI("http://example.com/subject/" + i);
+                IRI p = vf.createIRI("http://example.com/predicate/" + r.nextInt(10));
+
+                MapBindingSet bs = new MapBindingSet();
+                bs.addBinding("s", s);
+                bs.addBinding("p", p);
+                bs.addBinding("o", vf.createLiteral(i));
+                bs.addBinding("g", graph);
+                this.bindingSets.add(bs);
+
+                this.statements.add(vf.createStatement(s, p, vf.createLiteral(i), graph));
+            }
+
+            Util.require("drafter.backend.draftset.rewrite-result");
+            IFn rewriterFn = Clojure.var("drafter.backend.draftset.rewrite-result", "binding-set-rewriter");
+            this.bindingSetRewriter = (IFn)rewriterFn.invoke(Arrays.asList("s", "p", "o", "g"), this.draftToLive);
+            this.statementRewriter = Clojure.var("drafter.backend.draftset.rewrite-result", "rewrite-rdf4j-statement");
+        }
+
+        public Object getDraftToLive() { return this.draftToLive; }
+        public IFn getBindingSetRewriter() { return this.bindingSetRewriter; }
+        public IFn getStatementRewriter() { return this.statementRewriter; }
+        public List<BindingSet> getBindingSets() { return this.bindingSets; }
+        public List<Statement> getStatements() { return this.statements; }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESULT_COUNT)
+    public void rewriteBindingSets(ResultRewriteState state, Blackhole bh) {
+        IFn rewriter = state.getBindingSetRewriter();
+        for (BindingSet bs : state.getBindingSets()) {
+            bh.consume(rewriter.invoke(bs));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESULT_COUNT)
+    public void rewriteStatements(ResultRewriteState state, Blackhole bh) {
+        IFn rewriter = state.getStatementRewriter();
+        Object draftToLive = state.getDraftToLive();
+        for (Statement stmt : state.getStatements()) {
+            bh.consume(rewriter.invoke(draftToLive, stmt));
+        }
+    }
+}
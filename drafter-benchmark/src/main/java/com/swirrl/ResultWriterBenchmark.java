@@ -0,0 +1,123 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.resultio.text.csv.SPARQLResultsCSVWriter;
+import org.eclipse.rdf4j.query.resultio.text.tsv.SPARQLResultsTSVWriter;
+import org.eclipse.rdf4j.rio.RDFWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks for serialising CONSTRUCT results as CSV and TSV. Compares the dedicated drafter CSV/TSV
+ * statement writers with the previous implementation, which wrote each statement as a solution to the RDF4j SPARQL
+ * results writers. Each benchmark writes a fixed collection of {@link #STATEMENT_COUNT} generated statements to a
+ * discarding output stream. Throughput is reported in statements per second.
+ */
+@Warmup(iterations = 3, time = 5)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResultWriterBenchmark {
+    private static final int STATEMENT_COUNT = 100000;
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) { }
+
+        @Override
+        public void write(byte[] b, int off, int len) { }
+    };
+
+    @State(Scope.Thread)
+    public static class ResultWriterState {
+        private IFn csvWriter;
+        private IFn tsvWriter;
+        private IFn resultWriterAdapter;
+        private Object csvFormat;
+        private Object tsvFormat;
+        private List<Statement> statements;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ValueFactory vf = SimpleValueFactory.getInstance();
+            Random r = new Random(0);
+            this.statements = new ArrayList<>(STATEMENT_COUNT);
+
+            for (int i = 0; i < STATEMENT_COUNT; i++) {
+                IRI s = vf.createIRI("http://example.com/subject/" + i);
+                IRI p = vf.createIRI("http://example.com/predicate/" + r.nextInt(10));
+                switch (r.nextInt(4)) {
+                    case 0:
+                        this.statements.add(vf.createStatement(s, p, vf.createIRI("http://example.com/object/" + i)));
+                        break;
+                    case 1:
+                        this.statements.add(vf.createStatement(s, p, vf.createLiteral(i)));
+                        break;
+                    case 2:
+                        this.statements.add(vf.createStatement(s, p, vf.createLiteral("label " + i, "en")));
+                        break;
+                    default:
+                        this.statements.add(vf.createStatement(s, p, vf.createLiteral("a \"quoted\", value\n" + i)));
+                }
+            }
+
+            Util.require("drafter.rdf.writers");
+            Util.require("drafter.rdf.formats");
+            this.csvWriter = Clojure.var("drafter.rdf.writers", "csv-rdf-writer");
+            this.tsvWriter = Clojure.var("drafter.rdf.writers", "tsv-rdf-writer");
+            this.resultWriterAdapter = Clojure.var("drafter.rdf.writers", "query-result-writer->rdf-writer");
+            this.csvFormat = Clojure.var("drafter.rdf.formats", "csv-rdf-format").deref();
+            this.tsvFormat = Clojure.var("drafter.rdf.formats", "tsv-rdf-format").deref();
+        }
+
+        public RDFWriter csvWriter() { return (RDFWriter)this.csvWriter.invoke(NULL_OUTPUT_STREAM); }
+        public RDFWriter tsvWriter() { return (RDFWriter)this.tsvWriter.invoke(NULL_OUTPUT_STREAM); }
+
+        public RDFWriter csvResultWriter() {
+            return (RDFWriter)this.resultWriterAdapter.invoke(this.csvFormat, new SPARQLResultsCSVWriter(NULL_OUTPUT_STREAM));
+        }
+
+        public RDFWriter tsvResultWriter() {
+            return (RDFWriter)this.resultWriterAdapter.invoke(this.tsvFormat, new SPARQLResultsTSVWriter(NULL_OUTPUT_STREAM));
+        }
+
+        public List<Statement> getStatements() { return this.statements; }
+    }
+
+    private static void writeAll(RDFWriter writer, List<Statement> statements) {
+        writer.startRDF();
+        for (Statement st : statements) {
+            writer.handleStatement(st);
+        }
+        writer.endRDF();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENT_COUNT)
+    public void csvWriter(ResultWriterState state) { writeAll(state.csvWriter(), state.getStatements()); }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENT_COUNT)
+    public void tsvWriter(ResultWriterState state) { writeAll(state.tsvWriter(), state.getStatements()); }
+
+    // baseline: each statement written as a solution to the SPARQL results writers
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENT_COUNT)
+    public void csvResultWriter(ResultWriterState state) { writeAll(state.csvResultWriter(), state.getStatements()); }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENT_COUNT)
+    public void tsvResultWriter(ResultWriterState state) { writeAll(state.tsvResultWriter(), state.getStatements()); }
+}
@@ -18,6 +18,14 @@ public class User {
      */
     public Object obj() { return this.user; }
 
+    /**
+     * @return The id of this user used when submitting jobs
+     */
+    public String getId() {
+        Util.require("drafter.user");
+        return (String)Clojure.var("drafter.user", "username").invoke(this.user);
+    }
+
     /**
      * Creates a new user with the given email and role
      * @param email The user email
@@ -41,14 +41,20 @@ public class Util {
         return configDbName == null ? "drafter-test-db" : configDbName;
     }
 
+    private static String getServerUri() {
+        String serverUri = System.getProperty("stardog.uri");
+        return serverUri == null ? "http://localhost:5820" : serverUri;
+    }
+
     /**
-     * Returns a {@link SPARQLRepository} configured to query and update the configured test database
+     * Returns a {@link SPARQLRepository} configured to query and update the configured test database. The stardog
+     * server defaults to http://localhost:5820 and can be configured with the stardog.uri property.
      * @return A SPARQL repository to query and update the test database
      */
     public static SPARQLRepository getRepository() {
         String dbName = getTestDbName();
-        String query = String.format("http://localhost:5820/%1$s/query", dbName);
-        String update = String.format("http://localhost:5820/%1$s/update", dbName);
+        String query = String.format("%1$s/%2$s/query", getServerUri(), dbName);
+        String update = String.format("%1$s/%2$s/update", getServerUri(), dbName);
         return new SPARQLRepository(query, update);
     }
 
@@ -0,0 +1,75 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.AFn;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+
+/**
+ * Wrapper around a running drafter write scheduler. Jobs submitted to the scheduler are queued and executed in
+ * priority order on the scheduler's write thread, as they are by the drafter API.
+ */
+public class WriteScheduler implements AutoCloseable {
+    private final Object writer;
+
+    private WriteScheduler(Object writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Starts the write scheduler using the global writes lock of the given drafter instance
+     * @param drafter The drafter instance whose jobs will be submitted
+     * @return The running scheduler
+     */
+    public static WriteScheduler start(Drafter drafter) {
+        Util.require("drafter.write-scheduler");
+        IFn startFn = Clojure.var("drafter.write-scheduler", "start-writer!");
+        return new WriteScheduler(startFn.invoke(drafter.getGlobalWritesLock()));
+    }
+
+    /**
+     * Submits an async job to the queue and records the time it waits before the scheduler starts it. Async jobs
+     * which run in multiple steps re-queue each following step, only the wait for the first step is recorded.
+     * @param job The job to submit
+     * @param queueWait Recorder for the time the job waits in the queue
+     * @return The submitted job
+     */
+    public Object submit(Object job, LatencySamples queueWait) {
+        IFn jobFn = (IFn)Clojure.var("clojure.core", "get").invoke(job, Util.keyword("function"));
+        long submitted = System.nanoTime();
+        IFn timedFn = new AFn() {
+            @Override
+            public Object invoke(Object j) {
+                queueWait.record(System.nanoTime() - submitted);
+                return jobFn.invoke(j);
+            }
+        };
+        Object timedJob = Clojure.var("clojure.core", "assoc").invoke(job, Util.keyword("function"), timedFn);
+        return Clojure.var("drafter.write-scheduler", "enqueue-async-job!").invoke(timedJob);
+    }
+
+    /**
+     * Waits for a submitted job to complete
+     * @param job The job to wait for
+     * @return The result of the job
+     * @throws RuntimeException If the job failed
+     */
+    public static Object await(Object job) {
+        Object result = ((IDeref)job).deref();
+
+        Util.require("drafter.rdf.draftset-management.job-util");
+        Object failed = Clojure.var("drafter.rdf.draftset-management.job-util", "failed-job-result?").invoke(result);
+        if (Boolean.TRUE.equals(failed)) {
+            throw new RuntimeException("Job failed: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Stops the write thread once it has finished the job it is currently executing
+     */
+    @Override
+    public void close() {
+        Clojure.var("drafter.write-scheduler", "stop-writer!").invoke(this.writer);
+    }
+}
@@ -0,0 +1,227 @@
+package com.swirrl;
+
+import clojure.java.api.Clojure;
+import clojure.lang.ExceptionInfo;
+import clojure.lang.IPersistentMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the write scheduler under a mixed load of concurrent writes and queries. Unlike the other write
+ * benchmarks, jobs are submitted through the write scheduler as they are by the drafter API, so they contend for the
+ * write thread and the global writes lock.
+ *
+ * All of the benchmarks run concurrently as the {@code mixed} group against an {@link EmbeddedStore} containing
+ * {@code liveStatements} published statements:
+ *
+ * <ul>
+ *     <li>append - appends a batch of {@code batchStatements} new statements to a draftset</li>
+ *     <li>delete - deletes a batch of {@code batchStatements} live statements from a draftset</li>
+ *     <li>publish - publishes a draftset containing a batch of {@code batchStatements} new statements</li>
+ *     <li>deleteGraphSync - deletes a live graph from a draftset with a synchronous job, which fails immediately if a
+ *     publish holds the global writes lock</li>
+ *     <li>query - a SELECT query against the live endpoint</li>
+ * </ul>
+ *
+ * Each benchmark reports its throughput and the distribution of the time from submission to completion. The time
+ * async jobs wait in the queue before they start, and the number of synchronous jobs rejected because the writes lock
+ * was held, are printed at the end of each iteration. The number of threads running each benchmark can be changed
+ * with the JMH {@code -tg} option.
+ */
+@Warmup(iterations = 2, time = 10)
+@Fork(value = 1)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Timeout(time = 10, timeUnit = TimeUnit.MINUTES)
+public class WriteSchedulerBenchmark {
+    private static final int GRAPH_COUNT = 10;
+
+    private static final String QUERY = "SELECT ?s ?p ?o WHERE { ?s ?p ?o } LIMIT 100";
+
+    private static final User USER = User.publisher();
+
+    @State(Scope.Group)
+    public static class SchedulerState {
+        @Param({"memory", "native"})
+        private String storeType;
+
+        @Param({"10000"})
+        private int liveStatements;
+
+        @Param({"1000"})
+        private int batchStatements;
+
+        private File tempDir;
+        private EmbeddedStore store;
+        private Drafter drafter;
+        private WriteScheduler scheduler;
+        private Object liveEndpoint;
+        private File appendFile;
+        private File deleteFile;
+        private int nextStatement;
+
+        private final LatencySamples appendQueueWait = new LatencySamples();
+        private final LatencySamples deleteQueueWait = new LatencySamples();
+        private final LatencySamples publishQueueWait = new LatencySamples();
+        private long syncJobs;
+        private long rejectedSyncJobs;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            this.tempDir = Files.createTempDirectory("drafter-write-scheduler-benchmark").toFile();
+            this.store = EmbeddedStore.create(this.storeType, new File(this.tempDir, "store"));
+            this.drafter = Drafter.create(this.store.getRepository());
+
+            Draftset liveDraftset = this.drafter.createDraft(USER);
+            this.drafter.append(liveDraftset, QueryBenchmark.writeData(new File(this.tempDir, "live.nq"), 0, this.liveStatements, GRAPH_COUNT));
+            this.drafter.publish(liveDraftset);
+
+            this.appendFile = QueryBenchmark.writeData(new File(this.tempDir, "append.nq"), this.liveStatements, this.batchStatements, GRAPH_COUNT);
+            this.deleteFile = QueryBenchmark.writeData(new File(this.tempDir, "delete.nq"), 0, this.batchStatements, GRAPH_COUNT);
+            this.nextStatement = this.liveStatements + this.batchStatements;
+
+            Util.require("drafter.backend.live");
+            this.liveEndpoint = Clojure.var("drafter.backend.live", "live-endpoint-with-stasher").invoke(this.store.getRepository());
+
+            this.scheduler = WriteScheduler.start(this.drafter);
+        }
+
+        @TearDown(Level.Iteration)
+        public void reportIteration() {
+            System.out.println();
+            System.out.println("append queue wait:  " + this.appendQueueWait.summary());
+            System.out.println("delete queue wait:  " + this.deleteQueueWait.summary());
+            System.out.println("publish queue wait: " + this.publishQueueWait.summary());
+            synchronized (this) {
+                System.out.println(String.format("rejected sync jobs: %1$d/%2$d", this.rejectedSyncJobs, this.syncJobs));
+                this.syncJobs = 0;
+                this.rejectedSyncJobs = 0;
+            }
+            this.appendQueueWait.reset();
+            this.deleteQueueWait.reset();
+            this.publishQueueWait.reset();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.scheduler.close();
+            this.store.close();
+            QueryBenchmark.deleteRecursively(this.tempDir);
+        }
+
+        /**
+         * Writes a new file of statements which are not in the store to be published
+         */
+        public synchronized File nextPublishFile() throws Exception {
+            File f = QueryBenchmark.writeData(File.createTempFile("publish", ".nq", this.tempDir), this.nextStatement, this.batchStatements, GRAPH_COUNT);
+            this.nextStatement += this.batchStatements;
+            return f;
+        }
+
+        public synchronized void syncJobCompleted(boolean rejected) {
+            this.syncJobs++;
+            if (rejected) {
+                this.rejectedSyncJobs++;
+            }
+        }
+
+        public Drafter getDrafter() { return this.drafter; }
+        public WriteScheduler getScheduler() { return this.scheduler; }
+        public Object getLiveEndpoint() { return this.liveEndpoint; }
+        public File getAppendFile() { return this.appendFile; }
+        public File getDeleteFile() { return this.deleteFile; }
+    }
+
+    /**
+     * A draftset for each thread which is recreated for each iteration
+     */
+    @State(Scope.Thread)
+    public static class DraftsetState {
+        private Draftset draftset;
+        private int nextGraph;
+
+        @Setup(Level.Iteration)
+        public void setup(SchedulerState state) {
+            this.draftset = state.getDrafter().createDraft(USER);
+        }
+
+        public Draftset getDraftset() { return this.draftset; }
+
+        public URI nextGraph() {
+            URI graph = Util.uri("http://example.com/graphs/" + this.nextGraph);
+            this.nextGraph = (this.nextGraph + 1) % GRAPH_COUNT;
+            return graph;
+        }
+    }
+
+    /**
+     * A draftset containing a batch of new statements to be published by each invocation
+     */
+    @State(Scope.Thread)
+    public static class PublishState {
+        private Draftset draftset;
+
+        @Setup(Level.Invocation)
+        public void setup(SchedulerState state) throws Exception {
+            File dataFile = state.nextPublishFile();
+            this.draftset = state.getDrafter().createDraft(USER);
+            state.getDrafter().append(this.draftset, dataFile);
+            dataFile.delete();
+        }
+
+        public Draftset getDraftset() { return this.draftset; }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Object append(SchedulerState state, DraftsetState ds) {
+        Object job = state.getDrafter().createAppendJob(USER, ds.getDraftset(), state.getAppendFile());
+        return WriteScheduler.await(state.getScheduler().submit(job, state.appendQueueWait));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Object delete(SchedulerState state, DraftsetState ds) {
+        Object job = state.getDrafter().createDeleteJob(USER, ds.getDraftset(), state.getDeleteFile());
+        return WriteScheduler.await(state.getScheduler().submit(job, state.deleteQueueWait));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Object publish(SchedulerState state, PublishState ps) {
+        Object job = state.getDrafter().createPublishJob(USER, ps.getDraftset());
+        return WriteScheduler.await(state.getScheduler().submit(job, state.publishQueueWait));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void deleteGraphSync(SchedulerState state, DraftsetState ds) {
+        try {
+            state.getDrafter().deleteGraphSync(USER, ds.getDraftset(), ds.nextGraph());
+            state.syncJobCompleted(false);
+        } catch (ExceptionInfo ex) {
+            Object error = ((IPersistentMap)ex.getData()).valAt(Util.keyword("error"));
+            if (! Util.keyword("writes-temporarily-disabled").equals(error)) {
+                throw ex;
+            }
+            state.syncJobCompleted(true);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void query(SchedulerState state, Blackhole bh) throws Exception {
+        QueryBenchmark.evaluate(state.getLiveEndpoint(), QUERY, bh::consume);
+    }
+}
@@ -0,0 +1,184 @@
+(ns drafter-client.bulk
+  "Parallel bulk loading of data into a draftset.
+
+  client/add-data sends all of its data in a single request, so a large
+  load is one long serial upload followed by the wait for drafter to
+  append it. load! instead splits the data into chunks of quads in the
+  same graph, and pipelines them through a bounded window
+  of worker threads which each compress a chunk, append it to the
+  draftset in its own request and wait for the append job to complete.
+  This overlaps serialisation and upload of later chunks with drafter
+  appending earlier ones, and the window bounds the memory used to
+  chunks in flight.
+
+  Each chunk is sent as a separate N-Quads document, so a blank node
+  appearing in two chunks would become two different nodes in the
+  draftset, and a retried chunk would mint new ones. Data containing
+  blank nodes is therefore rejected. Without blank nodes, appending the
+  same statements to a draftset more than once has no further effect,
+  so chunks whose request or job fails are retried."
+  (:require [clojure.tools.logging :as log]
+            [drafter-client.client :as client]
+            [grafter-2.rdf.protocols :as pr]
+            [grafter-2.rdf4j.io :as rio])
+  (:import [java.io ByteArrayInputStream ByteArrayOutputStream]
+           [java.util.concurrent ExecutorService Executors Semaphore]
+           java.util.zip.GZIPOutputStream))
+
+(def default-opts
+  {:chunk-size 50000
+   :max-in-flight 4
+   :max-retries 3
+   :retry-backoff-ms 1000})
+
+(defn graph-chunks
+  "Lazily partitions a sequence of quads into chunks of at most
+  chunk-size quads within the same graph. Quads are buffered per graph
+  so interleaved graphs still produce full chunks. Once max-buffered
+  quads are held, which defaults to four chunks, the largest buffer is
+  emitted early to bound memory use."
+  ([quads chunk-size]
+   (graph-chunks quads chunk-size (* 4 chunk-size)))
+  ([quads chunk-size max-buffered]
+   (letfn [(chunks [s buffers buffered]
+             (lazy-seq
+              (if-let [s (seq s)]
+                (let [quad (first s)
+                      graph (pr/context quad)
+                      buffers (update buffers graph (fnil conj []) quad)
+                      buffered (inc buffered)
+                      chunk (get buffers graph)]
+                  (cond
+                    (= chunk-size (count chunk))
+                    (cons chunk (chunks (rest s) (dissoc buffers graph) (- buffered chunk-size)))
+
+                    (>= buffered max-buffered)
+                    (let [[largest chunk] (apply max-key (comp count val) buffers)]
+                      (cons chunk (chunks (rest s) (dissoc buffers largest) (- buffered (count chunk)))))
+
+                    :else
+                    (chunks (rest s) buffers buffered)))
+                (seq (vals buffers)))))]
+     (chunks quads {} 0))))
+
+(defn- reject-blank-nodes
+  "Returns quad, or throws if it contains a blank node"
+  [quad]
+  (if (some pr/blank-node? [(pr/subject quad) (pr/object quad) (pr/context quad)])
+    (throw (ex-info "Blank nodes cannot be bulk loaded as they are not preserved across chunks"
+                    {:type ::blank-node :quad quad}))
+    quad))
+
+(defn- gzip-nquads
+  "Serialises quads as gzipped N-Quads"
+  ^bytes [quads]
+  (let [bos (ByteArrayOutputStream.)]
+    (with-open [gos (GZIPOutputStream. bos)]
+      (pr/add (rio/rdf-writer gos :format :nq) quads))
+    (.toByteArray bos)))
+
+(defn- append-chunk
+  "Appends a compressed chunk to the draftset and waits for the append
+  job to complete. Returns the job result, or an exception if either
+  the request or the job failed."
+  [client access-token draftset ^bytes body {:keys [metadata]}]
+  (try
+    (let [job (client/add-data client access-token draftset (ByteArrayInputStream. body)
+                               (cond-> {:format :nq :gzip :applied}
+                                 metadata (assoc :metadata metadata)))]
+      (client/await client access-token job))
+    (catch Exception ex
+      ex)))
+
+(defn- retry? [result]
+  ;; a job which timed out client-side may still be running
+  (and (client/exception? result)
+       (not (client/job-timeout-exception? result))))
+
+(defn- load-chunk
+  "Compresses and appends a chunk of quads, retrying failures with an
+  exponential backoff. Returns the job result or the exception for the
+  last failed attempt."
+  [client access-token draftset chunk {:keys [max-retries retry-backoff-ms] :as opts}]
+  (let [body (gzip-nquads chunk)]
+    (loop [attempt 0]
+      (let [result (append-chunk client access-token draftset body opts)]
+        (if (and (retry? result) (< attempt max-retries))
+          (do (log/warnf result "Failed to append chunk of %d quads, retrying (%d of %d)"
+                         (count chunk) (inc attempt) max-retries)
+              (Thread/sleep (* retry-backoff-ms (bit-shift-left 1 attempt)))
+              (recur (inc attempt)))
+          result)))))
+
+(defn- ->quads [statements graph]
+  (map reject-blank-nodes
+       (if graph
+         (map (fn [t] (pr/->Quad (pr/subject t) (pr/predicate t) (pr/object t) graph)) statements)
+         statements)))
+
+(defn load!
+  "Appends a sequence of quads, or triples if a :graph is given, to a
+  draftset with concurrent requests. Blocks until all of the data has
+  been appended and returns a map of the number of :chunks and :quads
+  loaded and the :elapsed-ms. Throws if any chunk could not be
+  appended, after waiting for the chunks already in flight. Throws
+  before sending the chunk of any statement which contains a blank
+  node, though earlier chunks may already have been appended.
+
+  opts may contain:
+    - `graph`: the graph to load triples into
+    - `metadata`: a map included on each append job
+    - `chunk-size`: the maximum number of quads in each request
+    - `max-buffered`: the maximum number of quads buffered while
+      filling the chunks of each graph
+    - `max-in-flight`: the maximum number of chunks being compressed,
+      uploaded or appended at once
+    - `max-retries`: the number of times a failed chunk is retried
+    - `retry-backoff-ms`: the delay before the first retry of a chunk,
+      doubled for each subsequent retry
+
+  Jobs are awaited with client/await so also respect the :job-timeout
+  of the client."
+  ([client access-token draftset statements]
+   (load! client access-token draftset statements {}))
+  ([client access-token draftset statements opts]
+   (let [{:keys [graph chunk-size max-buffered max-in-flight] :as opts} (merge default-opts opts)
+         ^ExecutorService executor (Executors/newFixedThreadPool max-in-flight)
+         window (Semaphore. max-in-flight)
+         failures (atom [])
+         started (System/currentTimeMillis)
+         submit! (fn [chunk]
+                   (.submit executor
+                            ^Runnable (fn []
+                                        (try
+                                          (let [result (load-chunk client access-token draftset chunk opts)]
+                                            (when (client/exception? result)
+                                              (swap! failures conj result)))
+                                          (catch Throwable ex
+                                            (swap! failures conj ex))
+                                          (finally
+                                            (.release window))))))]
+     (try
+       (let [counts (reduce (fn [counts chunk]
+                              (.acquire window)
+                              (if (seq @failures)
+                                (do (.release window)
+                                    (reduced counts))
+                                (do (submit! chunk)
+                                    (-> counts
+                                        (update :chunks inc)
+                                        (update :quads + (count chunk))))))
+                            {:chunks 0 :quads 0}
+                            (graph-chunks (->quads statements graph)
+                                          chunk-size
+                                          (or max-buffered (* 4 chunk-size))))]
+         ;; wait for the chunks in flight
+         (.acquire window max-in-flight)
+         (.release window max-in-flight)
+         (if-let [failed (seq @failures)]
+           (throw (ex-info "Failed to load one or more chunks" (assoc counts :failed failed)))
+           (let [result (assoc counts :elapsed-ms (- (System/currentTimeMillis) started))]
+             (log/info "Loaded" (:quads result) "quads in" (:chunks result) "chunks in" (str (:elapsed-ms result) "ms"))
+             result)))
+       (finally
+         (.shutdown executor))))))
@@ -1,5 +1,5 @@
 (ns drafter-client.client
-  (:refer-clojure :exclude [get])
+  (:refer-clojure :exclude [get await])
   (:require [cheshire.core :as json]
             [clj-time.format :refer [formatters parse]]
             [clojure.spec.alpha :as s]
@@ -345,8 +345,14 @@
        (interceptor/accept "application/n-triples")
        (i/request i/get-draftset-data access-token (draftset/id draftset) :graph graph))))
 
-(defn job [client access-token id]
-  (->job (i/request client i/get-job access-token id)))
+(defn job
+  "Returns the state of the job with the given id. If :wait is given in
+  opts and the job is pending, drafter will delay its response by up to
+  that many milliseconds until the job completes."
+  ([client access-token id]
+   (job client access-token id {}))
+  ([client access-token id opts]
+   (->job (apply i/request client i/get-job access-token id (apply concat opts)))))
 
 (defn jobs [client access-token]
   (map ->job (i/request client i/get-jobs access-token)))
@@ -358,9 +364,9 @@
   the job wasn't found.
 
   HTTP protocol errors will cause this function to raise an exception."
-  [client access-token {:keys [job-id] :as async-job}]
+  [client access-token {:keys [job-id] :as async-job} opts]
   (try
-    (job client access-token job-id)
+    (job client access-token job-id opts)
     (catch ExceptionInfo e
       (let [{:keys [status]} (ex-data e)]
         (if (= status 404)
@@ -406,7 +412,7 @@
    (wait-result! client access-token job (wait-opts client)))
   ([client access-token job {:keys [job-timeout poll-time-ms]}]
    (loop [waited 0]
-     (if-let [state (refresh-job client access-token job)]
+     (if-let [state (refresh-job client access-token job {})]
        (let [status (job-status job state)]
          (cond (>= waited job-timeout)
                (job-timeout-exception job)
@@ -466,6 +472,42 @@
                                                   :succeeded succeeded}))
        succeeded))))
 
+(defn- await-opts [client]
+  (assoc (wait-opts client) :wait-ms (or (:wait-ms client) 20000)))
+
+(defn await
+  "Waits for an async job to complete and returns the result map if it
+  succeeded or, returns an exception representing the failure
+  otherwise.
+
+  Rather than polling like wait-result!, each request for the state of
+  the job asks drafter to wait up to :wait-ms milliseconds for the job
+  to complete before responding. If drafter responds sooner with the
+  job still pending, e.g. because it does not support waiting, the
+  next request is made after :poll-time-ms.
+
+  Takes the same :job-timeout option as wait-result!"
+  ([client access-token job]
+   (await client access-token job (await-opts client)))
+  ([client access-token job {:keys [job-timeout poll-time-ms wait-ms]}]
+   (let [started (System/currentTimeMillis)]
+     (loop []
+       (let [requested-at (System/currentTimeMillis)
+             request-wait (long (min wait-ms (max 0 (- job-timeout (- requested-at started)))))]
+         (if-let [state (refresh-job client access-token job {:wait request-wait})]
+           (let [status (job-status job state)
+                 now (System/currentTimeMillis)]
+             (cond (not= ::pending status)
+                   (do (log/info (:job-id job) "took" (str (- now started) "ms") "to complete")
+                       status)
+                   (>= (- now started) job-timeout)
+                   (job-timeout-exception job)
+                   :else
+                   (do (when (< (- now requested-at) request-wait)
+                         (Thread/sleep poll-time-ms))
+                       (recur))))
+           (ex-info "Job not found" job)))))))
+
 (defn resolve-job
   "Wait until asynchronous `job` has finished"
   {:deprecated "Use wait!, wait-nil! or wait-result! instead"}
@@ -106,10 +106,10 @@
   (martian/response-for client :create-public-endpoint opts))
 
 (defn get-job
-  "Get metadata about a specific Job"
-  #:drafter-client.client.impl{:generated true}
-  [client jobid]
-  (martian/response-for client :get-job {:jobid jobid}))
+  "Get metadata about a specific Job. opts may contain :wait, the
+  number of milliseconds to wait for the job to finish."
+  [client jobid & {:as opts}]
+  (martian/response-for client :get-job (merge {:jobid jobid} opts)))
 
 (defn get-jobs
   "Get a list of all jobs currently known"
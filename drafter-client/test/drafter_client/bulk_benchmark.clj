@@ -0,0 +1,66 @@
+(ns drafter-client.bulk-benchmark
+  "End-to-end throughput benchmark comparing drafter-client.bulk/load!
+  with a single client/add-data request. Starts a drafter server
+  against the test database in the same way as the client tests, so
+  needs the same environment variables. Run with:
+
+      clojure -M:test -m drafter-client.bulk-benchmark [quads] [graphs]"
+  (:require [clojure.pprint :as pp]
+            [drafter-client.bulk :as bulk]
+            [drafter-client.client :as client]
+            [drafter-client.client-test :as client-test]
+            [drafter-client.test-helpers :as h]
+            [drafter-client.test-util.auth :as auth-util]
+            [grafter-2.rdf.protocols :as pr])
+  (:import java.net.URI))
+
+(defn- generate-quads
+  "Returns n quads spread evenly over the given number of graphs"
+  [n graphs]
+  (let [per-graph (long (Math/ceil (/ n graphs)))]
+    (->> (range graphs)
+         (mapcat (fn [g]
+                   (let [graph (URI. (str "http://test.graph.com/bench-" g))]
+                     (map (fn [i]
+                            (pr/->Quad (URI. (str "http://s/" g "/" i))
+                                       (URI. (str "http://p/" (mod i 10)))
+                                       i
+                                       graph))
+                          (range per-graph)))))
+         (take n))))
+
+(defn- run-case [client token quads label load-fn]
+  (let [draftset (client/new-draftset client token label "Bulk load benchmark")
+        start (System/nanoTime)]
+    (load-fn draftset)
+    (let [elapsed-ms (/ (- (System/nanoTime) start) 1e6)]
+      (client/wait! client token (client/remove-draftset client token draftset))
+      {:case label
+       :elapsed-ms (long elapsed-ms)
+       :quads-per-sec (long (/ (count quads) (/ elapsed-ms 1000)))})))
+
+(defn run-benchmark [client token quads]
+  (let [quads (doall quads)]
+    (into [(run-case client token quads "add-data"
+                     (fn [draftset]
+                       (client/wait! client token (client/add-data client token draftset quads))))]
+          (for [max-in-flight [1 2 4 8]]
+            (run-case client token quads (str "load! max-in-flight=" max-in-flight)
+                      (fn [draftset]
+                        (bulk/load! client token draftset quads {:max-in-flight max-in-flight})))))))
+
+(defn -main [& [n graphs]]
+  (let [n (Long/parseLong (or n "1000000"))
+        graphs (Long/parseLong (or graphs "10"))]
+    (h/drop-test-db!)
+    (client-test/start-auth0-drafter-server)
+    (try
+      (let [results (run-benchmark (client-test/drafter-client)
+                                   (auth-util/system-token)
+                                   (generate-quads n graphs))]
+        (println (format "Loaded %d quads over %d graphs" n graphs))
+        (pp/print-table [:case :elapsed-ms :quads-per-sec] results))
+      (finally
+        (h/stop-drafter-server)
+        (h/drop-test-db!)
+        (shutdown-agents)))))
@@ -0,0 +1,76 @@
+(ns drafter-client.bulk-test
+  (:require [clojure.test :as t :refer [deftest is testing]]
+            [drafter-client.bulk :as sut]
+            [drafter-client.client :as client]
+            [drafter-client.client-test :as client-test]
+            [drafter-client.test-helpers :as h]
+            [drafter-client.test-util.auth :as auth-util]
+            [grafter-2.rdf.protocols :as pr]
+            [grafter-2.rdf4j.io :as rio])
+  (:import clojure.lang.ExceptionInfo
+           java.io.StringReader
+           java.net.URI))
+
+(t/use-fixtures :each
+  h/with-spec-instrumentation
+  h/db-fixture)
+
+(t/use-fixtures :once
+  client-test/drafter-server-fixture)
+
+(defn- quads [graph n]
+  (take n (client-test/infinite-test-triples graph)))
+
+(deftest graph-chunks-test
+  (let [g1 (URI. "http://test.graph.com/1")
+        g2 (URI. "http://test.graph.com/2")
+        chunks (sut/graph-chunks (concat (quads g1 5) (quads g2 2) (quads g1 1)) 2)]
+    (testing "Chunks contain quads in the same graph"
+      (is (= [2 2 2 2] (map count chunks)))
+      (is (every? #(= 1 (count (distinct (map pr/context %)))) chunks)))
+
+    (testing "Interleaved graphs are buffered into full chunks"
+      (let [chunks (sut/graph-chunks (interleave (quads g1 6) (quads g2 6)) 3)]
+        (is (= [3 3 3 3] (map count chunks)))
+        (is (every? #(= 1 (count (distinct (map pr/context %)))) chunks))))
+
+    (testing "The largest buffer is emitted once max-buffered quads are held"
+      (let [chunks (sut/graph-chunks (concat (quads g1 3) (quads g2 1)) 10 4)]
+        (is (= [3 1] (map count chunks)))
+        (is (= [g1 g2] (map (comp pr/context first) chunks)))))
+
+    (testing "Chunks are lazy"
+      (is (= 2 (count (first (sut/graph-chunks (client-test/infinite-test-triples g1) 2))))))))
+
+(deftest load!-test
+  (let [client (client-test/drafter-client)
+        token (auth-util/system-token)
+        g1 (URI. "http://test.graph.com/bulk-1")
+        g2 (URI. "http://test.graph.com/bulk-2")
+        data (concat (quads g1 1000) (quads g2 500))]
+    (testing "Loads all chunks into the draftset"
+      (let [draftset (client/new-draftset client token "Bulk load" "Bulk load test")
+            result (sut/load! client token draftset data {:chunk-size 200 :max-in-flight 3})]
+        (is (= {:chunks 8 :quads 1500} (select-keys result [:chunks :quads])))
+        (is (= 1500 (count (h/get-user-quads client token draftset))))))
+
+    (testing "Loads triples into a graph"
+      (let [draftset (client/new-draftset client token "Bulk load" "Bulk load test")
+            triples (map (fn [q] (pr/->Triple (pr/subject q) (pr/predicate q) (pr/object q))) (quads g1 100))]
+        (sut/load! client token draftset triples {:graph g2 :chunk-size 30})
+        (let [loaded (h/get-user-quads client token draftset)]
+          (is (= 100 (count loaded)))
+          (is (every? #(= g2 (pr/context %)) loaded)))))
+
+    (testing "Rejects blank nodes"
+      (let [draftset (client/new-draftset client token "Bulk load" "Bulk load test")
+            data (rio/statements (StringReader. "_:b1 <http://p> <http://o> <http://test.graph.com/bulk-1> .")
+                                 :format :nq)]
+        (is (thrown? ExceptionInfo (sut/load! client token draftset data)))
+        (is (empty? (h/get-user-quads client token draftset)))))
+
+    (testing "Throws once retries are exhausted"
+      (let [draftset (client/new-draftset client token "Bulk load" "Bulk load test")
+            _ (client/wait! client token (client/remove-draftset client token draftset))]
+        (is (thrown? ExceptionInfo
+                     (sut/load! client token draftset (quads g1 10) {:max-retries 1 :retry-backoff-ms 10})))))))
@@ -828,3 +828,26 @@
         (is (instance? ExceptionInfo res-1))
         (is (= (:job-id (ex-data res-1)) job-id))
         (is (= (.getMessage res-1) "Job not found"))))))
+
+(deftest await-test
+  (let [client (drafter-client)
+        quads (take 1000 (infinite-test-triples (URI. "http://test.graph.com/quad-graph")))
+        token (auth-util/system-token)
+        draftset (sut/new-draftset client token "Await test" "Testing waiting for jobs")]
+    (t/testing "That await returns the :complete job"
+      (let [job (sut/add-data client token draftset quads)
+            res (sut/await client token job)]
+        (is (= (:job-id job) (:id res)))
+        (is (= :complete (:status res)))))
+
+    (t/testing "That await returns a job-timeout-exception"
+      (let [job (sut/add-data client token draftset quads)
+            res (sut/await client token job {:job-timeout -1 :poll-time-ms 500 :wait-ms 1000})]
+        (is (sut/job-timeout-exception? res))
+        (sut/await client token job)))
+
+    (t/testing "That await returns the job-not-found-exception"
+      (let [job (sut/->AsyncJob (UUID/randomUUID) (UUID/randomUUID))
+            res (sut/await client token job)]
+        (is (instance? ExceptionInfo res))
+        (is (= (.getMessage res) "Job not found"))))))
@@ -15,6 +15,7 @@
    [integrant.core :as ig])
   (:import clojure.lang.ExceptionInfo
            java.util.UUID
+           java.util.concurrent.Semaphore
            org.apache.log4j.MDC
            [clojure.lang IDeref IBlockingDeref IPersistentMap]))
 
@@ -41,7 +42,7 @@
 
 (def allowed-queue-keys
   #{:id :user-id :status :priority :start-time :finish-time
-    :draftset-id :draft-graph-id :metadata :value-p})
+    :draftset-id :draft-graph-id :metadata :value-p :progress})
 
 (defonce jobs
   (atom {:pending  {}
@@ -67,7 +68,7 @@
 (defn job-response [{:keys [value-p] :as job}]
   (-> job
       (select-keys [:id :user-id :status :priority
-                    :finish-time :draftset-id :draft-graph-id :metadata])
+                    :finish-time :draftset-id :draft-graph-id :metadata :progress])
       (assoc :start-time (timestamp-response (or (::parent-job-start-time job)
                                                  (:start-time job))))
       (update :finish-time timestamp-response)
@@ -75,24 +76,62 @@
                    (= :error (:type @value-p)))
         (assoc :error @value-p))))
 
-(defmethod ig/init-key :drafter.routes/jobs-status [_ opts]
-  (context
-   "/v1/status" []
-   (middleware/wrap-authorize (:wrap-authenticate opts) :drafter:job:view
-    (routes
-     (GET "/jobs/:id" [id]
-          (or (when-let [job (some-> id r/try-parse-uuid get-job)]
-                (r/json-response 200 (job-response job)))
-              not-found))
-     (GET "/jobs" []
-          (r/json-response 200 (mapv job-response
-                                     (concat
-                                      (-> jobs deref :pending vals)
-                                      (-> jobs deref :complete vals)))))
-     (GET "/finished-jobs/:id" [id]
-          (or (when-let [job (some-> id r/try-parse-uuid complete-job :value-p deref)]
-                (r/json-response 200 (assoc job :restart-id r/restart-id)))
-              (r/job-not-finished-response r/restart-id)))))))
+(defn await-job
+  "Blocks until the job completes or timeout-ms elapses, and returns
+  the latest state of the job."
+  [{job-id :id :keys [value-p] :as job} timeout-ms]
+  (if (and (some? value-p) (pos? timeout-ms))
+    (do (deref value-p timeout-ms nil)
+        (or (get-job job-id) job))
+    job))
+
+(defn- parse-wait
+  "Parses the wait parameter of the job status route as a number of
+  milliseconds to wait for the job to complete, capped at max-wait-ms.
+  Returns 0 if no parameter is given and nil if it is invalid."
+  [wait max-wait-ms]
+  (cond
+    (nil? wait) 0
+    (re-matches #"\d{1,18}" wait) (min (Long/parseLong wait) max-wait-ms)
+    :else nil))
+
+(defn- await-job-bounded
+  "Waits for the job as await-job while fewer than the permits of
+  waiters are held by other requests. Otherwise returns the job
+  immediately, as each waiting request holds a server thread."
+  [^Semaphore waiters job wait-ms]
+  (cond
+    (not (pos? wait-ms)) job
+    (.tryAcquire waiters) (try
+                            (await-job job wait-ms)
+                            (finally
+                              (.release waiters)))
+    :else (do (datadog/increment! "drafter.jobs.wait_rejected" 1)
+              job)))
+
+(defmethod ig/init-key :drafter.routes/jobs-status [_ {:keys [max-wait-ms max-waiters]
+                                                       :or {max-wait-ms 30000 max-waiters 50}
+                                                       :as opts}]
+  (let [waiters (Semaphore. (int max-waiters))]
+   (context
+    "/v1/status" []
+    (middleware/wrap-authorize (:wrap-authenticate opts) :drafter:job:view
+     (routes
+      (GET "/jobs/:id" [id wait]
+           (if-let [wait-ms (parse-wait wait max-wait-ms)]
+             (or (when-let [job (some-> id r/try-parse-uuid get-job)]
+                   (r/json-response 200 (job-response (await-job-bounded waiters job wait-ms))))
+                 not-found)
+             (r/unprocessable-entity-response "Invalid wait parameter value - expected a number of milliseconds")))
+      (GET "/jobs" []
+           (r/json-response 200 (mapv job-response
+                                      (concat
+                                       (-> jobs deref :pending vals)
+                                       (-> jobs deref :complete vals)))))
+      (GET "/finished-jobs/:id" [id]
+           (or (when-let [job (some-> id r/try-parse-uuid complete-job :value-p deref)]
+                 (r/json-response 200 (assoc job :restart-id r/restart-id)))
+               (r/job-not-finished-response r/restart-id))))))))
 
 (defn- wrap-logging-context
   "Preserve the jobId and requestId in log4j logs."
@@ -135,6 +174,17 @@
     (swap! jobs assoc-in [:pending (:id job')] job'))
   true)
 
+(defn job-progress!
+  "Records the progress of a pending job as a map of the number of
+  :completed and :total steps, which is reported in the job status
+  until the job completes."
+  [{job-id :id :as job} completed total]
+  (swap! jobs (fn [jobs]
+                (if (contains? (:pending jobs) job-id)
+                  (assoc-in jobs [:pending job-id :progress] {:completed completed :total total})
+                  jobs)))
+  job)
+
 (defn job-completed?
   "Whether the given job has been completed"
   [job]
@@ -175,11 +225,12 @@
   "Adds the job to the state map of finished-jobs and delivers the
   supplied result to the jobs promise, which will cause blocking jobs
   to unblock, and give job consumers the ability to receive the
-  value."
+  value. The job is completed before the result is delivered so
+  requests waiting on the promise see the complete job."
   [{promis :value-p :as job} result]
-  (deliver promis result)
   (when (job-pending? job)
     (complete-pending-job! job))
+  (deliver promis result)
   result)
 
 (defn- failed-job-result [ex details]
@@ -41,6 +41,9 @@
 (s/def ::draft-graph-id (s/nilable uuid-string?))
 (s/def ::metadata (s/nilable (s/with-gen map? (fn [] (gen/elements [{}])))))
 (s/def ::function (s/with-gen fn? (fn [] (gen/elements [identity]))))
+(s/def ::completed nat-int?)
+(s/def ::total nat-int?)
+(s/def ::progress (s/keys :req-un [::completed ::total]))
 (s/def ::value-p (s/with-gen promise? (fn [] (let [p (promise)]
                                               (deliver p {})
                                               (s/gen #{p})))))
@@ -54,7 +57,7 @@
 (s/def ::api-job
   (s/keys :req-un [::id ::user-id ::status ::priority
                    :api-job/start-time :api-job/finish-time]
-          :opt-un [::draftset-id ::draft-graph-id ::metadata]))
+          :opt-un [::draftset-id ::draft-graph-id ::metadata ::progress]))
 
 (s/def :failed-job-result/type #{:error})
 (s/def :success-job-result/type #{:ok})
@@ -1,5 +1,6 @@
 (ns drafter.auth.auth0
   (:require [drafter.auth :as auth]
+            [drafter.auth.cache :as auth-cache]
             [drafter.user :as user]
             [drafter.responses :as response]
             [swirrl.auth0.middleware :as auth0-middleware]
@@ -43,6 +44,12 @@
     ::jwt/token-invalid (auth/authentication-failed)
     (auth/authentication-failed)))
 
+(defn token-expires-at
+  "Returns the expiry time in epoch milliseconds of the token parsed by
+  parse-request-token, or nil if it does not expire."
+  [state]
+  (some-> state :swirrl.auth0/access-token :payload :exp (* 1000)))
+
 (defn- update-keys [m f]
   (into {} (map (fn [[k v]] [(f k) v]) m)))
 
@@ -78,5 +85,5 @@
 
 (derive ::auth0-auth-method ::auth/auth-method)
 
-(defmethod ig/init-key ::auth0-auth-method [_ {:keys [auth0-client jwk] :as _opts}]
-  (auth0-auth-method auth0-client jwk))
+(defmethod ig/init-key ::auth0-auth-method [_ {:keys [auth0-client jwk token-cache] :as _opts}]
+  (auth-cache/cached-auth-method (auth0-auth-method auth0-client jwk) token-cache token-expires-at))
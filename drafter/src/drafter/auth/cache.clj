@@ -0,0 +1,168 @@
+(ns drafter.auth.cache
+  "Bounded time-limited caches for authentication.
+
+  Clients typically make many requests with the same credentials, so
+  verifying the token signature, or looking up the user record in
+  mongo or Auth0, on every request is wasted work. Validated tokens are
+  cached against a hash of the Authorization header for at most the
+  configured ttl, and never beyond the expiry of the token itself.
+  Failed authentications and missing users are also cached, for a
+  shorter negative ttl, so repeated bad requests do not reach the
+  backend either."
+  (:require [buddy.core.codecs :as codecs]
+            [buddy.core.hash :as hash]
+            [clojure.spec.alpha :as s]
+            [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as datadog]
+            [drafter.auth :as auth]
+            [integrant.core :as ig])
+  (:import java.util.concurrent.ConcurrentHashMap))
+
+(defrecord TtlCache [cache-name ^ConcurrentHashMap entries max-size ttl-ms negative-ttl-ms])
+
+(defn create-cache
+  [{:keys [cache-name max-size ttl-ms negative-ttl-ms]
+    :or {cache-name "auth" max-size 10000 ttl-ms 60000 negative-ttl-ms 5000}}]
+  (->TtlCache cache-name (ConcurrentHashMap.) max-size ttl-ms negative-ttl-ms))
+
+(defn- tags [{:keys [cache-name]}]
+  {:tags {:cache cache-name}})
+
+(defn- live-entry
+  "Returns the entry for k if it has not expired, removing it
+  otherwise"
+  [{:keys [^ConcurrentHashMap entries]} k now]
+  (when-let [{:keys [expires-at] :as entry} (.get entries k)]
+    (if (< now expires-at)
+      entry
+      (do (.remove entries k entry)
+          nil))))
+
+(defn- evict!
+  "Makes room in a full cache by removing all expired entries and, if
+  that is not enough, the tenth of the entries closest to expiry."
+  [{:keys [^ConcurrentHashMap entries max-size] :as cache} now]
+  (doseq [[k entry] entries
+          :when (<= (:expires-at entry) now)]
+    (.remove entries k entry))
+  (when (>= (.size entries) max-size)
+    (doseq [[k entry] (take (max 1 (quot max-size 10))
+                            (sort-by (comp :expires-at val) (vec entries)))]
+      (.remove entries k entry)))
+  (datadog/gauge! "drafter.auth.cache.size" (.size entries) (tags cache)))
+
+(defn- put! [{:keys [^ConcurrentHashMap entries max-size] :as cache} k entry now]
+  (when (>= (.size entries) max-size)
+    (evict! cache now))
+  (.put entries k entry))
+
+(defn contains-live?
+  "Whether cache contains an unexpired entry for k"
+  [cache k]
+  (some? (live-entry cache k (System/currentTimeMillis))))
+
+(defn lookup
+  "Returns the value cached for k in cache, calling (f) to compute and
+  cache it on a miss. A nil value is cached for the negative ttl. If f
+  throws an authentication failure (see
+  drafter.auth/is-authentication-failed-error?) the failure is cached
+  for the negative ttl and thrown again by later lookups.
+
+  expires-at-fn is called with a computed value and may return a time
+  in epoch milliseconds after which the value must not be returned,
+  e.g. the expiry time of a token. Calls (f) directly if cache is nil."
+  ([cache k f] (lookup cache k f (constantly nil)))
+  ([{:keys [ttl-ms negative-ttl-ms] :as cache} k f expires-at-fn]
+   (if (nil? cache)
+     (f)
+     (let [now (System/currentTimeMillis)]
+       (if-let [{:keys [value failure]} (live-entry cache k now)]
+         (do
+           (datadog/increment! "drafter.auth.cache.hit" 1 (tags cache))
+           (if failure
+             (throw failure)
+             value))
+         (let [[value failure] (try
+                                 [(f) nil]
+                                 (catch Exception ex
+                                   (if (auth/is-authentication-failed-error? ex)
+                                     [nil ex]
+                                     (throw ex))))
+               expires-at (if (or (some? failure) (nil? value))
+                            (+ now negative-ttl-ms)
+                            (let [expires-at (expires-at-fn value)]
+                              (cond-> (+ now ttl-ms)
+                                (some? expires-at) (min expires-at))))]
+           (datadog/increment! "drafter.auth.cache.miss" 1 (tags cache))
+           (put! cache k {:value value :failure failure :expires-at expires-at} now)
+           (if failure
+             (throw failure)
+             value)))))))
+
+(defn- authorization-key
+  "Returns the key for the Authorization header of request within the
+  token cache for the authentication method identified by method-key.
+  Only a hash of the header is held in memory."
+  [method-key request]
+  (when-let [header (get-in request [:headers "authorization"])]
+    [method-key (codecs/bytes->hex (hash/sha256 ^String header))]))
+
+(defn cached-auth-method
+  "Wraps auth-method so the outcome of authenticating a request is
+  cached against a hash of its Authorization header. expires-at-fn is
+  called with the state returned by (auth/parse-request auth-method
+  request) and should return the time in epoch milliseconds at which
+  the credentials expire, or nil if they do not. Returns auth-method if
+  cache is nil."
+  [auth-method cache expires-at-fn]
+  (if (nil? cache)
+    auth-method
+    (let [method-key (auth/get-swagger-key auth-method)]
+      (reify auth/AuthenticationMethod
+        (parse-request [_this request]
+          (when-let [k (authorization-key method-key request)]
+            (if (contains-live? cache k)
+              {::key k}
+              (when-let [state (auth/parse-request auth-method request)]
+                {::key k ::state state}))))
+
+        (authenticate [_this request {k ::key state ::state}]
+          (let [;; the entry may have expired since parse-request
+                state (delay (or state
+                                 (auth/parse-request auth-method request)
+                                 (auth/authentication-failed)))]
+            (lookup cache k
+                    #(auth/authenticate auth-method request @state)
+                    (fn [_user] (expires-at-fn @state)))))
+
+        (get-swagger-key [_this]
+          method-key)
+
+        (get-swagger-description [_this]
+          (auth/get-swagger-description auth-method))
+
+        (get-swagger-security-definition [_this]
+          (auth/get-swagger-security-definition auth-method))
+
+        (get-operation-swagger-security-requirement [_this operation]
+          (auth/get-operation-swagger-security-requirement auth-method operation))
+
+        (get-swagger-ui-config [_this]
+          (auth/get-swagger-ui-config auth-method))))))
+
+(s/def ::TtlCache #(instance? TtlCache %))
+
+(s/def ::cache-name string?)
+(s/def ::max-size pos-int?)
+(s/def ::ttl-ms nat-int?)
+(s/def ::negative-ttl-ms nat-int?)
+
+(defmethod ig/pre-init-spec ::cache [_]
+  (s/keys :opt-un [::max-size ::ttl-ms ::negative-ttl-ms]))
+
+(defmethod ig/init-key ::cache [k opts]
+  (log/info "Authentication cache" (name k) "holds up to" (:max-size opts) "entries")
+  (create-cache (assoc opts :cache-name (name k))))
+
+(derive ::tokens ::cache)
+(derive ::users ::cache)
@@ -1,12 +1,16 @@
 (ns drafter.auth.jws
   (:require [drafter.auth :as auth]
+            [drafter.auth.cache :as auth-cache]
             [buddy.auth.backends.token :as auth-token]
             [buddy.auth.protocols :as authproto]
+            [cheshire.core :as json]
+            [clojure.string :as string]
             [integrant.core :as ig]
             [drafter.user :as user]
             [clojure.tools.logging :as log]
             [clojure.java.io :as io])
-  (:import clojure.lang.ExceptionInfo))
+  (:import clojure.lang.ExceptionInfo
+           java.util.Base64))
 
 (defn- get-jws-auth-backend [token-auth-key]
   (let [conf {:secret token-auth-key
@@ -17,6 +21,22 @@
               :on-error (fn [_req ex] (throw ex))}]
     (auth-token/jws-backend conf)))
 
+(defn token-expires-at
+  "Returns the expiry time in epoch milliseconds from the claims of the
+  JWS token parsed from a request, or nil if it has no expiry. The
+  signature is not checked, this is only used to bound how long a
+  token which has been validated can be cached."
+  [token]
+  (try
+    (let [[_header payload] (string/split token #"\.")]
+      (some-> (.decode (Base64/getUrlDecoder) ^String payload)
+              (String. "UTF-8")
+              (json/parse-string true)
+              :exp
+              (* 1000)))
+    (catch Exception _ex
+      nil)))
+
 (defn jws-auth-method
   "Creates an authentication method which looks for signed JWS tokens on incoming
    requests. The token should be specified in the Authorization header as 'Token <jws-token>'.
@@ -59,5 +79,5 @@
 
 (derive ::jws-auth-method ::auth/auth-method)
 
-(defmethod ig/init-key ::jws-auth-method [_ {:keys [jws-signing-key]}]
-  (jws-auth-method jws-signing-key))
+(defmethod ig/init-key ::jws-auth-method [_ {:keys [jws-signing-key token-cache]}]
+  (auth-cache/cached-auth-method (jws-auth-method jws-signing-key) token-cache token-expires-at))
@@ -1,6 +1,7 @@
 (ns drafter.auth.mock-auth0
   (:require [drafter.auth :as auth]
             [drafter.auth.auth0 :as auth0]
+            [drafter.auth.cache :as auth-cache]
             [integrant.core :as ig]
             [clojure.java.io :as io]))
 
@@ -34,8 +35,8 @@
 
 (derive ::mock-auth0-auth-method ::auth/auth-method)
 
-(defmethod ig/init-key ::mock-auth0-auth-method [_ {:keys [auth0-client jwk] :as _opts}]
-  (mock-auth0-auth-method auth0-client jwk))
+(defmethod ig/init-key ::mock-auth0-auth-method [_ {:keys [auth0-client jwk token-cache] :as _opts}]
+  (auth-cache/cached-auth-method (mock-auth0-auth-method auth0-client jwk) token-cache auth0/token-expires-at))
 
 
 
@@ -1,6 +1,9 @@
 (ns drafter.backend
   (:require [drafter.backend.draftset :as draftsets]
+            [drafter.backend.draftset.catalog :as catalog]
+            [drafter.backend.draftset.graph-cache :as graph-cache]
             [drafter.backend.live :as live]
+            [drafter.stasher :as stasher]
             [grafter-2.rdf4j.repository :as repo]
             [integrant.core :as ig]
             [drafter.draftset :as ds])
@@ -28,7 +31,13 @@
     ;; Note calling ->connection on DrafterService returns an
     ;; unrestricted endpoint, that has access to the state graph
     ;; and can perform updates etc...
-    (repo/->connection repo)))
+    (repo/->connection repo))
+
+  stasher/StateGraphVersioned
+  (state-graph-version [_this]
+    (stasher/state-graph-version repo))
+  (state-graph-writes [_this]
+    (stasher/state-graph-writes repo)))
 
 (defmulti endpoint-repo*
   "The multimethod that backs endpoint-repo, end users should use endpoint-repo."
@@ -71,4 +80,6 @@
   (endpoint-repo repo ::live))
 
 (defmethod ig/init-key :drafter/backend [_ opts]
-  (map->DrafterService opts))
+  (map->DrafterService (assoc opts
+                              :graph-cache (graph-cache/create-cache)
+                              :catalog (catalog/create-store))))
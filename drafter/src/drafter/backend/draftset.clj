@@ -1,6 +1,6 @@
 (ns drafter.backend.draftset
   (:require [drafter.backend.draftset.draft-management :as mgmt]
-            [drafter.backend.draftset.operations :as dsmgmt]
+            [drafter.backend.draftset.graph-cache :as graph-cache]
             [drafter.backend.draftset.rewrite-query :refer [rewrite-sparql-string]]
             [drafter.backend.draftset.rewrite-result :refer [rewriting-query] :as rer]
             [grafter-2.rdf.protocols :as proto]
@@ -9,6 +9,7 @@
             [clojure.set :as set]
             [drafter.rdf.sesame :as ses]
             [drafter.backend.draftset.arq :as arq]
+            [drafter.metrics :as metrics]
             [drafter.rdf.dataset :as dataset])
   (:import java.io.Closeable
            [org.eclipse.rdf4j.repository RepositoryConnection]
@@ -19,9 +20,10 @@
    with the dataset specified in the query using FROM and FROM NAMED. The dataset is specified in terms of the
    live graphs in the query not the corresponding draft graphs."
   [conn live->draft sparql-string]
-  (let [query (arq/sparql-string->arq-query sparql-string)
-        query-dataset (dataset/->dataset query)
-        rewritten-query (rewrite-sparql-string live->draft sparql-string)
+  (let [[query-dataset rewritten-query] (metrics/timed "drafter.query.rewrite" nil
+                                          (let [query (arq/sparql-string->arq-query sparql-string)]
+                                            [(dataset/->dataset query)
+                                             (rewrite-sparql-string live->draft query)]))
         pq (repo/prepare-query conn rewritten-query)
         rewriting-query (rer/rewriting-query pq live->draft)]
     {:prepared-query rewriting-query :query-dataset query-dataset}))
@@ -31,7 +33,7 @@
   is true otherwise just returns the managed graphs with a corresponding draft in the draftset."
   [repo live->draft union-with-live?]
   (let [non-draft-live-graphs (if union-with-live?
-                                (set (mgmt/live-graphs repo))
+                                (graph-cache/live-graphs (:graph-cache repo) repo)
                                 #{})]
     (set/union (set (keys live->draft)) non-draft-live-graphs)))
 
@@ -86,9 +88,11 @@
   (->RewritingSesameSparqlExecutor raw-repo live->draft union-with-live?))
 
 (defn build-draftset-endpoint
-  "Build a SPARQL queryable repo representing the draftset"
+  "Build a SPARQL queryable repo representing the draftset. If repo has
+  a :graph-cache the draftset graph mapping and live graphs are read
+  through it."
   [repo draftset-ref union-with-live?]
-  (let [live->draft (dsmgmt/get-draftset-graph-mapping repo draftset-ref)]
+  (let [live->draft (graph-cache/draftset-graph-mapping (:graph-cache repo) repo draftset-ref)]
     (create-draftset-repo repo live->draft union-with-live?)))
 
 (defmethod ig/init-key ::endpoint [_ opts]
@@ -1,10 +1,11 @@
 (ns drafter.backend.draftset.arq
   "Library of functions for syntactically rewriting queries using Jena ARQ.  Of
-  particular interest are sse-zipper and apply-rewriter."
+  particular interest are sse-zipper, apply-rewriter and apply-node-transform."
   (:require [clojure.zip :as z])
-  (:import org.apache.jena.graph.NodeFactory
+  (:import [org.apache.jena.graph Node NodeFactory]
            [org.apache.jena.query Query QueryFactory Syntax]
            [org.apache.jena.sparql.algebra Algebra Op OpAsQuery]
+           [org.apache.jena.sparql.graph NodeTransform NodeTransformLib]
            [org.apache.jena.sparql.sse Item SSE]))
 
 (defprotocol ToArqQuery
@@ -93,6 +94,47 @@
                       rewriter)
               "> ")) uris))
 
+(defn- restore-query
+  "Rebuilds a query of the same form as the original query q.
+
+  transform-query is a function from the original Query to a transformed
+  Query built from its algebra, and transform-describe-uris is a function
+  from the original Query to a new query used for primitive DESCRIBE
+  queries.  Information not stored in the algebra tree, such as the set of
+  prefixes, the dataset and the query type, is restored from q."
+  [^Query q transform-query transform-describe-uris]
+  (doto (cond
+          ;; NOTE that to support primitive DESCRIBE queries such as those of
+          ;; the form "DESCRIBE <uri>" we have to do some additional work as
+          ;; Jena returns an #<Item (null)> when converted into an SSE, and
+          ;; the result URIs are not represented in the algebra at all.
+          (and (.isDescribeType q) (seq (.getResultURIs q)))
+          (transform-describe-uris q)
+
+          ;; This case is distinct from the above as queries like "DESCRIBE ?s
+          ;; WHERE { ?s ?p ?o }" have an SSE representation.
+          (.isDescribeType q)
+          (doto ^Query (transform-query q)
+            (.setQueryDescribeType))
+
+          (.isSelectType q)
+          (let [^Query t (transform-query q)]
+            (doseq [uri (.getNamedGraphURIs q)]
+              (.addNamedGraphURI t uri))
+            (doseq [uri (.getGraphURIs q)]
+              (.addGraphURI t uri))
+            t)
+
+          (.isConstructType q)
+          (doto ^Query (transform-query q)
+            (.setQueryConstructType)
+            (.setConstructTemplate (.getConstructTemplate q)))
+
+          (.isAskType q)
+          (doto ^Query (transform-query q)
+            (.setQueryAskType)))
+    (.setPrefixMapping (.getPrefixMapping q))))
+
 (defn apply-rewriter
   "Applies a rewriter function to the supplied SPARQL query string and returns a
   SPARQL query string.
@@ -103,76 +145,47 @@
   The apply-rewriter function is necessary as it restores information not stored
   in the SSE algebra tree, such as the set of prefixes and the query type."
   [rewriter qstr]
-
   (let [q (QueryFactory/create qstr Syntax/syntaxSPARQL_11)
-        ;q (sparql-string->arq-query qstr)
-         transform-query (fn [q]
-                           (-> q
-                               ->sse-item
-                               sse-zipper
-                               rewriter
-                               str
-                               (SSE/parseOp (.getPrefixMapping q))
-                               OpAsQuery/asQuery)
-                           
-                           #_(-> q
-                               ->sse-item
-                               sse-zipper
-                               rewriter
-                              
-                              
-                               org.apache.jena.sparql.sse.builders.BuilderOp/build
-
-
-                             OpAsQuery/asQuery)
-
-                           #_(->> (-> q
-                                    
-                                    Algebra/compile
-                                    sse-zipper)
-                                
-                                rewriter
-                                org.apache.jena.sparql.sse.builders.BuilderOp/build
-                                OpAsQuery/asQuery))]
-
-    (doto (cond
-            ;; NOTE that to support primitive DESCRIBE queries such as those of
-            ;; the form "DESCRIBE <uri>" we have to do some additional work as
-            ;; Jena returns an #<Item (null)> when converted into an SSE.
-            ;;
-            ;; So as a hack we convert every URI into an SSE and apply the
-            ;; rewriter to them.  The advantage of this is that apply-rewriter
-            ;; which is concerned with applying the transformation in the
-            ;; context doesn't need to know about the URI mapping (if any), and
-            ;; should in theory be more generic.
-
-            (and (.isDescribeType q) (seq (.getResultURIs q)))
-            (sparql-string->arq-query
-             (apply str "DESCRIBE " (apply-rewriter-to-describe-uris rewriter (.getResultURIs q))))
-
-            ;; This case is distinct from the above as queries like "DESCRIBE ?s
-            ;; WHERE { ?s ?p ?o }" have an SSE representation.
-            (.isDescribeType q)
-            (doto (transform-query q)
-              (.setQueryDescribeType))
-
-            (.isSelectType q)
-            (let [t (transform-query q)]
-              (doseq [uri (.getNamedGraphURIs q)]
-                (.addNamedGraphURI t uri))
-              (doseq [uri (.getGraphURIs q)]
-                (.addGraphURI t uri))
-              t)
-
-            (.isConstructType q)
-            (doto (transform-query q)
-              (.setQueryConstructType)
-              (.setConstructTemplate (.getConstructTemplate q)))
-
-            (.isAskType q)
-            (doto (transform-query q)
-              (.setQueryAskType)))
-      (.setPrefixMapping (.getPrefixMapping q)))))
+        transform-query (fn [^Query q]
+                          (-> q
+                              ->sse-item
+                              sse-zipper
+                              rewriter
+                              str
+                              (SSE/parseOp (.getPrefixMapping q))
+                              OpAsQuery/asQuery))
+        ;; As a hack we convert every URI into an SSE and apply the rewriter
+        ;; to them.  The advantage of this is that apply-rewriter which is
+        ;; concerned with applying the transformation in the context doesn't
+        ;; need to know about the URI mapping (if any), and should in theory
+        ;; be more generic.
+        transform-describe-uris (fn [^Query q]
+                                  (sparql-string->arq-query
+                                   (apply str "DESCRIBE " (apply-rewriter-to-describe-uris rewriter (.getResultURIs q)))))]
+    (restore-query q transform-query transform-describe-uris)))
+
+(defn apply-node-transform
+  "Applies a Jena NodeTransform to every node in the supplied SPARQL query
+  (either a string or a parsed Query) and returns the transformed Query.
+
+  Unlike apply-rewriter the transform is applied in a single pass directly
+  over the compiled algebra, without serialising it to an SSE and walking
+  it with a zipper, so its cost is linear in the size of the query.  The
+  result URIs of primitive DESCRIBE queries are transformed directly.  As
+  with apply-rewriter, the prefixes, dataset and query type not stored in
+  the algebra tree are restored on the returned query."
+  [^NodeTransform node-transform query]
+  (let [q (sparql-string->arq-query query)
+        transform-query (fn [^Query q]
+                          (->> (Algebra/compile q)
+                               (NodeTransformLib/transform node-transform)
+                               OpAsQuery/asQuery))
+        transform-describe-uris (fn [^Query q]
+                                  (let [t (doto (Query.) (.setQueryDescribeType))]
+                                    (doseq [^Node n (.getResultURIs q)]
+                                      (.addDescribeNode t (.apply node-transform n)))
+                                    t))]
+    (restore-query q transform-query transform-describe-uris)))
 
 (comment
 
@@ -0,0 +1,128 @@
+(ns drafter.backend.draftset.catalog
+  "An in-memory catalog of all draftsets indexed by the users and
+  permissions which can see them.
+
+  The catalog is held in a store on the backend and is versioned by
+  the state graph version (see drafter.stasher/state-graph-version).
+  It is built from the state graph with a single query for all
+  draftsets on the first listing. After that the draftset operations
+  update the entry of each draftset they change (see
+  drafter.backend.draftset.operations/with-catalog-update), so the
+  catalog stays current without querying the other draftsets. A write
+  which does not update the catalog leaves it out of date, and it is
+  then rebuilt in full on the next listing. Listings only need to look
+  up the draftsets indexed against the user and their permissions
+  rather than querying the state graph."
+  (:require [drafter.user :as user]))
+
+(def ^:private indexes
+  "Map of index name -> function returning the keys a draftset is
+  indexed under"
+  {:by-owner (fn [ds] (remove nil? [(:current-owner ds)]))
+   :by-unowned-submitter (fn [ds]
+                           (when-not (user/has-owner? ds)
+                             (remove nil? [(:submitted-by ds)])))
+   :by-claim-user (fn [ds] (remove nil? [(:claim-user ds)]))
+   :by-claim-permission (fn [ds] (remove nil? [(:claim-permission ds)]))
+   :by-view-user :view-users
+   :by-view-permission :view-permissions})
+
+(def empty-catalog
+  (into {:by-id {}} (map (fn [idx] [idx {}])) (keys indexes)))
+
+(defn- order-key [{:keys [created-at id]}]
+  [created-at id])
+
+(defn- disj-id [index k id]
+  (let [ids (disj (get index k) id)]
+    (if (empty? ids)
+      (dissoc index k)
+      (assoc index k ids))))
+
+(defn dissoc-draftset
+  "Removes the draftset with the given id from catalog"
+  [catalog id]
+  (if-let [draftset (get-in catalog [:by-id id])]
+    (reduce-kv (fn [c idx keys-fn]
+                 (update c idx #(reduce (fn [index k] (disj-id index k id)) % (keys-fn draftset))))
+               (update catalog :by-id dissoc id)
+               indexes)
+    catalog))
+
+(defn assoc-draftset
+  "Adds a draftset info map as returned by
+  drafter.backend.draftset.operations/get-draftset-info to catalog,
+  replacing any existing entry for the draftset"
+  [catalog {:keys [id] :as draftset}]
+  (reduce-kv (fn [c idx keys-fn]
+               (update c idx #(reduce (fn [index k] (update index k (fnil conj #{}) id)) % (keys-fn draftset))))
+             (-> (dissoc-draftset catalog id)
+                 (update :by-id assoc id draftset))
+             indexes))
+
+(defn build-catalog
+  "Builds a catalog from a collection of draftset info maps as returned
+  by drafter.backend.draftset.operations/get-draftset-info"
+  [draftsets]
+  (reduce assoc-draftset empty-catalog draftsets))
+
+(defn create-store
+  "Creates a new empty catalog store"
+  []
+  (atom {:version nil :catalog nil}))
+
+(defn lookup
+  "Returns the catalog within store if it is current at the given state
+  graph version, otherwise nil"
+  [store version]
+  (let [{cached-version :version catalog :catalog} @store]
+    (when (and (some? version) (identical? version cached-version))
+      catalog)))
+
+(defn store!
+  "Stores a catalog built at the given state graph version"
+  [store version catalog]
+  (when (some? version)
+    (reset! store {:version version :catalog catalog})))
+
+(defn update-store!
+  "Applies f to the catalog within store if it is current at version,
+  recording it as current at updated-version. The store is left
+  unchanged if the catalog was not current at version, as it has
+  missed a change and will be rebuilt."
+  [store version updated-version f]
+  (swap! store (fn [{cached-version :version catalog :catalog :as s}]
+                 (if (and (some? catalog) (some? version) (identical? version cached-version))
+                   {:version updated-version :catalog (f catalog)}
+                   s))))
+
+(defn- lookup-ids
+  "Returns the draftsets in catalog whose ids are in the given sets,
+  ordered by creation time"
+  [{:keys [by-id]} id-sets]
+  (->> (reduce into #{} id-sets)
+       (map by-id)
+       (sort-by order-key)
+       (vec)))
+
+(defn- claimable-ids [catalog user]
+  (let [username (user/username user)]
+    (concat [(get-in catalog [:by-unowned-submitter username])
+             (get-in catalog [:by-claim-user username])]
+            (map #(get-in catalog [:by-claim-permission %]) (:permissions user)))))
+
+(defn- viewable-ids [catalog user]
+  (let [username (user/username user)]
+    (concat [(get-in catalog [:by-owner username])]
+            (claimable-ids catalog user)
+            [(get-in catalog [:by-view-user username])]
+            (map #(get-in catalog [:by-view-permission %]) (:permissions user)))))
+
+(defn draftsets-owned-by [catalog user]
+  (lookup-ids catalog [(get-in catalog [:by-owner (user/username user)])]))
+
+(defn draftsets-claimable-by [catalog user]
+  (filterv #(user/can-claim? user %) (lookup-ids catalog (claimable-ids catalog user))))
+
+(defn draftsets-visible-to [catalog user]
+  (filterv #(user/can-view? user %) (lookup-ids catalog (viewable-ids catalog user))))
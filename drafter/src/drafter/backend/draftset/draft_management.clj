@@ -37,6 +37,23 @@
                                         :where [[:graph drafter-state-graph
                                                  [[graph-uri :rdf/type :drafter/ManagedGraph]]]]})))
 
+(def ^:private managed-graphs-batch-size 500)
+
+(defn managed-graphs
+  "Returns the set of the given graph URIs which are managed graphs,
+  asking for a batch of graphs per query"
+  [db graph-uris]
+  (->> (partition-all managed-graphs-batch-size (distinct graph-uris))
+       (mapcat (fn [batch]
+                 (sparql/eager-query db
+                                     (fl/format-query {:prefixes base-prefixes
+                                                       :select ['?g]
+                                                       :where [[:values {'?g (vec batch)}]
+                                                               [:graph drafter-state-graph
+                                                                [['?g :rdf/type :drafter/ManagedGraph]]]]}))))
+       (map :g)
+       (into #{})))
+
 (defn is-graph-live? [db graph-uri]
   (sparql/eager-query db
                       (fl/format-query {:prefixes base-prefixes
@@ -163,6 +180,13 @@
   [db draft-graph-uri]
   (update! db (delete-draft-graph-query draft-graph-uri)))
 
+(defn delete-draft-graphs!
+  "Deletes a collection of draft graphs as delete-draft-graph! with a
+  single compound update."
+  [db draft-graph-uris]
+  (when (seq draft-graph-uris)
+    (update! db (util/make-compound-sparql-query (map delete-draft-graph-query draft-graph-uris)))))
+
 (defn lookup-live-graph [db draft-graph-uri]
   "Given a draft graph URI, lookup and return its live graph. Returns nil if not
   found."
@@ -382,7 +406,7 @@
 (defn rewrite-draftset-q [opts]
   (rewrite-q (assoc opts :?from '?lg :?to '?dg :deleted :ignore)))
 
-(defn- unrewrite-draftset-q [opts]
+(defn unrewrite-draftset-q [opts]
   (rewrite-q (assoc opts :?from '?dg :?to '?lg)))
 
 (defn rewrite-draftset! [conn opts]
@@ -0,0 +1,56 @@
+(ns drafter.backend.draftset.graph-cache
+  "An in-memory cache of the draftset live->draft graph mappings and the
+  set of public live graphs.
+
+  Both are read from the state graph in front of every draftset query.
+  Entries are versioned by the state graph version of the backend repo
+  (see drafter.stasher/state-graph-version) which changes on every write
+  made through it, including the append, delete, publish and revert
+  operations. An entry is only returned while the version it was read
+  at is current, so queries need no state graph round trips until the
+  next write. Repos which do not track a state graph version are never
+  cached."
+  (:require [cognician.dogstatsd :as datadog]
+            [drafter.backend.draftset.draft-management :as mgmt]
+            [drafter.backend.draftset.operations :as dsops]
+            [drafter.draftset :as ds]
+            [drafter.stasher :as stasher]))
+
+(defn create-cache
+  "Creates a new empty cache"
+  []
+  (atom {:version nil :entries {}}))
+
+(defn lookup
+  "Returns the value for key k within cache for the current state graph
+  version of repo. Calls (f) to compute the value on a miss."
+  [cache repo k f]
+  (let [version (stasher/state-graph-version repo)]
+    (if (or (nil? cache) (nil? version))
+      (f)
+      (let [{cached-version :version entries :entries} @cache]
+        (if (and (identical? version cached-version) (contains? entries k))
+          (do
+            (datadog/increment! "drafter.graph_cache.hit" 1)
+            (get entries k))
+          (let [v (f)]
+            (datadog/increment! "drafter.graph_cache.miss" 1)
+            ;; NOTE: version was read before computing v so if a write
+            ;; happened in the meantime v is stored against the old
+            ;; version and will not be returned by later lookups.
+            (swap! cache (fn [{cached-version :version :as c}]
+                           (if (identical? version cached-version)
+                             (assoc-in c [:entries k] v)
+                             {:version version :entries {k v}})))
+            v))))))
+
+(defn draftset-graph-mapping
+  "Returns the live->draft graph mapping for the given draftset"
+  [cache repo draftset-ref]
+  (lookup cache repo [::mapping (str (ds/->draftset-uri draftset-ref))]
+          #(dsops/get-draftset-graph-mapping repo draftset-ref)))
+
+(defn live-graphs
+  "Returns the set of all public live graphs"
+  [cache repo]
+  (lookup cache repo ::live-graphs #(set (mgmt/live-graphs repo))))
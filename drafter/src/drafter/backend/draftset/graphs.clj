@@ -6,6 +6,7 @@
             [drafter.rdf.sparql :as sparql]
             [drafter.draftset :as ds]
             [drafter.backend.draftset.operations :as dsops]
+            [drafter.util :as util]
             [grafter.url :as url]
             [drafter.time :as time])
   (:import [java.util.regex Pattern]
@@ -187,5 +188,35 @@
           draft-graph-uri)
         (create-draft-graph manager draftset-ref graph-uri)))))
 
+(defn delete-user-graphs
+  "Marks a collection of user graphs for deletion in live in the same
+   way as delete-user-graph. The contents of existing draft graphs are
+   dropped and references to them un-rewritten in a single update, and
+   draft graphs for the remaining graphs are created in a single insert.
+   Graphs which are not managed are ignored. Returns a map of
+   {live-graph-uri draft-graph-uri} for the deleted graphs. Throws an
+   exception if any of the graph URIs is not a valid user graph."
+  [{:keys [repo clock] :as manager} draftset-ref graph-uris]
+  (run! (partial check-graph-unprotected! manager) graph-uris)
+  (let [managed (mgmt/managed-graphs repo graph-uris)]
+    (when (seq managed)
+      (let [graph-mapping (dsops/get-draftset-graph-mapping repo draftset-ref)
+            existing (select-keys graph-mapping managed)
+            created (into {}
+                          (map (fn [g] [g (mgmt/make-draft-graph-uri)]))
+                          (remove (partial contains? existing) managed))]
+        (when (seq existing)
+          (sparql/update! repo
+                          (util/make-compound-sparql-query
+                           (concat (map mgmt/delete-graph-contents-query (vals existing))
+                                   [(mgmt/unrewrite-draftset-q {:draftset-uri (ds/->draftset-uri draftset-ref)
+                                                                :live-graph-uris (keys existing)})]))))
+        (when (seq created)
+          (let [now (time/now clock)]
+            (sparql/add repo (mapcat (fn [[live-graph-uri draft-graph-uri]]
+                                       (new-draft-graph-statements live-graph-uri draft-graph-uri now draftset-ref))
+                                     created))))
+        (merge existing created)))))
+
 (defmethod ig/init-key ::manager [_ {:keys [repo protected-graphs ::time/clock] :as opts}]
   (create-manager repo protected-graphs clock))
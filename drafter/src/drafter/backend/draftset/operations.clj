@@ -1,10 +1,12 @@
 (ns drafter.backend.draftset.operations
   (:require [clojure.string :as string]
             [com.yetanalytics.flint :as fl]
+            [drafter.backend.draftset.catalog :as catalog]
             [drafter.backend.draftset.draft-management :as mgmt :refer [to-quads]]
             [drafter.draftset :as ds]
             [drafter.rdf.drafter-ontology :refer :all]
             [drafter.rdf.sparql :as sparql]
+            [drafter.stasher :as stasher]
             [drafter.user :as user]
             [drafter.util :as util]
             [grafter-2.rdf.protocols :as rdf]
@@ -28,6 +30,76 @@
             (some? title) (conj [rdfs:label title])
             (some? description) (conj [rdfs:comment description]))))
 
+;; The draftset catalog held by the backend (see
+;; drafter.backend.draftset.catalog) is updated by the operations below
+;; which change a draftset, so listings only rebuild it after a change
+;; made some other way.
+
+(declare get-draftset-info)
+
+(def ^:dynamic *updating-catalog* false)
+
+(defn begin-catalog-update
+  "Records the state of backend before a change to a draftset, to be
+  passed to call-within-catalog-update for each part of the change and
+  then to finish-catalog-update! once it is complete. Returns nil within
+  an enclosing catalog update, which updates the catalog instead."
+  [backend]
+  (when-not *updating-catalog*
+    ;; the write count is read first so any write made before the
+    ;; version is read is counted as a change not made by the caller
+    (let [writes (stasher/state-graph-writes backend)]
+      {:writes writes
+       :version (stasher/state-graph-version backend)
+       :own-writes (volatile! 0)})))
+
+(defn call-within-catalog-update
+  "Calls f as part of a change begun with begin-catalog-update, counting
+  the writes it makes. Calls nested within f do not update the catalog
+  themselves."
+  [{:keys [own-writes] :as update} f]
+  (if update
+    (binding [*updating-catalog* true
+              stasher/*thread-writes* own-writes]
+      (f))
+    (f)))
+
+(defn finish-catalog-update!
+  "Updates the entry for the referenced draftset in the catalog held by
+  backend once a change begun with begin-catalog-update is complete. If
+  the catalog was not current before the change, or any write other
+  than the change itself was made in the meantime, the catalog has
+  missed a change and is left to be rebuilt."
+  [backend draftset-ref {:keys [writes version own-writes] :as update}]
+  (when-let [store (and update (:catalog backend))]
+    (when (and (some? writes) (catalog/lookup store version))
+      (let [id (str (ds/->draftset-id draftset-ref))
+            info (get-draftset-info backend draftset-ref)
+            updated-version (stasher/state-graph-version backend)]
+        ;; the write count is read last, so any write which the info or
+        ;; updated version may include is counted
+        (when (= (+ writes @own-writes) (stasher/state-graph-writes backend))
+          (catalog/update-store! store version updated-version
+                                 #(if info
+                                    (catalog/assoc-draftset % info)
+                                    (catalog/dissoc-draftset % id))))))))
+
+(defn call-with-catalog-update
+  "Calls f, which changes the referenced draftset, and then updates its
+  entry in the catalog held by backend. Calls nested within f do not
+  update the catalog themselves."
+  [backend draftset-ref f]
+  (let [update (begin-catalog-update backend)
+        result (call-within-catalog-update update f)]
+    (finish-catalog-update! backend draftset-ref update)
+    result))
+
+(defmacro with-catalog-update
+  "Executes body, which changes the referenced draftset, and then
+  updates its entry in the catalog held by backend"
+  [backend draftset-ref & body]
+  `(call-with-catalog-update ~backend ~draftset-ref (fn [] ~@body)))
+
 (defn create-draftset!
   "Creates a new draftset in the given database and returns its id. If
   no title is provided (i.e. it is nil) a default title will be used
@@ -36,14 +108,16 @@
   ([db creator title] (create-draftset! db creator title nil))
   ([db creator title description] (create-draftset! db creator title description util/create-uuid time/system-clock))
   ([db creator title description id-creator clock]
-   (with-open [dbcon (repo/->connection db)]
-     (let [draftset-id (id-creator)
-           created-date (time/now clock)
-           user-uri (user/user->uri creator)
-           template (create-draftset-statements user-uri title description (url/append-path-segments draftset-uri draftset-id) created-date)
-           quads (to-quads template)]
-       (rdf/add dbcon quads)
-       (ds/->DraftsetId (str draftset-id))))))
+   (let [draftset-id (id-creator)
+         draftset-ref (ds/->DraftsetId (str draftset-id))]
+     (with-catalog-update db draftset-ref
+       (with-open [dbcon (repo/->connection db)]
+         (let [created-date (time/now clock)
+               user-uri (user/user->uri creator)
+               template (create-draftset-statements user-uri title description (url/append-path-segments draftset-uri draftset-id) created-date)
+               quads (to-quads template)]
+           (rdf/add dbcon quads))))
+     draftset-ref)))
 
 (defn draftset-exists? [db draftset-ref]
   (let [q (fl/format-query
@@ -67,7 +141,8 @@
                       :pretty? true)))
 
 (defn delete-draftset-statements! [db draftset-ref]
-  (sparql/update! db (delete-draftset-statements-query draftset-ref)))
+  (with-catalog-update db draftset-ref
+    (sparql/update! db (delete-draftset-statements-query draftset-ref))))
 
 (defn- get-draftset-owner-query [draftset-ref]
   (let [draftset-uri (ds/->draftset-uri draftset-ref)]
@@ -107,15 +182,6 @@
   {:live-graph-uri lg
    :draft-graph-uri dg})
 
-(defn- graph-mapping-result->graph-state [repo {:keys [lg dg public] :as res}]
-  (assoc (graph-mapping-result->graph-mapping res)
-    :public public
-    :draft-graph-exists (sparql/eager-query repo
-                                            (fl/format-query
-                                              {:ask []
-                                               :where [[:graph dg
-                                                        '[[?s ?p ?o]]]]}))))
-
 (defn- get-draftsets-matching-graph-mappings-query [match-clauses]
   (fl/format-query
     {:prefixes mgmt/base-prefixes
@@ -241,11 +307,31 @@
              (combine-draftset-properties-and-graph-states properties ds-graph-states)))
          draftset-properties)))
 
+(def ^:private non-empty-graphs-batch-size 500)
+
+(defn- non-empty-graphs
+  "Returns the set of graphs which contain at least one statement,
+  asking for a batch of graphs per query"
+  [repo graphs]
+  (->> (partition-all non-empty-graphs-batch-size (distinct graphs))
+       (mapcat (fn [batch]
+                 (sparql/eager-query repo
+                                     (fl/format-query
+                                      {:select-distinct ['?g]
+                                       :where [[:values {'?g (vec batch)}]
+                                               [:filter '(exists [[:graph ?g
+                                                                   [[?s ?p ?o]]]])]]}))))
+       (map :g)
+       (into #{})))
+
 (defn- draftset-graph-mappings->graph-states [repo mappings]
-  (map (fn [{:keys [ds] :as m}]
-           (let [graph-state (graph-mapping-result->graph-state repo m)]
-             (assoc graph-state :draftset-uri ds)))
-         mappings))
+  (let [non-empty (non-empty-graphs repo (map :dg mappings))]
+    (map (fn [{:keys [ds dg] :as m}]
+           (assoc (graph-mapping-result->graph-mapping m)
+                  :public (:public m)
+                  :draft-graph-exists (contains? non-empty dg)
+                  :draftset-uri ds))
+         mappings)))
 
 (defn- get-all-draftsets-properties-by [repo clauses]
   (let [properties-query (get-draftsets-matching-properties-query clauses)]
@@ -266,6 +352,25 @@
   (->> (get-all-draftsets-by repo [(draftset-uri-clause draftset-ref)])
        (first)))
 
+(def ^:private all-draftsets-clause
+  '[[?ds :rdf/type :drafter/DraftSet]])
+
+(defn get-catalog
+  "Returns the catalog of all draftsets within backend. The catalog held
+  by backend is returned while it is current, otherwise it is rebuilt
+  from the state graph, as on startup or after a change which did not
+  update it."
+  [backend]
+  (let [store (:catalog backend)
+        version (stasher/state-graph-version backend)]
+    (or (some-> store (catalog/lookup version))
+        (let [c (catalog/build-catalog (get-all-draftsets-by backend [all-draftsets-clause]))]
+          ;; NOTE: version was read before the rebuild so if a write
+          ;; happened in the meantime the catalog is stored against the
+          ;; old version and is rebuilt again on the next lookup.
+          (some-> store (catalog/store! version c))
+          c))))
+
 (defn is-draftset-viewer? [backend draftset-ref user]
   (user/can-view? user (get-draftset-info backend draftset-ref)))
 
@@ -280,7 +385,8 @@
   (let [graph-mapping (get-draftset-graph-mapping db draftset-ref)
         draft-graphs (vals graph-mapping)
         delete-query (delete-draftset-query draftset-ref draft-graphs)]
-    (sparql/update! db delete-query)))
+    (with-catalog-update db draftset-ref
+      (sparql/update! db delete-query))))
 
 (def ^:private draftset-param->predicate
   {:display-name rdfs:label
@@ -304,7 +410,8 @@
                        [:optional
                         [[draftset-uri '?p '?o]]]]}
               :pretty? true)]
-      (sparql/update! backend q))))
+      (with-catalog-update backend draftset-ref
+        (sparql/update! backend q)))))
 
 (defn- submit-draftset-to-permission-query
   [draftset-ref submission-id owner permission]
@@ -333,42 +440,45 @@
    by another user with a particular permission. If the given user is not the
    current owner of the draftset, no changes are made."
   [backend draftset-ref owner permission]
-  (sparql/update! backend
-                  (submit-draftset-to-permission-query
-                   draftset-ref (util/create-uuid) owner permission)))
+  (with-catalog-update backend draftset-ref
+    (sparql/update! backend
+                    (submit-draftset-to-permission-query
+                     draftset-ref (util/create-uuid) owner permission))))
 
 (defn share-draftset-with-permission!
   "Shares a draftset with users with the specified permission. If the given
    user is not the current owner of the draftset, no changes are made."
   [backend draftset-ref owner permission]
   (let [draftset-uri (ds/->draftset-uri draftset-ref)]
-    (sparql/update! backend
-                    (fl/format-update
-                      {:prefixes mgmt/base-prefixes
-                       :with mgmt/drafter-state-graph
-                       :insert [[draftset-uri :drafter/viewPermission (name permission)]]
-                       :where [[draftset-uri :rdf/type :drafter/DraftSet]
-                               [draftset-uri :drafter/hasOwner (user/user->uri owner)]]}
-                      :pretty? true))))
+    (with-catalog-update backend draftset-ref
+      (sparql/update! backend
+                      (fl/format-update
+                        {:prefixes mgmt/base-prefixes
+                         :with mgmt/drafter-state-graph
+                         :insert [[draftset-uri :drafter/viewPermission (name permission)]]
+                         :where [[draftset-uri :rdf/type :drafter/DraftSet]
+                                 [draftset-uri :drafter/hasOwner (user/user->uri owner)]]}
+                        :pretty? true)))))
 
 (defn unshare-draftset!
   "Removes all shares from a draftset, so only the owner can view it. If the
    given user is not the current owner of the draftset, no changes are made."
   [backend draftset-ref owner]
   (let [draftset-uri (ds/->draftset-uri draftset-ref)]
-    (sparql/update! backend
-      (fl/format-update
-        {:prefixes mgmt/base-prefixes
-         :with mgmt/drafter-state-graph
-         :delete [{draftset-uri {:drafter/viewPermission #{'?vp}
-                                 :drafter/viewUser #{'?vu}}}]
-         :where [{draftset-uri {:drafter/hasOwner #{(user/user->uri owner)}
-                                :rdf/type #{:drafter/DraftSet}}}
-                 [:optional
-                  [[draftset-uri :drafter/viewPermission '?vp]]]
-                 [:optional
-                  [[draftset-uri :drafter/viewUser '?vu]]]]}
-        :pretty? true))))
+    (with-catalog-update backend draftset-ref
+      (sparql/update! backend
+        (fl/format-update
+          {:prefixes mgmt/base-prefixes
+           :with mgmt/drafter-state-graph
+           :delete [{draftset-uri {:drafter/viewPermission #{'?vp}
+                                   :drafter/viewUser #{'?vu}}}]
+           :where [{draftset-uri {:drafter/hasOwner #{(user/user->uri owner)}
+                                  :rdf/type #{:drafter/DraftSet}}}
+                   [:optional
+                    [[draftset-uri :drafter/viewPermission '?vp]]]
+                   [:optional
+                    [[draftset-uri :drafter/viewUser '?vu]]]]}
+          :pretty? true)))))
 
 (defn- submit-to-user-query [draftset-ref submission-id submitter target]
   (let [submitter-uri (user/user->uri submitter)
@@ -392,18 +502,20 @@
 
 (defn submit-draftset-to-user! [backend draftset-ref submitter target]
   (let [q (submit-to-user-query draftset-ref (util/create-uuid) submitter target)]
-    (sparql/update! backend q)))
+    (with-catalog-update backend draftset-ref
+      (sparql/update! backend q))))
 
 (defn share-draftset-with-user! [backend draftset-ref submitter target]
   (let [draftset-uri (ds/->draftset-uri draftset-ref)]
-    (sparql/update! backend
-                    (fl/format-update
-                      {:prefixes mgmt/base-prefixes
-                       :with mgmt/drafter-state-graph
-                       :insert [[draftset-uri :drafter/viewUser (user/user->uri target)]]
-                       :where [[draftset-uri :rdf/type :drafter/DraftSet]
-                               [draftset-uri :drafter/hasOwner (user/user->uri submitter)]]}
-                      :pretty? true))))
+    (with-catalog-update backend draftset-ref
+      (sparql/update! backend
+                      (fl/format-update
+                        {:prefixes mgmt/base-prefixes
+                         :with mgmt/drafter-state-graph
+                         :insert [[draftset-uri :drafter/viewUser (user/user->uri target)]]
+                         :where [[draftset-uri :rdf/type :drafter/DraftSet]
+                                 [draftset-uri :drafter/hasOwner (user/user->uri submitter)]]}
+                        :pretty? true)))))
 
 (defn- try-claim-draftset!
   "Sets the claiming user to the owner of the given draftset if the draftset is
@@ -412,17 +524,18 @@
   [backend draftset-ref claimant]
   (let [draftset-uri (ds/->draftset-uri draftset-ref)
         user-uri (user/user->uri claimant)]
-    (sparql/update! backend
-                    (fl/format-update
-                      {:prefixes mgmt/base-prefixes
-                       :with mgmt/drafter-state-graph
-                       :delete [[draftset-uri :drafter/hasSubmission '?submission]
-                                '[?submission ?sp ?so]]
-                       :insert [[draftset-uri :drafter/hasOwner user-uri]]
-                       :where [[draftset-uri :rdf/type :drafter/DraftSet]
-                               [draftset-uri :drafter/hasSubmission '?submission]
-                               '[?submission ?sp ?so]]}
-                      :pretty? true))))
+    (with-catalog-update backend draftset-ref
+      (sparql/update! backend
+                      (fl/format-update
+                        {:prefixes mgmt/base-prefixes
+                         :with mgmt/drafter-state-graph
+                         :delete [[draftset-uri :drafter/hasSubmission '?submission]
+                                  '[?submission ?sp ?so]]
+                         :insert [[draftset-uri :drafter/hasOwner user-uri]]
+                         :where [[draftset-uri :rdf/type :drafter/DraftSet]
+                                 [draftset-uri :drafter/hasSubmission '?submission]
+                                 '[?submission ?sp ?so]]}
+                        :pretty? true)))))
 
 (defn- infer-claim-outcome
   [{:keys [current-owner] :as _ds-info} claimant]
@@ -4,6 +4,7 @@
             [drafter.backend.draftset.operations :as dsops]
             [drafter.rdf.drafter-ontology :refer [modified-times-graph-uri]]
             [drafter.backend.draftset.draft-management :as mgmt]
+            [drafter.backend.live :as live]
             [clojure.java.io :as io]
             [drafter.rdf.sparql :as sparql]
             [drafter.time :as time]))
@@ -39,9 +40,16 @@
   (sparql/update! backend update-public-endpoint-version-query))
 
 (defn publish-draftset!
-  "Publishes the referenced draftset at the time returned by clock"
-  [{:keys [backend graph-manager clock] :as manager} draftset-ref]
-  (publish-draftset-graphs! backend graph-manager draftset-ref clock)
-  (update-public-endpoint-modified-at! backend)
-  (update-public-endpoint-version! backend)
-  (dsops/delete-draftset-statements! backend draftset-ref))
+  "Publishes the referenced draftset at the time returned by clock. If
+  the manager has a live union graph its members are synced with the
+  new live graphs, so this must be run inside the global writes lock."
+  [{:keys [backend graph-manager clock union-graph] :as manager} draftset-ref]
+  (live/union-graph-stale! union-graph)
+  (try
+    (dsops/with-catalog-update backend draftset-ref
+      (publish-draftset-graphs! backend graph-manager draftset-ref clock)
+      (update-public-endpoint-modified-at! backend)
+      (update-public-endpoint-version! backend)
+      (dsops/delete-draftset-statements! backend draftset-ref))
+    (finally
+      (live/sync-live-union-graph! union-graph))))
@@ -2,8 +2,9 @@
   "Functions related to syntactically rewriting drafter queries."
   (:require [clojure.tools.logging :as log]
             [clojure.zip :as z]
-            [drafter.backend.draftset.arq :refer [apply-rewriter]])
-  (:import org.apache.jena.graph.NodeFactory
+            [drafter.backend.draftset.arq :refer [apply-node-transform apply-rewriter]])
+  (:import [org.apache.jena.graph Node NodeFactory]
+           org.apache.jena.sparql.graph.NodeTransform
            org.apache.jena.sparql.sse.Item))
 
 (defn- uri-node?
@@ -34,17 +35,35 @@
       (z/root ssez)
       (recur m (z/next ssez)))))
 
+(defn ^NodeTransform uri-node-transform
+  "Takes a map m from URI-string to URI-string representing the syntactic
+  substitutions to perform and returns a Jena NodeTransform which performs
+  them.  Nodes which are not URIs or are not in m are returned unchanged.
+
+  Note: this should normally be applied with apply-node-transform which
+  rebuilds the rest of the query, including any prefixes and the query
+  type (SELECT/CONSTRUCT etc)."
+  [m]
+  (reify NodeTransform
+    (apply [_ node]
+      (let [^Node node node]
+        (if (.isURI node)
+          (if-let [replacement (get m (.getURI node))]
+            (NodeFactory/createURI replacement)
+            node)
+          node)))))
+
 ;rewrite-sparql-string :: Map[Uri, Uri] -> String -> String
 (defn rewrite-sparql-string
-  "Parses a SPARQL query string, rewrites it according to the given
-  live->draft graph mapping and then returns the re-written query
-  serialised as a string."
+  "Parses a SPARQL query string (or takes an already parsed Query),
+  rewrites it according to the given live->draft graph mapping and then
+  returns the re-written query serialised as a string."
   [live->draft query-str]
   (log/debug "Rewriting query " query-str)
 
   (let [live->draft (zipmap (map str (keys live->draft))
                             (map str (vals live->draft)))
-        rewritten-query (str (apply-rewriter (partial uri-constant-rewriter live->draft) query-str))]
+        rewritten-query (str (apply-node-transform (uri-node-transform live->draft) query-str))]
 
     (log/debug "Rewritten query: " rewritten-query)
     rewritten-query))
@@ -54,6 +73,9 @@
 
   ;; An example of using the rewriter
 
+  (apply-node-transform (uri-node-transform {"http://foo.com/" "http://bar.com/"})
+                        "SELECT * WHERE { GRAPH <http://foo.com/> { ?s ?p ?o }}")
+
   (apply-rewriter (partial uri-constant-rewriter {"http://foo.com/" "http://bar.com/"})
                   "SELECT * WHERE { GRAPH <http://foo.com/> { ?s ?p ?o }}")
 
@@ -2,10 +2,12 @@
   "The other side of query rewriting; result rewriting.  Result rewriting
   rewrites results and solutions."
   (:require [clojure.set :as set]
+            [clojure.string :as string]
             [clojure.tools.logging :as log]
             [drafter.util :as util]
             [grafter-2.rdf.protocols :refer [map->Quad]])
-  (:import [org.eclipse.rdf4j.query Dataset Query BooleanQuery GraphQuery TupleQuery TupleQueryResultHandler TupleQueryResult GraphQueryResult]
+  (:import [java.util HashMap HashSet Iterator Map NoSuchElementException]
+           [org.eclipse.rdf4j.query Binding BindingSet Dataset Query BooleanQuery GraphQuery TupleQuery TupleQueryResultHandler TupleQueryResult GraphQueryResult]
            [org.eclipse.rdf4j.query.impl BindingImpl MapBindingSet SimpleDataset]
            org.eclipse.rdf4j.rio.RDFHandler
            [org.eclipse.rdf4j.model Statement]))
@@ -34,6 +36,106 @@
   (let [mapped-bindings (map #(rewrite-binding % graph-map) binding-set)]
     (binding-seq->binding-set mapped-bindings)))
 
+;; A BindingSet backed by an array of values. The binding names and
+;; their indices within the values array are computed once per result
+;; and shared between every binding set within it. Unbound names have a
+;; nil value.
+(deftype ArrayBindingSet [^objects binding-names ^Map name->index ^objects values]
+  BindingSet
+  (iterator [_this]
+    (let [n (alength values)
+          i (volatile! 0)
+          skip-unbound! (fn []
+                          (while (and (< @i n) (nil? (aget values @i)))
+                            (vswap! i inc)))]
+      (skip-unbound!)
+      (reify Iterator
+        (hasNext [_]
+          (< @i n))
+        (next [_]
+          (when-not (< @i n)
+            (throw (NoSuchElementException.)))
+          (let [idx @i]
+            (vswap! i inc)
+            (skip-unbound!)
+            (BindingImpl. (aget binding-names idx) (aget values idx)))))))
+  (getBindingNames [_this]
+    (let [names (HashSet.)]
+      (dotimes [i (alength values)]
+        (when (some? (aget values i))
+          (.add names (aget binding-names i))))
+      names))
+  (getBinding [this name]
+    (when-let [v (.getValue this name)]
+      (BindingImpl. name v)))
+  (hasBinding [this name]
+    (some? (.getValue this name)))
+  (getValue [_this name]
+    (when-let [idx (.get name->index name)]
+      (aget values (int idx))))
+  (size [_this]
+    (areduce values i n 0 (if (some? (aget values i)) (inc n) n)))
+
+  Object
+  (equals [this other]
+    (and (instance? BindingSet other)
+         (= (.size this) (.size ^BindingSet other))
+         (every? (fn [^Binding b]
+                   (= (.getValue b) (.getValue ^BindingSet other (.getName b))))
+                 this)))
+  (hashCode [this]
+    (unchecked-int
+     (reduce (fn [h ^Binding b]
+               (bit-xor h (.hashCode (.getName b)) (.hashCode (.getValue b))))
+             0
+             this)))
+  (toString [this]
+    (str "[" (string/join ";" (map str this)) "]")))
+
+(defn- rewrite-required?
+  "Returns whether any of the values within binding-set appear in graph-map"
+  [^BindingSet binding-set graph-map]
+  (let [it (.iterator binding-set)]
+    (loop []
+      (if (.hasNext it)
+        (if (contains? graph-map (.getValue ^Binding (.next it)))
+          true
+          (recur))
+        false))))
+
+(defn binding-set-rewriter
+  "Returns a function which rewrites the values in BindingSets within a
+  result with the given binding names according to graph-map. Binding
+  sets which contain no values to rewrite are returned unchanged,
+  otherwise a new array-backed binding set is returned which shares the
+  binding name indices computed here.
+
+  NOTE: The input binding set is never mutated and a new binding set is
+  returned for each rewritten solution since consumers of results may
+  retain them (e.g. when evaluating DISTINCT queries)."
+  [binding-names graph-map]
+  (let [^objects names (into-array String binding-names)
+        name->index (let [m (HashMap.)]
+                      (dotimes [i (alength names)]
+                        (.put m (aget names i) (Integer/valueOf i)))
+                      m)]
+    (fn [^BindingSet binding-set]
+      (cond
+        (not (rewrite-required? binding-set graph-map))
+        binding-set
+
+        ;; only expected if the binding set contains names not declared
+        ;; in the result header
+        (not (every? #(.containsKey name->index (.getName ^Binding %)) binding-set))
+        (rewrite-binding-set binding-set graph-map)
+
+        :else
+        (let [values (object-array (alength names))]
+          (doseq [^Binding b binding-set]
+            (let [v (.getValue b)]
+              (aset values (int (.get name->index (.getName b))) (get graph-map v v))))
+          (->ArrayBindingSet names name->index values))))))
+
 (defn- rewrite-dataset
   "Creates a new dataset where the graphs are re-written according to
    the given graph mapping."
@@ -59,31 +161,33 @@
   "Creates a new SPARQLResultWriter that rewrites values in solutions
   according to the given graph mapping."
   [graph-map handler]
-  (reify
-    TupleQueryResult
-    (getBindingNames [this]
-      (.getBindingNames handler))
-
-    (close [this]
-      (.close handler))
-
-    TupleQueryResultHandler
-    (endQueryResult [this]
-      (.endQueryResult handler))
-    (handleBoolean [this boolean]
-      (.handleBoolean handler boolean))
-    (handleLinks [this link-urls]
-      (.handleLinks handler link-urls))
-    (handleSolution [this binding-set]
-      ;; NOTE: mutating the binding set whilst writing (iterating)
-      ;; results causes bedlam with the iteration, especially with SPARQL
-      ;; DISTINCT queries.
-      ;; rewrite-binding-set creates a new BindingSet with the modifications
-      (let [new-binding-set (rewrite-binding-set binding-set graph-map)]
-        (log/trace "old binding set: " binding-set "new binding-set" new-binding-set)
-        (.handleSolution handler new-binding-set)))
-    (startQueryResult [this binding-names]
-      (.startQueryResult handler binding-names))))
+  (let [rewriter (volatile! (binding-set-rewriter [] graph-map))]
+    (reify
+      TupleQueryResult
+      (getBindingNames [this]
+        (.getBindingNames handler))
+
+      (close [this]
+        (.close handler))
+
+      TupleQueryResultHandler
+      (endQueryResult [this]
+        (.endQueryResult handler))
+      (handleBoolean [this boolean]
+        (.handleBoolean handler boolean))
+      (handleLinks [this link-urls]
+        (.handleLinks handler link-urls))
+      (handleSolution [this binding-set]
+        ;; NOTE: mutating the binding set whilst writing (iterating)
+        ;; results causes bedlam with the iteration, especially with SPARQL
+        ;; DISTINCT queries.
+        ;; The rewriter creates a new BindingSet with any modifications
+        (let [new-binding-set (@rewriter binding-set)]
+          (log/trace "old binding set: " binding-set "new binding-set" new-binding-set)
+          (.handleSolution handler new-binding-set)))
+      (startQueryResult [this binding-names]
+        (vreset! rewriter (binding-set-rewriter binding-names graph-map))
+        (.startQueryResult handler binding-names)))))
 
 (defn rewrite-statement
   "Rewrites the values within a grafter quad according to the given mapping"
@@ -94,14 +198,25 @@
   (get draft->live value value))
 
 (defn rewrite-rdf4j-statement
-  "Rewrites the values within a Statement according to the given mapping"
+  "Rewrites the values within a Statement according to the given
+  mapping. Returns the statement unchanged if none of its values are
+  mapped."
   [value-mapping ^Statement statement]
-  (let [subj (rewrite-value value-mapping (.getSubject statement))
-        obj (rewrite-value value-mapping (.getObject statement))
-        pred (rewrite-value value-mapping (.getPredicate statement))]
-    (if-let [graph (rewrite-value value-mapping (.getContext statement))]
-      (util/create-rdf4j-statement subj pred obj graph)
-      (util/create-rdf4j-statement subj pred obj))))
+  (let [subj (.getSubject statement)
+        pred (.getPredicate statement)
+        obj (.getObject statement)
+        graph (.getContext statement)]
+    (if (or (contains? value-mapping subj)
+            (contains? value-mapping pred)
+            (contains? value-mapping obj)
+            (and (some? graph) (contains? value-mapping graph)))
+      (let [subj (rewrite-value value-mapping subj)
+            pred (rewrite-value value-mapping pred)
+            obj (rewrite-value value-mapping obj)]
+        (if-let [graph (rewrite-value value-mapping graph)]
+          (util/create-rdf4j-statement subj pred obj graph)
+          (util/create-rdf4j-statement subj pred obj)))
+      statement)))
 
 (defn- rewriting-rdf-handler
   "Returns an RDFHandler which re-writes draft values within result statements to their
@@ -139,18 +254,19 @@
   "Returns a TupleQueryResult which rewrites draft values within result binding sets to
    their corresponding live values according to the draft->live mapping"
   [draft->live ^TupleQueryResult result]
-  (reify TupleQueryResult
-    (getBindingNames [_this]
-      (.getBindingNames result))
-    (hasNext [_this]
-      (.hasNext result))
-    (next [_this]
-      (let [bs (.next result)]
-        (rewrite-binding-set bs draft->live)))
-    (remove [_this]
-      (.remove result))
-    (close [_this]
-      (.close result))))
+  (let [rewriter (binding-set-rewriter (.getBindingNames result) draft->live)]
+    (reify TupleQueryResult
+      (getBindingNames [_this]
+        (.getBindingNames result))
+      (hasNext [_this]
+        (.hasNext result))
+      (next [_this]
+        (let [bs (.next result)]
+          (rewriter bs)))
+      (remove [_this]
+        (.remove result))
+      (close [_this]
+        (.close result)))))
 
 (defmacro def-rewriting-query-record
   "Defines a record with the fields inner-query live->draft and draft->live which implements
@@ -1,7 +1,22 @@
 (ns drafter.backend.live
   "A thin wrapper over a Repository/Connection that implements a graph
-  restriction, hiding all but the set of live (ManagedGraph)'s."
-  (:require [drafter.backend.draftset.draft-management :as mgmt]
+  restriction, hiding all but the set of live (ManagedGraph)'s.
+
+  By default every query is restricted with an explicit dataset listing
+  all of the live graphs. If a store-side union graph is configured,
+  queries which do not declare their own dataset are instead
+  restricted to that union graph, so the dataset sent with each query
+  has a constant size however many live graphs there are. The members
+  of the union graph are synced with the live graphs by the publish
+  job, inside the global writes lock."
+  (:require [clojure.set :as set]
+            [clojure.spec.alpha :as s]
+            [clojure.string :as string]
+            [clojure.tools.logging :as log]
+            [drafter.backend.draftset.graph-cache :as graph-cache]
+            [drafter.rdf.sparql :as sparql]
+            [drafter.util :as util]
+            [drafter.write-scheduler :as writes]
             [grafter-2.rdf.protocols :as pr]
             [grafter-2.rdf4j.repository :as repo]
             [integrant.core :as ig]
@@ -9,9 +24,126 @@
             [drafter.rdf.dataset :as dataset]
             [drafter.backend.draftset.arq :as arq])
   (:import [java.io Closeable]
+           java.net.URI
            [org.eclipse.rdf4j.query Query]))
 
-(defn- build-restricted-connection [inner restriction]
+;; Defaults for maintaining the union graph as a Stardog named graph
+;; alias.
+(def default-alias-graph (URI. "tag:stardog:api:graph:aliases"))
+(def default-alias-predicate (URI. "tag:stardog:api:graph:alias"))
+
+(def ^:private membership-batch-size 1000)
+
+(defn- union-graph-members [repo {:keys [union-graph alias-graph alias-predicate]}]
+  (->> (format "SELECT ?g WHERE { GRAPH <%s> { <%s> <%s> ?g } }" alias-graph union-graph alias-predicate)
+       (sparql/eager-query repo)
+       (map :g)
+       (into #{})))
+
+(defn- membership-update [op {:keys [union-graph alias-graph alias-predicate]} graphs]
+  (str op " DATA { GRAPH <" alias-graph "> { "
+       (string/join " " (map (fn [g] (str "<" union-graph "> <" alias-predicate "> <" g "> .")) graphs))
+       " } }"))
+
+(defn sync-union-graph!
+  "Updates the members of the store-side union graph described by opts
+  so they are exactly live-graphs. Only the difference is written, and
+  nothing is written if the members are already up to date."
+  [repo opts live-graphs]
+  (let [members (union-graph-members repo opts)
+        to-remove (set/difference members live-graphs)
+        to-add (set/difference live-graphs members)]
+    (when (or (seq to-remove) (seq to-add))
+      (log/infof "Updating live union graph %s: adding %d graphs, removing %d graphs"
+                 (:union-graph opts) (count to-add) (count to-remove))
+      (sparql/update! repo (util/make-compound-sparql-query
+                            (concat (map #(membership-update "DELETE" opts %) (partition-all membership-batch-size to-remove))
+                                    (map #(membership-update "INSERT" opts %) (partition-all membership-batch-size to-add))))))))
+
+(def ^:private min-retry-ms 1000)
+(def ^:private max-retry-ms (* 5 60 1000))
+
+(defn- retry-delay-ms [failures]
+  (min max-retry-ms (* min-retry-ms (bit-shift-left 1 (min 20 (dec failures))))))
+
+(defrecord UnionGraph [repo cache opts global-writes-lock state])
+
+(defn create-union-graph
+  "Returns a UnionGraph which maintains the store-side union graph
+  described by opts. The union graph starts out of sync, so queries are
+  restricted with an explicit dataset until it is first synced."
+  [repo opts global-writes-lock]
+  (->UnionGraph repo
+                (or (:graph-cache repo) (graph-cache/create-cache))
+                (merge {:alias-graph default-alias-graph
+                        :alias-predicate default-alias-predicate}
+                       opts)
+                global-writes-lock
+                (atom {:synced? false :failures 0 :retry-at 0 :syncing? false})))
+
+(defn union-graph-stale!
+  "Marks the union graph as out of sync with the live graphs, so
+  queries are restricted with an explicit dataset until it is next
+  synced. Call this before changing the live graphs."
+  [union-graph]
+  (when union-graph
+    (swap! (:state union-graph) assoc :synced? false)))
+
+(defn sync-live-union-graph!
+  "Brings the members of the union graph up to date with the live
+  graphs. Must be called while holding the global writes lock. If the
+  sync fails the union graph is left out of sync and is not synced
+  again until a retry delay, which doubles with each consecutive
+  failure, has passed."
+  [{:keys [repo cache opts state] :as union-graph}]
+  (when union-graph
+    (try
+      (sync-union-graph! repo opts (graph-cache/live-graphs cache repo))
+      (swap! state assoc :synced? true :failures 0 :retry-at 0 :syncing? false)
+      (catch Exception ex
+        (let [{:keys [failures retry-at]} (swap! state
+                                                 (fn [{:keys [failures] :as s}]
+                                                   (let [failures (inc failures)]
+                                                     (assoc s
+                                                            :synced? false
+                                                            :failures failures
+                                                            :retry-at (+ (System/currentTimeMillis) (retry-delay-ms failures))
+                                                            :syncing? false))))]
+          (log/warnf ex "Failed to update live union graph %s (%d consecutive failures), restricting queries with explicit datasets until retry in %dms"
+                     (:union-graph opts) failures (- retry-at (System/currentTimeMillis))))))))
+
+(defn- schedule-sync!
+  "Syncs the union graph in the background inside the global writes
+  lock, unless it is already in sync, a sync is already scheduled or
+  the retry delay after a failure has not yet passed."
+  [{:keys [global-writes-lock state] :as union-graph}]
+  (let [now (System/currentTimeMillis)
+        [old new] (swap-vals! state
+                              (fn [{:keys [synced? syncing? retry-at] :as s}]
+                                (if (or synced? syncing? (< now retry-at))
+                                  s
+                                  (assoc s :syncing? true))))]
+    (when (and (:syncing? new) (not (:syncing? old)))
+      (future
+        (writes/with-lock global-writes-lock :sync-live-union-graph
+          (if (:synced? @state)
+            (swap! state assoc :syncing? false)
+            (sync-live-union-graph! union-graph)))))))
+
+(defn- union-graph-restriction
+  "Returns a function which returns the union graph to restrict queries
+  to, or nil if it is not in sync with the live graphs, in which case
+  queries should be restricted with an explicit dataset. Queries never
+  write to the store: the union graph is synced by the publish job, and
+  a sync is only scheduled from here to recover after a failure."
+  [{:keys [opts state] :as union-graph}]
+  (fn []
+    (if (:synced? @state)
+      (:union-graph opts)
+      (do (schedule-sync! union-graph)
+          nil))))
+
+(defn- build-restricted-connection [inner restriction union-graph]
   (let [stasher-conn (repo/->connection inner)]
     (reify
       repo/IPrepareQuery
@@ -21,7 +153,9 @@
               user-dataset (dataset/->dataset rdf4j-dataset)
               live-graphs (restriction)
               ^Query pquery (repo/prepare-query stasher-conn sparql-string)
-              restricted-dataset (dataset/get-query-dataset query-dataset user-dataset live-graphs)]
+              restricted-dataset (if-let [union-graph (when union-graph (union-graph))]
+                                   (dataset/get-union-query-dataset query-dataset user-dataset live-graphs union-graph)
+                                   (dataset/get-query-dataset query-dataset user-dataset live-graphs))]
           (.setDataset pquery restricted-dataset)
           pquery))
 
@@ -42,15 +176,37 @@
         (let [live-graphs (restriction)]
           (ses/get-statements stasher-conn infer live-graphs))))))
 
-(defrecord RestrictedExecutor [inner restriction]
+(defrecord RestrictedExecutor [inner restriction union-graph]
   repo/ToConnection
   (->connection [_this]
-    (build-restricted-connection inner restriction)))
+    (build-restricted-connection inner restriction union-graph)))
 
 (defn live-endpoint-with-stasher
-  "Creates a backend restricted to the live graphs."
-  [repo]
-  (->RestrictedExecutor repo (partial mgmt/live-graphs repo)))
+  "Creates a backend restricted to the live graphs. The live graphs are
+  read through the graph cache of repo if it has one. If a UnionGraph
+  is given, unrestricted queries are run against that store-side union
+  graph while it is in sync, see union-graph-restriction."
+  ([repo] (live-endpoint-with-stasher repo nil))
+  ([repo union-graph]
+   (let [cache (or (:graph-cache repo) (graph-cache/create-cache))]
+     (->RestrictedExecutor repo
+                           #(graph-cache/live-graphs cache repo)
+                           (when union-graph
+                             (union-graph-restriction union-graph))))))
+
+(s/def ::union-graph (s/nilable #(instance? UnionGraph %)))
+(s/def ::alias-graph string?)
+(s/def ::alias-predicate string?)
+
+(defmethod ig/init-key ::union-graph [_ {:keys [repo union-graph alias-graph alias-predicate
+                                                drafter/global-writes-lock]}]
+  (when union-graph
+    (doto (create-union-graph repo
+                              (cond-> {:union-graph (URI. union-graph)}
+                                alias-graph (assoc :alias-graph (URI. alias-graph))
+                                alias-predicate (assoc :alias-predicate (URI. alias-predicate)))
+                              global-writes-lock)
+      (schedule-sync!))))
 
 (defmethod ig/init-key ::endpoint [_ {:keys [repo] :as opts}]
-  (live-endpoint-with-stasher repo))
+  (live-endpoint-with-stasher repo (::union-graph opts)))
@@ -22,5 +22,11 @@
 
 (s/def ::backend/DraftsetGraphMapping (s/map-of uri? uri?))
 
+(defmethod ig/pre-init-spec ::live/union-graph [_]
+  (s/keys :req-un [::backend/repo]
+          :req [:drafter/global-writes-lock]
+          :opt-un [::live/alias-graph ::live/alias-predicate]))
+
 (defmethod ig/pre-init-spec ::live/endpoint [_]
-  (s/keys :req-un [::backend/repo]))
+  (s/keys :req-un [::backend/repo]
+          :opt [::live/union-graph]))
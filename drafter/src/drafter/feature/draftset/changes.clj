@@ -1,6 +1,8 @@
 (ns drafter.feature.draftset.changes
   (:require [clojure.spec.alpha :as s]
+            [drafter.async.jobs :as ajobs]
             [drafter.backend.draftset.draft-management :as mgmt]
+            [drafter.backend.draftset.graphs :as graphs]
             [drafter.backend.draftset.operations :as dsops]
             [drafter.feature.common :as feat-common]
             [drafter.feature.middleware :as middleware]
@@ -11,7 +13,8 @@
             [drafter.requests :as req]
             [drafter.rdf.drafter-ontology :refer [modified-times-graph-uri]]
             [drafter.feature.modified-times :as modified-times]
-            [drafter.time :as time]))
+            [drafter.time :as time]
+            [drafter.write-scheduler :as writes]))
 
 (defn revert-graph-changes!
   "Reverts the changes made to a live graph inside the given
@@ -26,6 +29,39 @@
       :reverted)
     :not-found))
 
+(def revert-batch-size
+  "Maximum number of graphs reverted by each update of a bulk revert"
+  100)
+
+(defn revert-graphs-changes!
+  "Reverts the changes made to a collection of live graphs inside the
+  given draftset, or to all of the user graphs in the draftset if graphs
+  is nil. The draft graphs to delete are found up front and deleted in
+  batches of revert-batch-size graphs per update. The modified times are
+  updated after each batch, so if a batch fails the draftset is left
+  consistent with the batches already reverted. (progress-fn completed
+  total) is called after each batch. Returns a map of the :reverted and
+  :not-found graphs."
+  [{:keys [backend graph-manager clock] :as manager} draftset-ref graphs progress-fn]
+  (let [live->draft (->> (dsops/get-draftset-graph-mapping backend draftset-ref)
+                         (filter (fn [[live-graph _]] (graphs/user-graph? graph-manager live-graph)))
+                         (into {}))
+        graphs (or graphs (keys live->draft))
+        to-revert (select-keys live->draft graphs)
+        total (count to-revert)]
+    (progress-fn 0 total)
+    (reduce (fn [completed batch]
+              (let [draft-graphs (map second batch)]
+                (mgmt/delete-draft-graphs! backend draft-graphs)
+                (modified-times/draft-graphs-reverted! backend graph-manager draftset-ref draft-graphs (time/now clock)))
+              (let [completed (+ completed (count batch))]
+                (progress-fn completed total)
+                completed))
+            0
+            (partition-all revert-batch-size to-revert))
+    {:reverted (vec (keys to-revert))
+     :not-found (vec (remove (partial contains? to-revert) graphs))}))
+
 (defn delete-draftset-changes-handler
   [{:keys [wrap-as-draftset-owner] {:keys [backend] :as manager} :drafter/manager}]
   (wrap-as-draftset-owner :drafter:draft:edit
@@ -45,9 +81,33 @@
              (ring/response (dsops/get-draftset-info backend draftset-id))
              (ring/not-found "")))))))))
 
+(defn revert-changes-handler
+  "Reverts the changes to the supplied graphs, or to all graphs if none
+  are supplied, within a draftset in a single job."
+  [{:keys [wrap-as-draftset-owner] {:keys [backend] :as manager} :drafter/manager}]
+  (wrap-as-draftset-owner :drafter:draft:edit
+   (middleware/parse-graphs-param-handler
+    false
+    (fn [{{:keys [draftset-id graph metadata]} :params :as request}]
+      (writes/submit-async-job!
+       (jobutil/make-job (req/user-id request) :background-write
+         (jobutil/job-metadata backend draftset-id 'revert-draftset-changes metadata)
+         (fn [job]
+           (let [{:keys [reverted not-found]} (revert-graphs-changes! manager draftset-id graph
+                                                                      (partial ajobs/job-progress! job))]
+             (ajobs/job-succeeded! job {:reverted (mapv str reverted)
+                                        :not-found (mapv str not-found)})))))))))
+
 (defmethod ig/pre-init-spec :drafter.feature.draftset.changes/delete-changes-handler [_]
   (s/keys :req [:drafter/manager]
           :req-un [::wrap-as-draftset-owner]))
 
 (defmethod ig/init-key :drafter.feature.draftset.changes/delete-changes-handler [_ opts]
   (delete-draftset-changes-handler opts))
+
+(defmethod ig/pre-init-spec :drafter.feature.draftset.changes/revert-changes-handler [_]
+  (s/keys :req [:drafter/manager]
+          :req-un [::wrap-as-draftset-owner]))
+
+(defmethod ig/init-key :drafter.feature.draftset.changes/revert-changes-handler [_ opts]
+  (revert-changes-handler opts))
@@ -8,17 +8,22 @@
             [integrant.core :as ig]))
 
 (defn handler
-  [{backend :drafter/backend :keys [wrap-as-draftset-viewer timeout-fn]}]
+  [{backend :drafter/backend :keys [wrap-as-draftset-viewer timeout-fn query-executor admission-control]}]
   (wrap-as-draftset-viewer :drafter:draft:view
    (parse-union-with-live-handler
     (fn [{{:keys [draftset-id union-with-live]} :params :as request}]
       (let [executor (backend/endpoint-repo backend draftset-id {:union-with-live? union-with-live})
-            handler (sparql-protocol-handler {:repo executor :timeout-fn timeout-fn})]
+            handler (sparql-protocol-handler {:repo executor
+                                              :timeout-fn timeout-fn
+                                              :query-executor query-executor
+                                              :admission-control admission-control
+                                              :endpoint :draftset})]
         (handler request))))))
 
 (defmethod ig/pre-init-spec ::handler [_]
   (s/keys :req [:drafter/backend]
-          :req-un [::wrap-as-draftset-viewer ::sp/timeout-fn]))
+          :req-un [::wrap-as-draftset-viewer ::sp/timeout-fn]
+          :opt-un [::sp/query-executor ::sp/admission-control]))
 
 (def cors-allowed-headers
   #{"Accept"
@@ -53,6 +53,10 @@
             [drafter.time :as time]
             [drafter.rdf.jena :as jena]
             [drafter.feature.modified-times :as modified-times]
+            [drafter.feature.draftset.update.stream :as stream]
+            [drafter.feature.common :as feat-common]
+            [drafter.requests :as req]
+            [drafter.routes.draftsets-api :refer [parse-query-param-flag-handler]]
             [clojure.tools.logging :as log])
   (:import java.net.URI
            [org.apache.jena.sparql.modify.request
@@ -149,21 +153,45 @@
                    :live? true}]))
        (into {})))
 
-(defn- graph-size [backend graph-uri max-update-size]
-  (:c (first (sparql/eager-query backend (format "SELECT (COUNT(*) AS ?c)
-                                                  FROM <%s>
-                                                  WHERE {
-                                                    SELECT *
-                                                    WHERE { ?s ?p ?o }
-                                                    LIMIT %d
-                                                  }"
-                                                 graph-uri
-                                                 (inc max-update-size))))))
+(def ^:private graph-sizes-batch-size 100)
+
+(defn- graph-sizes-query
+  "Returns a query for the number of statements in each of the given graphs. At most
+   (inc max-update-size) statements are counted per graph, since the sizes are only
+   used to check whether graphs are small enough to update."
+  [graph-uris max-update-size]
+  (format "SELECT ?g ?c WHERE { %s }"
+          (str/join " UNION "
+                    (map (fn [graph-uri]
+                           (format "{
+                                      SELECT (<%s> AS ?g) (COUNT(*) AS ?c)
+                                      WHERE {
+                                        SELECT *
+                                        WHERE { GRAPH <%s> { ?s ?p ?o } }
+                                        LIMIT %d
+                                      }
+                                    }"
+                                   graph-uri graph-uri (inc max-update-size)))
+                         graph-uris))))
+
+(defn- graph-sizes
+  "Returns a map of graph URI => (capped) number of statements for all the given
+   graphs, asking for a batch of graphs per query"
+  [backend graph-uris max-update-size]
+  (->> (partition-all graph-sizes-batch-size (distinct graph-uris))
+       (mapcat (fn [batch]
+                 (sparql/eager-query backend (graph-sizes-query batch max-update-size))))
+       (map (juxt :g :c))
+       (into {})))
 
 (defn- get-graph-meta
   "Returns a map of live graph URI => graph state for all the graphs affected by an
-   UPDATE request within a draftset. Draft graph URIs are generated for new graphs
-   and these must be created by the relevant state graph management operations."
+   UPDATE request within a draftset, along with all the other graphs in the draftset.
+   Draft graph URIs are generated for new graphs and these must be created by the
+   relevant state graph management operations.
+
+   The :live-size of live graphs and :draft-size of draft graphs affected by the
+   update are fetched together, other graphs are given no sizes."
   [backend draftset-id ^UpdateRequest update-request max-update-size]
   (let [new-graph (fn [lg]
                     [lg {:graph-uri lg
@@ -172,20 +200,29 @@
                          :draft? false
                          :live? false}])
         affected-graphs (->> (.getOperations update-request)
-                             (map (juxt identity affected-graphs)))
-        affected-graphs (->> (map second affected-graphs)
+                             (map affected-graphs)
                              (apply set/union)
                              (map new-graph)
-                             (into {}))]
-    (->> (merge-with merge
-                     affected-graphs
-                     (get-live-graphs backend (keys affected-graphs))
-                     (get-draft-graphs backend draftset-id))
+                             (into {}))
+        graph-meta (merge-with merge
+                               affected-graphs
+                               (get-live-graphs backend (keys affected-graphs))
+                               (get-draft-graphs backend draftset-id))
+        affected-meta (select-keys graph-meta (keys affected-graphs))
+        sizes (graph-sizes backend
+                           (keep (fn [[lg {:keys [state draft-graph-uri]}]]
+                                   (case state
+                                     :draft draft-graph-uri
+                                     :live lg
+                                     nil))
+                                 affected-meta)
+                           max-update-size)]
+    (->> affected-meta
          (map (fn [[lg {dg :draft-graph-uri :as meta}]]
                 [lg (assoc meta
-                           :draft-size (graph-size backend dg max-update-size)
-                           :live-size (graph-size backend lg max-update-size))]))
-         (into {}))))
+                           :draft-size (get sizes dg 0)
+                           :live-size (get sizes lg 0))]))
+         (into graph-meta))))
 
 ;; abstract operations
 
@@ -260,13 +297,10 @@
   (let [affected-graph-states (select-keys graph-states affected-graphs)
         affected-draft-graphs (set (map :draft-graph-uri (vals affected-graph-states)))
         setup-ops (mapcat (fn [gm] (insert-delete-graph-operations gm max-update-size)) (vals affected-graph-states))
-
-        ;; need to rewrite live data after any clone operations
-        is-clone-op? (fn [op] (= :clone (:type op)))
-        does-clone? (boolean (some is-clone-op? setup-ops))
-        rewrite-ds (when does-clone? [(rewrite-draftset-op)])
         touch-ops (map touch-graph-op affected-draft-graphs)]
-    (concat setup-ops rewrite-ds [(rewrite-op op)] touch-ops)))
+    ;; NOTE: live data is rewritten after the clone operations once for the
+    ;; whole update, see order-operations
+    (concat setup-ops [(rewrite-op op)] touch-ops)))
 
 ;; update plan
 
@@ -307,6 +341,23 @@
 (defn- empty-plan? [{:keys [operations draft-graphs-to-touch]}]
   (and (empty? operations) (empty? draft-graphs-to-touch)))
 
+(def ^:private setup-operation-types
+  #{:create-new-draft :create-live-draft :clone})
+
+(defn- order-operations
+  "Moves the draft creation and clone operations of an update plan before all of
+   the other operations, followed by a single rewrite of the draftset if any live
+   graphs were cloned. The setup operations only depend on the live graphs which
+   are not modified by the update, so the copies can be applied together and the
+   cloned data rewritten once for the whole update rather than once for each
+   operation which clones."
+  [{:keys [operations] :as plan}]
+  (let [{setup true other false} (group-by (comp boolean setup-operation-types :type) operations)
+        does-clone? (boolean (some (fn [op] (= :clone (:type op))) setup))]
+    (assoc plan :operations (vec (concat setup
+                                         (when does-clone? [(rewrite-draftset-op)])
+                                         other)))))
+
 (defn- plan-update
   "Constructs an update plan from a sequence of Jena Update operations and the state of all affected graphs.
    Each Update operation is processed in order and the corresponding abstract operations are used to update the
@@ -314,11 +365,12 @@
    result."
   [operations graph-meta max-update-size]
   (let [empty-plan (create-empty-plan graph-meta)]
-    (reduce (fn [{:keys [graph-meta] :as plan} op]
-              (let [abstract-ops (abstract-operations op graph-meta max-update-size)]
-                (reduce add-to-plan plan abstract-ops)))
-            empty-plan
-            operations)))
+    (order-operations
+     (reduce (fn [{:keys [graph-meta] :as plan} op]
+               (let [abstract-ops (abstract-operations op graph-meta max-update-size)]
+                 (reduce add-to-plan plan abstract-ops)))
+             empty-plan
+             operations))))
 
 (defn- quad-graph-uri [^Quad q]
   (URI. (.getURI (.getGraph q))))
@@ -486,16 +538,45 @@
       (throw (ex-info "Method not supported"
                       {:error :method-not-allowed :method request-method})))))
 
+(defn- get-update-source
+  "Extracts the UPDATE query string or body input stream from a representation of
+   the input request parameters, without reading the body"
+  [{:keys [update] :as params}]
+  (if (instance? java.io.InputStream update)
+    update
+    (get-update-query params)))
+
+(defn- stream-update
+  "Applies a streamed update as a sync write job, so it holds the global
+   writes lock while the request is read and cannot interleave with
+   publishes or other sync writes to the draftset"
+  [manager request]
+  (let [{:keys [request-method]} request]
+    (if (= request-method :post)
+      (let [draftset-ref (ds/->DraftsetId (parse-draftset-id request))
+            update-source (get-update-source (parse-update-params request))]
+        (feat-common/run-sync manager
+                              (req/user-id request)
+                              'stream-draftset-update
+                              draftset-ref
+                              #(stream/update! manager draftset-ref update-source)
+                              identity))
+      (throw (ex-info "Method not supported"
+                      {:error :method-not-allowed :method request-method})))))
+
 (defn- handler*
   [{:keys [drafter/manager max-update-size] :as opts} request]
   ;; TODO: write-lock?
-  (let [{:keys [update-request draftset-id]} (parse-update manager request max-update-size)]
-    (update! manager max-update-size draftset-id update-request)
-    {:status 204}))
+  (if (get-in request [:params :stream])
+    (stream-update manager request)
+    (let [{:keys [update-request draftset-id]} (parse-update manager request max-update-size)]
+      (update! manager max-update-size draftset-id update-request)))
+  {:status 204})
 
 (defn handler
   [{:keys [wrap-as-draftset-owner] :as opts}]
-  (wrap-as-draftset-owner :drafter:draft:edit (fn [request] (handler* opts request))))
+  (wrap-as-draftset-owner :drafter:draft:edit
+    (parse-query-param-flag-handler :stream (fn [request] (handler* opts request)))))
 
 (def cors-allowed-headers
   #{"Accept"
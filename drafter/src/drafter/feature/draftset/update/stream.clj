@@ -0,0 +1,134 @@
+(ns drafter.feature.draftset.update.stream
+  "Streaming execution of SPARQL UPDATE requests within a draft.
+
+  Updates executed by drafter.feature.draftset.update are parsed and
+  planned in memory, so they are limited to max-update-size
+  statements. Streamed updates may only contain `INSERT DATA` and
+  `DELETE DATA` operations, but are not limited in size. The quads of
+  each operation are read incrementally as the request is parsed and
+  applied in batches of at most `jobs/batched-write-size` quads by the
+  append and delete state machines used by the draftset data routes,
+  so memory use is bounded by the batch size rather than the size of
+  the request. The handler runs update! as a sync write job, so the
+  global writes lock is held while the request is read and no publish
+  or other sync write can change the draftset between batches.
+
+  Operations are applied in the order they occur in the request but,
+  unlike planned updates, a streamed update is not atomic: any batches
+  applied before an invalid operation or quad is encountered remain
+  in the draftset."
+  (:require [clojure.tools.logging :as log]
+            [drafter.backend.draftset.graphs :as graphs]
+            [drafter.backend.draftset.operations :as dsops]
+            [drafter.feature.draftset-data.append :as append]
+            [drafter.feature.draftset-data.common :as ds-data-common]
+            [drafter.feature.draftset-data.delete :as delete]
+            [drafter.rdf.draftset-management.job-util :as jobs]
+            [drafter.rdf.jena :as jena]
+            [drafter.rdf.sesame :as ses]
+            [grafter-2.rdf.protocols :as pr])
+  (:import clojure.lang.ExceptionInfo
+           java.io.InputStream
+           java.util.ArrayList
+           org.apache.jena.atlas.lib.Sink
+           [org.apache.jena.query QueryException QueryParseException Syntax]
+           [org.apache.jena.sparql.core Prologue Quad]
+           [org.apache.jena.sparql.lang SPARQLParserRegistry UpdateParser]
+           org.apache.jena.sparql.modify.UpdateSink
+           org.apache.jena.sparql.modify.request.QuadDataAccSink))
+
+(defn- apply-batch!
+  "Applies a batch of quads to a draftset with a draftset data state machine"
+  [{:keys [backend] :as manager} draftset-ref sm quads]
+  (when (seq quads)
+    (let [live->draft (dsops/get-draftset-graph-mapping backend draftset-ref)
+          context (ds-data-common/job-context manager draftset-ref)
+          source (ses/->CollectionStatementSource quads)]
+      (ds-data-common/exec-state-machine-sync sm live->draft source context))))
+
+(defn- ->quad
+  "Converts a quad read from an update into a grafter quad. Throws if the
+   quad is in the default graph or a protected graph."
+  [graph-manager ^Quad quad]
+  (when (.isDefaultGraph quad)
+    (throw (ex-info "All statements must have an explicit target graph"
+                    {:error :unprocessable-request})))
+  (let [q (jena/->grafter-quad quad)]
+    (when (graphs/protected-graph? graph-manager (pr/context q))
+      (throw (ex-info "403 Forbidden: Protected graphs in update request"
+                      {:error :forbidden})))
+    q))
+
+(defn- batch-sink
+  "Returns a sink for the quads of a data operation which applies them to
+   a draftset in batches with the state machine sm. The final batch is
+   applied when the sink is closed at the end of the operation."
+  [{:keys [graph-manager] :as manager} draftset-ref sm counter]
+  (let [batch (ArrayList.)
+        flush-batch! (fn []
+                       (apply-batch! manager draftset-ref sm (vec batch))
+                       (.clear batch))]
+    (reify Sink
+      (send [_this quad]
+        (.add batch (->quad graph-manager quad))
+        (vswap! counter inc)
+        (when (>= (.size batch) jobs/batched-write-size)
+          (flush-batch!)))
+      (flush [_this]
+        (flush-batch!))
+      (close [_this]
+        (flush-batch!)))))
+
+(defn- update-sink
+  "Returns a Jena UpdateSink which applies the INSERT DATA and DELETE DATA
+   operations of an update to a draftset as they are parsed, and rejects
+   all other operations"
+  [manager draftset-ref counts]
+  (let [prologue (Prologue.)
+        current (volatile! nil)
+        open-sink! (fn [sm counter]
+                     ;; the previous operation must be applied before the
+                     ;; next one starts
+                     (some-> ^Sink @current (.close))
+                     (vreset! current (batch-sink manager draftset-ref sm counter)))]
+    (reify UpdateSink
+      (getPrologue [_this] prologue)
+      (createInsertDataSink [_this]
+        (QuadDataAccSink. (open-sink! (append/append-state-machine) (:inserted counts))))
+      (createDeleteDataSink [_this]
+        (QuadDataAccSink. (open-sink! (delete/delete-state-machine) (:deleted counts))))
+      (send [_this update]
+        (throw (ex-info (str "Only INSERT DATA and DELETE DATA operations can be streamed, found: " update)
+                        {:error :unprocessable-request})))
+      (flush [_this]
+        (some-> ^Sink @current (.flush)))
+      (close [_this]
+        (some-> ^Sink @current (.close))
+        (vreset! current nil)))))
+
+(defn update!
+  "Parses a SPARQL UPDATE from update-source, either a string or an
+   InputStream, and applies its operations to the draftset as it is read.
+   Returns a map with the number of quads :inserted and :deleted."
+  [manager draftset-ref update-source]
+  (let [counts {:inserted (volatile! 0) :deleted (volatile! 0)}
+        ^UpdateSink sink (update-sink manager draftset-ref counts)
+        ^UpdateParser parser (.createUpdateParser (SPARQLParserRegistry/get) Syntax/syntaxSPARQL_11)]
+    (dsops/with-catalog-update (:backend manager) draftset-ref
+      (try
+        (if (instance? InputStream update-source)
+          (.parse parser sink (.getPrologue sink) ^InputStream update-source)
+          (.parse parser sink (.getPrologue sink) ^String update-source))
+        (catch QueryParseException ex
+          (throw (ex-info (str "Invalid SPARQL update: " (.getMessage ex))
+                          {:error :bad-request}
+                          ex)))
+        (catch QueryException ex
+          ;; the parser wraps exceptions thrown by the sinks, so unwrap our
+          ;; own errors to preserve their response status
+          (let [cause (ex-cause ex)]
+            (throw (if (instance? ExceptionInfo cause) cause ex)))))
+      (.close sink))
+    (let [result {:inserted @(:inserted counts) :deleted @(:deleted counts)}]
+      (log/infof "Streamed draft UPDATE into draftset %s: %s" draftset-ref result)
+      result)))
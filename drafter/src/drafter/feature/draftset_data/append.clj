@@ -6,7 +6,7 @@
    [drafter.draftset :as ds]
    [drafter.feature.draftset-data.common :as ds-data-common]
    [drafter.feature.draftset-data.middleware :as dset-middleware]
-   [drafter.middleware :refer [require-rdf-content-type temp-file-body inflate-gzipped]]
+   [drafter.middleware :refer [require-rdf-content-type spool-body release-spooled-body-after!]]
    [drafter.rdf.draftset-management.job-util :as jobs]
    [drafter.requests :as req]
    [drafter.responses :as response]
@@ -26,9 +26,11 @@
     ;;WARNING: This assumes the backend is a sesame backend which is
     ;;true for all current backends.
     (with-open [conn (repo/->connection repo)]
-      (pr/add conn graph-uri triple-batch)
-      (mgmt/rewrite-draftset! conn {:draftset-uri (ds/->draftset-uri draftset-ref)
-                                    :deleted :ignore}))))
+      (ds-data-common/timed-phase "insert"
+        (pr/add conn graph-uri triple-batch))
+      (ds-data-common/timed-phase "rewrite"
+        (mgmt/rewrite-draftset! conn {:draftset-uri (ds/->draftset-uri draftset-ref)
+                                      :deleted :ignore})))))
 
 (defn- append-to-draft-graph [state {:keys [draftset-ref] :as context} draft-graph-uri triples]
   (let [repo (ds-data-common/get-repo context)]
@@ -118,22 +120,22 @@
 (defn data-handler
   "Ring handler to append data into a draftset."
   [{:keys [:drafter/manager
-           ::time/clock wrap-as-draftset-owner]}]
+           ::time/clock wrap-as-draftset-owner body-spooler]}]
   (wrap-as-draftset-owner :drafter:draft:edit
     (require-rdf-content-type
       (dset-middleware/parse-graph-for-triples
-        (temp-file-body
-          (inflate-gzipped
-            (fn [{:keys [params] :as request}]
-              (let [user-id (req/user-id request)
-                    {:keys [draftset-id metadata]} params
-                    source (ds-data-common/get-request-statement-source request)
-                    append-job (append-data manager user-id draftset-id source metadata)]
-                (response/submitted-job-response append-job)))))))))
+        (spool-body body-spooler
+          (fn [{:keys [params] :as request}]
+            (let [user-id (req/user-id request)
+                  {:keys [draftset-id metadata]} params
+                  source (ds-data-common/get-request-statement-source request)
+                  append-job (append-data manager user-id draftset-id source metadata)]
+              (release-spooled-body-after! request append-job)
+              (response/submitted-job-response append-job))))))))
 
 (defmethod ig/pre-init-spec ::data-handler [_]
   (s/keys :req [:drafter/manager]
-          :req-un [::wrap-as-draftset-owner]))
+          :req-un [::wrap-as-draftset-owner ::body-spooler]))
 
 (defmethod ig/init-key ::data-handler [_ opts]
   (data-handler opts))
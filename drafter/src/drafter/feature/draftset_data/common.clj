@@ -5,6 +5,7 @@
    [drafter.backend.draftset.graphs :as graphs]
    [drafter.backend.draftset.operations :as ops]
    [drafter.feature.modified-times :as modified-times]
+   [drafter.metrics :as metrics]
    [drafter.rdf.drafter-ontology :refer [modified-times-graph-uri]]
    [drafter.rdf.draftset-management.job-util :as jobs]
    [drafter.rdf.sesame :as ses]
@@ -32,11 +33,26 @@
         (throw (IllegalArgumentException.
                 (str "All statements must have an explicit target graph. The following statements have no graph:\n" sw)))))))
 
+(defmacro timed-phase
+  "Records the time taken by a phase of a draftset write job, e.g. parse,
+  insert, rewrite or metadata"
+  {:style/indent 1}
+  [phase & body]
+  `(metrics/timed "drafter.draftset.write" {:phase ~phase} ~@body))
+
+(defn- timed-batches
+  "Records the time taken to read each batch from a lazy sequence of
+  batches as the parse phase"
+  [batches]
+  (lazy-seq
+   (when-let [s (timed-phase "parse" (seq batches))]
+     (cons (first s) (timed-batches (rest s))))))
+
 (defn- source->quad-batches
   "Reads a statement source into a sequence of quad batches"
   [source]
   (let [quads (rio/statements source)]
-    (util/batch-partition-by quads pr/context jobs/batched-write-size)))
+    (timed-batches (util/batch-partition-by quads pr/context jobs/batched-write-size))))
 
 (defn get-request-statement-source
   "Returns an ITripleReadable statement source from an incoming jobs request"
@@ -135,14 +151,16 @@
 
 (defn draft-graph-appended [state {:keys [draftset-ref job-started-at] :as context} draft-graph-uri]
   (let [[state dmg] (ensure-draft-modifications-graph state context)]
-    (modified-times/draft-graph-appended! (get-repo context) draftset-ref dmg draft-graph-uri job-started-at)
+    (timed-phase "metadata"
+      (modified-times/draft-graph-appended! (get-repo context) draftset-ref dmg draft-graph-uri job-started-at))
     state))
 
 (defn draft-graph-deletion
   "Updates the modifications graph in response to some data being deleted from a draft graph"
   [state {:keys [draftset-ref job-started-at] :as context} draft-graph-uri]
   (let [[state dmg] (ensure-draft-modifications-graph state context)]
-    (modified-times/draft-graph-data-deleted! (get-repo context) draftset-ref dmg draft-graph-uri job-started-at)
+    (timed-phase "metadata"
+      (modified-times/draft-graph-data-deleted! (get-repo context) draftset-ref dmg draft-graph-uri job-started-at))
     state))
 
 (defn remove-draft-only-graph-modified-time
@@ -189,31 +207,46 @@
     "Execute a single transition of this machine from the given current state and
      return the transitioned-to state."))
 
+(defn- timed-step
+  "Executes a single transition of a state machine, recording the time
+  taken as the batch phase"
+  [sm state context]
+  (timed-phase "batch"
+    (step sm state context)))
+
 (defn exec-state-machine-job
   "Executes the given state machine asynchronously within a job. Each state transition
-   is queued as a continuation until the job is completed with the final result."
-  [sm live->draft source context job]
-  (letfn [(step-job [state job]
-            (let [next-state (step sm state context)]
-              (if (job-done? next-state)
-                (if-let [result (::result next-state)]
-                  (ajobs/job-succeeded! job result)
-                  (ajobs/job-succeeded! job))
-                (let [next-job (-> job
-                                   (ajobs/child-job-completed!)
-                                   (ajobs/create-child-job (partial step-job next-state)))]
-                  (writes/queue-job! next-job)))))]
-    (let [initial-state (create-initial-state sm live->draft source)]
-      (step-job initial-state job))))
+   is queued as a continuation until the job is completed with the final result. The
+   draftset is updated in the catalog once the job has completed."
+  [sm live->draft source {:keys [draftset-ref] :as context} job]
+  (let [repo (get-repo context)
+        catalog-update (ops/begin-catalog-update repo)]
+    (letfn [(step-job [state job]
+              (let [next-state (ops/call-within-catalog-update catalog-update
+                                 #(timed-step sm state context))]
+                (if (job-done? next-state)
+                  (do
+                    (ops/finish-catalog-update! repo draftset-ref catalog-update)
+                    (if-let [result (::result next-state)]
+                      (ajobs/job-succeeded! job result)
+                      (ajobs/job-succeeded! job)))
+                  (let [next-job (-> job
+                                     (ajobs/child-job-completed!)
+                                     (ajobs/create-child-job (partial step-job next-state)))]
+                    (writes/queue-job! next-job)))))]
+      (let [initial-state (create-initial-state sm live->draft source)]
+        (step-job initial-state job)))))
 
 (defn exec-state-machine-sync
-  "Executes the given state machine synchronously and returns the result"
-  [sm live->draft source context]
-  (let [initial-state (create-initial-state sm live->draft source)]
-    (loop [next-state (step sm initial-state context)]
-      (if (job-done? next-state)
-        (::result next-state)
-        (recur (step sm next-state context))))))
+  "Executes the given state machine synchronously and returns the result. The
+   draftset is updated in the catalog once the state machine has completed."
+  [sm live->draft source {:keys [draftset-ref] :as context}]
+  (ops/with-catalog-update (get-repo context) draftset-ref
+    (let [initial-state (create-initial-state sm live->draft source)]
+      (loop [next-state (timed-step sm initial-state context)]
+        (if (job-done? next-state)
+          (::result next-state)
+          (recur (timed-step sm next-state context)))))))
 
 (defn create-state-machine-job
   "Creates a draftset update job for a user within a draftset for a source of quads and an
@@ -6,7 +6,7 @@
             [drafter.draftset :as ds]
             [drafter.feature.draftset-data.common :as ds-data-common]
             [drafter.feature.draftset-data.middleware :as deset-middleware]
-            [drafter.middleware :refer [require-rdf-content-type temp-file-body inflate-gzipped]]
+            [drafter.middleware :refer [require-rdf-content-type spool-body release-spooled-body-after!]]
             [drafter.rdf.draftset-management.job-util :as jobs]
             [drafter.rdf.sesame :refer [is-quads-format? read-statements]]
             [drafter.util :as util]
@@ -42,7 +42,8 @@
   [{:keys [live->draft] :as state} {:keys [draftset-ref] :as context} live-graph-uri draft-graph-uri batch]
   ;; delete triples
   (let [repo (ds-data-common/get-repo context)]
-    (delete-draft-batch repo live->draft batch)
+    (ds-data-common/timed-phase "delete"
+      (delete-draft-batch repo live->draft batch))
 
     ;; if the deleting graph only exists in the draft and becomes empty the associated draft graph should be removed
     ;; 1. remove the graph from the live->draft graph mapping if required
@@ -58,9 +59,10 @@
                   (ds-data-common/draft-graph-deletion state context draft-graph-uri))]
 
       ;; rewrite draft
-      (with-open [conn (repo/->connection repo)]
-        (mgmt/unrewrite-draftset! conn {:draftset-uri (ds/->draftset-uri draftset-ref)
-                                        :deleted      :rewrite}))
+      (ds-data-common/timed-phase "rewrite"
+        (with-open [conn (repo/->connection repo)]
+          (mgmt/unrewrite-draftset! conn {:draftset-uri (ds/->draftset-uri draftset-ref)
+                                          :deleted      :rewrite})))
 
       ;; if the deleted triples have caused the graph to become empty and the graph does not exist in live
       ;; it should be removed from the draft. WARNING: The graph should only be removed after the draft
@@ -120,22 +122,22 @@
     (writes/enqueue-async-job! job)))
 
 (defn delete-draftset-data-handler
-  [{:keys [:drafter/manager wrap-as-draftset-owner]}]
+  [{:keys [:drafter/manager wrap-as-draftset-owner body-spooler]}]
   (->> (fn [{:keys [params] :as request}]
          (let [user-id (req/user-id request)
                {:keys [draftset-id metadata]} params
                source (ds-data-common/get-request-statement-source request)
                delete-job (delete-data manager user-id draftset-id source metadata)]
+           (release-spooled-body-after! request delete-job)
            (response/submitted-job-response delete-job)))
-       inflate-gzipped
-       temp-file-body
+       (spool-body body-spooler)
        deset-middleware/parse-graph-for-triples
        require-rdf-content-type
        (wrap-as-draftset-owner :drafter:draft:edit)))
 
 (defmethod ig/pre-init-spec :drafter.feature.draftset-data.delete/delete-data-handler [_]
   (s/keys :req [:drafter/manager]
-          :req-un [::wrap-as-draftset-owner]))
+          :req-un [::wrap-as-draftset-owner ::body-spooler]))
 
 (defmethod ig/init-key :drafter.feature.draftset-data.delete/delete-data-handler [_ opts]
   (delete-draftset-data-handler opts))
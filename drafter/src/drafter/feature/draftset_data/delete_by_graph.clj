@@ -1,6 +1,7 @@
 (ns drafter.feature.draftset-data.delete-by-graph
   (:require
    [clojure.spec.alpha :as s]
+   [clojure.string :as string]
    [drafter.async.jobs :as ajobs]
    [drafter.backend.draftset.draft-management :as mgmt]
    [drafter.backend.draftset.graphs :as graphs]
@@ -18,9 +19,10 @@
    [ring.util.response :as ring]))
 
 (defn- delete-graph-job [{:keys [backend graph-manager clock] :as manager} draftset-ref graph-uri]
-  (let [draft-graph-uri (graphs/delete-user-graph graph-manager draftset-ref graph-uri)]
-    (modified-times/draft-graph-deleted! backend graph-manager draftset-ref draft-graph-uri (time/now clock))
-    nil))
+  (dsops/with-catalog-update backend draftset-ref
+    (let [draft-graph-uri (graphs/delete-user-graph graph-manager draftset-ref graph-uri)]
+      (modified-times/draft-graph-deleted! backend graph-manager draftset-ref draft-graph-uri (time/now clock))
+      nil)))
 
 (defn delete-graph
   "Deletes the given live graph within a draftset. Returns the draftset summary for the
@@ -49,6 +51,39 @@
     :else
     (throw (ex-info "Graph not found" {:type ::graph-not-found :graph graph}))))
 
+(defn- delete-graphs-job [{:keys [backend graph-manager clock] :as manager} draftset-ref graph-uris]
+  (dsops/with-catalog-update backend draftset-ref
+    (let [live->draft (graphs/delete-user-graphs graph-manager draftset-ref graph-uris)]
+      (modified-times/draft-graphs-deleted! backend graph-manager draftset-ref (vals live->draft) (time/now clock))
+      nil)))
+
+(defn delete-graphs
+  "Submits a single job to delete a collection of live graphs within a
+   draftset. Returns a ring response for the submitted job. If any of
+   the graphs are protected, no job is submitted and a forbidden
+   response is returned. If silent? is falsey and any of the graphs do
+   not exist, no job is submitted and an unprocessable entity response
+   is returned."
+  [{:keys [backend graph-manager] :as manager} user-id draftset-ref graphs silent? metadata]
+  (let [protected (filter (partial graphs/protected-graph? graph-manager) graphs)
+        missing (remove (mgmt/managed-graphs backend graphs) graphs)]
+    (cond
+      (seq protected)
+      (response/forbidden-response
+       (str "Protected graphs cannot be deleted: " (string/join ", " protected)))
+
+      (and (seq missing) (not silent?))
+      (response/unprocessable-entity-response
+       (str "Graphs not found: " (string/join ", " missing)))
+
+      :else
+      (writes/submit-async-job!
+       (jobs/make-job user-id :background-write
+         (jobs/job-metadata backend draftset-ref 'delete-draftset-graphs metadata)
+         (fn [job]
+           (delete-graphs-job manager draftset-ref graphs)
+           (ajobs/job-succeeded! job)))))))
+
 (defn sync-job [{:keys [drafter/manager]}]
   (fn [draftset-id graph user-id silent]
     (try
@@ -95,6 +130,17 @@
     :silent
     (feat-middleware/parse-graph-param-handler true (request-handler resources)))))
 
+(defn remove-graphs-from-draftset-handler
+  "Remove a collection of supplied graphs from the draftset in a single job."
+  [{:keys [wrap-as-draftset-owner drafter/manager] :as _resources}]
+  (wrap-as-draftset-owner :drafter:draft:edit
+   (parse-query-param-flag-handler
+    :silent
+    (feat-middleware/parse-graphs-param-handler
+     true
+     (fn [{{:keys [draftset-id graph silent metadata]} :params :as request}]
+       (delete-graphs manager (req/user-id request) draftset-id graph silent metadata))))))
+
 (defmethod ig/pre-init-spec :drafter.feature.draftset-data.delete-by-graph/sync-job-handler [_]
   (s/keys
     :req [:drafter/manager]))
@@ -120,3 +166,10 @@
 
 (defmethod ig/init-key :drafter.feature.draftset-data.delete-by-graph/remove-graph-handler [_ opts]
   (remove-graph-from-draftset-handler opts))
+
+(defmethod ig/pre-init-spec :drafter.feature.draftset-data.delete-by-graph/remove-graphs-handler [_]
+  (s/keys :req [:drafter/manager]
+          :req-un [::wrap-as-draftset-owner]))
+
+(defmethod ig/init-key :drafter.feature.draftset-data.delete-by-graph/remove-graphs-handler [_ opts]
+  (remove-graphs-from-draftset-handler opts))
@@ -35,6 +35,28 @@
         :else
         (inner-handler request)))))
 
+(defn parse-graphs-param-handler
+  "Handle HTTP responses associated with a graph parameter which may be
+  given more than once, e.g. on bulk draftset-data routes. The graph
+  parameter on the request passed to inner-handler is a collection of
+  URIs, or nil if it is not required? and was not given."
+  [required? inner-handler]
+  (fn [request]
+    (let [graphs (get-in request [:params :graph])
+          graphs (if (string? graphs) [graphs] graphs)
+          uris-or-exs (map try-parse-uri graphs)]
+      (cond
+        (empty? graphs)
+        (if required?
+          (unprocessable-entity-response "Graph parameter required")
+          (inner-handler (assoc-in request [:params :graph] nil)))
+
+        (every? #(instance? URI %) uris-or-exs)
+        (inner-handler (assoc-in request [:params :graph] (vec (distinct uris-or-exs))))
+
+        :else
+        (unprocessable-entity-response "Valid URIs required for graph parameter")))))
+
 (defn existing-draftset-handler [backend inner-handler]
   (fn [{{:keys [id]} :params :as request}]
     (let [draftset-id (ds/->DraftsetId id)]
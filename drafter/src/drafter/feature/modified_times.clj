@@ -99,6 +99,33 @@
     (draft-graph-removed repo graph-manager draftset-ref live->draft draft-graph-uri modified-at)
     nil))
 
+(defn draft-graphs-reverted!
+  "Indicates a collection of draft graphs have been removed from a draftset at the given time and updates the draft
+   modifications graph with a single compound update. The draft graphs must NOT still exist in the state graph mapping
+   for the draftset."
+  [repo graph-manager draftset-ref draft-graph-uris modified-at]
+  (when (seq draft-graph-uris)
+    (let [live->draft (dsops/get-draftset-graph-mapping repo draftset-ref)
+          dmg (get live->draft modified-times-graph-uri)
+          draftset-updates [(update-draftset-timestamp-query draftset-ref modified-at)
+                            (update-draftset-version-query draftset-ref)]]
+      (cond
+        (nil? dmg)
+        (sparql/update! repo (util/make-compound-sparql-query draftset-updates))
+
+        (has-remaining-user-graphs? graph-manager live->draft)
+        (let [q (slurp (io/resource "drafter/feature/modified_times/revert-graph-modified-at.sparql"))
+              graph-updates (map (fn [dg]
+                                   (QueryStringUtil/getUpdateString q (ses/map->binding-set {:dmg dmg :dg dg :modified modified-at})))
+                                 draft-graph-uris)]
+          (sparql/update! repo (util/make-compound-sparql-query (concat graph-updates draftset-updates))))
+
+        :else
+        (do
+          (mgmt/delete-draft-graph! repo dmg)
+          (sparql/update! repo (util/make-compound-sparql-query draftset-updates))))
+      nil)))
+
 (defn- ensure-draft-modifications-graph [graph-manager draftset-ref]
   (graphs/ensure-protected-graph-draft graph-manager draftset-ref modified-times-graph-uri))
 
@@ -107,6 +134,23 @@
     (update-draft-graph-modified repo draftset-ref dmg draft-graph-uri deleted-at)
     nil))
 
+(defn draft-graphs-deleted!
+  "Records the deletion of a collection of draft graphs within a draftset. The modified
+   times of all the graphs and the draftset are updated with a single compound update."
+  [repo graph-manager draftset-ref draft-graph-uris deleted-at]
+  (when (seq draft-graph-uris)
+    (let [dmg (ensure-draft-modifications-graph graph-manager draftset-ref)
+          q (slurp (io/resource "drafter/feature/modified_times/update-graph-modified-at.sparql"))
+          graph-updates (map (fn [dg]
+                               (QueryStringUtil/getUpdateString q (ses/map->binding-set {:dmg dmg :dg dg :modified deleted-at})))
+                             draft-graph-uris)]
+      (with-open [conn (repo/->connection repo)]
+        (sparql/update! conn (util/make-compound-sparql-query
+                              (concat graph-updates
+                                      [(update-draftset-timestamp-query draftset-ref deleted-at)
+                                       (update-draftset-version-query draftset-ref)]))))
+      nil)))
+
 (defn draft-only-graph-deleted! [repo graph-manager draftset-ref live->draft draft-graph-uri deleted-at]
   (draft-graph-removed repo graph-manager draftset-ref live->draft draft-graph-uri deleted-at))
 
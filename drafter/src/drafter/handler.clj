@@ -2,6 +2,7 @@
   (:require [compojure.core :refer [context defroutes]]
             [compojure.route :as route]
             [drafter.env :as denv]
+            [drafter.metrics :as metrics]
             [drafter.middleware :as middleware]
             [drafter.routes.status :refer [status-routes]]
             [integrant.core :as ig]
@@ -35,7 +36,8 @@
     global-writes-lock :drafter/global-writes-lock
     wrap-authenticate :wrap-authenticate
     swagger-routes :swagger-routes
-    global-auth? :global-auth?}]
+    global-auth? :global-auth?
+    metrics-registry :metrics}]
   (wrap-handler
    (app-handler
     ;; add your application routes here
@@ -45,6 +47,7 @@
         (add-route live-sparql-route)
         (add-route (context "/v1/status" [] (status-routes global-writes-lock)))
         (add-route jobs-status-routes)
+        (cond-> metrics-registry (add-route (metrics/prometheus-routes metrics-registry)))
         (add-routes (denv/env-specific-routes backend))
         (add-route app-routes))
 
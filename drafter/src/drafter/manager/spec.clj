@@ -6,6 +6,7 @@
             [drafter.backend.draftset.graphs.spec]
             [drafter.backend :as backend]
             [drafter.backend.spec]
+            [drafter.backend.live :as live]
             [drafter.write-scheduler :as write-scheduler]
             [drafter.write-scheduler.spec]
             [clojure.spec.alpha :as s]))
@@ -13,15 +14,18 @@
 (s/def ::manager/backend ::backend/repo)
 (s/def ::manager/graph-manager ::graphs/Manager)
 (s/def ::manager/global-writes-lock ::write-scheduler/WritesLock)
+(s/def ::manager/union-graph ::live/union-graph)
 
 (s/def :drafter/manager (s/keys :req-un [::manager/backend
                                          ::manager/graph-manager
                                          ::manager/global-writes-lock
-                                         ::time/clock]))
+                                         ::time/clock]
+                                :opt-un [::manager/union-graph]))
 
 (s/fdef manager/create-manager
   :args (s/alt :default (s/cat :repo ::backend/repo)
                :opts (s/cat :repo ::backend/repo :opts (s/keys :opt-un [::manager/graph-manager
                                                                         ::manager/global-writes-lock
-                                                                        ::time/clock])))
+                                                                        ::time/clock
+                                                                        ::manager/union-graph])))
   :ret :drafter/manager)
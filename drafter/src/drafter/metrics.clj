@@ -0,0 +1,169 @@
+(ns drafter.metrics
+  "Timing metrics for drafter's query and write paths.
+
+  Durations are measured with System/nanoTime and recorded to every
+  registered sink. The statsd sink is always registered and sends each
+  sample to dogstatsd as a histogram in fractional milliseconds, so
+  sub-millisecond timings such as stasher cache hits are no longer
+  truncated to 0. When :drafter.metrics/prometheus is enabled samples
+  are also aggregated in-process into fixed-bucket histograms, which
+  are served in the Prometheus text format at /metrics.
+
+  Tags are given as a map, e.g. {:phase \"insert\"}."
+  (:require [clojure.spec.alpha :as s]
+            [clojure.string :as str]
+            [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as dd]
+            [compojure.core :refer [GET routes]]
+            [integrant.core :as ig])
+  (:import [java.util Arrays]
+           [java.util.concurrent ConcurrentHashMap]
+           [java.util.concurrent.atomic DoubleAdder LongAdder]
+           [java.util.function Function]))
+
+(defprotocol Sink
+  (record-nanos! [sink metric-name tags nanos]
+    "Records a duration of nanos for the named metric"))
+
+(def statsd-sink
+  (reify Sink
+    (record-nanos! [_this metric-name tags nanos]
+      (dd/histogram! metric-name (/ nanos 1e6) (when (seq tags) {:tags tags})))))
+
+(defonce ^:private sinks (atom [statsd-sink]))
+
+(defn add-sink! [sink]
+  (swap! sinks conj sink))
+
+(defn remove-sink! [sink]
+  (swap! sinks (fn [ss] (vec (remove #(identical? sink %) ss)))))
+
+(defn now
+  "Returns the current value of the monotonic clock used for timings"
+  ^long []
+  (System/nanoTime))
+
+(defn record!
+  "Records a duration in nanoseconds for the named metric"
+  ([metric-name nanos]
+   (record! metric-name nil nanos))
+  ([metric-name tags nanos]
+   (doseq [sink @sinks]
+     (record-nanos! sink metric-name tags nanos))))
+
+(defn record-since!
+  "Records the time elapsed since start, a value returned by now"
+  ([metric-name start]
+   (record-since! metric-name nil start))
+  ([metric-name tags ^long start]
+   (record! metric-name tags (- (System/nanoTime) start))))
+
+(defmacro timed
+  "Evaluates body and records the time taken under metric-name with
+  the given tags, whether or not it throws"
+  {:style/indent 2}
+  [metric-name tags & body]
+  `(let [start# (now)]
+     (try
+       ~@body
+       (finally
+         (record-since! ~metric-name ~tags start#)))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; Prometheus
+
+(def default-buckets
+  "Histogram bucket upper bounds in seconds, from 50us to 5 minutes"
+  [0.00005 0.0001 0.00025 0.0005 0.001 0.0025 0.005 0.01 0.025 0.05
+   0.1 0.25 0.5 1 2.5 5 10 30 60 300])
+
+(deftype Histogram [^longs bounds counts ^LongAdder total ^DoubleAdder sum])
+
+(defn- histogram [buckets]
+  (let [bounds (long-array (map #(long (* % 1e9)) buckets))]
+    (->Histogram bounds
+                 (into-array LongAdder (repeatedly (inc (alength bounds)) #(LongAdder.)))
+                 (LongAdder.)
+                 (DoubleAdder.))))
+
+(defn- observe! [^Histogram h ^long nanos]
+  (let [bounds (.bounds h)
+        i (Arrays/binarySearch bounds nanos)
+        bucket (if (neg? i) (- (inc i)) i)]
+    (.increment ^LongAdder (aget ^objects (.counts h) bucket))
+    (.increment ^LongAdder (.total h))
+    (.add ^DoubleAdder (.sum h) (/ nanos 1e9))))
+
+(defrecord Registry [^ConcurrentHashMap histograms buckets]
+  Sink
+  (record-nanos! [_this metric-name tags nanos]
+    (let [h (.computeIfAbsent histograms [metric-name tags]
+                              (reify Function
+                                (apply [_ _] (histogram buckets))))]
+      (observe! h nanos))))
+
+(defn registry
+  ([] (registry default-buckets))
+  ([buckets] (->Registry (ConcurrentHashMap.) buckets)))
+
+(defn- prometheus-name [metric-name]
+  (str (str/replace metric-name #"[^a-zA-Z0-9_]" "_") "_seconds"))
+
+(defn- prometheus-labels [tags extra]
+  (let [labels (concat (map (fn [[k v]] [(name k) (str v)]) tags) extra)]
+    (if (seq labels)
+      (str "{"
+           (str/join "," (map (fn [[k v]]
+                                (str (str/replace k #"[^a-zA-Z0-9_]" "_")
+                                     "=\"" (str/escape v {\\ "\\\\" \" "\\\"" \newline "\\n"}) "\""))
+                              labels))
+           "}")
+      "")))
+
+(defn- write-histogram [^StringBuilder sb pname tags ^Histogram h]
+  (let [bounds (.bounds h)
+        counts ^objects (.counts h)]
+    (loop [i 0
+           cumulative 0]
+      (when (< i (alength counts))
+        (let [cumulative (+ cumulative (.sum ^LongAdder (aget counts i)))
+              le (if (< i (alength bounds))
+                   (str (/ (aget bounds i) 1e9))
+                   "+Inf")]
+          (.append sb (str pname "_bucket" (prometheus-labels tags [["le" le]]) " " cumulative "\n"))
+          (recur (inc i) cumulative))))
+    (.append sb (str pname "_sum" (prometheus-labels tags nil) " " (.sum ^DoubleAdder (.sum h)) "\n"))
+    (.append sb (str pname "_count" (prometheus-labels tags nil) " " (.sum ^LongAdder (.total h)) "\n"))))
+
+(defn prometheus-text
+  "Renders the histograms in a registry in the Prometheus text format"
+  [{:keys [^ConcurrentHashMap histograms]}]
+  (let [sb (StringBuilder.)]
+    (doseq [[metric-name series] (sort-by key (group-by ffirst (seq histograms)))
+            :let [pname (prometheus-name metric-name)]]
+      (.append sb (str "# TYPE " pname " histogram\n"))
+      (doseq [[[_ tags] h] series]
+        (write-histogram sb pname tags h)))
+    (str sb)))
+
+(defn prometheus-routes [registry]
+  (routes
+   (GET "/metrics" []
+     {:status 200
+      :headers {"Content-Type" "text/plain; version=0.0.4; charset=utf-8"}
+      :body (prometheus-text registry)})))
+
+(s/def ::enabled? boolean?)
+
+(defmethod ig/pre-init-spec ::prometheus [_]
+  (s/keys :opt-un [::enabled?]))
+
+(defmethod ig/init-key ::prometheus [_ {:keys [enabled?]}]
+  (when enabled?
+    (log/info "Exporting Prometheus metrics at /metrics")
+    (doto (registry)
+      (add-sink!))))
+
+(defmethod ig/halt-key! ::prometheus [_ registry]
+  (when registry
+    (remove-sink! registry)))
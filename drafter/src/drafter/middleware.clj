@@ -1,10 +1,12 @@
 (ns drafter.middleware
   (:require [clojure.java.io :as io]
             [clojure.set :as set]
+            [clojure.spec.alpha :as s]
             [clojure.string :as string]
             [clojure.tools.logging :as log]
             [cognician.dogstatsd :as datadog]
             [drafter.logging :refer [with-logging-context]]
+            [drafter.metrics :as metrics]
             [drafter.rdf.content-negotiation :as conneg]
             [drafter.requests :as drafter-request]
             [drafter.responses :as response]
@@ -16,7 +18,11 @@
             [integrant.core :as ig]
             [buddy.auth.http :as http]
             [drafter.auth :as auth])
-  (:import java.io.File
+  (:import [java.io BufferedOutputStream File FileOutputStream InputStream]
+           [java.security DigestInputStream MessageDigest]
+           [java.util Base64]
+           [java.util.concurrent ConcurrentHashMap Executors ScheduledExecutorService TimeUnit]
+           java.util.concurrent.atomic.AtomicLong
            [org.apache.tika.mime MediaType]
            [java.util.zip GZIPInputStream]
            [clojure.lang ExceptionInfo]))
@@ -213,6 +219,158 @@
       (io/copy body temp-file)
       (inner-handler (assoc request :body temp-file)))))
 
+(defrecord BodySpooler [^File dir max-body-size ^AtomicLong spooled-bytes ^ConcurrentHashMap pending])
+
+(defn create-body-spooler
+  "Creates a spooler which writes request bodies into files within
+  dir (the default temp directory if nil), rejecting bodies larger than
+  max-body-size bytes once decoded. No limit is applied if
+  max-body-size is nil or 0."
+  [{:keys [dir max-body-size]}]
+  (let [dir (when dir (io/file dir))]
+    (when dir (.mkdirs dir))
+    (->BodySpooler dir
+                   (when (and max-body-size (pos? max-body-size)) max-body-size)
+                   (AtomicLong.)
+                   (ConcurrentHashMap.))))
+
+(def ^:private default-body-spooler (create-body-spooler {}))
+
+(def ^:private spool-buffer-size (* 64 1024))
+
+(defn- copy-limited!
+  "Copies is to file and returns the number of bytes copied. Throws if
+  more than max-size bytes are read."
+  [^InputStream is ^File file max-size]
+  (let [buf (byte-array spool-buffer-size)]
+    (with-open [os (BufferedOutputStream. (FileOutputStream. file) spool-buffer-size)]
+      (loop [total 0]
+        (let [n (.read is buf)]
+          (if (neg? n)
+            total
+            (let [total (+ total n)]
+              (when (and max-size (> total max-size))
+                (throw (ex-info "Request body too large" {:type ::body-too-large :max-body-size max-size})))
+              (.write os buf 0 n)
+              (recur total))))))))
+
+(defn- drain! [^InputStream is]
+  (let [buf (byte-array spool-buffer-size)]
+    (while (not (neg? (.read is buf))))))
+
+(defn- content-md5-matches? [{:keys [headers]} ^MessageDigest digest]
+  (if-let [expected (get headers "content-md5")]
+    (= expected (.encodeToString (Base64/getEncoder) (.digest digest)))
+    true))
+
+(defn- delete-spooled-file! [{:keys [^AtomicLong spooled-bytes]} ^File file]
+  (let [size (.length file)]
+    (when (.delete file)
+      (datadog/gauge! "drafter.upload.spooled_bytes_on_disk" (.addAndGet spooled-bytes (- size))))))
+
+(defn release-spooled-body-after!
+  "Marks the spooled body of request (see spool-body) to be deleted
+  once job has completed, rather than when the request completes. Does
+  nothing if the request body was not spooled."
+  [request job]
+  (when-let [{:keys [file ^ConcurrentHashMap pending]} (::spooled-body request)]
+    (.put pending file job)))
+
+(defn- sweep-spooled-bodies!
+  "Deletes the spooled bodies of all completed jobs"
+  [{:keys [^ConcurrentHashMap pending] :as spooler}]
+  (doseq [[file job] pending]
+    (when-not (= ::pending (deref job 0 ::pending))
+      (.remove pending file)
+      (delete-spooled-file! spooler file))))
+
+(defn spool-body
+  "Wraps a handler with one that writes the incoming body into a file
+  using the given spooler, and sets the file as the body before
+  invoking the inner handler.
+
+  Gzip encoded bodies are decoded as they are written, and the size
+  limit of the spooler applies to the decoded body so a small
+  compressed upload cannot fill the disk. A 413 response is returned
+  if the body exceeds the limit. If the request has a Content-MD5
+  header it is checked against the body as received and a 422 response
+  returned if it does not match.
+
+  The file is deleted once the request completes, unless the inner
+  handler hands it over to a job with release-spooled-body-after!.
+  Handed over files are only deleted by the sweeper of an integrant
+  ::body-spooler, so handlers which hand over bodies must be given
+  one. The default spooler is used if spooler is nil."
+  ([inner-handler] (spool-body nil inner-handler))
+  ([spooler inner-handler]
+   (let [{:keys [dir max-body-size ^AtomicLong spooled-bytes ^ConcurrentHashMap pending] :as spooler}
+         (or spooler default-body-spooler)]
+    (fn [{:keys [body] :as request}]
+      (let [file (File/createTempFile "drafter-body" nil dir)
+            start-time (metrics/now)
+            spooled? (volatile! false)]
+        (try
+          (let [digest (MessageDigest/getInstance "MD5")
+                received (DigestInputStream. (io/input-stream body) digest)
+                gzipped? (is-gzipped-entity? request)
+                size (with-open [is (if gzipped? (GZIPInputStream. received spool-buffer-size) received)]
+                       (let [size (copy-limited! is file max-body-size)]
+                         ;; the gzip trailer may not have been read
+                         (drain! received)
+                         size))]
+            (metrics/record-since! "drafter.upload.spool_time" start-time)
+            (datadog/histogram! "drafter.upload.body_size" size)
+            (datadog/gauge! "drafter.upload.spooled_bytes_on_disk" (.addAndGet spooled-bytes size))
+            (vreset! spooled? true)
+            (if (content-md5-matches? request digest)
+              (inner-handler (-> request
+                                 (assoc :body file
+                                        ::spooled-body {:file file :pending pending})
+                                 (update :headers dissoc "content-encoding")))
+              (do
+                (datadog/increment! "drafter.upload.rejected" 1 {:tags {:reason "checksum"}})
+                (response/unprocessable-entity-response "Content-MD5 does not match request body"))))
+          (catch ExceptionInfo ex
+            (if (= ::body-too-large (:type (ex-data ex)))
+              (do
+                (datadog/increment! "drafter.upload.rejected" 1 {:tags {:reason "size"}})
+                {:status 413
+                 :headers {"Content-Type" "text/plain; charset=utf-8"}
+                 :body (str "Request body exceeds maximum size of " max-body-size " bytes")})
+              (throw ex)))
+          (finally
+            (cond
+              (not @spooled?) (.delete file)
+              (not (.containsKey pending file)) (delete-spooled-file! spooler file)))))))))
+
+(s/def ::dir (s/nilable string?))
+(s/def ::max-body-size (s/nilable nat-int?))
+(s/def ::sweep-period-seconds pos-int?)
+
+(defmethod ig/pre-init-spec ::body-spooler [_]
+  (s/keys :opt-un [::dir ::max-body-size ::sweep-period-seconds]))
+
+(defmethod ig/init-key ::body-spooler [_ {:keys [sweep-period-seconds] :or {sweep-period-seconds 30} :as opts}]
+  (let [{:keys [^File dir] :as spooler} (create-body-spooler opts)
+        scheduler (Executors/newSingleThreadScheduledExecutor)]
+    ;; jobs do not survive a restart so any bodies left in a dedicated
+    ;; spool directory are orphaned
+    (when dir
+      (doseq [^File f (.listFiles dir)
+              :when (.startsWith (.getName f) "drafter-body")]
+        (.delete f)))
+    (.scheduleWithFixedDelay scheduler
+                             ^Runnable (fn []
+                               (try
+                                 (sweep-spooled-bodies! spooler)
+                                 (catch Throwable ex
+                                   (log/warn ex "Failed to delete spooled request bodies"))))
+                             sweep-period-seconds sweep-period-seconds TimeUnit/SECONDS)
+    (assoc spooler :scheduler scheduler)))
+
+(defmethod ig/halt-key! ::body-spooler [_ {:keys [^ScheduledExecutorService scheduler]}]
+  (.shutdown scheduler))
+
 (defn negotiate-sparql-results-content-type-with
   "Returns a handler which performs content negotiation for a SPARQL query with the given negotiation function.
    The negotitation function should return a pair [rdf-format response-content-type] if negotiation succeeds, or nil
@@ -0,0 +1,243 @@
+(ns drafter.rdf.admission
+  "Admission control for the SPARQL query endpoints.
+
+  Each endpoint (the public live endpoint and the draftset endpoints)
+  is given its own lane with a fixed number of concurrent query slots
+  and a bounded queue, so expensive draftset queries cannot starve the
+  public endpoint. Authenticated users are additionally limited to a
+  number of concurrent queries across all lanes.
+
+  A query waits in the queue for at most a fraction of its computed
+  timeout. Queries are rejected immediately with a 503 if the user is
+  already running their limit of queries, if the queue is full, or if
+  the expected wait based on recent query times would exceed that
+  deadline."
+  (:require [clojure.spec.alpha :as s]
+            [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as datadog]
+            [drafter.metrics :as metrics]
+            [drafter.requests :as req]
+            [integrant.core :as ig]
+            [ring.core.protocols :as ring-protocols])
+  (:import [java.io FilterInputStream InputStream]
+           [java.util.concurrent ConcurrentHashMap Semaphore TimeUnit]
+           [java.util.concurrent.atomic AtomicBoolean AtomicInteger]
+           java.util.function.BiFunction))
+
+(defrecord Lane [lane-name max-concurrent max-queue ^Semaphore permits ^AtomicInteger queued service-time-ms])
+
+(defrecord AdmissionController [lanes max-concurrent-per-user ^ConcurrentHashMap user-queries queue-timeout-ratio])
+
+(def ^:private service-time-weight
+  "Weight given to the latest query time in the moving average of query
+  times for a lane"
+  0.2)
+
+(defn- create-lane [lane-name {:keys [max-concurrent max-queue]}]
+  (->Lane lane-name max-concurrent max-queue (Semaphore. (int max-concurrent) true) (AtomicInteger.) (atom nil)))
+
+(defn create-admission-controller
+  [{:keys [lanes max-concurrent-per-user queue-timeout-ratio]
+    :or {queue-timeout-ratio 0.5}}]
+  (->AdmissionController (into {} (map (fn [[k v]] [k (create-lane k v)]) lanes))
+                         max-concurrent-per-user
+                         (ConcurrentHashMap.)
+                         queue-timeout-ratio))
+
+(defn- tags [{:keys [lane-name]} & kvs]
+  {:tags (apply hash-map :endpoint (name lane-name) kvs)})
+
+(defn- expected-wait-ms
+  "Estimates how long a newly queued query will wait for a slot in the
+  lane from the number of queries queued ahead of it and the moving
+  average query time. Returns 0 if a slot is free or no queries have
+  completed yet."
+  [{:keys [max-concurrent ^Semaphore permits ^AtomicInteger queued service-time-ms]}]
+  (let [avg @service-time-ms]
+    (if (or (nil? avg) (pos? (.availablePermits permits)))
+      0
+      (long (* avg (/ (inc (.get queued)) max-concurrent))))))
+
+(defn- record-service-time! [{:keys [service-time-ms]} elapsed-ms]
+  (swap! service-time-ms (fn [avg]
+                           (if (nil? avg)
+                             (double elapsed-ms)
+                             (+ (* service-time-weight elapsed-ms)
+                                (* (- 1 service-time-weight) avg))))))
+
+(defn- try-acquire-user!
+  "Increments the number of running queries for user if it is below
+  max-concurrent-per-user, in a single atomic update. Returns whether
+  the user was admitted."
+  [{:keys [^ConcurrentHashMap user-queries max-concurrent-per-user]} user]
+  (let [admitted? (AtomicBoolean.)]
+    (.compute user-queries user
+              (reify BiFunction
+                (apply [_ _user n]
+                  (let [n (or n 0)]
+                    (if (< n max-concurrent-per-user)
+                      (do (.set admitted? true)
+                          (inc n))
+                      n)))))
+    (.get admitted?)))
+
+(defn- release-user!
+  "Decrements the number of running queries for user, removing their
+  entry once they have none so the map only holds active users"
+  [{:keys [^ConcurrentHashMap user-queries]} user]
+  (.compute user-queries user
+            (reify BiFunction
+              (apply [_ _user n]
+                (when (and n (> n 1))
+                  (dec n))))))
+
+(defn- try-enqueue!
+  "Increments the number of queued queries if it is below max-queue,
+  checking and incrementing in a single compare-and-set. Returns the
+  new queue length, or nil if the queue is full."
+  [^AtomicInteger queued max-queue]
+  (loop []
+    (let [n (.get queued)]
+      (cond
+        (>= n max-queue) nil
+        (.compareAndSet queued n (inc n)) (inc n)
+        :else (recur)))))
+
+(defn- admitted
+  "Returns the release function for a query admitted to lane"
+  [{:keys [max-concurrent-per-user] :as controller}
+   {:keys [^Semaphore permits] :as lane} user queued-at]
+  (let [admitted-at (metrics/now)
+        released? (AtomicBoolean.)]
+    (metrics/record! "drafter.sparql.admission.queue_time" (:tags (tags lane)) (- admitted-at queued-at))
+    (fn release! []
+      (when (.compareAndSet released? false true)
+        (record-service-time! lane (/ (- (metrics/now) admitted-at) 1e6))
+        (.release permits)
+        (when (and (some? user) (some? max-concurrent-per-user))
+          (release-user! controller user))))))
+
+(defn admit!
+  "Attempts to admit a query to the lane for endpoint on behalf of
+  user (which may be nil), waiting at most max-wait-ms for a slot in
+  the lane. Queries from a user already running their limit of queries
+  are rejected immediately. Only queries which have to wait for a slot
+  are counted against the lane's queue, so a lane with a max-queue of 0
+  admits queries while it has a free slot and rejects them otherwise.
+  Returns a function which must be called once the query has
+  completed, or a keyword describing why the query was rejected."
+  [{:keys [lanes max-concurrent-per-user] :as controller} endpoint user max-wait-ms]
+  (let [{:keys [^Semaphore permits ^AtomicInteger queued max-queue] :as lane} (get lanes endpoint)
+        limit-user? (and (some? user) (some? max-concurrent-per-user))
+        queued-at (metrics/now)]
+    (cond
+      (nil? lane)
+      (throw (ex-info (str "No admission lane configured for endpoint " endpoint) {:endpoint endpoint}))
+
+      (> (expected-wait-ms lane) max-wait-ms)
+      :deadline-exceeded
+
+      (and limit-user? (not (try-acquire-user! controller user)))
+      :user-limit
+
+      ;; a timed tryAcquire respects the fair ordering of queries which
+      ;; are already waiting, unlike the untimed one
+      (.tryAcquire permits 0 TimeUnit/MILLISECONDS)
+      (admitted controller lane user queued-at)
+
+      :else
+      (if-let [queue-length (try-enqueue! queued max-queue)]
+        (do
+          (datadog/gauge! "drafter.sparql.admission.queued" queue-length (tags lane))
+          (try
+            (if (.tryAcquire permits (long max-wait-ms) TimeUnit/MILLISECONDS)
+              (admitted controller lane user queued-at)
+              (do
+                (when limit-user?
+                  (release-user! controller user))
+                :queue-timeout))
+            (catch Throwable ex
+              (when limit-user?
+                (release-user! controller user))
+              (throw ex))
+            (finally
+              (datadog/gauge! "drafter.sparql.admission.queued" (.decrementAndGet queued) (tags lane)))))
+        (do
+          (when limit-user?
+            (release-user! controller user))
+          :queue-full)))))
+
+(defn- release-on-completion
+  "Returns response with its body wrapped so that release! is called
+  once the body has been written to the client. Bodies which are not
+  streamed are released immediately."
+  [{:keys [body] :as response} release!]
+  (cond
+    (instance? InputStream body)
+    (assoc response :body (proxy [FilterInputStream] [^InputStream body]
+                            (close []
+                              (try
+                                (proxy-super close)
+                                (finally
+                                  (release!))))))
+
+    (and (some? body) (not (string? body)) (satisfies? ring-protocols/StreamableResponseBody body))
+    (assoc response :body (reify ring-protocols/StreamableResponseBody
+                            (write-body-to-stream [_ resp output-stream]
+                              (try
+                                (ring-protocols/write-body-to-stream body resp output-stream)
+                                (finally
+                                  (release!))))))
+
+    :else
+    (do (release!)
+        response)))
+
+(defn- rejected-response [reason]
+  {:status 503
+   :headers {"Content-Type" "text/plain; charset=utf-8"
+             "Retry-After" "1"}
+   :body (case reason
+           :user-limit "Too many concurrent queries for user"
+           "Query endpoint is overloaded")})
+
+(defn wrap-admission-control
+  "Returns a handler which admits queries to inner-handler through the
+  lane for endpoint. The query timeout is expected at
+  [:sparql :timeout] in the request as set by
+  drafter.rdf.sparql-protocol/sparql-timeout-handler. Returns
+  inner-handler if controller is nil."
+  [controller endpoint inner-handler]
+  (if (nil? controller)
+    inner-handler
+    (let [{:keys [queue-timeout-ratio lanes]} controller
+          lane (get lanes endpoint)]
+      (fn [{{timeout :timeout} :sparql :as request}]
+        (let [max-wait-ms (long (* 1000 (or timeout 0) queue-timeout-ratio))
+              result (admit! controller endpoint (req/user-id request) max-wait-ms)]
+          (if (keyword? result)
+            (do
+              (log/warnf "Rejected query on %s endpoint: %s" (name endpoint) (name result))
+              (datadog/increment! "drafter.sparql.admission.rejected" 1 (tags lane :reason (name result)))
+              (rejected-response result))
+            (try
+              (release-on-completion (inner-handler request) result)
+              (catch Throwable ex
+                (result)
+                (throw ex)))))))))
+
+(s/def ::max-concurrent pos-int?)
+(s/def ::max-queue nat-int?)
+(s/def ::lane (s/keys :req-un [::max-concurrent ::max-queue]))
+(s/def ::public ::lane)
+(s/def ::draftset ::lane)
+(s/def ::lanes (s/keys :req-un [::public ::draftset]))
+(s/def ::max-concurrent-per-user (s/nilable pos-int?))
+(s/def ::queue-timeout-ratio (s/and number? pos?))
+
+(defmethod ig/pre-init-spec :drafter.rdf/admission-control [_]
+  (s/keys :req-un [::lanes]
+          :opt-un [::max-concurrent-per-user ::queue-timeout-ratio]))
+
+(defmethod ig/init-key :drafter.rdf/admission-control [_ opts]
+  (create-admission-controller opts))
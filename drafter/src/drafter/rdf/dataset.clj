@@ -90,3 +90,15 @@
   (let [dataset (resolve-dataset query-dataset user-dataset)
         dataset (restrict-dataset dataset visible-graphs)]
     (->restricted-dataset dataset)))
+
+(defn get-union-query-dataset
+  "As get-query-dataset, except when neither the query nor the user
+  specify a dataset. The dataset then contains only union-graph, a
+  store-side graph whose members are the visible graphs, as both the
+  default and named graph so its size is independent of the number of
+  visible graphs."
+  [query-dataset user-dataset visible-graphs union-graph]
+  (let [dataset (resolve-dataset query-dataset user-dataset)]
+    (if (empty-dataset? dataset)
+      (->restricted-dataset {:named-graphs #{union-graph} :default-graphs #{union-graph}})
+      (->restricted-dataset (restrict-dataset dataset visible-graphs)))))
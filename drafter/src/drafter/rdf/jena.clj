@@ -1,13 +1,16 @@
 (ns drafter.rdf.jena
-  (:require [grafter-2.rdf.protocols :as pr])
-  (:import [org.apache.jena.graph NodeFactory]
+  (:require [grafter-2.rdf.protocols :as pr]
+            [grafter-2.rdf4j.io :as gio])
+  (:import [org.apache.jena.graph Node NodeFactory]
            [org.apache.jena.datatypes TypeMapper]
            [org.apache.jena.datatypes.xsd XSDDatatype]
            [java.time.format DateTimeFormatter]
            [java.time LocalDateTime]
            [org.apache.jena.sparql.core Quad]
            [org.apache.jena.sparql.modify.request QuadDataAcc UpdateDataInsert UpdateDataDelete]
-           [org.apache.jena.update UpdateRequest Update]))
+           [org.apache.jena.update UpdateRequest Update]
+           [org.eclipse.rdf4j.model IRI Resource Value]
+           [org.eclipse.rdf4j.model.impl SimpleValueFactory]))
 
 (def ^TypeMapper type-mapper
   (doto (TypeMapper.)
@@ -39,6 +42,30 @@
     (let [[c s p o] (map ->node [c s p o])]
       (Quad. c s p o))))
 
+(def ^:private ^SimpleValueFactory value-factory (SimpleValueFactory/getInstance))
+
+(defn- ^Value ->rdf4j-value [^Node node]
+  (cond
+    (.isURI node) (.createIRI value-factory (.getURI node))
+    (.isBlank node) (.createBNode value-factory (.getBlankNodeLabel node))
+    (.isLiteral node) (let [lang (.getLiteralLanguage node)]
+                        (if (seq lang)
+                          (.createLiteral value-factory (.getLiteralLexicalForm node) ^String lang)
+                          (.createLiteral value-factory
+                                          (.getLiteralLexicalForm node)
+                                          (.createIRI value-factory (.getLiteralDatatypeURI node)))))
+    :else (throw (ex-info (str "Unsupported node " node) {:node node}))))
+
+(defn ->grafter-quad
+  "Converts a Jena quad into a grafter quad"
+  [^Quad quad]
+  (gio/backend-quad->grafter-quad
+   (.createStatement value-factory
+                     ^Resource (->rdf4j-value (.getSubject quad))
+                     ^IRI (->rdf4j-value (.getPredicate quad))
+                     (->rdf4j-value (.getObject quad))
+                     ^Resource (->rdf4j-value (.getGraph quad)))))
+
 (defn insert-data-stmt
   "Creates a Jena data insert update from a sequence of grafter quads"
   [quads]
@@ -0,0 +1,199 @@
+(ns drafter.rdf.query-executor
+  "Bounded execution of streaming SPARQL queries.
+
+  Queries are evaluated on a dedicated executor which uses virtual
+  threads when the JVM supports them, and a pool of daemon platform
+  threads otherwise. At most max-concurrent-queries queries are
+  evaluated at once. A query waits at most acquire-timeout-ms for a
+  free slot before being refused, so requests are not held waiting
+  for a slot for the length of their query timeout. Queuing for longer
+  is the job of admission control, see drafter.rdf.admission.
+
+  Results are written through a large buffer directly into the
+  response output stream supplied by the ring adapter, see
+  streaming-body. The ring adapter is synchronous, so the request
+  thread is held until the response has been written. It waits for at
+  most the query timeout, and cancels the query task if the client
+  disconnects or the body is never written, so a slot is never held
+  for longer than the query that is using it."
+  (:require [clojure.spec.alpha :as s]
+            [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as datadog]
+            [drafter.metrics :as metrics]
+            [integrant.core :as ig]
+            [ring.core.protocols :as ring-protocols])
+  (:import [java.io IOException OutputStream]
+           [java.util.concurrent Callable CancellationException ExecutionException ExecutorService Executors Future Semaphore ThreadFactory TimeUnit TimeoutException]
+           [java.util.concurrent.atomic AtomicBoolean AtomicLong]))
+
+(def default-buffer-size
+  "Size in bytes of the buffer query results are written into before
+  being flushed to the response"
+  (* 64 1024))
+
+(def default-acquire-timeout-ms
+  "Time in milliseconds a query waits for a free slot before it is
+  refused"
+  100)
+
+(def default-body-timeout-ms
+  "Time in milliseconds a query waits for the ring adapter to start
+  writing the response body before it is cancelled"
+  10000)
+
+(defrecord QueryExecutor [^ExecutorService executor ^Semaphore permits ^AtomicLong active
+                          buffer-size acquire-timeout-ms body-timeout-ms])
+
+(defrecord QueryTask [^Future future release])
+
+(defn- virtual-thread-executor
+  "Returns an executor which starts a new virtual thread for each task,
+  or nil if virtual threads are not available in this JVM."
+  []
+  (try
+    (let [m (.getMethod Executors "newVirtualThreadPerTaskExecutor" (make-array Class 0))]
+      (.invoke m nil (object-array 0)))
+    (catch Exception _ex
+      nil)))
+
+(defn- platform-thread-executor []
+  (let [counter (AtomicLong.)]
+    (Executors/newCachedThreadPool
+     (reify ThreadFactory
+       (newThread [_ r]
+         (doto (Thread. ^Runnable r (str "drafter-query-" (.incrementAndGet counter)))
+           (.setDaemon true)))))))
+
+(defn create-executor-service
+  "Returns an executor service for evaluating queries. Uses virtual
+  threads when virtual-threads? is true and they are supported."
+  [virtual-threads?]
+  (or (when virtual-threads?
+        (virtual-thread-executor))
+      (platform-thread-executor)))
+
+(defn create-query-executor
+  [{:keys [max-concurrent-queries virtual-threads? buffer-size acquire-timeout-ms body-timeout-ms]
+    :or {virtual-threads? true
+         buffer-size default-buffer-size
+         acquire-timeout-ms default-acquire-timeout-ms
+         body-timeout-ms default-body-timeout-ms}}]
+  (->QueryExecutor (create-executor-service virtual-threads?)
+                   (Semaphore. (int max-concurrent-queries) true)
+                   (AtomicLong.)
+                   buffer-size
+                   acquire-timeout-ms
+                   body-timeout-ms))
+
+(defn- permit-releaser
+  "Returns a function which releases a permit the first time it is
+  called, and does nothing on later calls"
+  [^Semaphore permits]
+  (let [released (AtomicBoolean.)]
+    (fn []
+      (when (.compareAndSet released false true)
+        (.release permits)))))
+
+(defn submit!
+  "Waits up to the executor's acquire-timeout-ms for a free query slot
+  and then runs (f) on the query executor. Returns a QueryTask for the
+  running query, or nil if no slot became available in time. The slot
+  is released once f completes, or when the task is cancelled with
+  cancel!, whichever happens first."
+  [{:keys [^ExecutorService executor ^Semaphore permits ^AtomicLong active acquire-timeout-ms]} f]
+  (let [queued-at (metrics/now)]
+    (if (.tryAcquire permits (long acquire-timeout-ms) TimeUnit/MILLISECONDS)
+      (let [started-at (metrics/now)
+            release (permit-releaser permits)
+            task (fn []
+                   (datadog/gauge! "drafter.sparql.query.concurrent" (.incrementAndGet active))
+                   (try
+                     (f)
+                     (finally
+                       (datadog/gauge! "drafter.sparql.query.concurrent" (.decrementAndGet active))
+                       (metrics/record-since! "drafter.sparql.query.execution_time" started-at)
+                       (release))))]
+        (metrics/record! "drafter.sparql.query.wait_time" (- started-at queued-at))
+        (try
+          (->QueryTask (.submit executor ^Callable task) release)
+          (catch Exception ex
+            (release)
+            (throw ex))))
+      (do
+        (datadog/increment! "drafter.sparql.query.rejected" 1)
+        nil))))
+
+(defn cancel!
+  "Cancels a query task, interrupting it if it is running, and releases
+  its query slot. Does nothing to the task if it has already completed."
+  [{:keys [^Future future release]}]
+  (try
+    (.cancel future true)
+    (finally
+      (release))))
+
+(defn deferred-output-stream
+  "Returns an OutputStream which writes to the stream delivered to the
+  target promise. Writes block for up to timeout-ms until the target
+  is delivered. Flushing or closing before then is a no-op."
+  ^OutputStream [target timeout-ms]
+  (letfn [(target-stream ^OutputStream []
+            (let [os (deref target timeout-ms ::timeout)]
+              (if (= ::timeout os)
+                (throw (IOException. "Timed out waiting for response stream"))
+                os)))]
+    (proxy [OutputStream] []
+      (write
+        ([b]
+         (if (integer? b)
+           (.write (target-stream) (int b))
+           (.write (target-stream) ^bytes b)))
+        ([b off len]
+         (.write (target-stream) ^bytes b (int off) (int len))))
+      (flush []
+        (when (realized? target)
+          (.flush ^OutputStream @target)))
+      (close []
+        (when (realized? target)
+          (.close ^OutputStream @target))))))
+
+(defn streaming-body
+  "Returns a ring response body which delivers the response output
+  stream to the target promise and waits up to timeout-ms for the
+  query task to finish writing to it. The task is cancelled if it has
+  not finished by then, or if writing fails, and its query slot is
+  released."
+  [target query-task timeout-ms]
+  (reify ring-protocols/StreamableResponseBody
+    (write-body-to-stream [_ _response output-stream]
+      (try
+        (deliver target output-stream)
+        (.get ^Future (:future query-task) (long timeout-ms) TimeUnit/MILLISECONDS)
+        (catch ExecutionException ex
+          (log/debug (.getCause ex) "Query task failed whilst streaming"))
+        (catch CancellationException _ex
+          (log/debug "Query task cancelled whilst streaming"))
+        (catch TimeoutException _ex
+          (log/warn "Query task did not finish writing results within its timeout"))
+        (finally
+          (cancel! query-task)
+          (.close ^OutputStream output-stream))))))
+
+(s/def ::max-concurrent-queries pos-int?)
+(s/def ::virtual-threads? boolean?)
+(s/def ::buffer-size pos-int?)
+(s/def ::acquire-timeout-ms nat-int?)
+(s/def ::body-timeout-ms pos-int?)
+
+(defmethod ig/pre-init-spec :drafter.rdf/query-executor [_]
+  (s/keys :req-un [::max-concurrent-queries]
+          :opt-un [::virtual-threads? ::buffer-size ::acquire-timeout-ms ::body-timeout-ms]))
+
+(defmethod ig/init-key :drafter.rdf/query-executor [_ opts]
+  (let [executor (create-query-executor opts)]
+    (log/info "Query executor started with" (:max-concurrent-queries opts) "slots using"
+              (.getName (class (:executor executor))))
+    executor))
+
+(defmethod ig/halt-key! :drafter.rdf/query-executor [_ {:keys [^ExecutorService executor]}]
+  (.shutdownNow executor))
@@ -2,12 +2,14 @@
   (:require [clojure.spec.alpha :as s]
             [clojure.tools.logging :as log]
             [clojure.zip :as z]
-            [cognician.dogstatsd :as datadog]
             [compojure.core :refer [make-route]]
             [drafter.backend.common :as bcom]
             [drafter.backend.draftset.arq :as arq]
             [drafter.logging :refer [capture-logging-context with-logging-context]]
+            [drafter.metrics :as metrics]
+            [drafter.rdf.admission :as admission]
             [drafter.rdf.content-negotiation :as conneg]
+            [drafter.rdf.query-executor :as qe]
             [drafter.rdf.sesame
              :as
              ses
@@ -21,7 +23,7 @@
             [integrant.core :as ig]
             [ring.util.request :as request])
   (:import clojure.lang.ExceptionInfo
-           [java.io ByteArrayOutputStream PipedInputStream PipedOutputStream]
+           [java.io BufferedOutputStream ByteArrayOutputStream IOException PipedInputStream PipedOutputStream]
            java.net.SocketTimeoutException
            org.apache.logging.log4j.ThreadContext
            java.util.concurrent.TimeUnit
@@ -180,7 +182,7 @@
   (let [os (ByteArrayOutputStream. 1024)
         writer (QueryResultIO/createWriter result-format os)]
     (with-open [_ os]
-      (datadog/measure! "drafter.sparql.query.time" {}
+      (metrics/timed "drafter.sparql.query.time" nil
          (let [result (.evaluate pquery)]
            (.handleBoolean writer result))))
     {:status 200
@@ -193,6 +195,22 @@
         inner-exception-type (type (.getCause ex))]
     (parse-exception-types inner-exception-type)))
 
+(defn- handle-evaluation-error
+  "Handles an exception thrown whilst evaluating a streaming query. If
+  the response has not yet started the exception is delivered to the
+  signal to be handled on the request thread, otherwise it is logged."
+  [signal ex]
+  (cond
+    (and (realized? signal) (= :ok @signal))
+    (if (query-result-parse-exception? ex)
+      (log/warn ex "Error occurred after sending 200 OK whilst streaming results (upstream likely timed out)")
+      (log/warn ex "Unknown error occurred after sending 200 OK whilst streaming results"))
+    (and (realized? signal) (util/throwable? @signal))
+    (log/warn ex "Error occurred after an initial error") ;; not sure what might cause this but good to know...
+    :else
+    (deliver signal ex) ;; handle it on  main thread
+    ))
+
 (defn- execute-streaming-query [pquery result-format response-content-type]
   (let [is (PipedInputStream.)
         os (PipedOutputStream. is)
@@ -207,25 +225,15 @@
         logctx (capture-logging-context)
         query-f (future
                   (with-logging-context logctx
-                    (let [start-time (System/currentTimeMillis)]
+                    (let [start-time (metrics/now)]
                       (try
                         (log/debug "evaluating")
                         (.evaluate pquery result-handler)
                         (catch Exception ex
-                          (cond
-                            (and (realized? signal) (= :ok @signal))
-                            (if (query-result-parse-exception? ex)
-                              (log/warn ex "Error occurred after sending 200 OK whilst streaming results (upstream likely timed out)")
-                              (log/warn ex "Unknown error occurred after sending 200 OK whilst streaming results"))
-                            (and (realized? signal) (util/throwable? @signal))
-                            (log/warn ex "Error occurred after an initial error") ;; not sure what might cause this but good to know...
-                            :else
-                            (deliver signal ex) ;; handle it on  main thread
-                            ))
+                          (handle-evaluation-error signal ex))
                         (finally
                           (.close os)
-                          (let [end-time (System/currentTimeMillis)]
-                            (datadog/histogram! "drafter.sparql.query.time" (- end-time start-time))))))))]
+                          (metrics/record-since! "drafter.sparql.query.time" start-time))))))]
     ;;wait for signal from query execution thread that the response has been received and begun streaming
     ;;results
     ;;NOTE: This could block for as long as the query execution timeout period
@@ -238,16 +246,72 @@
           (future-cancel query-f)
           (throw result))))))
 
+(def query-executor-unavailable-response
+  {:status 503
+   :headers {"Content-Type" "text/plain; charset=utf-8"}
+   :body "Too many concurrent queries"})
+
+(defn- execute-bounded-streaming-query
+  "Evaluates a streaming query on the given query executor. Results are
+  buffered and written directly to the response output stream rather
+  than through a pipe. Returns a 503 response if no query slot is free."
+  [query-executor pquery result-format response-content-type]
+  (let [timeout (* 1000 (inc (.getMaxExecutionTime pquery)))
+        target (promise)
+        os (BufferedOutputStream. (qe/deferred-output-stream target (:body-timeout-ms query-executor))
+                                  (int (:buffer-size query-executor)))
+        signal (promise)
+        result-handler (create-signalling-query-handler
+                        pquery os result-format signal)
+        logctx (capture-logging-context)
+        start-time (metrics/now)
+        task (qe/submit! query-executor
+                         (fn []
+                           (with-logging-context logctx
+                             (try
+                               (log/debug "evaluating")
+                               (.evaluate pquery result-handler)
+                               (catch Exception ex
+                                 (handle-evaluation-error signal ex))
+                               (finally
+                                 (try
+                                   (.close os)
+                                   (catch IOException ex
+                                     (log/debug ex "Error closing query response stream")))
+                                 (metrics/record-since! "drafter.sparql.query.time" start-time))))))]
+    (if (nil? task)
+      query-executor-unavailable-response
+      (let [result (try
+                     (deref signal timeout (QueryInterruptedException.))
+                     (catch Throwable ex
+                       (qe/cancel! task)
+                       (throw ex)))]
+        (if (= :ok result)
+          (do
+            (metrics/record-since! "drafter.sparql.query.first_result_time" start-time)
+            {:status 200
+             :headers {"Content-Type" response-content-type}
+             :body (qe/streaming-body target task timeout)})
+          (do
+            (qe/cancel! task)
+            (throw result)))))))
+
 (def timeout-response
   {:status 503
    :headers {"Content-Type" "text/plain; charset=utf-8"}
    :body "Query execution timed out"})
 
-(defn- execute-prepared-query [pquery format response-content-type]
+(defn- execute-prepared-query [query-executor pquery format response-content-type]
   (let [query-type (get-query-type pquery)]
     (try
-      (if (= :ask query-type)
+      (cond
+        (= :ask query-type)
         (execute-boolean-query pquery format response-content-type)
+
+        (some? query-executor)
+        (execute-bounded-streaming-query query-executor pquery format response-content-type)
+
+        :else
         (execute-streaming-query pquery format response-content-type))
       (catch QueryInterruptedException ex
         timeout-response)
@@ -256,7 +320,18 @@
 
 (defn sparql-execution-handler [{{:keys [prepared-query format response-content-type]} :sparql :as request}]
   (log/debugf "Running graph restricted query:\n%s" prepared-query)
-  (execute-prepared-query prepared-query format response-content-type))
+  (execute-prepared-query nil prepared-query format response-content-type))
+
+(defn bounded-sparql-execution-handler
+  "Returns a handler which executes the prepared query on the given
+  query executor (see drafter.rdf.query-executor). Falls back to
+  sparql-execution-handler if query-executor is nil."
+  [query-executor]
+  (if (some? query-executor)
+    (fn [{{:keys [prepared-query format response-content-type]} :sparql :as request}]
+      (log/debugf "Running graph restricted query:\n%s" prepared-query)
+      (execute-prepared-query query-executor prepared-query format response-content-type))
+    sparql-execution-handler))
 
 (defn sparql-timeout-handler
   "Returns a handler which configures the timeout for the prepared SPARQL query associated with the request.
@@ -283,12 +358,22 @@
 (def default-query-timeout-fn (fn [request] timeouts/default-query-timeout))
 
 (s/def ::timeout-fn fn?)
+(s/def ::query-executor #(instance? drafter.rdf.query_executor.QueryExecutor %))
+(s/def ::admission-control #(instance? drafter.rdf.admission.AdmissionController %))
 
 (defn sparql-protocol-handler
-  "Builds a SPARQL endpoint from a SPARQL executor/repo and a
-  timeout-fn.  The handler is not mounted to a specific route/path."
-  [{:keys [repo timeout-fn]}]
-  (build-sparql-protocol-handler #(sparql-prepare-query-handler repo %) sparql-execution-handler timeout-fn))
+  "Builds a SPARQL endpoint from a SPARQL executor/repo, a timeout-fn,
+  an optional query-executor to bound streaming query execution and
+  an optional admission-control to limit queries on the
+  given endpoint (:public or :draftset). The handler is not mounted to
+  a specific route/path."
+  [{:keys [repo timeout-fn query-executor admission-control endpoint]}]
+  (build-sparql-protocol-handler #(sparql-prepare-query-handler repo %)
+                                 (admission/wrap-admission-control
+                                  admission-control
+                                  endpoint
+                                  (bounded-sparql-execution-handler query-executor))
+                                 timeout-fn))
 
 (defn sparql-end-point
   "Builds a SPARQL end point from a mount-path, a SPARQL executor and
@@ -297,4 +382,8 @@
 
   ([mount-path executor] (sparql-end-point mount-path executor default-query-timeout-fn))
   ([mount-path executor query-timeout-fn]
-   (make-route nil mount-path (sparql-protocol-handler {:repo executor :timeout-fn query-timeout-fn}))))
+   (sparql-end-point mount-path executor query-timeout-fn {}))
+  ([mount-path executor query-timeout-fn opts]
+   (make-route nil mount-path (sparql-protocol-handler (assoc opts
+                                                              :repo executor
+                                                              :timeout-fn query-timeout-fn)))))
@@ -1,13 +1,28 @@
 (ns drafter.rdf.writers
+  "RDF writers for serialising graph query results as CSV and TSV.
+
+  The output is the same as writing each statement as an s/p/o
+  solution with the SPARQL results CSV and TSV writers, but values are
+  escaped and written directly to a buffered writer without creating a
+  binding set, or any intermediate strings, per statement."
   (:require [drafter.rdf.formats :refer [csv-rdf-format tsv-rdf-format]])
-  (:import [java.io OutputStream Writer]
+  (:import [java.io BufferedWriter OutputStream OutputStreamWriter Writer]
+           java.nio.charset.StandardCharsets
+           [org.eclipse.rdf4j.model BNode IRI Literal Statement Value]
+           [org.eclipse.rdf4j.model.datatypes XMLDatatypeUtil]
+           [org.eclipse.rdf4j.model.util Literals]
+           [org.eclipse.rdf4j.model.vocabulary XSD]
            [org.eclipse.rdf4j.query.impl MapBindingSet]
            [org.eclipse.rdf4j.query.resultio QueryResultWriter]
-           [org.eclipse.rdf4j.query.resultio.text.csv SPARQLResultsCSVWriter]
-           [org.eclipse.rdf4j.query.resultio.text.tsv SPARQLResultsTSVWriter]
-           [org.eclipse.rdf4j.rio RDFWriter RDFWriterFactory RDFWriterRegistry]))
+           [org.eclipse.rdf4j.rio RDFFormat RDFWriter RDFWriterFactory RDFWriterRegistry WriterConfig]
+           [org.eclipse.rdf4j.rio.helpers BasicWriterSettings NTriplesUtil]))
+
+(def ^:private buffer-size (* 64 1024))
 
-(defn- query-result-writer->rdf-writer [rdf-format ^QueryResultWriter result-writer]
+(defn query-result-writer->rdf-writer
+  "Returns an RDFWriter which writes each statement as an s/p/o solution
+  to a SPARQL query result writer"
+  [rdf-format ^QueryResultWriter result-writer]
   (reify RDFWriter
     (getRDFFormat [this] rdf-format)
     (getWriterConfig [this] (.getWriterConfig result-writer))
@@ -33,11 +48,193 @@
       ;; No op
       )))
 
+(defn- numeric-label
+  "Returns the normalised label of a valid numeric literal, or nil if
+  the literal is not valid for its datatype"
+  [^String label ^IRI datatype]
+  (try
+    (XMLDatatypeUtil/normalize label datatype)
+    (catch IllegalArgumentException _ex
+      nil)))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; CSV
+
+(defn- csv-quote? [^String s]
+  (let [n (.length s)]
+    (loop [i 0]
+      (if (< i n)
+        (let [c (.charAt s i)]
+          (if (or (= \, c) (= \" c) (= \newline c) (= \return c))
+            true
+            (recur (inc i))))
+        false))))
+
+(defn- write-csv-quoted
+  "Writes s surrounded with quotes, doubling any quotes within it"
+  [^Writer w ^String s]
+  (.write w (int \"))
+  (let [n (.length s)]
+    (loop [start 0
+           i 0]
+      (if (< i n)
+        (if (= \" (.charAt s i))
+          (do (.write w s start (- (inc i) start))
+              (.write w (int \"))
+              (recur (inc i) (inc i)))
+          (recur start (inc i)))
+        (.write w s start (- n start)))))
+  (.write w (int \")))
+
+(defn- write-csv-iri [^Writer w ^IRI iri]
+  (let [s (.stringValue iri)]
+    (if (neg? (.indexOf s (int \,)))
+      (.write w s)
+      (do (.write w (int \"))
+          (.write w s)
+          (.write w (int \"))))))
+
+(defn- write-csv-literal [^Writer w ^Literal literal]
+  (let [label (.getLabel literal)
+        datatype (.getDatatype literal)
+        numeric (when (or (XMLDatatypeUtil/isIntegerDatatype datatype)
+                          (XMLDatatypeUtil/isDecimalDatatype datatype)
+                          (.equals XSD/DOUBLE datatype))
+                  (numeric-label label datatype))]
+    (cond
+      numeric (.write w ^String numeric)
+      (csv-quote? label) (write-csv-quoted w label)
+      :else (.write w label))))
+
+(defn- write-csv-value [^Writer w ^Value v]
+  (cond
+    (instance? IRI v) (write-csv-iri w v)
+    (instance? Literal v) (write-csv-literal w v)
+    (instance? BNode v) (do (.write w "_:")
+                            (.write w (.getID ^BNode v)))
+    :else (.write w (NTriplesUtil/toNTriplesString v))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+;; TSV
+
+(defn- write-tsv-escaped
+  "Writes s with backslashes, tabs, newlines, carriage returns and quotes
+  escaped"
+  [^Writer w ^String s]
+  (let [n (.length s)]
+    (loop [start 0
+           i 0]
+      (if (< i n)
+        (let [escape (case (.charAt s i)
+                       \\ "\\\\"
+                       \tab "\\t"
+                       \newline "\\n"
+                       \return "\\r"
+                       \" "\\\""
+                       nil)]
+          (if escape
+            (do (.write w s start (- i start))
+                (.write w ^String escape)
+                (recur (inc i) (inc i)))
+            (recur start (inc i))))
+        (.write w s start (- n start))))))
+
+(defn- write-tsv-iri [^Writer w ^IRI iri]
+  (.write w (int \<))
+  (.write w (.stringValue iri))
+  (.write w (int \>)))
+
+(defn- write-tsv-literal [^Writer w ^Literal literal xsd-string-to-plain?]
+  (let [label (.getLabel literal)
+        datatype (.getDatatype literal)
+        numeric (when (or (.equals XSD/INTEGER datatype)
+                          (.equals XSD/DECIMAL datatype)
+                          (.equals XSD/DOUBLE datatype))
+                  (numeric-label label datatype))]
+    (if numeric
+      (.write w ^String numeric)
+      (do
+        (.write w (int \"))
+        (write-tsv-escaped w label)
+        (.write w (int \"))
+        (cond
+          (Literals/isLanguageLiteral literal)
+          (do (.write w (int \@))
+              (.write w ^String (.get (.getLanguage literal))))
+
+          (not (and (.equals XSD/STRING datatype) xsd-string-to-plain?))
+          (do (.write w "^^")
+              (write-tsv-iri w datatype)))))))
+
+(defn- write-tsv-value [^Writer w ^Value v xsd-string-to-plain?]
+  (cond
+    (instance? IRI v) (write-tsv-iri w v)
+    (instance? Literal v) (write-tsv-literal w v xsd-string-to-plain?)
+    (instance? BNode v) (do (.write w "_:")
+                            (.write w (.getID ^BNode v)))
+    :else (.write w (NTriplesUtil/toNTriplesString v))))
+
+;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
+
+(defn- delimited-rdf-writer
+  "Returns an RDFWriter which writes a header line on startRDF and the
+  subject, predicate and object of each statement on a line with
+  write-value, separated by the separator character. write-value is
+  called with the writer, the value and the result of calling
+  config-opts with the writer config on startRDF."
+  [^RDFFormat rdf-format ^OutputStream os ^String header separator ^String line-end config-opts write-value]
+  (let [w (BufferedWriter. (OutputStreamWriter. os StandardCharsets/UTF_8) buffer-size)
+        sep (int separator)
+        config (volatile! (WriterConfig.))
+        opts (volatile! nil)]
+    (reify RDFWriter
+      (getRDFFormat [_this] rdf-format)
+      (getWriterConfig [_this] @config)
+      (setWriterConfig [this c] (vreset! config c) this)
+      (getSupportedSettings [_this] [BasicWriterSettings/XSD_STRING_TO_PLAIN_LITERAL])
+      (startRDF [_this]
+        (vreset! opts (config-opts @config))
+        (.write w header))
+      (endRDF [_this]
+        (.flush w))
+      (handleNamespace [_this _prefix _uri]
+        ;; No op
+        )
+      (handleStatement [_this statement]
+        (let [^Statement statement statement
+              o @opts]
+          (write-value w (.getSubject statement) o)
+          (.write w sep)
+          (write-value w (.getPredicate statement) o)
+          (.write w sep)
+          (write-value w (.getObject statement) o)
+          (.write w line-end)))
+      (handleComment [_this _comment]
+        ;; No op
+        ))))
+
+(defn csv-rdf-writer
+  "Returns an RDFWriter which writes statements to an output stream as
+  CSV s/p/o rows"
+  ^RDFWriter [os]
+  (delimited-rdf-writer csv-rdf-format os "s,p,o\r\n" \, "\r\n"
+                        (constantly nil)
+                        (fn [w v _opts] (write-csv-value w v))))
+
+(defn tsv-rdf-writer
+  "Returns an RDFWriter which writes statements to an output stream as
+  TSV s/p/o rows"
+  ^RDFWriter [os]
+  (delimited-rdf-writer tsv-rdf-format os "?s\t?p\t?o\n" \tab "\n"
+                        (fn [^WriterConfig config]
+                          (boolean (.get config BasicWriterSettings/XSD_STRING_TO_PLAIN_LITERAL)))
+                        write-tsv-value))
+
 (defn- create-rdf-writer-factory [rdf-format writer-fn]
   (reify RDFWriterFactory
     (getRDFFormat [this] rdf-format)
     (^RDFWriter getWriter [this ^OutputStream os]
-      (query-result-writer->rdf-writer rdf-format (writer-fn os)))
+      (writer-fn os))
     (^RDFWriter getWriter [this ^Writer w]
       (throw (RuntimeException. "Not supported - use OutputStream overload")))))
 
@@ -47,12 +244,6 @@
 (defn- register-rdf-writer-factory [writer-factory]
   (.add (get-rdf-writer-registry) writer-factory))
 
-(defn- create-csv-result-writer [output-stream]
-  (SPARQLResultsCSVWriter. output-stream))
-
-(defn- create-tsv-result-writer [output-stream]
-  (SPARQLResultsTSVWriter. output-stream))
-
 (defn register-custom-rdf-writers! []
-  (register-rdf-writer-factory (create-rdf-writer-factory csv-rdf-format create-csv-result-writer))
-  (register-rdf-writer-factory (create-rdf-writer-factory tsv-rdf-format create-tsv-result-writer)))
+  (register-rdf-writer-factory (create-rdf-writer-factory csv-rdf-format csv-rdf-writer))
+  (register-rdf-writer-factory (create-rdf-writer-factory tsv-rdf-format tsv-rdf-writer)))
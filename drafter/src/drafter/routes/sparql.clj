@@ -14,8 +14,11 @@
 
 (def ^:private v1-prefix :v1)
 
-(defn live-sparql-routes [mount-point endpoint query-timeout-fn]
-  (sparql-end-point mount-point endpoint query-timeout-fn))
+(defn live-sparql-routes
+  ([mount-point endpoint query-timeout-fn]
+   (live-sparql-routes mount-point endpoint query-timeout-fn {}))
+  ([mount-point endpoint query-timeout-fn opts]
+   (sparql-end-point mount-point endpoint query-timeout-fn opts)))
 
 (defn- endpoint-query-path [route-name version]
   (let [suffix (str "/sparql/" (name route-name))]
@@ -23,12 +26,15 @@
       (str "/" (name version) suffix)
       suffix)))
 
-(defn- get-live-sparql-query-route [backend {:keys [timeout-fn] :as config}]
+(defn- get-live-sparql-query-route [backend {:keys [timeout-fn query-executor admission-control] :as config}]
   (let [mount-point (endpoint-query-path :live v1-prefix)]
-    (live-sparql-routes mount-point backend (or timeout-fn sp/default-query-timeout-fn))))
+    (live-sparql-routes mount-point backend (or timeout-fn sp/default-query-timeout-fn)
+                        {:query-executor query-executor
+                         :admission-control admission-control
+                         :endpoint :public})))
 
 (defmethod ig/pre-init-spec ::live-sparql-query-route [_]
-  (s/keys :opt-un [::sp/timeout-fn]))
+  (s/keys :opt-un [::sp/timeout-fn ::sp/query-executor ::sp/admission-control]))
 
 (def cors-allowed-headers
   #{"Accept"
@@ -3,11 +3,13 @@
    [clojure.spec.alpha :as s]
    [clojure.spec.gen.alpha :as g]
    [clojure.tools.logging :as log]
-   [cognician.dogstatsd :as dd]
+   [drafter.metrics :as metrics]
    [drafter.stasher.cache-key :as ck]
    [drafter.stasher.cancellable :as c]
    [drafter.stasher.filecache :as fc]
+   [drafter.stasher.executor :as executor]
    [drafter.stasher.formats :as formats]
+   [drafter.stasher.http :as http]
    [drafter.stasher.timing :as timing]
    [drafter.util :as util]
    [grafter-2.rdf4j.io :as rio]
@@ -15,8 +17,7 @@
    [grafter-2.rdf4j.repository.registry :as reg]
    [grafter-2.rdf4j.sparql :as sparql]
    [integrant.core :as ig])
-  (:import java.net.URI
-           java.nio.charset.Charset
+  (:import java.nio.charset.Charset
            org.eclipse.rdf4j.query.impl.BackgroundGraphResult
            (org.eclipse.rdf4j.query Dataset GraphQueryResult QueryLanguage
                                     TupleQueryResultHandler TupleQueryResult)
@@ -27,44 +28,37 @@
                                              TupleQueryResultParserFactory
                                              BooleanQueryResultParserFactory)
            (org.eclipse.rdf4j.repository RepositoryConnection)
+           (org.eclipse.rdf4j.repository.base RepositoryWrapper)
            (org.eclipse.rdf4j.repository.sparql SPARQLRepository SPARQLConnection)
            org.eclipse.rdf4j.http.client.SPARQLProtocolSession
            (org.eclipse.rdf4j.repository.sparql.query SPARQLBooleanQuery SPARQLGraphQuery SPARQLTupleQuery SPARQLUpdate QueryStringUtil)
            (org.eclipse.rdf4j.rio RDFParser RDFFormat RDFHandler RDFWriter RDFParserRegistry RDFParserFactory)
-           (java.util.concurrent ThreadPoolExecutor TimeUnit ArrayBlockingQueue)
+           java.util.concurrent.ExecutorService
+           java.util.concurrent.atomic.AtomicLong
            java.time.OffsetDateTime
            (java.io InputStream Closeable)
-           (java.lang.ref WeakReference)))
+           (java.lang.ref WeakReference)
+           java.util.HashSet))
 
 (s/def ::core-pool-size pos-int?)
 (s/def ::max-pool-size pos-int?)
 (s/def ::keep-alive-time-ms integer?)
 (s/def ::queue-size pos-int?)
+(s/def ::virtual-threads? boolean?)
 
 (defmethod ig/pre-init-spec ::cache-thread-pool [_]
   (s/keys :req-un [::core-pool-size ::max-pool-size ::keep-alive-time-ms
-                   ::queue-size]))
+                   ::queue-size]
+          :opt-un [::virtual-threads?]))
 
-;; This threadpool will raise a java.util.concurrent.RejectedExecutionException
-;; when there are no free threads to execute tasks and the queue of
-;; waiting jobs is full.
+;; Tasks submitted to this executor are rejected when there are no free
+;; threads to execute them and the queue of waiting tasks is full, in
+;; which case cache hits are read on the calling thread instead. See
+;; drafter.stasher.executor.
 (defmethod ig/init-key ::cache-thread-pool [_ opts]
-  (let [{:keys [core-pool-size
-                max-pool-size
-                keep-alive-time-ms ;; time threads above core-pool-size wait for work before dying.
-                queue-size]} opts
-        queue (ArrayBlockingQueue. queue-size)]
-    (proxy [ThreadPoolExecutor] [core-pool-size
-                                 max-pool-size
-                                 keep-alive-time-ms
-                                 TimeUnit/MILLISECONDS
-                                 queue]
-      (beforeExecute [t r]
-        (let [^ThreadPoolExecutor this this]
-          (proxy-super beforeExecute t r)
-          (dd/histogram! "stasher_thread_pool_size" (.getPoolSize this)))))))
-
-(defmethod ig/halt-key! ::cache-thread-pool [k ^ThreadPoolExecutor thread-pool]
+  (executor/executor opts))
+
+(defmethod ig/halt-key! ::cache-thread-pool [k ^ExecutorService thread-pool]
   (.shutdown thread-pool))
 
 (defprotocol Stash
@@ -94,8 +88,8 @@
    :named-graphs (set (map str named-graphs))})
 
 (defn is-state-graph? [^Dataset dataset]
-  (some #{(URI. "http://publishmydata.com/graphs/drafter/drafts")}
-        (concat (.getDefaultGraphs dataset) (.getNamedGraphs dataset))))
+  (some #{"http://publishmydata.com/graphs/drafter/drafts"}
+        (map str (concat (.getDefaultGraphs dataset) (.getNamedGraphs dataset)))))
 
 (defn- merge-draftver-and-livever [{:keys [draftver livever] :as m}]
   (let [m (dissoc m :draftver :livever)]
@@ -120,31 +114,74 @@
   (or (nil? dataset)
       (is-state-graph? dataset)))
 
-(defn generate-cache-key [query-type query-str ?dataset conn]
+(def ^:private max-cached-dataset-digests 1000)
+
+(defn dataset-digest-cache
+  "Returns a new cache of dataset digests for cached-dataset-digest"
+  []
+  (atom {:version nil :digests {}}))
+
+(defn cached-dataset-digest
+  "Returns the digest of the graphs in ?dataset for a cache key.
+
+  The live and draftset endpoints build a new dataset for every query,
+  but it contains the same graphs until the state graph changes, so
+  digests are cached in dataset-digests by the graphs in the dataset
+  for the state graph version. The cache is emptied when it is used
+  with a new version, or when it is full, so the digests of datasets
+  which are no longer visible are not retained. A digest only depends
+  on the graphs it was calculated from, so racing updates for different
+  versions can only cause extra cache misses.
+
+  If dataset-digests is nil the digest is calculated directly."
+  [dataset-digests version ^Dataset ?dataset]
+  (if (and dataset-digests ?dataset)
+    (let [lookup-key [(.getDefaultGraphs ?dataset) (.getNamedGraphs ?dataset)]
+          {cached-version :version digests :digests} @dataset-digests]
+      (or (and (= version cached-version)
+               (get digests lookup-key))
+          (let [digest (ck/dataset-digest (dataset->graphs ?dataset))
+                ;; copy the graphs so the key is not changed if the
+                ;; dataset is modified after the query is evaluated
+                digest-key [(HashSet. (.getDefaultGraphs ?dataset))
+                            (HashSet. (.getNamedGraphs ?dataset))]]
+            (swap! dataset-digests
+                   (fn [{cached-version :version digests :digests :as state}]
+                     (if (and (= version cached-version)
+                              (< (count digests) max-cached-dataset-digests))
+                       (assoc-in state [:digests digest-key] digest)
+                       {:version version :digests {digest-key digest}})))
+            digest)))
+    (ck/dataset-digest (dataset->graphs ?dataset))))
+
+(defn generate-cache-key [query-type query-str dataset-digest ?dataset conn]
   (let [graphs (dataset->graphs ?dataset)
         last-modified (fetch-last-modified conn graphs)]
-    {:dataset (graphs->edn graphs)
+    {:dataset dataset-digest
      :query-type query-type
      :query-str query-str
      :last-modified last-modified}))
 
 
 (defn generate-state-graph-cache-key
-  [query-type query-str ?dataset state-graph-last-modified]
-  (let [graphs (dataset->graphs ?dataset)]
-    {:dataset (graphs->edn graphs)
-     :query-type query-type
-     :query-str query-str
-     :state-graph-last-modified state-graph-last-modified}))
+  [query-type query-str dataset-digest state-graph-last-modified]
+  {:dataset dataset-digest
+   :query-type query-type
+   :query-str query-str
+   :state-graph-last-modified state-graph-last-modified})
 
 (defn generate-drafter-cache-key
-  [state-graph-last-modified query-type _cache query-str ?dataset conn]
-  (or (and (use-state-graph-key? ?dataset)
-           (generate-state-graph-cache-key query-type
-                                           query-str
-                                           ?dataset
-                                           state-graph-last-modified))
-      (generate-cache-key query-type query-str ?dataset conn)))
+  [state-graph-last-modified query-type cache query-str ?dataset conn]
+  (metrics/timed "drafter.stasher.cache_key" nil
+    (let [dataset-digest (cached-dataset-digest (:dataset-digests cache)
+                                                state-graph-last-modified
+                                                ?dataset)]
+      (if (use-state-graph-key? ?dataset)
+        (generate-state-graph-cache-key query-type
+                                        query-str
+                                        dataset-digest
+                                        state-graph-last-modified)
+        (generate-cache-key query-type query-str dataset-digest ?dataset conn)))))
 
 (s/def ::dataset (s/with-gen (s/nilable #(instance? Dataset %))
                    #(g/frequency [[1 (g/return nil)]
@@ -348,34 +385,37 @@
 (defn- read-tuple-cache-stream
   "Return a BackgroundTupleResult and trigger a thread to iterate over
   the result stream.  BackgroundGraphResult will then marshal the
-  events through an iterator-like blocking interface.
+  events through an iterator-like blocking interface. If the thread
+  pool is saturated the result is read on an overflow thread (see
+  drafter.stasher.executor/execute!).
 
   NOTE: there is no need to handle the RDF4j \"dataset\" as cache hits
   will already be on results where the dataset restriction was set."
-  [^ThreadPoolExecutor thread-pool stream fmt]
-  (let [start-time (System/currentTimeMillis)
+  [thread-pool stream fmt]
+  (let [start-time (metrics/now)
         bg-tuple-result (BackgroundTupleResult. (get-parser :tuple fmt) stream DEPRECATED_ARGUMENT)]
 
     ;; execute parse thread on a thread pool.
-    (.submit thread-pool ^Runnable (fn []
-                                     (try
-                                       (.run bg-tuple-result)
-                                       (dd/histogram! "drafter.stasher.tuple_sync.cache_hit"
-                                                      (- (System/currentTimeMillis) start-time))
-                                       (catch Throwable ex
-                                         (log/warn ex "Error reading data from cache")))))
+    (executor/execute! thread-pool
+                       (fn []
+                         (try
+                           (.run bg-tuple-result)
+                           (metrics/record-since! "drafter.stasher.tuple_sync.cache_hit" start-time)
+                           (catch Throwable ex
+                             (log/warn ex "Error reading data from cache")))))
     bg-tuple-result))
 
-
 (defn- read-graph-cache-stream
   "Return a BackgroundGraphResult and trigger a thread to iterate over
   the result stream.  BackgroundGraphResult will then marshal the
-  events through an iterator-like blocking interface.
+  events through an iterator-like blocking interface. If the thread
+  pool is saturated the result is read on an overflow thread (see
+  drafter.stasher.executor/execute!).
 
   NOTE: there is no need to handle the RDF4j \"dataset\" as cache hits
   will already be on results where the dataset restriction was set."
-  [^ThreadPoolExecutor thread-pool base-uri-str stream fmt-kw]
-  (let [start-time (System/currentTimeMillis)
+  [thread-pool base-uri-str stream fmt-kw]
+  (let [start-time (metrics/now)
         fmt (get-in formats/supported-cache-formats [:graph fmt-kw])
         charset (get-charset fmt)
         bg-graph-result (BackgroundGraphResult. (get-parser :graph fmt-kw)
@@ -385,21 +425,20 @@
                                                 DEPRECATED_ARGUMENT)]
 
     ;; execute parse thread on a thread pool.
-    (.submit thread-pool ^Runnable (fn []
-                                     (try
-                                       (.run bg-graph-result)
-                                       (dd/histogram! "drafter.stasher.graph_sync.cache_hit"
-                                                      (- (System/currentTimeMillis) start-time))
-                                       (catch Throwable ex
-                                         (log/warn ex "Error reading data from cache")))))
-
+    (executor/execute! thread-pool
+                       (fn []
+                         (try
+                           (.run bg-graph-result)
+                           (metrics/record-since! "drafter.stasher.graph_sync.cache_hit" start-time)
+                           (catch Throwable ex
+                             (log/warn ex "Error reading data from cache")))))
     bg-graph-result))
 
 (defn- async-read-graph-cache-stream [^InputStream stream fmt rdf-handler ^String base-uri]
   {:post [(some? %)]}
-  (dd/measure!
+  (metrics/timed
    "drafter.stasher.graph_async.cache_hit"
-   {}
+   nil
    (let [^RDFParser parser (get-parser :graph fmt)]
      (doto parser
        (.setRDFHandler rdf-handler)
@@ -407,9 +446,9 @@
 
 (defn- async-read-tuple-cache-stream [stream fmt tuple-handler]
   {:post [(some? %)]}
-  (dd/measure!
+  (metrics/timed
    "drafter.stasher.tuple_async.cache_hit"
-   {}
+   nil
    (let [^TupleQueryResultParser parser (get-parser :tuple fmt)]
      (doto parser
        (.setQueryResultHandler tuple-handler)
@@ -524,9 +563,9 @@
         (case (ck/query-type cache-key)
           :graph (read-graph-cache-stream thread-pool base-uri-str in-stream fmt)
           :tuple (read-tuple-cache-stream thread-pool in-stream fmt)
-          :boolean (dd/measure!
+          :boolean (metrics/timed
                     "drafter.stasher.boolean_sync.cache_hit"
-                    {}
+                    nil
                     (with-open [^Closeable is in-stream]
                       (let [^BooleanQueryResultParser parser (get-parser :boolean fmt)]
                         (.parse parser is))))))))
@@ -563,6 +602,46 @@
                 "drafter.stasher.tuple_async.cache_miss"
                 (wrap-tuple-result-push handler fmt out-stream))))))
 
+(defn- get-state-graph-last-modified []
+  (let [time (OffsetDateTime/now)
+        version (util/version)]
+    (log/infof "Using new state graph last modified of: %s_%s" time version)
+    {:time time
+     :version version}))
+
+;; The state graph version is invalidated by every update and commit
+;; through the repo, but only replaced with a new version when it is
+;; next read, so a run of writes with no state graph keyed reads in
+;; between creates a single new version. Writes are also counted, so
+;; callers can tell whether a version covers writes other than their
+;; own (see state-graph-writes).
+
+(def ^:dynamic *thread-writes*
+  "When bound to a volatile, counts the writes made through stasher
+  repos by the current thread"
+  nil)
+
+(defn- invalidate-state-graph-last-modified!
+  [{:keys [state-graph-last-modified ^AtomicLong state-graph-writes]}]
+  ;; count the write before invalidating so a version read after the
+  ;; invalidation is never newer than the count
+  (.incrementAndGet state-graph-writes)
+  (some-> *thread-writes* (vswap! inc))
+  (reset! state-graph-last-modified ::stale))
+
+(defn- current-state-graph-last-modified
+  "Returns the current state graph version, creating a new one if it has
+  been invalidated since it was last read"
+  [state-graph-last-modified]
+  (loop []
+    (let [current @state-graph-last-modified]
+      (if (identical? ::stale current)
+        (let [next (get-state-graph-last-modified)]
+          (if (compare-and-set! state-graph-last-modified ::stale next)
+            next
+            (recur)))
+        current))))
+
 (defn stashing-graph-query
   "Construct a graph query that checks the stash before evaluating"
   [conn ^SPARQLProtocolSession httpclient cache query-str base-uri-str {:keys [thread-pool cache?] :as opts}]
@@ -574,7 +653,7 @@
              ^Dataset dataset (.getDataset this)
              query-str (QueryStringUtil/getGraphQueryString query-str (.getBindings this))]
          (if cache?
-           (let [cache-key (generate-drafter-cache-key @(:state-graph-last-modified opts)
+           (let [cache-key (generate-drafter-cache-key (current-state-graph-last-modified (:state-graph-last-modified opts))
                                                        :graph
                                                        cache
                                                        query-str
@@ -603,7 +682,7 @@
              dataset (.getDataset this)
              query-str (QueryStringUtil/getGraphQueryString query-str (.getBindings this))]
          (if cache?
-           (let [cache-key (generate-drafter-cache-key @(:state-graph-last-modified opts)
+           (let [cache-key (generate-drafter-cache-key (current-state-graph-last-modified (:state-graph-last-modified opts))
                                                        :graph
                                                        cache
                                                        query-str
@@ -639,7 +718,7 @@
              ^Dataset dataset (.getDataset this)
              query-str (QueryStringUtil/getTupleQueryString query-str (.getBindings this))]
          (if cache?
-           (let [cache-key (generate-drafter-cache-key @(:state-graph-last-modified opts)
+           (let [cache-key (generate-drafter-cache-key (current-state-graph-last-modified (:state-graph-last-modified opts))
                                                        :tuple
                                                        cache
                                                        query-str
@@ -666,7 +745,7 @@
              dataset (.getDataset this)
              query-str (QueryStringUtil/getTupleQueryString query-str (.getBindings this))]
          (if cache?
-           (let [cache-key (generate-drafter-cache-key @(:state-graph-last-modified opts)
+           (let [cache-key (generate-drafter-cache-key (current-state-graph-last-modified (:state-graph-last-modified opts))
                                                        :tuple
                                                        cache
                                                        query-str
@@ -701,7 +780,7 @@
             dataset (.getDataset this)
             query-str (QueryStringUtil/getBooleanQueryString query-str (.getBindings this))]
         (if cache?
-          (let [cache-key (generate-drafter-cache-key @(:state-graph-last-modified opts)
+          (let [cache-key (generate-drafter-cache-key (current-state-graph-last-modified (:state-graph-last-modified opts))
                                                       :boolean
                                                       cache
                                                       query-str
@@ -711,9 +790,9 @@
 
             (if (some? result)
               result
-              (dd/measure!
+              (metrics/timed
                "drafter.stasher.boolean_sync.cache_miss"
-               {}
+               nil
                (wrap-result cache cache-key
                             (.sendBooleanQuery httpclient
                                                QueryLanguage/SPARQL
@@ -723,29 +802,47 @@
                                                (.getIncludeInferred this)
                                                (.getMaxExecutionTime this)
                                                (.getBindingsArray this))))))
-          (dd/measure!
+          (metrics/timed
            "drafter.stasher.boolean_sync.no_cache"
-           {}
+           nil
            (.sendBooleanQuery httpclient QueryLanguage/SPARQL
                               query-str base-uri-str dataset
                               (.getIncludeInferred this)
                               (.getMaxExecutionTime this)
                               (.getBindingsArray this))))))))
 
-(defn- get-state-graph-last-modified []
-  (let [time (OffsetDateTime/now)
-        version (util/version)]
-    (log/infof "Using new state graph last modified of: %s_%s" time version)
-    {:time time
-     :version version}))
+(defprotocol StateGraphVersioned
+  (state-graph-version [repo]
+    "Returns a value identifying the current version of the drafter
+    state graph as seen by repo, or nil if repo does not track it. The
+    version changes whenever an update is executed or committed through
+    the repo, so values derived from the state graph can be cached for
+    as long as the version is unchanged.")
+  (state-graph-writes [repo]
+    "Returns the number of updates executed or committed through repo,
+    or nil if repo does not track them. Writes made by the current
+    thread within a binding of *thread-writes* are also counted there."))
+
+(extend-protocol StateGraphVersioned
+  RepositoryWrapper
+  (state-graph-version [repo]
+    (state-graph-version (.getDelegate repo)))
+  (state-graph-writes [repo]
+    (state-graph-writes (.getDelegate repo)))
+
+  Object
+  (state-graph-version [_repo]
+    nil)
+  (state-graph-writes [_repo]
+    nil))
 
 (defn cache-busting-update-statement
-  [httpclient query-str base-uri-str state-graph-last-modified]
+  [httpclient query-str base-uri-str opts]
   (proxy [SPARQLUpdate] [httpclient base-uri-str query-str]
     (execute []
       (let [^SPARQLUpdate this this]
         (proxy-super execute))
-      (reset! state-graph-last-modified (get-state-graph-last-modified)))))
+      (invalidate-state-graph-last-modified! opts))))
 
 
 (defn- stasher-connection [repo httpclient cache {:keys [quad-mode base-uri] :or {quad-mode false} :as opts}]
@@ -754,13 +851,12 @@
     (commit []
       (let [^SPARQLConnection this this]
         (proxy-super commit))
-      (reset! (:state-graph-last-modified opts)
-              (get-state-graph-last-modified)))
+      (invalidate-state-graph-last-modified! opts))
     (prepareUpdate [_ query-str base-uri-str]
       (cache-busting-update-statement httpclient
                                       query-str
                                       (or base-uri-str base-uri)
-                                      (:state-graph-last-modified opts)))
+                                      opts))
 
     (prepareTupleQuery [_ query-str base-uri-str]
       (stashing-select-query this httpclient cache query-str (or base-uri-str base-uri) opts))
@@ -791,12 +887,17 @@
                             :cache? (get opts :cache? true)
                             :base-uri (or (:base-uri opts)
                                           "http://publishmydata.com/id/")
-                            :state-graph-last-modified (atom (get-state-graph-last-modified)))
-        repo (proxy [SPARQLRepository] [query-endpoint update-endpoint]
+                            :state-graph-last-modified (atom ::stale)
+                            :state-graph-writes (AtomicLong.))
+        repo (proxy [SPARQLRepository drafter.stasher.StateGraphVersioned] [query-endpoint update-endpoint]
                (getConnection []
                  (let [^SPARQLRepository this this
                        http-client (.createHTTPClient this)]
-                   (stasher-connection this http-client cache updated-opts))))]
+                   (stasher-connection this http-client cache updated-opts)))
+               (state_graph_version []
+                 (current-state-graph-last-modified (:state-graph-last-modified updated-opts)))
+               (state_graph_writes []
+                 (.get ^AtomicLong (:state-graph-writes updated-opts))))]
     (.setHttpClientSessionManager repo session-manager)
     (log/info "Initialised repo at QUERY=" query-endpoint ", UPDATE=" update-endpoint)
     (log/infof "Stasher Caching enabled: %b" (get updated-opts :cache?))
@@ -806,11 +907,13 @@
   (let [default-formats {:boolean :txt
                          :tuple :brt
                          :graph :brf}
-        opts (assoc opts :formats (merge default-formats (:formats opts)))]
+        opts (assoc opts
+                    :formats (merge default-formats (:formats opts))
+                    :dataset-digests (dataset-digest-cache))]
     (map->StasherCache opts)))
 
 (defmethod ig/init-key :drafter.stasher/http-client-builder [_ opts]
-  (repo/make-http-client-builder opts))
+  (http/http-client-builder opts))
 
 (defmethod ig/init-key :drafter.stasher/session-manager [_ opts]
   (repo/make-shared-session-manager opts))
@@ -834,12 +937,15 @@
 
 (s/def ::sparql-query-endpoint uri?)
 (s/def ::sparql-update-endpoint uri?)
-(s/def ::thread-pool #(instance? java.util.concurrent.ThreadPoolExecutor %))
+(s/def ::thread-pool #(instance? ExecutorService %))
 
 (defmethod ig/pre-init-spec :drafter.stasher/repo [_]
   (s/keys :req-un [::sparql-query-endpoint ::sparql-update-endpoint ::cache]
           :opt-un [::quad-mode ::report-deltas ::base-uri ::cache?]))
 
+(defmethod ig/pre-init-spec :drafter.stasher/http-client-builder [_]
+  ::http/opts)
+
 (defmethod ig/pre-init-spec :drafter.stasher/cache [_]
   (s/keys :req-un [::cache-backend ::thread-pool]
           :opt-un [::formats]))
@@ -3,7 +3,10 @@
             [clojure.spec.gen.alpha :as g]
             [drafter.util :as util])
   (:import [java.time OffsetDateTime]
-           java.net.URI))
+           java.net.URI
+           java.nio.ByteBuffer
+           java.nio.charset.StandardCharsets
+           java.security.MessageDigest))
 
 (extend-protocol Inst
   java.time.OffsetDateTime
@@ -57,7 +60,37 @@
 (s/def ::default-graphs ::uri-set)
 (s/def ::named-graphs ::uri-set)
 
-(s/def ::dataset (s/keys :req-un [::default-graphs ::named-graphs]))
+(defn- graphs-digest
+  "Returns an order independent digest of a set of graph URIs. The
+  distinct URIs are sorted and hashed with SHA-256, each prefixed with
+  its length so the encoding is unambiguous. The digest alone decides
+  which cached result a query is served, so it must resist collisions
+  between sets of user chosen URIs. Digests are cached per state graph
+  version (see drafter.stasher/cached-dataset-digest), so the sort is
+  only paid once for each dataset."
+  [graphs]
+  (let [md (MessageDigest/getInstance "SHA-256")]
+    (doseq [^String graph (sort (set (map str graphs)))]
+      (let [bytes (.getBytes graph StandardCharsets/UTF_8)]
+        (.update md (.array (.putInt (ByteBuffer/allocate 4) (alength bytes))))
+        (.update md bytes)))
+    (apply str (map #(format "%02x" %) (.digest md)))))
+
+(defn dataset-digest
+  "Returns a digest of the default and named graphs of a dataset which
+  does not depend on the order of the graphs within each set. The
+  graphs may be URI strings, java URIs or RDF4j IRIs."
+  [{:keys [default-graphs named-graphs]}]
+  (str (graphs-digest default-graphs) (graphs-digest named-graphs)))
+
+(s/def ::dataset-graphs (s/keys :req-un [::default-graphs ::named-graphs]))
+
+(s/def ::dataset-digest
+  (s/with-gen #(and (string? %) (re-matches #"[0-9a-f]{128}" %))
+    #(g/fmap dataset-digest (s/gen ::dataset-graphs))))
+
+(s/def ::dataset (s/or :graphs ::dataset-graphs
+                       :digest ::dataset-digest))
 (s/def ::query-type #{:graph :tuple :boolean})
 (s/def ::query-str string?)
 (s/def ::last-modified (s/keys :opt-un [::livemod ::draftmod ::version]))
@@ -74,18 +107,22 @@
 (s/def ::either-cache-key (s/or :cache-key ::cache-key
                                 :state-graph-cache-key ::state-graph-cache-key))
 
-(defn- deep-sort
-  "Recursively sort maps and sets"
-  [x]
-  (cond
-    (map? x) (sort (map (fn [[k v]] [k (deep-sort v)]) x))
-    (set? x) (sort (map deep-sort x))
-    (coll? x) (map deep-sort x)
-    :else x))
-
-(defn static-component [cache-key]
-  (-> (dissoc cache-key :last-modified :state-graph-last-modified)
-    deep-sort))
+(defn- dataset-component
+  "Returns the digest of a cache key dataset, which is either the
+  dataset graphs or their precomputed digest"
+  [dataset]
+  (if (string? dataset)
+    dataset
+    (dataset-digest dataset)))
+
+(defn static-component
+  "Returns the part of a cache key which does not depend on when the
+  queried graphs were modified, with the dataset represented by its
+  digest and the keys in a consistent print order"
+  [cache-key]
+  (->> (-> (dissoc cache-key :last-modified :state-graph-last-modified)
+           (update :dataset dataset-component))
+       (into (sorted-map))))
 
 (s/fdef static-component
   :args (s/cat :cache-key ::either-cache-key))
@@ -0,0 +1,101 @@
+(ns drafter.stasher.executor
+  "Executors for the background parse-and-pipe work of synchronous
+  stasher cache reads.
+
+  A cache hit for a tuple or graph query returns a Background result to
+  the caller immediately, and a task parses the cached stream into it
+  on another thread. With a bounded thread pool that task is rejected
+  when every thread is busy and the queue is full; execute! then runs it
+  on a dedicated overflow thread, so the result is still streamed to
+  the caller rather than the query failing or the whole result being
+  read into memory while the server is saturated.
+
+  On JVMs which support them the tasks can instead be run on virtual
+  threads, one per task. The tasks spend almost all of their time
+  blocked on file reads or waiting for the caller to consume results,
+  so this removes the need to size the pool for bursts at all.
+
+  Reports the following metrics:
+    - `drafter.stasher.thread_pool.queue_size` gauge of the tasks waiting
+      for a thread
+    - `drafter.stasher.thread_pool.wait` histogram of the time in ms
+      tasks wait before they start
+    - `drafter.stasher.thread_pool.rejected` count of rejected tasks
+    - `drafter.stasher.thread_pool.overflow` count of tasks run on an
+      overflow thread
+    - `stasher_thread_pool_size` histogram of the pool size"
+  (:require [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as dd]
+            [drafter.metrics :as metrics])
+  (:import [java.util.concurrent ArrayBlockingQueue ExecutorService Executors
+            RejectedExecutionException ThreadPoolExecutor TimeUnit]
+           java.util.concurrent.atomic.AtomicLong))
+
+(defn thread-pool
+  "Returns a ThreadPoolExecutor which grows from core-pool-size to
+  max-pool-size threads once queue-size tasks are waiting, and rejects
+  tasks when all threads are busy and the queue is full"
+  ^ThreadPoolExecutor
+  [{:keys [core-pool-size max-pool-size keep-alive-time-ms queue-size]}]
+  (proxy [ThreadPoolExecutor] [core-pool-size
+                               max-pool-size
+                               keep-alive-time-ms ;; time threads above core-pool-size wait for work before dying.
+                               TimeUnit/MILLISECONDS
+                               (ArrayBlockingQueue. queue-size)]
+    (beforeExecute [t r]
+      (let [^ThreadPoolExecutor this this]
+        (proxy-super beforeExecute t r)
+        (dd/histogram! "stasher_thread_pool_size" (.getPoolSize this))))))
+
+(defn virtual-thread-executor
+  "Returns an executor which starts a new virtual thread for each task,
+  or nil if the JVM doesn't support virtual threads"
+  ^ExecutorService []
+  (try
+    (.invoke (.getMethod Executors "newVirtualThreadPerTaskExecutor" (make-array Class 0))
+             nil
+             (object-array 0))
+    (catch NoSuchMethodException _ex
+      nil)))
+
+(defn executor
+  "Returns a virtual thread executor if virtual-threads? is set and
+  supported, otherwise a bounded thread-pool"
+  ^ExecutorService [{:keys [virtual-threads?] :as opts}]
+  (or (when virtual-threads?
+        (if-let [exec (virtual-thread-executor)]
+          (do (log/info "Stasher cache reads will use virtual threads")
+              exec)
+          (log/warn "Virtual threads are not supported by this JVM, using a bounded thread pool for stasher cache reads")))
+      (thread-pool opts)))
+
+(defn submit!
+  "Submits f to run on executor. Returns true if it was accepted, or
+  false if the executor is saturated and rejected it."
+  [^ExecutorService executor f]
+  (let [submitted (metrics/now)]
+    (try
+      (.execute executor ^Runnable (fn []
+                                     (metrics/record-since! "drafter.stasher.thread_pool.wait" submitted)
+                                     (f)))
+      (when (instance? ThreadPoolExecutor executor)
+        (dd/gauge! "drafter.stasher.thread_pool.queue_size"
+                   (.size (.getQueue ^ThreadPoolExecutor executor))))
+      true
+      (catch RejectedExecutionException _ex
+        (dd/increment! "drafter.stasher.thread_pool.rejected" 1)
+        false))))
+
+(defonce ^:private overflow-threads (AtomicLong.))
+
+(defn execute!
+  "Runs f on executor, or on a new daemon thread if the executor is
+  saturated and rejects it. Overflow threads are only started for
+  tasks the executor can't take, and each lives as long as its task."
+  [executor f]
+  (when-not (submit! executor f)
+    (dd/increment! "drafter.stasher.thread_pool.overflow" 1)
+    (doto (Thread. ^Runnable f (str "drafter-stasher-overflow-" (.incrementAndGet ^AtomicLong overflow-threads)))
+      (.setDaemon true)
+      (.start)))
+  nil)
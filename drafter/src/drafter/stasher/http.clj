@@ -0,0 +1,199 @@
+(ns drafter.stasher.http
+  "The HTTP transport used by the stasher repo to talk to the backend
+  SPARQL endpoints.
+
+  SPARQLRepository/getConnection creates a new protocol session for each
+  RDF4j connection, but every session shares the single HttpClient held
+  by the session manager, so the TCP connections to the backend are
+  owned by the pooling connection manager built here. The pool is
+  bounded in total and per route, connections are kept alive between
+  requests for as long as the backend allows (or keep-alive-ms if it
+  doesn't say), and idle connections are evicted in the background
+  rather than being closed and reopened per request.
+
+  The connection manager and client report the following metrics:
+    - `drafter.backend.http.pool.{leased,available,pending,max}` gauges
+      of the pool utilisation
+    - `drafter.backend.http.connection_acquire` histogram of the time
+      in ms spent waiting to lease a connection from the pool
+    - `drafter.backend.http.latency` histogram of the time in ms from
+      executing a request, including any wait for a connection, to
+      receiving the response headers"
+  (:require [clojure.spec.alpha :as s]
+            [clojure.tools.logging :as log]
+            [cognician.dogstatsd :as dd]
+            [drafter.metrics :as metrics])
+  (:import [java.util.concurrent TimeUnit]
+           [org.apache.http HeaderElement HttpEntityEnclosingRequest HttpRequestInterceptor
+            HttpResponse HttpResponseInterceptor]
+           org.apache.http.client.config.RequestConfig
+           org.apache.http.client.entity.GzipCompressingEntity
+           [org.apache.http.conn ConnectionKeepAliveStrategy ConnectionRequest HttpClientConnectionManager]
+           org.apache.http.impl.client.HttpClientBuilder
+           org.apache.http.impl.conn.PoolingHttpClientConnectionManager
+           org.apache.http.protocol.HttpContext))
+
+(def ^:private request-start-attribute "drafter.stasher.http/request-start")
+
+(def default-opts
+  {:grafter.http/max-conn-total 10
+   :grafter.http/max-conn-per-route 10
+   :grafter.http/conn-time-to-live 60
+   :keep-alive-ms 30000
+   :max-idle-ms 60000
+   :validate-after-inactivity-ms 2000
+   :connection-request-timeout-ms -1
+   :response-compression? true
+   :request-compression? false
+   :request-compression-min-size 8192})
+
+(defn- report-pool-stats! [^PoolingHttpClientConnectionManager pool]
+  (let [stats (.getTotalStats pool)]
+    (dd/gauge! "drafter.backend.http.pool.leased" (.getLeased stats))
+    (dd/gauge! "drafter.backend.http.pool.available" (.getAvailable stats))
+    (dd/gauge! "drafter.backend.http.pool.pending" (.getPending stats))
+    (dd/gauge! "drafter.backend.http.pool.max" (.getMax stats))))
+
+(defn- timed-connection-request
+  "Wraps a pending ConnectionRequest to record how long the caller waits
+  for a connection to be leased"
+  ^ConnectionRequest [pool ^ConnectionRequest request]
+  (reify ConnectionRequest
+    (get [_this timeout unit]
+      (let [start (metrics/now)]
+        (try
+          (.get request timeout unit)
+          (finally
+            (metrics/record-since! "drafter.backend.http.connection_acquire" start)
+            (report-pool-stats! pool)))))
+    (cancel [_this]
+      (.cancel request))))
+
+(defn connection-manager
+  "Returns a pooling connection manager with at most max-conn-total
+  connections, and max-conn-per-route to each endpoint. Connections
+  older than conn-time-to-live seconds are not reused and pooled
+  connections idle for more than validate-after-inactivity-ms are
+  checked before being leased."
+  ^PoolingHttpClientConnectionManager
+  [{:keys [grafter.http/max-conn-total grafter.http/max-conn-per-route grafter.http/conn-time-to-live
+           validate-after-inactivity-ms]}]
+  (doto (PoolingHttpClientConnectionManager. (long (or conn-time-to-live -1)) TimeUnit/SECONDS)
+    (.setMaxTotal max-conn-total)
+    (.setDefaultMaxPerRoute max-conn-per-route)
+    (.setValidateAfterInactivity validate-after-inactivity-ms)))
+
+(defn instrumented-connection-manager
+  "Returns a connection manager which delegates to the pool and reports
+  its utilisation and the time callers wait for connections"
+  ^HttpClientConnectionManager [^PoolingHttpClientConnectionManager pool]
+  (reify HttpClientConnectionManager
+    (requestConnection [_this route state]
+      (timed-connection-request pool (.requestConnection pool route state)))
+    (releaseConnection [_this conn state valid-duration unit]
+      (.releaseConnection pool conn state valid-duration unit)
+      (report-pool-stats! pool))
+    (connect [_this conn route connect-timeout context]
+      (.connect pool conn route connect-timeout context))
+    (upgrade [_this conn route context]
+      (.upgrade pool conn route context))
+    (routeComplete [_this conn route context]
+      (.routeComplete pool conn route context))
+    (closeIdleConnections [_this idle-time unit]
+      (.closeIdleConnections pool idle-time unit))
+    (closeExpiredConnections [_this]
+      (.closeExpiredConnections pool))
+    (shutdown [_this]
+      (.shutdown pool))))
+
+(defn keep-alive-strategy
+  "Keeps connections alive for the duration given by the Keep-Alive
+  header of the response, or keep-alive-ms if the server doesn't send
+  one"
+  ^ConnectionKeepAliveStrategy [keep-alive-ms]
+  (reify ConnectionKeepAliveStrategy
+    (getKeepAliveDuration [_this response _context]
+      (let [timeout (some-> (.getFirstHeader ^HttpResponse response "Keep-Alive")
+                            (.getElements)
+                            (->> (some (fn [^HeaderElement e]
+                                         (when (= "timeout" (.getName e))
+                                           (.getValue e))))))]
+        (or (some-> timeout parse-long (* 1000))
+            keep-alive-ms)))))
+
+(defn gzip-request-interceptor
+  "Returns an interceptor which gzips request bodies of at least
+  min-size bytes. Bodies of unknown length are always compressed."
+  ^HttpRequestInterceptor [min-size]
+  (reify HttpRequestInterceptor
+    (process [_this request _context]
+      (when (instance? HttpEntityEnclosingRequest request)
+        (let [request ^HttpEntityEnclosingRequest request
+              entity (.getEntity request)]
+          (when (and entity
+                     (nil? (.getContentEncoding entity))
+                     (let [length (.getContentLength entity)]
+                       (or (neg? length) (>= length min-size))))
+            (.setEntity request (GzipCompressingEntity. entity))))))))
+
+(def ^:private start-timer-interceptor
+  (reify HttpRequestInterceptor
+    (process [_this _request context]
+      (.setAttribute ^HttpContext context request-start-attribute (metrics/now)))))
+
+(def ^:private latency-interceptor
+  (reify HttpResponseInterceptor
+    (process [_this _response context]
+      (when-let [start (.getAttribute ^HttpContext context request-start-attribute)]
+        (metrics/record-since! "drafter.backend.http.latency" start)))))
+
+(defn http-client-builder
+  "Returns an HttpClientBuilder for clients to the backend which share
+  an instrumented connection pool. Options not given are taken from
+  default-opts."
+  ^HttpClientBuilder
+  [opts]
+  (let [{:keys [grafter.http/user-agent keep-alive-ms max-idle-ms connection-request-timeout-ms
+                response-compression? request-compression? request-compression-min-size]
+         :as opts} (merge default-opts opts)
+        pool (connection-manager opts)
+        builder (doto (HttpClientBuilder/create)
+                  (.useSystemProperties)
+                  (.setConnectionManager (instrumented-connection-manager pool))
+                  (.setKeepAliveStrategy (keep-alive-strategy keep-alive-ms))
+                  (.evictExpiredConnections)
+                  (.evictIdleConnections (long max-idle-ms) TimeUnit/MILLISECONDS)
+                  (.setDefaultRequestConfig (-> (RequestConfig/custom)
+                                                (.setConnectionRequestTimeout connection-request-timeout-ms)
+                                                (.build)))
+                  (.addInterceptorFirst ^HttpRequestInterceptor start-timer-interceptor)
+                  (.addInterceptorLast ^HttpResponseInterceptor latency-interceptor))]
+    (when user-agent
+      (.setUserAgent builder user-agent))
+    (when-not response-compression?
+      (.disableContentCompression builder))
+    (when request-compression?
+      (.addInterceptorFirst builder (gzip-request-interceptor request-compression-min-size)))
+    (log/infof "Backend HTTP pool: max-conn-total=%d max-conn-per-route=%d keep-alive-ms=%d request-compression=%b response-compression=%b"
+               (:grafter.http/max-conn-total opts) (:grafter.http/max-conn-per-route opts)
+               keep-alive-ms (boolean request-compression?) (boolean response-compression?))
+    builder))
+
+(s/def :grafter.http/max-conn-total pos-int?)
+(s/def :grafter.http/max-conn-per-route pos-int?)
+(s/def :grafter.http/conn-time-to-live integer?)
+(s/def :grafter.http/user-agent string?)
+(s/def ::keep-alive-ms pos-int?)
+(s/def ::max-idle-ms pos-int?)
+(s/def ::validate-after-inactivity-ms integer?)
+(s/def ::connection-request-timeout-ms integer?)
+(s/def ::response-compression? boolean?)
+(s/def ::request-compression? boolean?)
+(s/def ::request-compression-min-size nat-int?)
+
+(s/def ::opts
+  (s/keys :opt [:grafter.http/max-conn-total :grafter.http/max-conn-per-route
+                :grafter.http/conn-time-to-live :grafter.http/user-agent]
+          :opt-un [::keep-alive-ms ::max-idle-ms ::validate-after-inactivity-ms
+                   ::connection-request-timeout-ms ::response-compression?
+                   ::request-compression? ::request-compression-min-size]))
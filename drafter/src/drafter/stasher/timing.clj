@@ -1,7 +1,7 @@
 (ns drafter.stasher.timing
-  "Functions to create query results and result handlers instances that log
-   timing metrics to DataDog"
-  (:require [cognician.dogstatsd :as dd]
+  "Functions to create query results and result handlers instances that
+   record timing metrics with drafter.metrics"
+  (:require [drafter.metrics :as metrics]
             [drafter.stasher.cancellable :as c])
   (:import (org.eclipse.rdf4j.query GraphQueryResult TupleQueryResult
                                     TupleQueryResultHandler)
@@ -9,14 +9,14 @@
 
 (defn graph-result
   ([metric-name ^GraphQueryResult delegate]
-   (graph-result metric-name delegate (System/currentTimeMillis)))
+   (graph-result metric-name delegate (metrics/now)))
   ([metric-name delegate start-time]
    (reify GraphQueryResult
      (getNamespaces [_]
        (.getNamespaces delegate))
      (close [_]
        (.close delegate)
-       (dd/histogram! metric-name (- (System/currentTimeMillis) start-time)))
+       (metrics/record-since! metric-name start-time))
      (hasNext [_]
        (.hasNext delegate))
      (next [_]
@@ -26,7 +26,7 @@
 
 (defn tuple-result
   ([metric-name ^TupleQueryResult  delegate]
-   (tuple-result metric-name delegate (System/currentTimeMillis)))
+   (tuple-result metric-name delegate (metrics/now)))
   ([metric-name ^TupleQueryResult delegate start-time]
    (reify
      TupleQueryResult
@@ -34,7 +34,7 @@
        (.getBindingNames delegate))
      (close [_]
        (.close delegate)
-       (dd/histogram! metric-name (- (System/currentTimeMillis) start-time)))
+       (metrics/record-since! metric-name start-time))
      (hasNext [_]
        (.hasNext delegate))
      (next [_]
@@ -42,13 +42,13 @@
 
 (defn tuple-handler
   ([metric-name ^TupleQueryResultHandler delegate]
-   (tuple-handler metric-name delegate (System/currentTimeMillis)))
+   (tuple-handler metric-name delegate (metrics/now)))
   ([metric-name ^TupleQueryResultHandler delegate start-time]
    (reify
      TupleQueryResultHandler
      (endQueryResult [_]
        (.endQueryResult delegate)
-       (dd/histogram! metric-name (- (System/currentTimeMillis) start-time)))
+       (metrics/record-since! metric-name start-time))
      (handleLinks [_ links]
        (.handleLinks delegate links))
      (handleBoolean [_ bool]
@@ -68,7 +68,7 @@
 
 (defn rdf-handler
   ([metric-name ^RDFHandler delegate]
-   (rdf-handler metric-name delegate (System/currentTimeMillis)))
+   (rdf-handler metric-name delegate (metrics/now)))
   ([metric-name ^RDFHandler delegate start-time]
    (reify
      RDFHandler
@@ -76,7 +76,7 @@
        (.startRDF delegate))
      (endRDF [_]
        (.endRDF delegate)
-       (dd/histogram! metric-name (- (System/currentTimeMillis) start-time)))
+       (metrics/record-since! metric-name start-time))
      (handleStatement [_ statement]
        (.handleStatement delegate statement))
      (handleComment [_ comment]
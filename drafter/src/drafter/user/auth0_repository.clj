@@ -1,5 +1,7 @@
 (ns drafter.user.auth0-repository
-  (:require [swirrl.auth0.client :as auth0]
+  (:require [clojure.spec.alpha :as s]
+            [drafter.auth.cache :as auth-cache]
+            [swirrl.auth0.client :as auth0]
             [clojure.tools.logging :as log]
             [drafter.user :refer [username UserRepository]]
             [integrant.core :as ig]))
@@ -10,14 +12,20 @@
       (auth0/api :users-by-email {:email email})
       (first)))
 
-(defrecord Auth0UserRepository [auth0]
+(defrecord Auth0UserRepository [auth0 user-cache]
   UserRepository
-  (find-user-by-username [this username] (-find-user-by-username auth0 username))
+  (find-user-by-username [this username]
+    (auth-cache/lookup user-cache username #(-find-user-by-username auth0 username)))
   (get-all-users [this]
     (throw (UnsupportedOperationException. "Can't list users from Auth0"))))
 
 (derive :drafter.user/auth0-repository :drafter.user/repo)
 
+(s/def ::user-cache ::auth-cache/TtlCache)
+
+(defmethod ig/pre-init-spec :drafter.user/auth0-repository [_]
+  (s/keys :req-un [::user-cache]))
+
 (defmethod ig/init-key :drafter.user/auth0-repository
-  [_ {:keys [auth0] :as opts}]
-  (->Auth0UserRepository auth0))
+  [_ {:keys [auth0 user-cache] :as opts}]
+  (->Auth0UserRepository auth0 user-cache))
@@ -1,5 +1,6 @@
 (ns drafter.user.mongo
   (:require [clojure.set :as set]
+            [drafter.auth.cache :as auth-cache]
             [drafter.user :as user]
             [monger
              [collection :as mc]
@@ -30,11 +31,12 @@
   (validate-spec! ::MongoUserSchema mongo-user)
   (user/create-user email (role-mappings role_number) encrypted_password))
 
-(defrecord MongoUserRepository [conn db user-collection]
+(defrecord MongoUserRepository [conn db user-collection user-cache]
   user/UserRepository
   (find-user-by-username [this username]
-    (if-let [mongo-user (mc/find-one-as-map db user-collection {:email username})]
-      (mongo-user->user mongo-user)))
+    (auth-cache/lookup user-cache username
+                       #(if-let [mongo-user (mc/find-one-as-map db user-collection {:email username})]
+                          (mongo-user->user mongo-user))))
 
   (get-all-users [this]
     (->>  user-collection
@@ -78,7 +80,7 @@
         collection-name (get-user-collection-name config)
         conn (if (nil? host-config) (mg/connect) (mg/connect host-config))
         db (mg/get-db conn db-name)]
-    (->MongoUserRepository conn db collection-name)))
+    (->MongoUserRepository conn db collection-name (:user-cache config))))
 
 (defn- user->mongo-user [user role]
   (let [[email digest] ((juxt user/username user/password-digest) user)
@@ -102,6 +104,11 @@
 
 (derive :drafter.user/mongo :drafter.user/repo)
 
+(s/def ::user-cache ::auth-cache/TtlCache)
+
+(defmethod ig/pre-init-spec :drafter.user/mongo [_]
+  (s/keys :req-un [::user-cache]))
+
 (defmethod ig/init-key :drafter.user/mongo [k opts]
   ;; merge the config options onto the record for convenience
   (merge (get-repository opts) opts))
@@ -69,11 +69,10 @@
        (clojure.tools.logging/debug "About to execute"
                                    (str ~msg " (line #" ~line-num ")")
                                    #_~forms-str)
-       (let [start-time# (System/currentTimeMillis)]
+       (let [start-time# (System/nanoTime)]
            ~@forms
-           (let [end-time# (System/currentTimeMillis)
-                 execution-time# (- end-time# start-time#)]
-             (clojure.tools.logging/info ~msg "took" (str execution-time# "ms") #_~forms-str))))))
+           (let [execution-time# (/ (- (System/nanoTime) start-time#) 1e6)]
+             (clojure.tools.logging/info ~msg "took" (format "%.3fms" execution-time#) #_~forms-str))))))
 
 ;;map-values :: (a -> b) -> Map[k, a] -> Map[k, b]
 (defn map-values
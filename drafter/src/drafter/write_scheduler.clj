@@ -9,12 +9,17 @@
   The public functions in this namespace are concerned with submitting jobs and
   waiting for their results.
 
-  Jobs can be added to the write queue using the queue-job! function."
+  Jobs can be added to the write queue using the queue-job! function.
+
+  The time each job waits in the queue before the write loop starts it
+  is recorded as the `drafter.write_scheduler.queue_wait` metric, tagged
+  with the job priority."
   (:require
    [clojure.tools.logging :as log]
    [cognician.dogstatsd :as datadog]
    [drafter.async.jobs :as jobs]
    [drafter.logging :refer [with-logging-context]]
+   [drafter.metrics :as metrics]
    [drafter.rdf.draftset-management.job-util :refer [failed-job-result?]]
    [drafter.responses :as r]
    [drafter.util :refer [log-time-taken]]
@@ -71,15 +76,14 @@
   released.  After the forms have executed the lock is guaranteed to
   be released."
   [global-writes-lock operation-type & forms]
-  `(let [start-time# (System/currentTimeMillis)]
+  `(let [start-time# (metrics/now)]
      (log/debug "Locking for" ~operation-type)
      (.lock (:lock ~global-writes-lock))
      (try
        (log/info "Acquired lock for " ~operation-type)
        ~@forms
        (finally
-         (let [end-time# (System/currentTimeMillis)]
-           (datadog/histogram! "drafter.writes_locked" (- end-time# start-time#)))
+         (metrics/record-since! "drafter.writes_locked" start-time#)
          (log/info "Releasing lock for" ~operation-type)
          (.unlock (:lock ~global-writes-lock))))))
 
@@ -100,6 +104,7 @@
   (let [req-id (MDC/get "reqId")
         req-method (MDC/get "method")
         req-route (MDC/get "route")
+        job (assoc job ::queued-at (metrics/now))
         job (if req-id
               (with-meta job {:reqId req-id
                               :method req-method
@@ -189,6 +194,9 @@
                   priority :priority
                   job-id :id :as job} (.poll writes-queue 200 TimeUnit/MILLISECONDS)]
         (datadog/gauge! "drafter.jobs_queue_size" (.size writes-queue))
+        (metrics/record-since! "drafter.write_scheduler.queue_wait"
+                               {:priority (name priority)}
+                               (::queued-at job))
         (with-logging-context
           (assoc
             (meta job)
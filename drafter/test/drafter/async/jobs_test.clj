@@ -180,6 +180,56 @@
         (is (= 200 status))
         (is (= {:type :ok :restart-id r/restart-id} body))))))
 
+(tc/deftest-system-with-keys job-status-wait-test
+  [:drafter.routes/jobs-status]
+  [{handler :drafter.routes/jobs-status :as sys} system]
+  (let [job (jobs/create-job dummy {:operation 'test-job} :batch-write (constantly nil))
+        path (str "/v1/status/jobs/" (:id job))
+        wait-request (fn [wait]
+                       (-> (request :get path)
+                           (assoc :params {:wait wait})
+                           (->> (tc/with-identity test-editor))))]
+
+    (jobs/submit-async-job! job)
+
+    (testing "Invalid wait, 422"
+      (is (= 422 (:status (handler (wait-request "soon"))))))
+
+    (testing "Returns pending job once the wait has elapsed"
+      (let [{:keys [body status]} (handler (wait-request "50"))]
+        (is (= 200 status))
+        (is (= :pending (:status body)))))
+
+    (testing "Returns job once it completes"
+      (let [completed (future (Thread/sleep 200) (jobs/job-succeeded! job))
+            {:keys [body status]} (handler (wait-request "10000"))]
+        @completed
+        (is (= 200 status))
+        (is (job=complete-response job body))
+        (is (= :complete (:status body)))))))
+
+(tc/deftest-system-with-keys job-status-max-waiters-test
+  [:drafter.routes/jobs-status]
+  [{handler :drafter.routes/jobs-status :as sys} system]
+  (let [job (jobs/create-job dummy {:operation 'test-job} :batch-write (constantly nil))
+        path (str "/v1/status/jobs/" (:id job))
+        wait-request (-> (request :get path)
+                         (assoc :params {:wait "10000"})
+                         (->> (tc/with-identity test-editor)))]
+
+    (jobs/submit-async-job! job)
+
+    (testing "Returns pending job immediately when max-waiters are waiting"
+      (let [waiting (future (handler wait-request))
+            _ (Thread/sleep 200)
+            start (System/currentTimeMillis)
+            {:keys [body status]} (handler wait-request)]
+        (is (= 200 status))
+        (is (= :pending (:status body)))
+        (is (< (- (System/currentTimeMillis) start) 5000))
+        (jobs/job-succeeded! job)
+        (is (= :complete (:status (:body @waiting))))))))
+
 (tc/deftest-system-with-keys jobs-list-status-test
   [:drafter.routes/jobs-status :drafter/global-writes-lock]
   [{handler :drafter.routes/jobs-status
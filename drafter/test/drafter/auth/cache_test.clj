@@ -0,0 +1,97 @@
+(ns drafter.auth.cache-test
+  (:require [clojure.test :as t]
+            [drafter.auth :as auth]
+            [drafter.auth.cache :as sut]
+            [drafter.auth.test-common :as auth-common])
+  (:import [clojure.lang ExceptionInfo]))
+
+(defn- counting [f]
+  (let [calls (atom 0)]
+    [calls (fn [& args] (swap! calls inc) (apply f args))]))
+
+(t/deftest lookup-test
+  (t/testing "Caches computed values"
+    (let [cache (sut/create-cache {})
+          [calls f] (counting (constantly :value))]
+      (t/is (= :value (sut/lookup cache :k f)))
+      (t/is (= :value (sut/lookup cache :k f)))
+      (t/is (= 1 @calls))))
+
+  (t/testing "Caches missing values"
+    (let [cache (sut/create-cache {})
+          [calls f] (counting (constantly nil))]
+      (t/is (nil? (sut/lookup cache :k f)))
+      (t/is (nil? (sut/lookup cache :k f)))
+      (t/is (= 1 @calls))))
+
+  (t/testing "Caches authentication failures"
+    (let [cache (sut/create-cache {})
+          [calls f] (counting #(auth/authentication-failed))]
+      (t/is (thrown? ExceptionInfo (sut/lookup cache :k f)))
+      (t/is (thrown? ExceptionInfo (sut/lookup cache :k f)))
+      (t/is (= 1 @calls))))
+
+  (t/testing "Does not cache other errors"
+    (let [cache (sut/create-cache {})
+          [calls f] (counting #(throw (ex-info "Connection failed" {})))]
+      (t/is (thrown? ExceptionInfo (sut/lookup cache :k f)))
+      (t/is (thrown? ExceptionInfo (sut/lookup cache :k f)))
+      (t/is (= 2 @calls))))
+
+  (t/testing "Does not return values past their expiry"
+    (let [cache (sut/create-cache {})
+          [calls f] (counting (constantly :value))
+          expired (fn [_] (System/currentTimeMillis))]
+      (sut/lookup cache :k f expired)
+      (sut/lookup cache :k f expired)
+      (t/is (= 2 @calls))))
+
+  (t/testing "Evicts entries when full"
+    (let [cache (sut/create-cache {:max-size 2})]
+      (doseq [k (range 10)]
+        (sut/lookup cache k (constantly k)))
+      (t/is (>= 2 (count (:entries cache))))))
+
+  (t/testing "Calls f directly without a cache"
+    (let [[calls f] (counting (constantly :value))]
+      (sut/lookup nil :k f)
+      (sut/lookup nil :k f)
+      (t/is (= 2 @calls)))))
+
+(defn- test-auth-method [authenticate-calls]
+  (reify auth/AuthenticationMethod
+    (parse-request [_this request]
+      (get-in request [:headers "authorization"]))
+    (authenticate [_this _request token]
+      (swap! authenticate-calls inc)
+      (if (= "Token valid" token)
+        {:email "test@example.com" :permissions #{}}
+        (auth/authentication-failed)))
+    (get-swagger-key [_this] :test)
+    (get-swagger-description [_this] {})
+    (get-swagger-security-definition [_this] {})
+    (get-operation-swagger-security-requirement [_this _operation] [])
+    (get-swagger-ui-config [_this] {})))
+
+(defn- request [token]
+  {:uri "/test" :request-method :get :headers {"authorization" token}})
+
+(t/deftest cached-auth-method-test
+  (let [calls (atom 0)
+        auth-method (sut/cached-auth-method (test-auth-method calls) (sut/create-cache {}) (constantly nil))]
+    (t/testing "Authenticates each token once"
+      (t/is (= "test@example.com" (:email (auth-common/expect-authentication auth-method (request "Token valid")))))
+      (t/is (= "test@example.com" (:email (auth-common/expect-authentication auth-method (request "Token valid")))))
+      (t/is (= 1 @calls)))
+
+    (t/testing "Caches failed authentication"
+      (t/is (thrown? ExceptionInfo (auth-common/expect-authentication auth-method (request "Token invalid"))))
+      (t/is (thrown? ExceptionInfo (auth-common/expect-authentication auth-method (request "Token invalid"))))
+      (t/is (= 2 @calls)))
+
+    (t/testing "Does not handle requests without credentials"
+      (t/is (nil? (auth/parse-request auth-method {:uri "/test" :request-method :get})))))
+
+  (t/testing "Returns the authentication method without a cache"
+    (let [auth-method (test-auth-method (atom 0))]
+      (t/is (identical? auth-method (sut/cached-auth-method auth-method nil (constantly nil)))))))
@@ -102,3 +102,9 @@
         request (add-user {:uri "/test" :request-method :get} user "signing-key")
         auth-method (sut/jws-auth-method "verification-key")]
     (t/is (thrown? ExceptionInfo (auth-common/expect-authentication auth-method request)))))
+
+(t/deftest token-expires-at-test
+  (let [token (sign-doc (get-claims {:email "test@example.com" :role :editor :exp 1600000000}) "test")]
+    (t/is (= 1600000000000 (sut/token-expires-at token))))
+  (t/is (nil? (sut/token-expires-at (create-token {:email "test@example.com" :role :editor} "test"))))
+  (t/is (nil? (sut/token-expires-at "not a token"))))
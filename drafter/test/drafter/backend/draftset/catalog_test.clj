@@ -0,0 +1,93 @@
+(ns drafter.backend.draftset.catalog-test
+  (:require [clojure.test :as t]
+            [drafter.backend.draftset.catalog :as sut]
+            [drafter.user-test :refer [test-editor test-manager test-publisher]])
+  (:import java.time.OffsetDateTime))
+
+(defn- draftset [id created-day props]
+  (merge {:id id
+          :type "Draftset"
+          :display-name id
+          :created-at (OffsetDateTime/parse (format "2020-01-%02dT00:00:00Z" created-day))
+          :created-by "editor@swirrl.com"
+          :changes {}}
+         props))
+
+(def draftsets
+  [(draftset "owned-by-editor" 3 {:current-owner "editor@swirrl.com"})
+   (draftset "owned-by-publisher" 1 {:current-owner "publisher@swirrl.com"})
+   (draftset "claimable-by-publishers" 2 {:submitted-by "editor@swirrl.com"
+                                          :claim-permission :drafter:draft:publish})
+   (draftset "claimable-by-managers" 4 {:submitted-by "editor@swirrl.com"
+                                        :claim-permission :drafter:draft:claim:manager})
+   (draftset "submitted-to-publisher" 5 {:submitted-by "editor@swirrl.com"
+                                         :claim-user "publisher@swirrl.com"})
+   (draftset "shared-with-manager" 6 {:current-owner "publisher@swirrl.com"
+                                      :view-users #{"manager@swirrl.com"}})
+   (draftset "shared-with-publishers" 7 {:current-owner "manager@swirrl.com"
+                                         :view-permissions #{:drafter:draft:publish}})])
+
+(def catalog (sut/build-catalog draftsets))
+
+(defn- ids [draftsets] (map :id draftsets))
+
+(t/deftest draftsets-owned-by-test
+  (t/is (= ["owned-by-editor"] (ids (sut/draftsets-owned-by catalog test-editor))))
+  (t/is (= ["owned-by-publisher" "shared-with-manager"]
+           (ids (sut/draftsets-owned-by catalog test-publisher)))))
+
+(t/deftest draftsets-claimable-by-test
+  (t/testing "Unowned submitted draftsets are claimable by the submitter"
+    (t/is (= ["claimable-by-publishers" "claimable-by-managers" "submitted-to-publisher"]
+             (ids (sut/draftsets-claimable-by catalog test-editor)))))
+
+  (t/testing "Claimable by permission and claim user"
+    (t/is (= ["claimable-by-publishers" "submitted-to-publisher"]
+             (ids (sut/draftsets-claimable-by catalog test-publisher))))
+    (t/is (= ["claimable-by-publishers" "claimable-by-managers"]
+             (ids (sut/draftsets-claimable-by catalog test-manager)))))
+
+  (t/testing "Draftsets owned by the user are not claimable"
+    (t/is (not-any? #{"owned-by-editor"} (ids (sut/draftsets-claimable-by catalog test-editor))))))
+
+(t/deftest draftsets-visible-to-test
+  (t/testing "Includes draftsets shared with the user or their permissions"
+    (t/is (= ["owned-by-publisher" "claimable-by-publishers" "submitted-to-publisher"
+              "shared-with-manager" "shared-with-publishers"]
+             (ids (sut/draftsets-visible-to catalog test-publisher))))
+    (t/is (= ["claimable-by-publishers" "claimable-by-managers" "shared-with-manager" "shared-with-publishers"]
+             (ids (sut/draftsets-visible-to catalog test-manager))))))
+
+(t/deftest incremental-update-test
+  (t/testing "Adding draftsets one at a time builds the same catalog"
+    (t/is (= catalog (reduce sut/assoc-draftset sut/empty-catalog (reverse draftsets)))))
+
+  (t/testing "Replacing a draftset re-indexes it"
+    (let [claimed (-> (get-in catalog [:by-id "claimable-by-publishers"])
+                      (dissoc :submitted-by :claim-permission)
+                      (assoc :current-owner "publisher@swirrl.com"))
+          updated (sut/assoc-draftset catalog claimed)]
+      (t/is (= ["owned-by-publisher" "claimable-by-publishers" "shared-with-manager"]
+               (ids (sut/draftsets-owned-by updated test-publisher))))
+      (t/is (= ["claimable-by-managers" "submitted-to-publisher"]
+               (ids (sut/draftsets-claimable-by updated test-editor))))))
+
+  (t/testing "Removing a draftset removes it from every index"
+    (t/is (= (sut/build-catalog (remove #(= "submitted-to-publisher" (:id %)) draftsets))
+             (sut/dissoc-draftset catalog "submitted-to-publisher")))))
+
+(t/deftest store-test
+  (let [store (sut/create-store)
+        v1 (Object.)
+        v2 (Object.)]
+    (t/testing "A stored catalog is only returned for its version"
+      (sut/store! store v1 catalog)
+      (t/is (= catalog (sut/lookup store v1)))
+      (t/is (nil? (sut/lookup store v2)))
+      (t/is (nil? (sut/lookup store nil))))
+
+    (t/testing "Updates apply only to a catalog current at the version before the change"
+      (sut/update-store! store v1 v2 #(sut/dissoc-draftset % "owned-by-editor"))
+      (t/is (= (sut/dissoc-draftset catalog "owned-by-editor") (sut/lookup store v2)))
+      (sut/update-store! store v1 (Object.) (constantly sut/empty-catalog))
+      (t/is (= (sut/dissoc-draftset catalog "owned-by-editor") (sut/lookup store v2))))))
@@ -0,0 +1,44 @@
+(ns drafter.backend.draftset.graph-cache-test
+  (:require [clojure.test :refer :all]
+            [drafter.backend.draftset.draft-management :as mgmt]
+            [drafter.backend.draftset.graph-cache :as sut]
+            [drafter.backend.draftset.operations :as dsops]
+            [drafter.stasher :as stasher]
+            [drafter.test-common :as tc])
+  (:import java.net.URI))
+
+(use-fixtures :each tc/with-spec-instrumentation)
+
+(defrecord VersionedRepo [version]
+  stasher/StateGraphVersioned
+  (state-graph-version [_this] @version))
+
+(deftest graph-cache-test
+  (let [queries (atom 0)
+        mapping {(URI. "http://live") (URI. "http://draft")}
+        draftset-uri (URI. "http://publishmydata.com/id/draftsets/ds-1")]
+    (with-redefs [dsops/get-draftset-graph-mapping (fn [_repo _ref] (swap! queries inc) mapping)
+                  mgmt/live-graphs (fn [_repo & _] (swap! queries inc) [(URI. "http://live")])]
+      (testing "Caches values while the state graph version is unchanged"
+        (let [version (atom (Object.))
+              repo (->VersionedRepo version)
+              cache (sut/create-cache)]
+          (is (= mapping (sut/draftset-graph-mapping cache repo draftset-uri)))
+          (is (= mapping (sut/draftset-graph-mapping cache repo draftset-uri)))
+          (is (= #{(URI. "http://live")} (sut/live-graphs cache repo)))
+          (is (= #{(URI. "http://live")} (sut/live-graphs cache repo)))
+          (is (= 2 @queries))
+
+          (testing "and invalidates them when it changes"
+            (reset! version (Object.))
+            (sut/draftset-graph-mapping cache repo draftset-uri)
+            (sut/live-graphs cache repo)
+            (is (= 4 @queries)))))
+
+      (testing "Does not cache for unversioned repos"
+        (reset! queries 0)
+        (let [repo (->VersionedRepo (atom nil))
+              cache (sut/create-cache)]
+          (sut/draftset-graph-mapping cache repo draftset-uri)
+          (sut/draftset-graph-mapping cache repo draftset-uri)
+          (is (= 2 @queries)))))))
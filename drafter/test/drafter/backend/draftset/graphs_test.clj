@@ -151,6 +151,45 @@
       (let [live->draft (dsops/get-draftset-graph-mapping repo draftset-id)]
         (t/is (= false (contains? live->draft protected-graph)) "Should not create draft of protected graph")))))
 
+(t/deftest delete-user-graphs-test
+  (tc/with-system
+    [:drafter/backend]
+    [system "drafter/feature/empty-db-system.edn"]
+    (let [clock (tc/incrementing-clock)
+          repo (:drafter/backend system)
+          manager (create-manager repo #{} clock)
+          draftset-id (dsops/create-draftset! repo test-editor)
+          in-draftset (URI. "http://live/in-draftset")
+          not-in-draftset (URI. "http://live/not-in-draftset")
+          missing (URI. "http://missing")]
+
+      (tc/make-graph-live! repo in-draftset (tc/test-triples) clock)
+      (tc/make-graph-live! repo not-in-draftset (tc/test-triples) clock)
+
+      (let [draft-graph (tc/import-data-to-draft! repo in-draftset (tc/test-triples (URI. "http://subject")) draftset-id)
+            live->draft (delete-user-graphs manager draftset-id [in-draftset not-in-draftset missing])
+            graph-mapping (dsops/get-draftset-graph-mapping repo draftset-id)]
+        (t/is (= #{in-draftset not-in-draftset} (set (keys live->draft))))
+        (t/is (= draft-graph (get live->draft in-draftset)) "Existing draft graph should be reused")
+        (t/is (= live->draft graph-mapping))
+        (t/is (= true (mgmt/graph-empty? repo draft-graph)) "Draft graph should be empty")
+        (t/is (mgmth/draft-exists? repo (get graph-mapping not-in-draftset)) "Draft graph should exist for deleted graph")
+        (t/is (= false (mgmt/is-graph-managed? repo missing)) "Non-existent graph should not be created")))))
+
+(t/deftest delete-user-graphs-protected
+  (tc/with-system
+    [:drafter/backend]
+    [system "drafter/feature/empty-db-system.edn"]
+    (let [repo (:drafter/backend system)
+          protected-graph (URI. "http://cant-touch-this")
+          live-graph (URI. "http://live")
+          manager (create-manager repo #{protected-graph})
+          draftset-id (dsops/create-draftset! repo test-editor)]
+      (tc/make-graph-live! repo protected-graph)
+      (tc/make-graph-live! repo live-graph)
+      (t/is (thrown? Exception (delete-user-graphs manager draftset-id [live-graph protected-graph])) "Should not delete protected graph")
+      (t/is (empty? (dsops/get-draftset-graph-mapping repo draftset-id)) "Should not delete any graphs"))))
+
 (t/deftest ensure-protected-graph-draft-empty-test
   (tc/with-system
     [:drafter/backend]
@@ -1,5 +1,7 @@
 (ns drafter.backend.draftset.operations-test
   (:require [clojure.test :as t :refer :all]
+            [drafter.backend :as backend]
+            [drafter.backend.draftset.catalog :as catalog]
             [drafter.backend.draftset.operations :as sut]
             [drafter.draftset :refer [->draftset-uri ->DraftsetId ->DraftsetURI]]
             [drafter.rdf.drafter-ontology :refer :all]
@@ -21,6 +23,7 @@
             [drafter.rdf.sesame :as ses]
             [drafter.fixture-data :as fd]
             [clojure.java.io :as io]
+            [drafter.stasher :as stasher]
             [drafter.stasher-test :as stasher-test]
             [grafter-2.rdf.protocols :as pr]
             [drafter.backend.draftset.query-impl :as query-impl]))
@@ -328,6 +331,49 @@
     (let [[result _] (sut/claim-draftset! *test-backend* (->DraftsetURI "http://missing-draftset") test-publisher)]
       (is (= :not-found result)))))
 
+(deftest catalog-update-test
+  (let [backend (backend/map->DrafterService {:repo *test-backend* :catalog (catalog/create-store)})
+        current-catalog #(catalog/lookup (:catalog backend) (stasher/state-graph-version backend))
+        ids (fn [draftsets] (set (map :id draftsets)))
+        _ (sut/get-catalog backend)
+        draftset-id (sut/create-draftset! backend test-editor "Test draftset")
+        id (str draftset-id)]
+    (testing "Creating a draftset adds it to the current catalog"
+      (is (contains? (ids (catalog/draftsets-owned-by (current-catalog) test-editor)) id)))
+
+    (testing "Submitting a draftset updates its entry"
+      (sut/submit-draftset-to-permission! backend draftset-id test-editor :drafter:draft:publish)
+      (is (not (contains? (ids (catalog/draftsets-owned-by (current-catalog) test-editor)) id)))
+      (is (contains? (ids (catalog/draftsets-claimable-by (current-catalog) test-publisher)) id)))
+
+    (testing "Claiming a draftset updates its entry"
+      (sut/claim-draftset! backend draftset-id test-publisher)
+      (is (contains? (ids (catalog/draftsets-owned-by (current-catalog) test-publisher)) id))
+      (is (not (contains? (ids (catalog/draftsets-claimable-by (current-catalog) test-publisher)) id))))
+
+    (testing "The updated catalog matches a rebuilt one"
+      (is (= (catalog/build-catalog (sut/get-all-draftsets-by backend ['[[?ds :rdf/type :drafter/DraftSet]]]))
+             (current-catalog))))
+
+    (testing "Deleting a draftset removes it from the catalog"
+      (sut/delete-draftset! backend draftset-id)
+      (is (nil? (get-in (current-catalog) [:by-id id]))))
+
+    (testing "The catalog is rebuilt after a write which does not update it"
+      (sparql/update! backend "INSERT DATA { GRAPH <http://example.com/catalog-test> { <http://s> <http://p> <http://o> } }")
+      (is (nil? (current-catalog)))
+      (is (= (sut/get-catalog backend) (current-catalog))))
+
+    (testing "The catalog is not updated past a write made by another thread during an update"
+      (let [draftset-id (sut/create-draftset! backend test-editor "Concurrent write")]
+        (sut/with-catalog-update backend draftset-id
+          (sut/set-draftset-metadata! backend draftset-id {:title "Updated"})
+          (doto (Thread. ^Runnable #(sparql/update! backend "INSERT DATA { GRAPH <http://example.com/catalog-test> { <http://s2> <http://p> <http://o> } }"))
+            (.start)
+            (.join)))
+        (is (nil? (current-catalog)))
+        (is (= (sut/get-catalog backend) (current-catalog)))))))
+
 (t/deftest all-quads-query-test
   (t/testing "Operation methods"
     (let [pquery (sut/all-quads-query *test-backend*)]
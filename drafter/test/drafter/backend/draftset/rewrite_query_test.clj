@@ -175,3 +175,52 @@
     (testing "JENA-1566"
       (is-tree= "SELECT ?b WHERE { VALUES ?b { true }}"
                 (rewrite "SELECT ?b WHERE { VALUES ?b { true }}")))))
+
+(def transform-uris (uri-node-transform substitutions))
+
+(deftest apply-node-transform-test
+  (testing "Restores query clause"
+    (let [rewrite->query (partial apply-node-transform transform-uris)]
+      (are [method qstr]
+        (is (method (rewrite->query qstr)))
+        .isDescribeType            "DESCRIBE <http://foo.com/> <http://bar.com/> <http://unreplaced.com/>"
+        .isDescribeType            "DESCRIBE ?s WHERE { ?s ?p ?o }"
+        .isSelectType              "SELECT * WHERE { ?s ?p ?o }"
+        .isDistinct                "SELECT DISTINCT ?s WHERE { ?s ?p ?o }"
+        .hasLimit                  "SELECT * WHERE { ?s ?p ?o } LIMIT 10"
+        .hasDatasetDescription     "SELECT * FROM <http://foo.com> WHERE { ?s ?p ?o }"
+        .isAskType                 "ASK WHERE { ?s ?p ?o }"
+        .isConstructType           "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }"
+        has-prefix-mapping?        "PREFIX foo: <http://foo.com> SELECT * WHERE { ?s ?p ?o }"
+        has-prefix-mapping?        "PREFIX foo: <http://foo.com> DESCRIBE <http://foo.com>")))
+
+  (testing "Primitive DESCRIBE URIs are rewritten"
+    (is (= "DESCRIBE <http://foo.com/replaced> <http://bar.com/replaced> <http://unreplaced.com/>"
+           (trim (str (apply-node-transform transform-uris
+                                            "DESCRIBE <http://foo.com/> <http://bar.com/> <http://unreplaced.com/>")))))))
+
+(deftest uri-node-transform-test
+  (testing "Produces the same algebra as the SSE rewriter"
+    (are [q]
+      (= (str (->sse-item (apply-rewriter substitute-uris q)))
+         (str (->sse-item (apply-node-transform transform-uris q))))
+
+      "SELECT DISTINCT * WHERE { ?s ?p ?o } OFFSET 0 LIMIT 100"
+      "SELECT * WHERE { GRAPH <http://foo.com/> { ?s ?p ?o } GRAPH <http://unaltered.com/> { ?s ?p ?o } }"
+      "SELECT (COUNT(*) as ?count) { SELECT DISTINCT ?uri WHERE { GRAPH <http://foo.com/> { ?uri ?p ?o } } }"
+      "SELECT * WHERE { VALUES ?g { <http://foo.com/> <http://bar.com/> <http://unaltered.com/> } GRAPH ?g { ?s ?p ?o } }"
+      "SELECT * WHERE { GRAPH ?g { ?s ?p \"http://foo.com/\" } }"
+      "SELECT * WHERE { GRAPH ?g { ?s ?p ?o } FILTER(?g = <http://foo.com/>) }"
+      "SELECT ?s WHERE { BIND(URI(\"http://foo.com/\") AS ?s) }"
+      "SELECT ?b WHERE { VALUES ?b { true }}"))
+
+  (testing "URI constants in VALUES clauses are rewritten"
+    (is-tree= "SELECT * WHERE {
+                 VALUES ?g { <http://foo.com/replaced> <http://bar.com/replaced> <http://unaltered.com/> }
+                 GRAPH ?g { ?s ?p ?o }
+               }"
+              (apply-node-transform transform-uris
+                                    "SELECT * WHERE {
+                                       VALUES ?g { <http://foo.com/> <http://bar.com/> <http://unaltered.com/> }
+                                       GRAPH ?g { ?s ?p ?o }
+                                    }"))))
@@ -9,7 +9,7 @@
              :refer
              [*test-backend* test-triples wrap-system-setup]
              :as tc]
-            [drafter.util :refer [map-values]]
+            [drafter.util :as util :refer [map-values]]
             [grafter-2.rdf4j.templater :refer [triplify]]
             [grafter-2.rdf4j.repository :as repo]
             [schema.test :refer [validate-schemas]]
@@ -21,7 +21,8 @@
             [drafter.backend.draftset.operations :as dsops]
             [drafter.backend.draftset.query-impl :as query-impl]
             [drafter.fixture-data :as fd])
-  (:import java.net.URI))
+  (:import java.net.URI
+           org.eclipse.rdf4j.query.impl.MapBindingSet))
 
 (use-fixtures :each
   validate-schemas
@@ -204,6 +205,50 @@
 
         (is (some #{live-triple} (map (juxt :s :p :o) results)))))))
 
+(defn- binding-set [m]
+  (let [bs (MapBindingSet.)]
+    (doseq [[k v] m]
+      (.addBinding bs k (gio/->rdf4j-uri v)))
+    bs))
+
+(deftest binding-set-rewriter-test
+  (let [draft->live {(gio/->rdf4j-uri "http://draft") (gio/->rdf4j-uri "http://live")}
+        rewrite (binding-set-rewriter ["s" "g"] draft->live)]
+    (testing "Returns binding set unchanged if no values are mapped"
+      (let [bs (binding-set {"s" "http://subject" "g" "http://other"})]
+        (is (identical? bs (rewrite bs)))))
+
+    (testing "Rewrites mapped values"
+      (let [bs (binding-set {"s" "http://subject" "g" "http://draft"})
+            rewritten (rewrite bs)]
+        (is (= (binding-set {"s" "http://subject" "g" "http://live"}) rewritten))
+        (is (= rewritten (binding-set {"s" "http://subject" "g" "http://live"})))
+        (is (= #{"s" "g"} (set (.getBindingNames rewritten))))
+        (is (= (gio/->rdf4j-uri "http://draft") (.getValue bs "g")) "Input binding set modified")))
+
+    (testing "Omits unbound values"
+      (let [rewritten (rewrite (binding-set {"g" "http://draft"}))]
+        (is (= 1 (.size rewritten)))
+        (is (not (.hasBinding rewritten "s")))
+        (is (= (binding-set {"g" "http://live"}) rewritten))))
+
+    (testing "Rewrites binding names not in the result"
+      (is (= (binding-set {"o" "http://live"})
+             (rewrite (binding-set {"o" "http://draft"})))))))
+
+(deftest rewrite-rdf4j-statement-test
+  (let [draft->live {(gio/->rdf4j-uri "http://draft") (gio/->rdf4j-uri "http://live")}
+        stmt (fn [& uris] (apply util/create-rdf4j-statement (map gio/->rdf4j-uri uris)))]
+    (testing "Returns statement unchanged if no values are mapped"
+      (let [s (stmt "http://s" "http://p" "http://o" "http://g")]
+        (is (identical? s (rewrite-rdf4j-statement draft->live s)))))
+
+    (testing "Rewrites mapped values"
+      (is (= (stmt "http://s" "http://p" "http://live" "http://live")
+             (rewrite-rdf4j-statement draft->live (stmt "http://s" "http://p" "http://draft" "http://draft"))))
+      (is (= (stmt "http://live" "http://p" "http://o")
+             (rewrite-rdf4j-statement draft->live (stmt "http://draft" "http://p" "http://o")))))))
+
 (deftest rewritten-query-operations-test
   (tc/with-system
     [:drafter.stasher/repo]
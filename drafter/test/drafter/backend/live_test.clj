@@ -1,6 +1,14 @@
 (ns drafter.backend.live-test
   (:require [clojure.test :as t]
             [drafter.fixtures.state-1 :as state-1]
+            [drafter.backend.live :as sut]
+            [drafter.backend.draftset.operations :as dsops]
+            [drafter.backend.draftset.operations.publish :as op-publish]
+            [drafter.manager :as manager]
+            [drafter.user-test :refer [test-editor]]
+            [drafter.write-scheduler :as writes]
+            [drafter.rdf.dataset :as dataset]
+            [drafter.rdf.sparql :as sparql]
             [drafter.stasher-test :as stasher-test]
             [drafter.test-common :as tc :refer [deftest-system]]
             [drafter.rdf.drafter-ontology :refer [modified-times-graph-uri]]
@@ -59,3 +67,109 @@
             stmts (with-open [conn (repo/->connection endpoint)]
                     (set (pr/to-statements conn {:grafter.repository/infer false})))]
         (t/is (= expected-triples stmts))))))
+
+(t/deftest sync-union-graph-test
+  (let [repo (repo/sail-repo)
+        opts {:union-graph (URI. "http://union")
+              :alias-graph (URI. "http://aliases")
+              :alias-predicate (URI. "http://alias")}
+        members (fn []
+                  (->> (sparql/eager-query repo "SELECT ?g WHERE { GRAPH <http://aliases> { <http://union> <http://alias> ?g } }")
+                       (map :g)
+                       (set)))
+        g1 (URI. "http://g1")
+        g2 (URI. "http://g2")
+        g3 (URI. "http://g3")]
+    (t/testing "Adds live graphs to the union graph"
+      (sut/sync-union-graph! repo opts #{g1 g2})
+      (t/is (= #{g1 g2} (members))))
+
+    (t/testing "Adds and removes only the changed graphs"
+      (sut/sync-union-graph! repo opts #{g2 g3})
+      (t/is (= #{g2 g3} (members))))
+
+    (t/testing "Removes all graphs"
+      (sut/sync-union-graph! repo opts #{})
+      (t/is (= #{} (members))))))
+
+(t/deftest get-union-query-dataset-test
+  (let [union (URI. "http://union")
+        g1 (URI. "http://g1")
+        g2 (URI. "http://g2")
+        visible #{g1 g2}
+        empty-ds (dataset/create)]
+    (t/testing "Uses the union graph when no dataset is specified"
+      (let [ds (dataset/get-union-query-dataset empty-ds empty-ds visible union)]
+        (t/is (= #{(str union)} (set (map str (.getDefaultGraphs ds)))))
+        (t/is (= #{(str union)} (set (map str (.getNamedGraphs ds)))))))
+
+    (t/testing "Restricts a specified dataset to the visible graphs"
+      (let [user-ds (dataset/create :default-graphs [g1 (URI. "http://hidden")] :named-graphs [g2])
+            ds (dataset/get-union-query-dataset empty-ds user-ds visible union)]
+        (t/is (= #{(str g1)} (set (map str (.getDefaultGraphs ds)))))
+        (t/is (= #{(str g2)} (set (map str (.getNamedGraphs ds)))))))))
+
+(def ^:private union-graph-test-queries
+  {:default-graph "SELECT DISTINCT ?s ?p ?o WHERE { ?s ?p ?o }"
+   :graph-scoped "SELECT DISTINCT ?g ?s ?p ?o WHERE { GRAPH ?g { ?s ?p ?o } }"})
+
+(defn- union-graph-test-results [endpoint]
+  (with-open [conn (repo/->connection endpoint)]
+    (into {} (map (fn [[k q]] [k (set (repo/query conn q))])) union-graph-test-queries)))
+
+(t/deftest union-graph-query-results-test
+  (tc/with-system
+    [{repo :drafter.stasher/repo} "drafter/backend/live-test.edn"]
+    (let [lock (writes/create-writes-lock)
+          union-graph (sut/create-union-graph repo {:union-graph (URI. "http://publishmydata.com/graphs/drafter/live-union-test")} lock)
+          explicit-endpoint (sut/live-endpoint-with-stasher repo)
+          union-endpoint (sut/live-endpoint-with-stasher repo union-graph)
+          manager (manager/create-manager repo {:global-writes-lock lock :union-graph union-graph})
+          published-graph (URI. "http://example.com/live-union-test")]
+      (try
+        (t/testing "Queries are restricted with an explicit dataset until the union graph is synced"
+          (t/is (= (union-graph-test-results explicit-endpoint)
+                   (union-graph-test-results union-endpoint))))
+
+        (writes/with-lock lock :publish-write
+          (sut/sync-live-union-graph! union-graph))
+
+        (t/testing "Default graph and GRAPH queries return the same results through the union graph"
+          (t/is (:synced? @(:state union-graph)))
+          (t/is (= (union-graph-test-results explicit-endpoint)
+                   (union-graph-test-results union-endpoint))))
+
+        (let [draftset-id (dsops/create-draftset! repo test-editor)]
+          (tc/import-data-to-draft! repo published-graph (tc/test-triples) draftset-id)
+          (writes/with-lock lock :publish-write
+            (op-publish/publish-draftset! manager draftset-id)))
+
+        (t/testing "Publishing syncs the union graph with the new live graphs"
+          (t/is (:synced? @(:state union-graph)))
+          (let [results (union-graph-test-results union-endpoint)]
+            (t/is (= (union-graph-test-results explicit-endpoint) results))
+            (t/is (contains? (set (map :g (:graph-scoped results))) published-graph))))
+        (finally
+          (sut/sync-union-graph! repo (:opts union-graph) #{}))))))
+
+(t/deftest sync-live-union-graph-failure-test
+  (let [repo (doto (repo/sail-repo) (.shutDown))
+        union-graph (sut/create-union-graph repo {:union-graph (URI. "http://union")} (writes/create-writes-lock))
+        state (:state union-graph)]
+    (sut/sync-live-union-graph! union-graph)
+
+    (t/testing "A failed sync leaves the union graph out of sync until a retry delay has passed"
+      (let [{:keys [synced? failures retry-at]} @state]
+        (t/is (not synced?))
+        (t/is (= 1 failures))
+        (t/is (< (System/currentTimeMillis) retry-at))))
+
+    (t/testing "Queries fall back to an explicit dataset without retrying the sync before the retry delay"
+      (t/is (nil? ((#'sut/union-graph-restriction union-graph))))
+      (t/is (not (:syncing? @state))))
+
+    (t/testing "The retry delay doubles with each consecutive failure up to a maximum"
+      (sut/sync-live-union-graph! union-graph)
+      (t/is (= 2 (:failures @state)))
+      (t/is (= [1000 2000 4000] (map #'sut/retry-delay-ms [1 2 3])))
+      (t/is (= (* 5 60 1000) (#'sut/retry-delay-ms 100))))))
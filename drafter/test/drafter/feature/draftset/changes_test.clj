@@ -13,7 +13,8 @@
             [grafter-2.rdf4j.io :refer [statements]]
             [drafter.backend.draftset.graphs :as graphs]
             [drafter.manager :as manager])
-  (:import java.net.URI))
+  (:import java.net.URI
+           java.time.OffsetDateTime))
 
 (t/use-fixtures :each tc/with-spec-instrumentation)
 
@@ -41,6 +42,59 @@
       (t/is (= false (mgmth/draft-exists? backend draft-graph)))
       (t/is (= false (mgmt/is-graph-managed? backend draft-graph))))))
 
+(t/deftest revert-changes-from-multiple-graphs
+  (tc/with-system
+    [:drafter.stasher/repo ::graphs/manager :drafter/write-scheduler]
+    [{backend :drafter.stasher/repo graph-manager ::graphs/manager} system]
+    (let [live-graphs (map #(URI. (str "http://live/" %)) (range 3))
+          missing-graph (URI. "http://missing")
+          draftset-id (ops/create-draftset! backend test-editor)
+          draft-graphs (mapv #(graphs/create-user-graph-draft graph-manager draftset-id %) live-graphs)
+          manager (manager/create-manager backend)
+          progress (atom [])]
+      (with-redefs [sut/revert-batch-size 2]
+        (let [{:keys [reverted not-found]} (sut/revert-graphs-changes! manager draftset-id
+                                                                       (conj (vec (take 2 live-graphs)) missing-graph)
+                                                                       #(swap! progress conj [%1 %2]))]
+          (t/is (= (set (take 2 live-graphs)) (set reverted)))
+          (t/is (= [missing-graph] not-found))
+          (t/is (= [[0 2] [2 2]] @progress))
+          (t/is (= false (mgmth/draft-exists? backend (first draft-graphs))))
+          (t/is (mgmth/draft-exists? backend (last draft-graphs)))))
+
+      (t/testing "Reverts all changes when no graphs are given"
+        (let [{:keys [reverted]} (sut/revert-graphs-changes! manager draftset-id nil (constantly nil))]
+          (t/is (= [(last live-graphs)] reverted))
+          (t/is (empty? (ops/get-draftset-graph-mapping backend draftset-id))))))))
+
+(t/deftest revert-changes-batch-failure-test
+  (tc/with-system
+    [:drafter.stasher/repo ::graphs/manager :drafter/write-scheduler]
+    [{backend :drafter.stasher/repo graph-manager ::graphs/manager} system]
+    (let [live-graphs (map #(URI. (str "http://live/" %)) (range 3))
+          draftset-id (ops/create-draftset! backend test-editor)
+          draft-graphs (mapv #(graphs/create-user-graph-draft graph-manager draftset-id %) live-graphs)
+          revert-time (OffsetDateTime/parse "2030-01-01T00:00:00Z")
+          manager (manager/create-manager backend {:clock revert-time})
+          progress (atom [])
+          delete-draft-graphs! mgmt/delete-draft-graphs!
+          batches (atom 0)]
+      (with-redefs [sut/revert-batch-size 1
+                    mgmt/delete-draft-graphs! (fn [db draft-graph-uris]
+                                                (when (= 2 (swap! batches inc))
+                                                  (throw (ex-info "Batch failed" {})))
+                                                (delete-draft-graphs! db draft-graph-uris))]
+        (t/is (thrown? clojure.lang.ExceptionInfo
+                       (sut/revert-graphs-changes! manager draftset-id nil #(swap! progress conj [%1 %2])))))
+
+      (t/testing "Batches before the failure are reverted"
+        (t/is (= [[0 3] [1 3]] @progress))
+        (t/is (= 1 (count (remove #(mgmth/draft-exists? backend %) draft-graphs))))
+        (t/is (= 2 (count (ops/get-draftset-graph-mapping backend draftset-id)))))
+
+      (t/testing "The modified time is updated for the reverted batch"
+        (t/is (.isEqual revert-time (:updated-at (ops/get-draftset-info backend draftset-id))))))))
+
 (def keys-for-test [[:drafter/routes :draftset/api] :drafter.stasher/repo :drafter/write-scheduler
                     ::graphs/manager])
 
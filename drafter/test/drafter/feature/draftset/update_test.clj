@@ -55,6 +55,13 @@
   (let [req (create-update-request user draftset-location query)]
     (handler req)))
 
+(defn- submit-streamed-update
+  "Submit a streamed update request within a draftset and return the response map"
+  [handler user draftset-location query]
+  (let [req (-> (create-update-request user draftset-location query)
+                (assoc :params {:stream "true"}))]
+    (handler req)))
+
 (defn- apply-update
   "Submits an update query as a user within a draftset and asserts it applied successfully"
   [handler user draftset-location query]
@@ -125,6 +132,39 @@ INSERT DATA { GRAPH <%s> { <http://s> <http://p> <%s> } }
             ;; graph should still be live
             (t/is (= :live (tc/get-graph-state repo g)))))))))
 
+(t/deftest insert-data-into-multiple-live-graphs-test
+  (t/testing "INSERT DATA into several live graphs clones them all before rewriting the draftset once"
+    (tc/with-system
+      keys-for-test [system system-config]
+      (let [repo (:drafter/backend system)
+            handler (get system [:drafter/routes :draftset/api])
+            g1 (random-graph-uri)
+            g2 (random-graph-uri)
+            live (concat (generate-graph-triples g1 10) (generate-graph-triples g2 10))
+            new-in-g1 (generate-graph-triples g1 5)
+            new-in-g2 (generate-graph-triples g2 5)
+            new-in-draft (concat new-in-g1 new-in-g2)]
+        (help/publish-quads-through-api handler live)
+
+        (let [draftset-location (help/create-draftset-through-api handler test-publisher)
+              draftset-id (last (string/split draftset-location #"/"))
+              stmts [(jena/insert-data-stmt new-in-g1) (jena/insert-data-stmt new-in-g2)]
+              update-request (jena/->update stmts)
+              insert-query (jena/->update-string stmts)
+              graph-meta (#'update/get-graph-meta repo draftset-id update-request 50)
+              {:keys [operations]} (#'update/plan-update (.getOperations update-request) graph-meta 50)]
+          (t/is (= [10 10] (map (comp :live-size graph-meta) [g1 g2])))
+          (t/is (= [:create-live-draft :clone :create-live-draft :clone :rewrite-draftset]
+                   (map :type (take 5 operations))))
+          (t/is (= 1 (count (filter (comp #{:rewrite-draftset} :type) operations))))
+
+          (apply-update handler test-publisher draftset-location insert-query)
+
+          (let [expected (set (map pr/map->Triple (concat live new-in-draft)))
+                graph-triples (concat (help/get-draftset-graph-triples repo draftset-location g1)
+                                      (help/get-draftset-graph-triples repo draftset-location g2))]
+            (t/is (= expected (set graph-triples)))))))))
+
 (t/deftest prefix-mapping-rewrite-test
   (tc/with-system
     ;; Same test as above, but use a prefix mapping - actually works for free
@@ -203,6 +243,52 @@ INSERT DATA { GRAPH <%s> { <http://s> <http://p> d: } }
             (t/testing "Insert failed"
               (t/is (= #{} (help/get-draftset-user-quads repo draftset-location))))))))))
 
+(t/deftest streamed-update-test
+  (tc/with-system
+    keys-for-test [system system-config]
+    (let [handler (get system [:drafter/routes :draftset/api])
+          repo (:drafter/backend system)]
+      (testing "Streamed updates are not limited to the maximum payload"
+        (let [draftset-location (help/create-draftset-through-api handler test-editor)
+              quads1 (generate-quads (* 2 max-update-size))
+              quads2 (generate-quads (* 2 max-update-size))
+              stmt (jena/->update-string [(jena/insert-data-stmt quads1)
+                                          (jena/insert-data-stmt quads2)
+                                          (jena/delete-data-stmt (take max-update-size quads1))])]
+          (tc/assert-is-no-content-response
+           (submit-streamed-update handler test-editor draftset-location stmt))
+          (t/is (= (set (concat (drop max-update-size quads1) quads2))
+                   (help/get-draftset-user-quads repo draftset-location)))))
+
+      (testing "Only INSERT DATA and DELETE DATA can be streamed"
+        (let [draftset-location (help/create-draftset-through-api handler test-editor)
+              stmt (format "DROP GRAPH <%s>" (random-graph-uri))
+              response (submit-streamed-update handler test-editor draftset-location stmt)]
+          (tc/assert-is-payload-too-large-response response)))
+
+      (testing "Cannot stream into drafter's graphs"
+        (let [g (URI. "http://publishmydata.com/graphs/drafter/drafts")
+              draftset-location (help/create-draftset-through-api handler test-editor)
+              quad (pr/->Quad (URI. "http://s") (URI. "http://p") (URI. "http://o") g)
+              stmt (jena/->update-string [(jena/insert-data-stmt [quad])])
+              response (submit-streamed-update handler test-editor draftset-location stmt)]
+          (tc/assert-is-forbidden-response response)
+          (t/is (= :unmanaged (tc/get-graph-state repo g)))))
+
+      (testing "Statements must have an explicit target graph"
+        (let [draftset-location (help/create-draftset-through-api handler test-editor)
+              stmt "INSERT DATA { <http://s> <http://p> <http://o> }"
+              response (submit-streamed-update handler test-editor draftset-location stmt)]
+          (tc/assert-is-payload-too-large-response response)
+          (t/is (= #{} (help/get-draftset-user-quads repo draftset-location)))))
+
+      (testing "Invalid update syntax"
+        (let [draftset-location (help/create-draftset-through-api handler test-editor)
+              stmt "INSERT DATA { GRAPH <http://g> { <http://s> <http://p> "
+              response (submit-streamed-update handler test-editor draftset-location stmt)]
+          (tc/assert-is-bad-request-response response)
+          (t/is (= #{} (help/get-draftset-user-quads repo draftset-location))))))))
+
 (t/deftest DELETE_INSERT-max-payload-test
   (tc/with-system
     keys-for-test [system system-config]
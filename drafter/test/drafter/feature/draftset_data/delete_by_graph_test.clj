@@ -128,3 +128,21 @@
           ;; did the job delete the graph?
           (is (= 200 (:status ds-response)))
           (is (= :deleted (get-in ds-response [:body :changes graph-to-delete :status])))))))
+
+(tc/deftest-system-with-keys delete-graphs-protected-graph-test
+  keys-for-test
+  [{handler [:drafter/routes :draftset/api]} system]
+  (let [[graph quads] (first (group-by context (statements "test/resources/test-draftset.trig")))
+        draftset-location (help/create-draftset-through-api handler test-editor)]
+    (help/publish-quads-through-api handler quads)
+    (let [request (tc/with-identity test-editor {:uri (str draftset-location "/graphs")
+                                                 :request-method :delete
+                                                 :params {:graph [(str graph) (str drafter:endpoints)]}})
+          response (handler request)]
+      (testing "Protected graphs are rejected without submitting a job"
+        (tc/assert-is-forbidden-response response))
+
+      (testing "No graphs are deleted"
+        (let [ds-response (handler (tc/with-identity test-editor {:request-method :get :uri draftset-location}))]
+          (is (= 200 (:status ds-response)))
+          (is (empty? (get-in ds-response [:body :changes]))))))))
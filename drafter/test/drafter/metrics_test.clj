@@ -0,0 +1,47 @@
+(ns drafter.metrics-test
+  (:require [clojure.string :as str]
+            [clojure.test :as t]
+            [drafter.metrics :as sut]))
+
+(defn- with-registry [f]
+  (let [registry (sut/registry [0.001 0.01])]
+    (sut/add-sink! registry)
+    (try
+      (f registry)
+      (finally
+        (sut/remove-sink! registry)))))
+
+(defn- sample-lines [text]
+  (remove #(str/starts-with? % "#") (str/split-lines text)))
+
+(t/deftest record-test
+  (with-registry
+    (fn [registry]
+      (sut/record! "drafter.test.time" 500000)
+      (sut/record! "drafter.test.time" 5000000)
+      (sut/record! "drafter.test.time" 50000000)
+      (sut/record! "drafter.test.time" {:phase "parse"} 500000)
+      (let [text (sut/prometheus-text registry)]
+        (t/testing "Counts samples in cumulative buckets"
+          (t/is (= ["drafter_test_time_seconds_bucket{le=\"0.001\"} 1"
+                    "drafter_test_time_seconds_bucket{le=\"0.01\"} 2"
+                    "drafter_test_time_seconds_bucket{le=\"+Inf\"} 3"]
+                   (filter #(str/starts-with? % "drafter_test_time_seconds_bucket{le") (sample-lines text))))
+          (t/is (some #{"drafter_test_time_seconds_count 3"} (sample-lines text))))
+
+        (t/testing "Keeps a series for each set of tags"
+          (t/is (some #{"drafter_test_time_seconds_count{phase=\"parse\"} 1"} (sample-lines text))))
+
+        (t/testing "Declares each metric once"
+          (t/is (= 1 (count (re-seq #"# TYPE drafter_test_time_seconds histogram" text)))))))))
+
+(t/deftest timed-test
+  (with-registry
+    (fn [registry]
+      (t/testing "Returns the result of the body"
+        (t/is (= :result (sut/timed "drafter.test.timed" nil :result))))
+
+      (t/testing "Records the time taken when the body throws"
+        (t/is (thrown? Exception (sut/timed "drafter.test.timed" nil (throw (Exception. "failed")))))
+        (t/is (some #{"drafter_test_timed_seconds_count 2"}
+                    (sample-lines (sut/prometheus-text registry))))))))
@@ -156,6 +156,72 @@
           result (handler {:uri "/test" :request-method :post :body body-stream})]
       (is (= body-text result)))))
 
+(deftest spool-body-test
+  (let [body-text "The quick brown fox jumped"]
+    (testing "Spools body to a file and deletes it after the request"
+      (let [spooled (atom nil)
+            handler (spool-body (fn [{:keys [body]}]
+                                  (reset! spooled body)
+                                  (slurp body)))
+            result (handler {:uri "/test" :request-method :post :body (tc/string->input-stream body-text)})]
+        (is (= body-text result))
+        (is (instance? File @spooled))
+        (is (not (.exists ^File @spooled)))))
+
+    (testing "Decodes gzipped bodies"
+      (let [handler (spool-body (fn [{:keys [body headers]}]
+                                  [(slurp body) (get headers "content-encoding")]))
+            [result encoding] (handler {:uri "/test"
+                                        :request-method :post
+                                        :headers {"content-encoding" "gzip"}
+                                        :body (tc/->gzip-input-stream (.getBytes body-text))})]
+        (is (= body-text result))
+        (is (nil? encoding))))
+
+    (testing "Rejects bodies larger than the limit"
+      (let [spooler (sut/create-body-spooler {:max-body-size 5})
+            handler (spool-body spooler (constantly {:status 200}))
+            response (handler {:uri "/test" :request-method :post :body (tc/string->input-stream body-text)})]
+        (is (= 413 (:status response)))))
+
+    (testing "Limit applies to decoded body"
+      (let [spooler (sut/create-body-spooler {:max-body-size 100})
+            handler (spool-body spooler (constantly {:status 200}))
+            response (handler {:uri "/test"
+                               :request-method :post
+                               :headers {"content-encoding" "gzip"}
+                               :body (tc/->gzip-input-stream (byte-array 1000))})]
+        (is (= 413 (:status response)))))
+
+    (testing "Checks Content-MD5"
+      (let [handler (spool-body (constantly {:status 200}))
+            md5 (.encodeToString (java.util.Base64/getEncoder)
+                                 (.digest (java.security.MessageDigest/getInstance "MD5") (.getBytes body-text)))]
+        (is (= 200 (:status (handler {:uri "/test"
+                                      :request-method :post
+                                      :headers {"content-md5" md5}
+                                      :body (tc/string->input-stream body-text)}))))
+        (is (= 422 (:status (handler {:uri "/test"
+                                      :request-method :post
+                                      :headers {"content-md5" md5}
+                                      :body (tc/string->input-stream "something else")}))))))
+
+    (testing "Keeps body released to a job until the job completes"
+      (let [spooler (sut/create-body-spooler {})
+            job (promise)
+            spooled (atom nil)
+            handler (spool-body spooler (fn [{:keys [body] :as request}]
+                                          (reset! spooled body)
+                                          (release-spooled-body-after! request job)
+                                          {:status 202}))]
+        (handler {:uri "/test" :request-method :post :body (tc/string->input-stream body-text)})
+        (is (.exists ^File @spooled))
+        (#'sut/sweep-spooled-bodies! spooler)
+        (is (.exists ^File @spooled))
+        (deliver job :done)
+        (#'sut/sweep-spooled-bodies! spooler)
+        (is (not (.exists ^File @spooled)))))))
+
 (deftest negotiate-sparql-results-content-type-with-test
   (testing "Negotiation succeeds"
     (let [format RDFFormat/NTRIPLES
@@ -0,0 +1,117 @@
+(ns drafter.rdf.admission-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [drafter.rdf.admission :as sut]))
+
+(defn- controller
+  ([] (controller {}))
+  ([opts]
+   (sut/create-admission-controller
+    (merge {:lanes {:public {:max-concurrent 1 :max-queue 1}
+                    :draftset {:max-concurrent 1 :max-queue 1}}
+            :max-concurrent-per-user 1}
+           opts))))
+
+(deftest admit-test
+  (testing "Admits queries up to the lane limit"
+    (let [c (controller)
+          release! (sut/admit! c :public nil 0)]
+      (is (fn? release!))
+      (is (= :queue-timeout (sut/admit! c :public nil 10)))
+      (release!)
+      (is (fn? (sut/admit! c :public nil 0)))))
+
+  (testing "Lanes are independent"
+    (let [c (controller)]
+      (is (fn? (sut/admit! c :draftset nil 0)))
+      (is (fn? (sut/admit! c :public nil 0)))))
+
+  (testing "Releasing more than once only frees one slot"
+    (let [c (controller {:lanes {:public {:max-concurrent 2 :max-queue 1}
+                                 :draftset {:max-concurrent 1 :max-queue 1}}})
+          release! (sut/admit! c :public nil 0)]
+      (release!)
+      (release!)
+      (is (fn? (sut/admit! c :public nil 0)))
+      (is (fn? (sut/admit! c :public nil 0)))
+      (is (= :queue-timeout (sut/admit! c :public nil 0)))))
+
+  (testing "Lanes without a queue admit queries while a slot is free"
+    (let [c (controller {:lanes {:public {:max-concurrent 1 :max-queue 0}
+                                 :draftset {:max-concurrent 1 :max-queue 0}}})
+          release! (sut/admit! c :public nil 1000)]
+      (is (fn? release!))
+      (release!)
+      (is (fn? (sut/admit! c :public nil 1000)))))
+
+  (testing "Rejects immediately when the queue is full"
+    (let [c (controller {:lanes {:public {:max-concurrent 1 :max-queue 0}
+                                 :draftset {:max-concurrent 1 :max-queue 0}}})
+          _ (sut/admit! c :public nil 0)
+          start (System/currentTimeMillis)]
+      (is (= :queue-full (sut/admit! c :public nil 1000)))
+      (is (< (- (System/currentTimeMillis) start) 1000))))
+
+  (testing "Limits concurrent queries per user across lanes"
+    (let [c (controller)]
+      (is (fn? (sut/admit! c :public "user@example.com" 0)))
+      (is (= :user-limit (sut/admit! c :draftset "user@example.com" 0)))
+      (is (fn? (sut/admit! c :draftset "other@example.com" 0)))))
+
+  (testing "Rejects users at their limit without waiting"
+    (let [c (controller)
+          _ (sut/admit! c :public "user@example.com" 0)
+          start (System/currentTimeMillis)]
+      (is (= :user-limit (sut/admit! c :draftset "user@example.com" 5000)))
+      (is (< (- (System/currentTimeMillis) start) 1000))))
+
+  (testing "Only tracks users with running queries"
+    (let [c (controller)
+          release! (sut/admit! c :public "user@example.com" 0)]
+      (is (= 1 (count (:user-queries c))))
+      (release!)
+      (is (empty? (:user-queries c)))
+      (sut/admit! c :public nil 0)
+      (is (= :queue-timeout (sut/admit! c :public "other@example.com" 0)))
+      (is (empty? (:user-queries c)))))
+
+  (testing "Concurrent queries never exceed the queue limit"
+    (let [c (controller {:lanes {:public {:max-concurrent 1 :max-queue 2}
+                                 :draftset {:max-concurrent 1 :max-queue 1}}})
+          release! (sut/admit! c :public nil 0)
+          start (java.util.concurrent.CountDownLatch. 1)
+          attempts (doall (for [_ (range 10)]
+                            (future
+                              (.await start)
+                              (sut/admit! c :public nil 500))))]
+      (.countDown start)
+      (is (= {:queue-full 8 :queue-timeout 2}
+             (frequencies (map deref attempts))))
+      (release!)))
+
+  (testing "Rejects when the expected wait exceeds the deadline"
+    (let [c (controller)
+          release! (sut/admit! c :public nil 0)]
+      (Thread/sleep 50)
+      (release!)
+      (sut/admit! c :public nil 0)
+      (is (= :deadline-exceeded (sut/admit! c :public nil 10))))))
+
+(deftest wrap-admission-control-test
+  (let [c (controller)
+        handler (sut/wrap-admission-control c :public (constantly {:status 200 :body "ok"}))
+        request {:sparql {:timeout 1}}]
+    (testing "Passes admitted queries to the inner handler"
+      (is (= 200 (:status (handler request)))))
+
+    (testing "Releases the slot once a non-streamed response is returned"
+      (is (= 200 (:status (handler request)))))
+
+    (testing "Returns service unavailable when rejected"
+      (let [release! (sut/admit! c :public nil 0)
+            response (handler {:sparql {:timeout 0}})]
+        (is (= 503 (:status response)))
+        (release!))))
+
+  (testing "Returns the inner handler when no controller is configured"
+    (let [inner (constantly {:status 200})]
+      (is (identical? inner (sut/wrap-admission-control nil :public inner))))))
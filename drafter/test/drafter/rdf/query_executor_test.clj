@@ -0,0 +1,86 @@
+(ns drafter.rdf.query-executor-test
+  (:require [clojure.test :refer [deftest is testing]]
+            [drafter.rdf.query-executor :as sut]
+            [ring.core.protocols :as ring-protocols])
+  (:import [java.io ByteArrayOutputStream IOException OutputStream]
+           [java.util.concurrent CountDownLatch Semaphore TimeUnit]))
+
+(defn- query-executor [opts]
+  (sut/create-query-executor (merge {:max-concurrent-queries 1
+                                     :acquire-timeout-ms 10
+                                     :body-timeout-ms 100}
+                                    opts)))
+
+(defn- available-permits [{:keys [^Semaphore permits]}]
+  (.availablePermits permits))
+
+(defn- await-permits
+  "Waits up to a second for n permits to be available"
+  [executor n]
+  (loop [attempts 100]
+    (when (and (pos? attempts) (not= n (available-permits executor)))
+      (Thread/sleep 10)
+      (recur (dec attempts))))
+  (available-permits executor))
+
+(deftest submit!-test
+  (let [executor (query-executor {})]
+    (try
+      (testing "Refuses queries after the acquire timeout when no slot is free"
+        (let [release (CountDownLatch. 1)
+              task (sut/submit! executor #(.await release))
+              start (System/nanoTime)]
+          (is (some? task))
+          (is (nil? (sut/submit! executor (constantly nil))))
+          (is (< (- (System/nanoTime) start) (.toNanos TimeUnit/SECONDS 1)))
+          (.countDown release)
+          (is (= 1 (await-permits executor 1)))))
+
+      (testing "Cancelling a queued or running task releases its slot once"
+        (let [task (sut/submit! executor #(Thread/sleep 10000))]
+          (sut/cancel! task)
+          (sut/cancel! task)
+          (is (= 1 (await-permits executor 1)))))
+      (finally
+        (.shutdownNow (:executor executor))))))
+
+(deftest streaming-body-test
+  (let [executor (query-executor {})]
+    (try
+      (testing "Writes the task output to the response stream"
+        (let [target (promise)
+              task (sut/submit! executor
+                                (fn []
+                                  (with-open [os (sut/deferred-output-stream target 1000)]
+                                    (.write os (.getBytes "result")))))
+              os (ByteArrayOutputStream.)]
+          (ring-protocols/write-body-to-stream (sut/streaming-body target task 1000) {} os)
+          (is (= "result" (String. (.toByteArray os))))
+          (is (= 1 (await-permits executor 1)))))
+
+      (testing "Releases the slot if the body is never written"
+        (let [target (promise)
+              task (sut/submit! executor
+                                (fn []
+                                  (with-open [os (sut/deferred-output-stream target (:body-timeout-ms executor))]
+                                    (.write os (.getBytes "result")))))]
+          (is (some? task))
+          (is (= 0 (available-permits executor)))
+          (is (= 1 (await-permits executor 1)))))
+
+      (testing "Cancels the task and releases the slot if writing the body fails"
+        (let [target (promise)
+              task (sut/submit! executor
+                                (fn []
+                                  (let [os (sut/deferred-output-stream target 1000)]
+                                    (.write os (.getBytes "result"))
+                                    (Thread/sleep 10000))))
+              failing (proxy [OutputStream] []
+                        (write
+                          ([_b] (throw (IOException. "Client disconnected")))
+                          ([_b _off _len] (throw (IOException. "Client disconnected")))))]
+          (ring-protocols/write-body-to-stream (sut/streaming-body target task 1000) {} failing)
+          (is (.isDone ^java.util.concurrent.Future (:future task)))
+          (is (= 1 (await-permits executor 1)))))
+      (finally
+        (.shutdownNow (:executor executor))))))
@@ -3,14 +3,18 @@
             [clojure.test :refer [deftest is testing join-fixtures use-fixtures]]
             [drafter.backend.common :as bcom]
             [drafter.rdf.sparql :as sparql]
+            [drafter.rdf.query-executor :as qe]
             [drafter.rdf.sparql-protocol :as sut]
             [drafter.util :as util]
             [drafter.test-common :as tc]
             [grafter-2.rdf4j.io :as rio]
             [grafter-2.rdf4j.repository :as repo]
+            [ring.core.protocols :as ring-protocols]
             [schema.test :refer [validate-schemas]])
-  (:import java.net.URI
-           [java.util.concurrent CountDownLatch TimeUnit]))
+  (:import java.io.ByteArrayOutputStream
+           java.net.URI
+           [java.util.concurrent CountDownLatch TimeUnit]
+           org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat))
 
 (use-fixtures :each tc/with-spec-instrumentation)
 
@@ -156,6 +160,46 @@
           (is (= [["g" "s" "p" "o"]]
                 (csv/parse-csv (tc/stream->string (:body res))))))))))
 
+(defn- write-body->string [response body]
+  (let [os (ByteArrayOutputStream.)]
+    (ring-protocols/write-body-to-stream body response os)
+    (String. (.toByteArray os) "UTF-8")))
+
+(deftest sparql-end-point-query-executor-test
+  (let [query-executor (qe/create-query-executor {:max-concurrent-queries 1 :buffer-size 16})
+        end-point (sut/sparql-end-point "/live/sparql" tc/*test-backend* sut/default-query-timeout-fn
+                                        {:query-executor query-executor})
+        request {:request-method :get
+                 :uri "/live/sparql"
+                 :query-params {"query" "SELECT * WHERE { ?s ?p ?o } LIMIT 10"}
+                 :headers {"accept" "text/csv"}}]
+    (try
+      (testing "Streams results to the response output stream"
+        (let [{:keys [status headers body] :as response} (end-point request)]
+          (is (= 200 status))
+          (is (= "text/csv" (headers "Content-Type")))
+          (let [csv-result (csv/parse-csv (write-body->string response body))]
+            (is (= ["s" "p" "o"] (first csv-result)))
+            (is (= ["http://test.com/data/one" "http://test.com/hasProperty" "http://test.com/data/1"]
+                   (second csv-result))))))
+
+      (testing "Returns service unavailable when no query slot is free"
+        (let [{:keys [permits]} query-executor]
+          (.acquire permits)
+          (try
+            (with-open [conn (repo/->connection tc/*test-backend*)]
+              (let [pquery (repo/prepare-query conn "SELECT * WHERE { ?s ?p ?o }")
+                    handler (sut/bounded-sparql-execution-handler query-executor)]
+                (.setMaxExecutionTime pquery 0)
+                (tc/assert-is-service-unavailable-response
+                 (handler {:sparql {:prepared-query pquery
+                                    :format TupleQueryResultFormat/CSV
+                                    :response-content-type "text/csv"}}))))
+            (finally
+              (.release permits)))))
+      (finally
+        (.shutdownNow (:executor query-executor))))))
+
 (defn get-spo-set [triples]
   (set (map (fn [{:keys [s p o]}] [s p o]) triples)))
 
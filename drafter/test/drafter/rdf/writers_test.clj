@@ -0,0 +1,55 @@
+(ns drafter.rdf.writers-test
+  (:require [clojure.test :as t]
+            [drafter.rdf.formats :refer [csv-rdf-format tsv-rdf-format]]
+            [drafter.rdf.writers :as sut])
+  (:import java.io.ByteArrayOutputStream
+           org.eclipse.rdf4j.model.impl.SimpleValueFactory
+           org.eclipse.rdf4j.model.vocabulary.XSD
+           org.eclipse.rdf4j.query.resultio.text.csv.SPARQLResultsCSVWriter
+           org.eclipse.rdf4j.query.resultio.text.tsv.SPARQLResultsTSVWriter
+           org.eclipse.rdf4j.rio.RDFWriter))
+
+(def ^:private vf (SimpleValueFactory/getInstance))
+
+(defn- iri [s] (.createIRI vf s))
+
+(def statements
+  (let [s (iri "http://example.com/s")
+        p (iri "http://example.com/p")]
+    (map (fn [o] (.createStatement vf s p o))
+         [(iri "http://example.com/o")
+          (iri "http://example.com/o,with,commas")
+          (.createBNode vf "b1")
+          (.createLiteral vf "plain")
+          (.createLiteral vf "comma, separated")
+          (.createLiteral vf "\"quoted\" and \\ backslash")
+          (.createLiteral vf "line\nbreak\r\tand tab")
+          (.createLiteral vf "chat" "fr")
+          (.createLiteral vf "42" XSD/INTEGER)
+          (.createLiteral vf "042" XSD/INT)
+          (.createLiteral vf "1.50" XSD/DECIMAL)
+          (.createLiteral vf "1e3" XSD/DOUBLE)
+          (.createLiteral vf "not a number" XSD/INTEGER)
+          (.createLiteral vf "2019-01-01" XSD/DATE)
+          (.createLiteral vf "ünïcödé")])))
+
+(defn- write-all [^RDFWriter writer out]
+  (.startRDF writer)
+  (doseq [st statements]
+    (.handleStatement writer st))
+  (.endRDF writer)
+  (.toString ^ByteArrayOutputStream out "UTF-8"))
+
+(t/deftest csv-rdf-writer-test
+  (t/testing "Writes the same output as the SPARQL results CSV writer"
+    (let [expected-out (ByteArrayOutputStream.)
+          actual-out (ByteArrayOutputStream.)]
+      (t/is (= (write-all (sut/query-result-writer->rdf-writer csv-rdf-format (SPARQLResultsCSVWriter. expected-out)) expected-out)
+               (write-all (sut/csv-rdf-writer actual-out) actual-out))))))
+
+(t/deftest tsv-rdf-writer-test
+  (t/testing "Writes the same output as the SPARQL results TSV writer"
+    (let [expected-out (ByteArrayOutputStream.)
+          actual-out (ByteArrayOutputStream.)]
+      (t/is (= (write-all (sut/query-result-writer->rdf-writer tsv-rdf-format (SPARQLResultsTSVWriter. expected-out)) expected-out)
+               (write-all (sut/tsv-rdf-writer actual-out) actual-out))))))
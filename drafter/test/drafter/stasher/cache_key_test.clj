@@ -0,0 +1,51 @@
+(ns drafter.stasher.cache-key-test
+  (:require [clojure.test :as t]
+            [drafter.stasher.cache-key :as sut]
+            [drafter.util :as util])
+  (:import java.net.URI))
+
+(def graphs {:default-graphs #{"http://graphs/1" "http://graphs/2" "http://graphs/3"}
+             :named-graphs #{"http://graphs/2" "http://graphs/3"}})
+
+(t/deftest dataset-digest-test
+  (t/testing "Digest does not depend on the order of the graphs"
+    (t/is (= (sut/dataset-digest graphs)
+             (sut/dataset-digest {:default-graphs ["http://graphs/3" "http://graphs/1" "http://graphs/2"]
+                                  :named-graphs ["http://graphs/3" "http://graphs/2"]}))))
+
+  (t/testing "Digest does not depend on the representation of the graphs"
+    (t/is (= (sut/dataset-digest graphs)
+             (sut/dataset-digest (-> graphs
+                                     (update :default-graphs #(set (map util/uri->rdf4j-uri %)))
+                                     (update :named-graphs #(set (map (fn [g] (URI. g)) %))))))))
+
+  (t/testing "Default and named graphs are distinguished"
+    (t/is (not= (sut/dataset-digest graphs)
+                (sut/dataset-digest {:default-graphs (:named-graphs graphs)
+                                     :named-graphs (:default-graphs graphs)}))))
+
+  (t/testing "Digest changes when graphs are added or removed"
+    (t/is (not= (sut/dataset-digest graphs)
+                (sut/dataset-digest (update graphs :default-graphs conj "http://graphs/4"))))
+    (t/is (not= (sut/dataset-digest graphs)
+                (sut/dataset-digest (update graphs :named-graphs disj "http://graphs/2")))))
+
+  (t/testing "Empty datasets"
+    (t/is (= (sut/dataset-digest {:default-graphs #{} :named-graphs #{}})
+             (sut/dataset-digest nil)))
+    (t/is (not= (sut/dataset-digest nil)
+                (sut/dataset-digest {:default-graphs #{""} :named-graphs #{}})))))
+
+(t/deftest static-component-test
+  (let [key {:dataset graphs
+             :query-type :tuple
+             :query-str "SELECT * WHERE { ?s ?p ?o }"
+             :last-modified {:livemod (java.time.OffsetDateTime/parse "2018-04-16T16:23:18.000-00:00")}}]
+    (t/testing "Keys with the dataset graphs or their digest have the same static component"
+      (t/is (= (pr-str (sut/static-component key))
+               (pr-str (sut/static-component (assoc key :dataset (sut/dataset-digest graphs)))))))
+
+    (t/testing "Static component does not include the modified times"
+      (t/is (= (sut/static-component key)
+               (sut/static-component (assoc-in key [:last-modified :livemod]
+                                               (java.time.OffsetDateTime/parse "2019-04-16T16:23:18.000-00:00"))))))))
@@ -0,0 +1,58 @@
+(ns drafter.stasher.executor-test
+  (:require [clojure.test :as t]
+            [drafter.stasher.executor :as sut])
+  (:import [java.util.concurrent CountDownLatch ExecutorService ThreadPoolExecutor TimeUnit]))
+
+(def pool-opts {:core-pool-size 1
+                :max-pool-size 1
+                :keep-alive-time-ms 1000
+                :queue-size 1})
+
+(t/deftest submit!-test
+  (let [pool (sut/thread-pool pool-opts)
+        release (CountDownLatch. 1)
+        ran (CountDownLatch. 2)
+        task (fn []
+               (.await release)
+               (.countDown ran))]
+    (try
+      (t/testing "Accepts tasks while there are free threads or queue space"
+        (t/is (true? (sut/submit! pool task)))
+        (t/is (true? (sut/submit! pool task))))
+
+      (t/testing "Reports rejection when saturated"
+        (t/is (false? (sut/submit! pool task))))
+
+      (t/testing "Runs accepted tasks"
+        (.countDown release)
+        (t/is (.await ran 5 TimeUnit/SECONDS)))
+      (finally
+        (.shutdown pool)))))
+
+(t/deftest execute!-test
+  (let [pool (doto (sut/thread-pool pool-opts) (.shutdown))
+        ran-on (promise)]
+    (t/testing "Runs tasks rejected by a saturated executor on an overflow thread"
+      (sut/execute! pool #(deliver ran-on (Thread/currentThread)))
+      (let [^Thread t (deref ran-on 5000 nil)]
+        (t/is (some? t))
+        (t/is (not= (Thread/currentThread) t))
+        (t/is (.isDaemon t))))))
+
+(t/deftest executor-test
+  (t/testing "Uses a bounded thread pool by default"
+    (let [exec (sut/executor pool-opts)]
+      (try
+        (t/is (instance? ThreadPoolExecutor exec))
+        (finally
+          (.shutdown exec)))))
+
+  (t/testing "Uses virtual threads when requested and supported"
+    (let [^ExecutorService exec (sut/executor (assoc pool-opts :virtual-threads? true))]
+      (try
+        (if-let [^ExecutorService vexec (sut/virtual-thread-executor)]
+          (do (.shutdown vexec)
+              (t/is (not (instance? ThreadPoolExecutor exec))))
+          (t/is (instance? ThreadPoolExecutor exec)))
+        (finally
+          (.shutdown exec))))))
@@ -0,0 +1,48 @@
+(ns drafter.stasher.http-test
+  (:require [clojure.test :as t]
+            [drafter.stasher.http :as sut])
+  (:import [org.apache.http HttpVersion]
+           org.apache.http.client.entity.GzipCompressingEntity
+           org.apache.http.entity.StringEntity
+           [org.apache.http.message BasicHttpEntityEnclosingRequest BasicHttpResponse]
+           org.apache.http.protocol.BasicHttpContext))
+
+(defn- response [& headers]
+  (let [resp (BasicHttpResponse. HttpVersion/HTTP_1_1 200 "OK")]
+    (doseq [[k v] (partition 2 headers)]
+      (.addHeader resp k v))
+    resp))
+
+(t/deftest keep-alive-strategy-test
+  (let [strategy (sut/keep-alive-strategy 30000)]
+    (t/testing "Uses the timeout from the Keep-Alive header"
+      (t/is (= 5000 (.getKeepAliveDuration strategy (response "Keep-Alive" "timeout=5, max=100") (BasicHttpContext.)))))
+
+    (t/testing "Uses the default without a Keep-Alive header"
+      (t/is (= 30000 (.getKeepAliveDuration strategy (response) (BasicHttpContext.)))))))
+
+(defn- post [body]
+  (doto (BasicHttpEntityEnclosingRequest. "POST" "/update")
+    (.setEntity (StringEntity. ^String body))))
+
+(t/deftest gzip-request-interceptor-test
+  (let [interceptor (sut/gzip-request-interceptor 100)]
+    (t/testing "Compresses large request bodies"
+      (let [request (post (apply str (repeat 200 "a")))]
+        (.process interceptor request (BasicHttpContext.))
+        (t/is (instance? GzipCompressingEntity (.getEntity request)))))
+
+    (t/testing "Does not compress small request bodies"
+      (let [request (post "update=1")]
+        (.process interceptor request (BasicHttpContext.))
+        (t/is (instance? StringEntity (.getEntity request)))))))
+
+(t/deftest connection-manager-test
+  (let [pool (sut/connection-manager (assoc sut/default-opts
+                                            :grafter.http/max-conn-total 7
+                                            :grafter.http/max-conn-per-route 3))]
+    (try
+      (t/is (= 7 (.getMaxTotal pool)))
+      (t/is (= 3 (.getDefaultMaxPerRoute pool)))
+      (finally
+        (.shutdown pool)))))
@@ -3,6 +3,8 @@
    [clojure.java.io :as io]
    [clojure.test :as t]
    [drafter.stasher :as sut]
+   [drafter.stasher.cache-key :as ck]
+   [drafter.stasher.executor :as executor]
    [drafter.stasher.filecache :as fc]
    [drafter.stasher.formats :as formats]
    [drafter.test-common :as tc :refer [with-system deftest-system]]
@@ -54,7 +56,8 @@
                                                  fmt)]
       (let [writer (rio/rdf-writer in-stream :format fmt)]
         (pr/add writer test-triples)
-        (.endRDF writer)))))
+        (.endRDF writer)))
+    cache-key))
 
 (def basic-construct-query "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o . }")
 
@@ -70,6 +73,45 @@
       (t/is (= test-triples
                (repo/query (repo/->connection repo) query-str :default-graph "http://fake-graph.com/"))))))
 
+(deftest-system stasher-cache-hit-saturated-thread-pool-test
+  [{:keys [drafter.stasher/repo drafter.stasher/cache]}
+   "drafter/stasher-test/stasher-repo-return-cache-hit-test.edn"]
+  (t/testing "Cache hits are streamed from an overflow thread when the thread pool rejects the read"
+    (let [dataset (repo/make-restricted-dataset :default-graph "http://fake-graph.com/")
+          cache-key (sneak-rdf-file-into-cache! cache repo dataset basic-construct-query)
+          saturated (doto (executor/thread-pool {:core-pool-size 1
+                                                 :max-pool-size 1
+                                                 :keep-alive-time-ms 1000
+                                                 :queue-size 1})
+                      (.shutdown))
+          result (sut/get-result (assoc cache :thread-pool saturated) cache-key "http://fake-graph.com/")]
+      (t/is (= (count test-triples) (count (into [] result)))))))
+
+
+(deftest-system state-graph-version-test
+  [{:keys [drafter.stasher/repo]}
+   "drafter/stasher-test/stasher-repo-return-cache-hit-test.edn"]
+  (let [version (sut/state-graph-version repo)]
+    (t/testing "The version is unchanged without writes"
+      (t/is (some? version))
+      (t/is (identical? version (sut/state-graph-version repo))))
+
+    (t/testing "Writes create a single new version when it is next read"
+      (with-open [conn (repo/->connection repo)]
+        (dotimes [_ 3]
+          (pr/update! conn "INSERT DATA { GRAPH <http://fake-graph.com/> { <http://foo> <http://is/a> <http://is/triple> } }")))
+      (let [new-version (sut/state-graph-version repo)]
+        (t/is (not= version new-version))
+        (t/is (identical? new-version (sut/state-graph-version repo)))))
+
+    (t/testing "Writes are counted, and by the writing thread when bound"
+      (let [writes (sut/state-graph-writes repo)
+            thread-writes (volatile! 0)]
+        (binding [sut/*thread-writes* thread-writes]
+          (with-open [conn (repo/->connection repo)]
+            (pr/update! conn "INSERT DATA { GRAPH <http://fake-graph.com/> { <http://bar> <http://is/a> <http://is/triple> } }")))
+        (t/is (= 1 @thread-writes))
+        (t/is (= (inc writes) (sut/state-graph-writes repo)))))))
 
 (defmulti parse-query-type type)
 
@@ -305,6 +347,52 @@
       (t/is (= (pr-str (sut/graphs->edn (sut/dataset->graphs ds-1)))
                (pr-str (sut/graphs->edn (sut/dataset->graphs ds-2))))))))
 
+(t/deftest cached-dataset-digest-test
+  (let [graphs {:default-graphs ["http://foo" "http://bar"]
+                :named-graphs ["http://foo"]}
+        dataset (fn [{:keys [default-graphs named-graphs]}]
+                  (let [ds (SimpleDataset.)]
+                    (doseq [g default-graphs]
+                      (.addDefaultGraph ds (util/uri->rdf4j-uri g)))
+                    (doseq [g named-graphs]
+                      (.addNamedGraph ds (util/uri->rdf4j-uri g)))
+                    ds))
+        digests (sut/dataset-digest-cache)
+        version-1 {:time (OffsetDateTime/parse "2019-01-25T01:01:01Z")
+                   :version (util/version)}
+        version-2 {:time (OffsetDateTime/parse "2019-01-25T01:01:02Z")
+                   :version (util/version)}]
+
+    (t/testing "Returns the digest of the dataset graphs"
+      (t/is (= (ck/dataset-digest graphs)
+               (sut/cached-dataset-digest digests version-1 (dataset graphs))
+               (sut/cached-dataset-digest nil version-1 (dataset graphs)))))
+
+    (t/testing "Caches digests for the same graphs in a new dataset"
+      (let [reordered (dataset {:default-graphs ["http://bar" "http://foo"]
+                                :named-graphs ["http://foo"]})]
+        (t/is (= (ck/dataset-digest graphs)
+                 (sut/cached-dataset-digest digests version-1 reordered)))
+        (t/is (= 1 (count (:digests @digests))))))
+
+    (t/testing "Different graphs have different digests"
+      (let [other {:default-graphs ["http://foo"]
+                   :named-graphs ["http://foo" "http://bar"]}]
+        (t/is (= (ck/dataset-digest other)
+                 (sut/cached-dataset-digest digests version-1 (dataset other))))
+        (t/is (not= (ck/dataset-digest graphs) (ck/dataset-digest other)))
+        (t/is (= 2 (count (:digests @digests))))))
+
+    (t/testing "Cache is emptied for a new version"
+      (t/is (= (ck/dataset-digest graphs)
+               (sut/cached-dataset-digest digests version-2 (dataset graphs))))
+      (t/is (= version-2 (:version @digests)))
+      (t/is (= 1 (count (:digests @digests)))))
+
+    (t/testing "Digest of a nil dataset"
+      (t/is (= (ck/dataset-digest nil)
+               (sut/cached-dataset-digest digests version-2 nil))))))
+
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
 ;; Drafter State Graph Stashing
 ;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;;
@@ -431,16 +519,52 @@
                                                  conn))]
 
     (let [{:keys [dataset query-str last-modified]} result]
-      (t/is (=
-             {:default-graphs #{"http://live-and-ds1-and-ds2" "http://live-only"},
-              :named-graphs #{"http://live-and-ds1-and-ds2" "http://live-only"}}
-             dataset))
+      (t/is (= (ck/dataset-digest
+                {:default-graphs #{"http://live-and-ds1-and-ds2" "http://live-only"},
+                 :named-graphs #{"http://live-and-ds1-and-ds2" "http://live-only"}})
+               dataset))
       (t/is (= basic-construct-query
                query-str))
       (t/is (= last-modified
                {:livemod (OffsetDateTime/parse "2017-02-02T02:02:02.000-00:00")
                 :version (util/version "819a18bc-f832-48b9-81f0-082609da44e8")})))))
 
+(t/deftest is-state-graph?-test
+  (let [state-graph "http://publishmydata.com/graphs/drafter/drafts"]
+    (t/testing "Datasets containing the state graph"
+      (t/is (sut/is-state-graph? (edn->dataset {:default-graphs [state-graph]})))
+      (t/is (sut/is-state-graph? (doto (SimpleDataset.)
+                                   (.addNamedGraph (util/uri->rdf4j-uri state-graph))))))
+
+    (t/testing "Datasets not containing the state graph"
+      (t/is (not (sut/is-state-graph? (SimpleDataset.))))
+      (t/is (not (sut/is-state-graph? (edn->dataset {:default-graphs [live-graph-1 live-graph-only]})))))
+
+    (t/testing "Cache keys for the state graph do not query the store"
+      (let [dataset (edn->dataset {:default-graphs [state-graph live-graph-1]})
+            cache {:dataset-digests (sut/dataset-digest-cache)}
+            key (sut/generate-drafter-cache-key fixed-last-modified :graph cache basic-construct-query dataset nil)]
+        (t/is (= fixed-last-modified (:state-graph-last-modified key)))))))
+
+(deftest-system state-graph-query-cache-test
+  [{:keys [drafter.stasher/repo]}
+   "drafter/stasher-test/stasher-repo-return-cache-hit-test.edn"]
+  ;; the state graph has no modified times of its own, so only the state
+  ;; graph version can invalidate cached queries against it
+  (t/testing "Cached queries against the state graph see later writes to it"
+    (let [state-graph "http://publishmydata.com/graphs/drafter/drafts"
+          query-str "SELECT ?o WHERE { <http://stasher-test/s> <http://stasher-test/p> ?o }"
+          insert! (fn [o]
+                    (with-open [conn (repo/->connection repo)]
+                      (pr/update! conn (format "INSERT DATA { GRAPH <%s> { <http://stasher-test/s> <http://stasher-test/p> \"%s\" } }" state-graph o))))
+          objects (fn []
+                    (with-open [conn (repo/->connection repo)]
+                      (set (map (comp str :o) (repo/query conn query-str :default-graph state-graph)))))]
+      (insert! "a")
+      (t/is (= #{"a"} (objects)))
+      (insert! "b")
+      (t/is (= #{"a" "b"} (objects))))))
+
 (defn- prepare-query
   "Prepares an RDF4j query from a connection with the specified bindings set"
   ([conn query-string]
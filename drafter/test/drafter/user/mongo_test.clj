@@ -14,7 +14,7 @@
         user-collection "Users"]
     (mg/drop-db conn db-name)
     (let [user-db (mg/get-db conn db-name)]
-      (with-open [repo (um/->MongoUserRepository conn user-db user-collection)]
+      (with-open [repo (um/->MongoUserRepository conn user-db user-collection nil)]
         (binding [*user-repo* repo]
           (test-function))))))
 